@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.bench;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is an immutable Request backed by maps, so that a benchmark
+ * can replay the same request without any servlet container.
+ */
+public class BenchRequest implements Request {
+
+	private final Map<String, String> parameters;
+	private final Map<String, String> headers;
+
+	/**
+	 * Initialize this instance.
+	 * @param parameters The request parameters.
+	 * @param headers The request headers.
+	 */
+	public BenchRequest(Map<String, String> parameters, Map<String, String> headers) {
+		super();
+		this.parameters = Collections.unmodifiableMap(new HashMap<String, String>(parameters));
+		this.headers = Collections.unmodifiableMap(new HashMap<String, String>(headers));
+	}
+
+	/**
+	 * Create a builder of the request.
+	 * @return The builder instance.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String getParameter(String name) {
+		return parameters.get(name);
+	}
+
+	@Override
+	public Map<String, String> getParameterMap() {
+		return parameters;
+	}
+
+	@Override
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * This class builds a BenchRequest.
+	 */
+	public static class Builder {
+
+		private final Map<String, String> parameters = new HashMap<String, String>();
+		private final Map<String, String> headers = new HashMap<String, String>();
+
+		/**
+		 * Add a request parameter.
+		 * @param name The parameter name.
+		 * @param value The parameter value.
+		 * @return This builder.
+		 */
+		public Builder param(String name, String value) {
+			parameters.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Add a request header.
+		 * @param name The header name.
+		 * @param value The header value.
+		 * @return This builder.
+		 */
+		public Builder header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Build the request.
+		 * @return The request instance.
+		 */
+		public BenchRequest build() {
+			return new BenchRequest(parameters, headers);
+		}
+
+	}
+
+}
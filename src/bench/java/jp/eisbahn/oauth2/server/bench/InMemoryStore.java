@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.bench;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerSync;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is an in-memory store which supports all grant types and the
+ * protected resource validation, used by the benchmarks.
+ * 
+ * The fixture data is fixed ("clientId1"/"clientSecret1", "username1"/
+ * "password1", the code "code1", the refresh token "refreshToken1" and the
+ * access token "accessToken1"), so that each run is reproducible. An
+ * optional latency can be set to simulate the round trip to a remote store.
+ */
+public class InMemoryStore implements DataHandlerFactory {
+
+	public static final String CLIENT_ID = "clientId1";
+	public static final String CLIENT_SECRET = "clientSecret1";
+	public static final String USERNAME = "username1";
+	public static final String PASSWORD = "password1";
+	public static final String USER_ID = "userId1";
+	public static final String CODE = "code1";
+	public static final String REDIRECT_URI = "http://example.com/cb";
+	public static final String REFRESH_TOKEN = "refreshToken1";
+	public static final String ACCESS_TOKEN = "accessToken1";
+	public static final String SCOPE = "read write";
+
+	private final Map<String, AuthInfo> authInfos = new ConcurrentHashMap<String, AuthInfo>();
+	private final Map<String, AuthInfo> authInfosByKey = new ConcurrentHashMap<String, AuthInfo>();
+	private final Map<String, AccessToken> accessTokens = new ConcurrentHashMap<String, AccessToken>();
+	private final Map<String, String> accessTokensByAuthId = new ConcurrentHashMap<String, String>();
+	private final AtomicLong sequence = new AtomicLong();
+	private long latencyNanos;
+
+	/**
+	 * Initialize this instance with the fixture data.
+	 */
+	public InMemoryStore() {
+		super();
+		AuthInfo authInfo = createOrUpdateAuthInfo(CLIENT_ID, USER_ID, SCOPE);
+		authInfo.setCode(CODE);
+		authInfo.setRedirectUri(REDIRECT_URI);
+		authInfo.setRefreshToken(REFRESH_TOKEN);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authInfo.getId());
+		accessToken.setToken(ACCESS_TOKEN);
+		accessToken.setCreatedOn(new Date());
+		accessToken.setExpiresIn(3600L);
+		accessTokens.put(ACCESS_TOKEN, accessToken);
+		accessTokensByAuthId.put(authInfo.getId(), ACCESS_TOKEN);
+	}
+
+	/**
+	 * Set the simulated latency of each lookup.
+	 * @param latencyMicros The latency in microseconds. 0 means no latency.
+	 */
+	public void setLatencyMicros(long latencyMicros) {
+		this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+	}
+
+	@Override
+	public DataHandler create(Request request) {
+		return new InMemoryDataHandler(request);
+	}
+
+	private void roundTrip() {
+		if (latencyNanos > 0) {
+			LockSupport.parkNanos(latencyNanos);
+		}
+	}
+
+	private AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope) {
+		String key = clientId + ":" + userId + ":" + scope;
+		AuthInfo authInfo = authInfosByKey.get(key);
+		if (authInfo == null) {
+			authInfo = new AuthInfo();
+			authInfo.setId("authId" + sequence.incrementAndGet());
+			authInfo.setClientId(clientId);
+			authInfo.setUserId(userId);
+			authInfo.setScope(scope);
+			authInfos.put(authInfo.getId(), authInfo);
+			authInfosByKey.put(key, authInfo);
+		}
+		return authInfo;
+	}
+
+	private class InMemoryDataHandler extends DataHandlerSync {
+
+		private InMemoryDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		public boolean validateClient(String clientId, String clientSecret, String grantType) {
+			roundTrip();
+			return CLIENT_ID.equals(clientId) && CLIENT_SECRET.equals(clientSecret);
+		}
+
+		@Override
+		public String getUserId(String username, String password) {
+			roundTrip();
+			return USERNAME.equals(username) && PASSWORD.equals(password) ? USER_ID : null;
+		}
+
+		@Override
+		public AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope) {
+			roundTrip();
+			return InMemoryStore.this.createOrUpdateAuthInfo(clientId, userId, scope);
+		}
+
+		@Override
+		public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+			roundTrip();
+			AccessToken accessToken = new AccessToken();
+			accessToken.setAuthId(authInfo.getId());
+			accessToken.setToken("accessToken" + sequence.incrementAndGet());
+			accessToken.setCreatedOn(new Date());
+			accessToken.setExpiresIn(3600L);
+			accessTokens.put(accessToken.getToken(), accessToken);
+			String old = accessTokensByAuthId.put(authInfo.getId(), accessToken.getToken());
+			if (old != null && !ACCESS_TOKEN.equals(old)) {
+				accessTokens.remove(old);
+			}
+			return accessToken;
+		}
+
+		@Override
+		public AuthInfo getAuthInfoByCode(String code) {
+			roundTrip();
+			return CODE.equals(code) ? authInfos.get("authId1") : null;
+		}
+
+		@Override
+		public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+			roundTrip();
+			return REFRESH_TOKEN.equals(refreshToken) ? authInfos.get("authId1") : null;
+		}
+
+		@Override
+		public String getClientUserId(String clientId, String clientSecret) {
+			roundTrip();
+			return CLIENT_ID.equals(clientId) && CLIENT_SECRET.equals(clientSecret) ? USER_ID : null;
+		}
+
+		@Override
+		public boolean validateClientById(String clientId) {
+			roundTrip();
+			return CLIENT_ID.equals(clientId);
+		}
+
+		@Override
+		public boolean validateUserById(String userId) {
+			roundTrip();
+			return USER_ID.equals(userId);
+		}
+
+		@Override
+		public AccessToken getAccessToken(String token) {
+			roundTrip();
+			return accessTokens.get(token);
+		}
+
+		@Override
+		public AuthInfo getAuthInfoById(String id) {
+			roundTrip();
+			return authInfos.get(id);
+		}
+
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.bench;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class keeps the value passed to the handler. All DataHandlers used by
+ * the benchmarks call back on the caller thread, so the value is available
+ * just after the call.
+ * @param <T> The type of the value.
+ */
+public class Result<T> implements Handler<T> {
+
+	private T value;
+
+	@Override
+	public void handle(T value) {
+		this.value = value;
+	}
+
+	/**
+	 * Retrieve the value passed to the handler.
+	 * @return The value.
+	 */
+	public T get() {
+		if (value == null) {
+			throw new IllegalStateException("The handler was not called.");
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.code;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.token.SecureTokenGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures issuing and consuming an authorization code with many threads.
+ * The "locked" benchmark reads and deletes each code in a critical section,
+ * like a backend which enforces the single use with a transaction. The
+ * "store" benchmark uses the InMemoryCodeStore.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CodeStoreBenchmark {
+
+	private final Map<String, AuthInfo> locked = new HashMap<String, AuthInfo>();
+	private SecureTokenGenerator generator;
+	private InMemoryCodeStore store;
+	private AuthInfo authInfo;
+
+	@Setup
+	public void setUp() {
+		generator = new SecureTokenGenerator();
+		store = new InMemoryCodeStore();
+		store.setTokenGenerator(generator);
+		authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		authInfo.setClientId("clientId1");
+		authInfo.setRedirectUri("redirectUri1");
+	}
+
+	@Benchmark
+	public AuthInfo locked() {
+		String code = generator.generate();
+		synchronized (locked) {
+			locked.put(code, authInfo);
+		}
+		synchronized (locked) {
+			AuthInfo result = locked.get(code);
+			if (result != null) {
+				locked.remove(code);
+			}
+			return result;
+		}
+	}
+
+	@Benchmark
+	public AuthInfo store() {
+		AuthInfo issued = new AuthInfo();
+		issued.setId(authInfo.getId());
+		issued.setClientId(authInfo.getClientId());
+		issued.setRedirectUri(authInfo.getRedirectUri());
+		return store.consume(store.issue(issued));
+	}
+
+}
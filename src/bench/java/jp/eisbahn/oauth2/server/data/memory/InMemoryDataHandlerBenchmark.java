@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the InMemoryDataHandler with many threads: issuing an access
+ * token for one of the users, and introspecting one of the issued tokens.
+ * This is the baseline of the in-memory storage for the other benchmarks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class InMemoryDataHandlerBenchmark {
+
+	@Param({"100000"})
+	public int users;
+
+	private InMemoryDataHandlerFactory factory;
+	private String[] tokens;
+
+	@Setup
+	public void setUp() {
+		factory = new InMemoryDataHandlerFactory();
+		factory.addClient("clientId1", "clientSecret1", null);
+		InMemoryDataHandler dataHandler = (InMemoryDataHandler)factory.create(null);
+		tokens = new String[users];
+		for (int i = 0; i < users; i++) {
+			AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "user" + i, "read");
+			tokens[i] = dataHandler.createOrUpdateAccessToken(authInfo).getToken();
+			factory.addUser("user" + i, "password", "user" + i);
+		}
+	}
+
+	@Benchmark
+	public AccessToken issue() {
+		InMemoryDataHandler dataHandler = (InMemoryDataHandler)factory.create(null);
+		int user = ThreadLocalRandom.current().nextInt(users);
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "new" + user, "read");
+		return dataHandler.createOrUpdateAccessToken(authInfo);
+	}
+
+	@Benchmark
+	public TokenIntrospection introspect() {
+		InMemoryDataHandler dataHandler = (InMemoryDataHandler)factory.create(null);
+		return dataHandler.introspectToken(tokens[ThreadLocalRandom.current().nextInt(users)]);
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the startup of the PersistentDataHandlerFactory: recovering the
+ * given number of users, each of which has the authorization information
+ * and an access token, from the log file only or from the compacted
+ * snapshot.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class PersistentDataHandlerFactoryBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int users;
+
+	@Param({"false", "true"})
+	public boolean compacted;
+
+	private File directory;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("oauth2-tokens").toFile();
+		PersistentDataHandlerFactory factory = create();
+		factory.start();
+		InMemoryDataHandler dataHandler = (InMemoryDataHandler)factory.create(null);
+		for (int i = 0; i < users; i++) {
+			AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "user" + i, "read");
+			dataHandler.createOrUpdateAccessToken(authInfo);
+		}
+		if (compacted) {
+			factory.compact();
+		}
+		factory.stop();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private PersistentDataHandlerFactory create() {
+		PersistentDataHandlerFactory factory = new PersistentDataHandlerFactory();
+		factory.setDirectory(directory);
+		factory.setCompactionThreshold(Long.MAX_VALUE);
+		factory.addClient("clientId1", "clientSecret1", null);
+		return factory;
+	}
+
+	@Benchmark
+	public int start() {
+		PersistentDataHandlerFactory factory = create();
+		factory.start();
+		try {
+			return factory.getAccessTokenCount();
+		} finally {
+			factory.stop();
+		}
+	}
+
+}
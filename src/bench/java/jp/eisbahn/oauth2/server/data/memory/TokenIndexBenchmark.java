@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the access tokens kept in a ConcurrentHashMap by the token
+ * strings with the ones kept in the InMemoryTokenStore, whose index is the
+ * TokenIndex. The setup prints the heap used by each access token of both,
+ * and the benchmarks measure the lookups by the token strings received from
+ * the requests. Each lookup creates the token string like a request does.
+ * The TokenIndex itself does not allocate, which can be seen with the
+ * "-prof gc" option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class TokenIndexBenchmark {
+
+	@Param({"1000000"})
+	public int tokens;
+
+	private static final long NOW = System.currentTimeMillis();
+
+	private char[][] requests;
+	private ConcurrentHashMap<String, AccessToken> map;
+	private TokenIndex<AccessToken> index;
+	private InMemoryTokenStore store;
+
+	@Setup
+	public void setUp() {
+		SecureRandom random = new SecureRandom();
+		String[] ids = new String[tokens];
+		requests = new char[tokens][];
+		for (int i = 0; i < tokens; i++) {
+			byte[] bytes = new byte[InMemoryDataHandlerFactory.TOKEN_BYTES];
+			random.nextBytes(bytes);
+			requests[i] = Base64.encodeBase64URLSafeString(bytes).toCharArray();
+			ids[i] = "id" + i;
+		}
+		store = new InMemoryTokenStore();
+		for (int i = 0; i < tokens; i++) {
+			store.createOrUpdateAuthInfo("clientId1", "user" + i, "read", ids[i], null, 0L, NOW);
+		}
+
+		long used = used();
+		map = new ConcurrentHashMap<String, AccessToken>();
+		for (int i = 0; i < tokens; i++) {
+			String token = new String(requests[i]);
+			map.put(token, accessToken(token, ids[i]));
+		}
+		long mapBytes = used() - used;
+
+		used = used();
+		for (int i = 0; i < tokens; i++) {
+			store.putAccessToken(accessToken(new String(requests[i]), ids[i]), NOW);
+		}
+		long storeBytes = used() - used;
+
+		index = new TokenIndex<AccessToken>(InMemoryDataHandlerFactory.TOKEN_BYTES);
+		for (String token : map.keySet()) {
+			index.put(token, map.get(token));
+		}
+		System.out.printf("%nHeap per access token: ConcurrentHashMap %d bytes, InMemoryTokenStore %d bytes%n",
+				mapBytes / tokens, storeBytes / tokens);
+	}
+
+	private static AccessToken accessToken(String token, String authId) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken(token);
+		accessToken.setAuthId(authId);
+		accessToken.setCreatedOn(new Date(NOW));
+		accessToken.setExpiresIn(3600L);
+		return accessToken;
+	}
+
+	private static long used() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private String request() {
+		// Each request has a new string.
+		return new String(requests[ThreadLocalRandom.current().nextInt(tokens)]);
+	}
+
+	@Benchmark
+	public AccessToken map() {
+		return map.get(request());
+	}
+
+	@Benchmark
+	public AccessToken index() {
+		return index.get(request());
+	}
+
+	@Benchmark
+	public AccessToken store() {
+		return store.getAccessToken(request(), NOW);
+	}
+
+}
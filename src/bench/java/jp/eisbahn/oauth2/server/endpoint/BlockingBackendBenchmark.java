@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.bench.BenchRequest;
+import jp.eisbahn.oauth2.server.bench.InMemoryStore;
+import jp.eisbahn.oauth2.server.data.executor.ExecutingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to validate a burst of concurrent requests with
+ * ProtectedResource when the DataHandlerSync blocks on a slow backend. The
+ * requests are handed to a fixed pool of "container" threads. In the
+ * "inline" mode each container thread blocks until its request is
+ * validated, as with TokenServlet and ProtectedResourceFilter. In the
+ * "executor" mode the DataHandlerSync runs on the Executor of the
+ * ExecutingDataHandlerFactory (virtual threads on Java 21 or later, a thread
+ * pool otherwise), as with the asynchronous servlets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingBackendBenchmark {
+
+	@Param({"inline", "executor"})
+	public String mode;
+
+	@Param({"1000"})
+	public int requests;
+
+	@Param({"16"})
+	public int containerThreads;
+
+	@Param({"1000"})
+	public long latencyMicros;
+
+	private ExecutorService container;
+	private ExecutingDataHandlerFactory executing;
+	private ProtectedResource target;
+	private Request request;
+
+	@Setup
+	public void setUp() throws Exception {
+		InMemoryStore store = new InMemoryStore();
+		store.setLatencyMicros(latencyMicros);
+		target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		if ("executor".equals(mode)) {
+			executing = new ExecutingDataHandlerFactory(store);
+			executing.start();
+			System.out.println("virtual threads: " + executing.isVirtual());
+			target.setDataHandlerFactory(executing);
+		} else {
+			target.setDataHandlerFactory(store);
+		}
+		request = BenchRequest.builder()
+				.header("Authorization", "Bearer " + InMemoryStore.ACCESS_TOKEN).build();
+		container = Executors.newFixedThreadPool(containerThreads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		container.shutdownNow();
+		if (executing != null) {
+			executing.stop();
+		}
+	}
+
+	@Benchmark
+	public int burst() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(requests);
+		final AtomicInteger valid = new AtomicInteger();
+		final Handler<Try<OAuthError, ProtectedResource.Response>> handler =
+				new Handler<Try<OAuthError, ProtectedResource.Response>>() {
+			@Override
+			public void handle(Try<OAuthError, ProtectedResource.Response> event) {
+				try {
+					event.get();
+					valid.incrementAndGet();
+				} catch (OAuthError e) {
+					// Counted as invalid.
+				}
+				done.countDown();
+			}
+		};
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				target.handleRequest(request, handler);
+			}
+		};
+		for (int i = 0; i < requests; i++) {
+			container.execute(task);
+		}
+		done.await();
+		if (valid.get() != requests) {
+			throw new IllegalStateException(valid.get() + " of " + requests + " were valid.");
+		}
+		return valid.get();
+	}
+
+}
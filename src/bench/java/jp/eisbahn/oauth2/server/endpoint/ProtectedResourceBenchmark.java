@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.bench.BenchRequest;
+import jp.eisbahn.oauth2.server.bench.InMemoryStore;
+import jp.eisbahn.oauth2.server.bench.Result;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ProtectedResource.handleRequest() with the access token sent by
+ * each fetcher of DefaultAccessTokenFetcherProvider, with and without the
+ * MetricsRegistry. Run with "-prof gc" to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtectedResourceBenchmark {
+
+	@Param({"header", "parameter"})
+	public String fetcher;
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private ProtectedResource target;
+	private Request request;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(new InMemoryStore());
+		if (metrics) {
+			target.setMetricsRegistry(new DefaultMetricsRegistry());
+		}
+		if ("header".equals(fetcher)) {
+			request = BenchRequest.builder()
+					.header("Authorization", "Bearer " + InMemoryStore.ACCESS_TOKEN).build();
+		} else {
+			request = BenchRequest.builder()
+					.param("access_token", InMemoryStore.ACCESS_TOKEN).build();
+		}
+		handleRequest();
+	}
+
+	@Benchmark
+	public ProtectedResource.Response handleRequest() throws OAuthError {
+		Result<Try<OAuthError, ProtectedResource.Response>> result =
+				new Result<Try<OAuthError, ProtectedResource.Response>>();
+		target.handleRequest(request, result);
+		return result.get().get();
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.bench.BenchRequest;
+import jp.eisbahn.oauth2.server.bench.InMemoryStore;
+import jp.eisbahn.oauth2.server.bench.Result;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Token.handleRequest() for each grant type supported by
+ * DefaultGrantHandlerProvider, with the client credential sent by the Basic
+ * authentication header or by the request parameters. Run with "-prof gc"
+ * to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenBenchmark {
+
+	@Param({"authorization_code", "refresh_token", "client_credentials", "password"})
+	public String grantType;
+
+	@Param({"basic", "parameter"})
+	public String clientAuthentication;
+
+	private Token target;
+	private Request request;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = new Token();
+		target.setDataHandlerFactory(new InMemoryStore());
+		target.setGrantHandlerProvider(new DefaultGrantHandlerProvider());
+		target.setClientCredentialFetcher(new ClientCredentialFetcherImpl());
+
+		BenchRequest.Builder builder = BenchRequest.builder().param("grant_type", grantType);
+		if ("basic".equals(clientAuthentication)) {
+			String credential = InMemoryStore.CLIENT_ID + ":" + InMemoryStore.CLIENT_SECRET;
+			builder.header("Authorization",
+					"Basic " + Base64.encodeBase64String(credential.getBytes("UTF-8")));
+		} else {
+			builder.param("client_id", InMemoryStore.CLIENT_ID)
+					.param("client_secret", InMemoryStore.CLIENT_SECRET);
+		}
+		if ("authorization_code".equals(grantType)) {
+			builder.param("code", InMemoryStore.CODE)
+					.param("redirect_uri", InMemoryStore.REDIRECT_URI);
+		} else if ("refresh_token".equals(grantType)) {
+			builder.param("refresh_token", InMemoryStore.REFRESH_TOKEN);
+		} else if ("client_credentials".equals(grantType)) {
+			builder.param("scope", InMemoryStore.SCOPE);
+		} else {
+			builder.param("username", InMemoryStore.USERNAME)
+					.param("password", InMemoryStore.PASSWORD)
+					.param("scope", InMemoryStore.SCOPE);
+		}
+		request = builder.build();
+
+		Token.Response response = handleRequest();
+		if (response.getCode() != 200) {
+			throw new IllegalStateException(response.getBody());
+		}
+	}
+
+	@Benchmark
+	public Token.Response handleRequest() {
+		Result<Token.Response> result = new Result<Token.Response>();
+		target.handleRequest(request, result);
+		return result.get();
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.fetcher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jp.eisbahn.oauth2.server.bench.BenchRequest;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher.FetchResult;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares AuthHeader with the former implementation based on regular
+ * expressions. Both match() and fetch() are called as ProtectedResource
+ * does. Run with "-prof gc" to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthHeaderBenchmark {
+
+	@Param({"Bearer vF9dft4qmT",
+		"OAuth vF9dft4qmT, algorithm=\"hmac-sha256\", nonce=\"s8djwd\", signature=\"wOJIO9A2W5mFwDgiDvZbTSMK%2FPY%3D\""})
+	public String header;
+
+	private AuthHeader scanner;
+	private RegexAuthHeader regex;
+	private Request request;
+
+	@Setup
+	public void setUp() {
+		scanner = new AuthHeader();
+		regex = new RegexAuthHeader();
+		request = BenchRequest.builder().header("Authorization", header).build();
+	}
+
+	@Benchmark
+	public FetchResult scanner() {
+		if (!scanner.match(request)) {
+			throw new IllegalStateException();
+		}
+		return scanner.fetch(request);
+	}
+
+	@Benchmark
+	public FetchResult regex() {
+		if (!regex.match(request)) {
+			throw new IllegalStateException();
+		}
+		return regex.fetch(request);
+	}
+
+	/**
+	 * The former implementation of AuthHeader.
+	 */
+	private static class RegexAuthHeader {
+
+		private static final Pattern REGEXP_AUTHORIZATION =
+				Pattern.compile("^\\s*(OAuth|Bearer)\\s+([^\\s\\,]*)");
+		private static final Pattern REGEXP_TRIM = Pattern.compile("^\\s*,\\s*");
+		private static final Pattern REGEXP_DIV_COMMA = Pattern.compile(",\\s*");
+
+		public boolean match(Request request) {
+			String header = request.getHeader("Authorization");
+			return (header != null)
+				&& (Pattern.matches("^\\s*(OAuth|Bearer)(.*)$", header));
+		}
+
+		public FetchResult fetch(Request request) {
+			String header = request.getHeader("Authorization");
+			Matcher matcher = REGEXP_AUTHORIZATION.matcher(header);
+			if (!matcher.find()) {
+				throw new IllegalStateException();
+			}
+			String token = matcher.group(2);
+			Map<String, String> params = new HashMap<String, String>();
+			int end = matcher.end();
+			if (header.length() != end) {
+				header = header.substring(end);
+				header = REGEXP_TRIM.matcher(header).replaceFirst("");
+				String[] expList = REGEXP_DIV_COMMA.split(header);
+				for (String exp : expList) {
+					String[] keyValue = exp.split("=", 2);
+					String value = keyValue[1].replaceFirst("^\"", "");
+					value = value.replaceFirst("\"$", "");
+					params.put(keyValue[0], Util.decodeParam(value));
+				}
+			}
+			return new FetchResult(token, params);
+		}
+
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares checking the required scopes of a request by splitting the scope
+ * strings with checking them with the Scopes compiled by the ScopeRegistry.
+ * The granted scope string is a new instance per request, like the one read
+ * from a database. The "route" benchmarks find the required scopes of a path
+ * among 100 rules.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScopeBenchmark {
+
+	private static final String GRANTED = "openid profile email photos.read photos.write";
+	private static final String REQUIRED = "photos.read photos.write";
+
+	private ScopeRegistry registry;
+	private Scopes required;
+	private AuthInfo authInfo;
+	private ScopeRules rules;
+	private String[] prefixes;
+	private Scopes[] prefixScopes;
+
+	@Setup
+	public void setUp() {
+		registry = new ScopeRegistry();
+		required = registry.require(REQUIRED);
+		authInfo = new AuthInfo();
+		authInfo.setScope(GRANTED);
+		rules = new ScopeRules();
+		prefixes = new String[100];
+		prefixScopes = new Scopes[100];
+		for (int i = 0; i < 100; i++) {
+			prefixes[i] = "/api/resource" + i + "/";
+			prefixScopes[i] = registry.require("scope" + i);
+			rules.add("/api/resource" + i + "/*", prefixScopes[i]);
+		}
+	}
+
+	@Benchmark
+	public boolean splitStrings() {
+		Set<String> granted = new HashSet<String>(Arrays.asList(new String(GRANTED).split(" ")));
+		return granted.containsAll(Arrays.asList(REQUIRED.split(" ")));
+	}
+
+	@Benchmark
+	public boolean compiledString() {
+		return registry.compile(new String(GRANTED)).containsAll(required);
+	}
+
+	@Benchmark
+	public boolean compiledAuthInfo() {
+		return registry.compile(authInfo).containsAll(required);
+	}
+
+	@Benchmark
+	public Scopes routeScan() {
+		String path = "/api/resource99/items/1";
+		for (int i = 0; i < prefixes.length; i++) {
+			if (path.startsWith(prefixes[i])) {
+				return prefixScopes[i];
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public Scopes routeTrie() {
+		return rules.find("/api/resource99/items/1");
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.serializer;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.serializer.impl.DefaultResponseSerializer;
+import jp.eisbahn.oauth2.server.serializer.impl.StreamingResponseSerializer;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost to encode a response of the Token endpoint.
+ * The "perCallMapper" benchmarks reproduce the former Util.toJson() which
+ * created an ObjectMapper per call. Run with "-prof gc" to see the allocation
+ * per operation (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseSerializerBenchmark {
+
+	private GrantHandlerResult result;
+	private OAuthError error;
+	private ResponseSerializer defaultSerializer;
+	private ResponseSerializer streamingSerializer;
+
+	@Setup
+	public void setUp() {
+		result = new GrantHandlerResult("Bearer", "2YotnFZFEjr1zCsicMWpAA");
+		result.setExpiresIn(3600L);
+		result.setRefreshToken("tGzv3JOkF0XG5Qx2TlKWIA");
+		result.setScope("read write");
+		error = new OAuthError.InvalidGrant("Code is invalid or already used.");
+		defaultSerializer = new DefaultResponseSerializer();
+		streamingSerializer = new StreamingResponseSerializer();
+	}
+
+	@Benchmark
+	public String resultPerCallMapper() throws Exception {
+		return new ObjectMapper().writeValueAsString(result);
+	}
+
+	@Benchmark
+	public String resultUtilToJson() {
+		return Util.toJson(result);
+	}
+
+	@Benchmark
+	public String resultDefaultSerializer() {
+		return defaultSerializer.serialize(result);
+	}
+
+	@Benchmark
+	public String resultStreamingSerializer() {
+		return streamingSerializer.serialize(result);
+	}
+
+	@Benchmark
+	public String errorPerCallMapper() throws Exception {
+		return new ObjectMapper().writeValueAsString(error);
+	}
+
+	@Benchmark
+	public String errorUtilToJson() {
+		return Util.toJson(error);
+	}
+
+	@Benchmark
+	public String errorDefaultSerializer() {
+		return defaultSerializer.serialize(error);
+	}
+
+	@Benchmark
+	public String errorStreamingSerializer() {
+		return streamingSerializer.serialize(error);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.bench.BenchRequest;
+import jp.eisbahn.oauth2.server.bench.InMemoryStore;
+import jp.eisbahn.oauth2.server.bench.Result;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of ProtectedResource between the stateless
+ * validation of a signed token and the validation backed by a token store.
+ * The "storeLatencyMicros" parameter simulates the round trip time of each
+ * lookup of the store (the default chain issues four lookups per request).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SignedTokenValidationBenchmark {
+
+	@Param({"0", "100"})
+	public long storeLatencyMicros;
+
+	private ProtectedResource storeBacked;
+	private ProtectedResource stateless;
+	private Request storeRequest;
+	private Request signedRequest;
+
+	@Setup
+	public void setUp() throws Exception {
+		InMemoryStore store = new InMemoryStore();
+		store.setLatencyMicros(storeLatencyMicros);
+		AccessTokenFetcherProvider fetcherProvider = new AccessTokenFetcherProvider();
+		fetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{new AuthHeader()});
+
+		storeBacked = new ProtectedResource();
+		storeBacked.setAccessTokenFetcherProvider(fetcherProvider);
+		storeBacked.setDataHandlerFactory(store);
+
+		SignedTokenCodec codec = new SignedTokenCodec("0123456789abcdef0123456789abcdef".getBytes("UTF-8"));
+		SignedTokenCodec.Claims claims = new SignedTokenCodec.Claims();
+		claims.setAuthId("authId1");
+		claims.setClientId(InMemoryStore.CLIENT_ID);
+		claims.setUserId(InMemoryStore.USER_ID);
+		claims.setScope(InMemoryStore.SCOPE);
+		claims.setIssuedAt(System.currentTimeMillis());
+		claims.setExpiresIn(3600L);
+		stateless = new ProtectedResource();
+		stateless.setAccessTokenFetcherProvider(fetcherProvider);
+		stateless.setDataHandlerFactory(store);
+		stateless.setSignedTokenCodec(codec);
+		stateless.setRevocationList(new InMemoryRevocationList());
+
+		storeRequest = BenchRequest.builder()
+				.header("Authorization", "Bearer " + InMemoryStore.ACCESS_TOKEN).build();
+		signedRequest = BenchRequest.builder()
+				.header("Authorization", "Bearer " + codec.encode(claims)).build();
+	}
+
+	@Benchmark
+	public Response storeBacked() throws OAuthError {
+		return validate(storeBacked, storeRequest);
+	}
+
+	@Benchmark
+	public Response stateless() throws OAuthError {
+		return validate(stateless, signedRequest);
+	}
+
+	private Response validate(ProtectedResource target, Request request) throws OAuthError {
+		Result<Try<OAuthError, Response>> result = new Result<Try<OAuthError, Response>>();
+		target.handleRequest(request, result);
+		return result.get().get();
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of generating the tokens by many threads between
+ * a shared SecureRandom called per token with the encoding of commons-codec
+ * (the way of the former InMemoryDataHandlerFactory) and the
+ * SecureTokenGenerator. The "algorithm" parameter selects the SecureRandom.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class TokenGeneratorBenchmark {
+
+	@Param({"NativePRNG", "SHA1PRNG"})
+	public String algorithm;
+
+	private SecureRandom random;
+	private SecureTokenGenerator generator;
+
+	@Setup
+	public void setUp() throws Exception {
+		random = SecureRandom.getInstance(algorithm);
+		generator = new SecureTokenGenerator();
+		generator.setSecureRandom(SecureRandom.getInstance(algorithm));
+	}
+
+	@Benchmark
+	public String sharedRandom() {
+		byte[] bytes = new byte[SecureTokenGenerator.DEFAULT_TOKEN_BYTES];
+		random.nextBytes(bytes);
+		return Base64.encodeBase64URLSafeString(bytes);
+	}
+
+	@Benchmark
+	public String generator() {
+		return generator.generate();
+	}
+
+}
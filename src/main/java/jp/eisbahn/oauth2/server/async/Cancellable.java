@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+/**
+ * This interface is implemented by an object whose work in progress can be
+ * aborted, like a DataHandler waiting for its database.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface Cancellable {
+
+	/**
+	 * Abort the work in progress. The results which arrive after this call
+	 * are ignored by the caller. This method may be called on any thread,
+	 * and should return quickly without waiting for the work to stop.
+	 */
+	void cancel();
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a ThreadFactory which creates the daemon threads, so the
+ * background work of this framework never keeps the process alive. Each
+ * thread is named with the given prefix and a sequence number.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * Initialize this instance.
+	 * @param prefix The prefix of the thread names, like "oauth2-batch".
+	 */
+	public DaemonThreadFactory(String prefix) {
+		super();
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Create a scheduler which runs the tasks on one daemon thread. The
+	 * cancelled tasks are removed from its queue immediately.
+	 * @param prefix The prefix of the thread name.
+	 * @return The scheduler instance.
+	 */
+	public static ScheduledThreadPoolExecutor newScheduler(String prefix) {
+		ScheduledThreadPoolExecutor executor =
+				new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(prefix));
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, prefix + "-" + sequence.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
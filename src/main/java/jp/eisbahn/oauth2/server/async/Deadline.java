@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This class represents the point in time by which a request must finish.
+ *
+ * <p>
+ * An endpoint creates a deadline when it receives a request, and passes its
+ * result promise to the guard() method. If the promise does not complete
+ * before the deadline, the guarded promise fails with the given error and
+ * the Cancellable is cancelled. A result which arrives after that is
+ * ignored. A promise which has already completed is returned as it is, so
+ * a synchronous DataHandler does not schedule any timer.
+ * </p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Deadline {
+
+	private final long expiresAt;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Initialize this instance.
+	 * @param timeout The time in milliseconds from now to the deadline.
+	 * @param scheduler The scheduler to run the timers. If this is null, the
+	 * scheduler shared in this process is used.
+	 */
+	public Deadline(long timeout, ScheduledExecutorService scheduler) {
+		super();
+		this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.scheduler = scheduler != null ? scheduler : SharedScheduler.INSTANCE;
+	}
+
+	/**
+	 * Retrieve the time remaining until the deadline.
+	 * @return The remaining time in milliseconds. If the deadline has passed,
+	 * this method returns 0.
+	 */
+	public long getRemaining() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+	}
+
+	/**
+	 * Check whether the deadline has passed or not.
+	 * @return True if the deadline has passed.
+	 */
+	public boolean isExpired() {
+		return expiresAt - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Bound the promise by this deadline.
+	 * @param promise The promise to bound.
+	 * @param error The error to fail with when the deadline passes.
+	 * @param cancellable The object to cancel when the deadline passes. This
+	 * can be null.
+	 * @return The promise which completes with the result of the promise
+	 * passed, or fails with the error at the deadline.
+	 */
+	public <T> Promise<T> guard(Promise<T> promise, final OAuthError error,
+			final Cancellable cancellable) {
+		if (promise.isDone()) {
+			return promise;
+		}
+		final Promise<T> guarded = new Promise<T>();
+		long delay = expiresAt - System.nanoTime();
+		if (delay <= 0) {
+			expire(guarded, error, cancellable);
+			return guarded;
+		}
+		final ScheduledFuture<?> timer = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				expire(guarded, error, cancellable);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+		promise.subscribe(new Promise.Callback<T>() {
+			@Override
+			void completed(T value, OAuthError failure) {
+				timer.cancel(false);
+				if (failure != null) {
+					guarded.fail(failure);
+				} else {
+					guarded.complete(value);
+				}
+			}
+		});
+		return guarded;
+	}
+
+	private static <T> void expire(Promise<T> guarded, OAuthError error,
+			Cancellable cancellable) {
+		// The cancellation is requested before the error is reported. If the
+		// result arrives in the meantime, the result wins and cancelling the
+		// finished work is harmless.
+		if (guarded.isDone()) {
+			return;
+		}
+		if (cancellable != null) {
+			cancellable.cancel();
+		}
+		guarded.fail(error);
+	}
+
+	private static class SharedScheduler {
+
+		// Most timers are cancelled because the results arrive in time, so
+		// they are removed from the queue at once.
+		private static final ScheduledExecutorService INSTANCE =
+				DaemonThreadFactory.newScheduler("oauth2-deadline");
+
+	}
+
+}
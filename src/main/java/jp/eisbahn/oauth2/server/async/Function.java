@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This interface defines a step to compose promises.
+ *
+ * @param <T> The type of the argument.
+ * @param <R> The type of the result.
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface Function<T, R> {
+
+	/**
+	 * Apply this step to the value.
+	 * @param value The value of the previous promise.
+	 * @return The result of this step.
+	 * @throws OAuthError If the value is not acceptable. The promise returned
+	 * by the composition fails with this error.
+	 */
+	R apply(T value) throws OAuthError;
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This class waits for two independent results and completes when both of
+ * them have arrived.
+ *
+ * <p>
+ * A join is a promise of itself. After it completes, the results can be
+ * retrieved with the getFirst() and getSecond() methods. If either of the
+ * results is an error, the join fails with it. When both are errors, the
+ * error of the first one is used, so the outcome does not depend on which
+ * result arrives first.
+ * </p>
+ *
+ * <p>
+ * The results are received from two promises with the of() method, or from
+ * two methods of the DataHandler style with the handlers returned by the
+ * first() and second() methods. Each handler must be called only once. Do
+ * not complete a join directly with the complete() or fail() method.
+ * </p>
+ *
+ * @param <A> The type of the first value.
+ * @param <B> The type of the second value.
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Join<A, B> extends Promise<Join<A, B>> {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Join> REMAINING =
+			AtomicIntegerFieldUpdater.newUpdater(Join.class, "remaining");
+
+	private volatile int remaining = 2;
+	private A first;
+	private B second;
+	private OAuthError firstError;
+	private OAuthError secondError;
+
+	/**
+	 * Create a join of the two promises. When a promise has already been
+	 * completed, its result is taken without registering any callback.
+	 * @param first The promise of the first value.
+	 * @param second The promise of the second value.
+	 * @return The join which completes when both promises complete.
+	 */
+	public static <A, B> Join<A, B> of(Promise<A> first, Promise<B> second) {
+		Join<A, B> join = new Join<A, B>();
+		if (first.isDone()) {
+			join.setFirst(first.value(), first.error());
+		} else {
+			first.subscribe(join.new FirstSlot());
+		}
+		if (second.isDone()) {
+			join.setSecond(second.value(), second.error());
+		} else {
+			second.subscribe(join.new SecondSlot());
+		}
+		return join;
+	}
+
+	/**
+	 * Retrieve the handler which receives the first value.
+	 * @return The handler.
+	 */
+	public Handler<A> first() {
+		return new FirstSlot();
+	}
+
+	/**
+	 * Retrieve the handler which receives the second value.
+	 * @return The handler.
+	 */
+	public Handler<B> second() {
+		return new SecondSlot();
+	}
+
+	/**
+	 * Retrieve the first value.
+	 * @return The first value. If it has not arrived yet or it is an error,
+	 * this method returns null.
+	 */
+	public A getFirst() {
+		return first;
+	}
+
+	/**
+	 * Retrieve the second value.
+	 * @return The second value. If it has not arrived yet or it is an error,
+	 * this method returns null.
+	 */
+	public B getSecond() {
+		return second;
+	}
+
+	private void setFirst(A value, OAuthError error) {
+		first = value;
+		firstError = error;
+		arrive();
+	}
+
+	private void setSecond(B value, OAuthError error) {
+		second = value;
+		secondError = error;
+		arrive();
+	}
+
+	private void arrive() {
+		// The last arrival sees the writes of the other one through the
+		// atomic decrement.
+		if (REMAINING.decrementAndGet(this) != 0) {
+			return;
+		}
+		OAuthError error = firstError != null ? firstError : secondError;
+		if (error != null) {
+			fail(error);
+		} else {
+			complete(this);
+		}
+	}
+
+	private class FirstSlot extends Callback<A> implements Handler<A> {
+
+		@Override
+		public void handle(A value) {
+			setFirst(value, null);
+		}
+
+		@Override
+		void completed(A value, OAuthError error) {
+			setFirst(value, error);
+		}
+
+	}
+
+	private class SecondSlot extends Callback<B> implements Handler<B> {
+
+		@Override
+		public void handle(B value) {
+			setSecond(value, null);
+		}
+
+		@Override
+		void completed(B value, OAuthError error) {
+			setSecond(value, error);
+		}
+
+	}
+
+}
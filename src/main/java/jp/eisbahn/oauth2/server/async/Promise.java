@@ -0,0 +1,522 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+/**
+ * This class represents a result which will be available later.
+ *
+ * <p>
+ * A promise is completed once with a value or an OAuthError. Because this
+ * class implements the Handler interface, it can be passed to the methods
+ * of the DataHandler directly to receive their result.
+ * </p>
+ *
+ * <p>
+ * The then() and map() methods compose the next step. When this promise is
+ * already completed, the step is applied immediately on the calling thread
+ * and no callback is registered. Otherwise, the step is applied on the
+ * thread which completes this promise. A failure skips the following steps
+ * and reaches the handler passed to the onComplete() method. A
+ * RuntimeException thrown by a step fails the promise of that step with
+ * the ServerError.
+ * </p>
+ *
+ * @param <T> The type of the value.
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Promise<T> implements Handler<T> {
+
+	private static final int PENDING = 0;
+	private static final int COMPLETING = 1;
+	private static final int SUCCEEDED = 2;
+	private static final int FAILED = 3;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Promise> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Promise.class, "state");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Promise, Callback> CALLBACKS =
+			AtomicReferenceFieldUpdater.newUpdater(Promise.class, Callback.class, "callbacks");
+	@SuppressWarnings("rawtypes")
+	private static final Callback FIRED = new Callback() {
+		@Override
+		void completed(Object value, OAuthError error) {
+		}
+	};
+
+	// The value and the error share one field to keep this object small.
+	private volatile int state;
+	private Object result;
+	private volatile Callback<T> callbacks;
+
+	/**
+	 * Create a promise which has already completed with the value.
+	 * @param value The value.
+	 * @return The completed promise.
+	 */
+	public static <T> Promise<T> of(T value) {
+		Promise<T> promise = new Promise<T>();
+		promise.result = value;
+		promise.state = SUCCEEDED;
+		return promise;
+	}
+
+	/**
+	 * Create a promise which has already failed with the error.
+	 * @param error The error.
+	 * @return The failed promise.
+	 */
+	public static <T> Promise<T> failed(OAuthError error) {
+		Promise<T> promise = new Promise<T>();
+		promise.result = error;
+		promise.state = FAILED;
+		return promise;
+	}
+
+	/**
+	 * Complete this promise with the value. This is the same as the
+	 * complete() method.
+	 * @param event The value.
+	 */
+	@Override
+	public void handle(T event) {
+		complete(event);
+	}
+
+	/**
+	 * Complete this promise with the value.
+	 * @param value The value.
+	 * @return True if this call completed this promise, false if this promise
+	 * had already been completed.
+	 */
+	public boolean complete(T value) {
+		return settle(SUCCEEDED, value);
+	}
+
+	/**
+	 * Complete this promise with the error.
+	 * @param error The error.
+	 * @return True if this call completed this promise, false if this promise
+	 * had already been completed.
+	 */
+	public boolean fail(OAuthError error) {
+		return settle(FAILED, error);
+	}
+
+	/**
+	 * Check whether this promise has been completed or not.
+	 * @return True if this promise has a value or an error.
+	 */
+	public boolean isDone() {
+		return state >= SUCCEEDED;
+	}
+
+	/**
+	 * Compose the next asynchronous step.
+	 * @param function The step which receives the value of this promise
+	 * and returns the promise of the next value. If it returns null, the
+	 * result is completed with null.
+	 * @return The promise of the next value.
+	 */
+	public <R> Promise<R> then(final Function<? super T, Promise<R>> function) {
+		int current = state;
+		if (current == FAILED) {
+			return cast();
+		} else if (current == SUCCEEDED) {
+			try {
+				Promise<R> next = function.apply(value());
+				return next != null ? next : Promise.<R>of(null);
+			} catch (OAuthError e) {
+				return failed(e);
+			} catch (RuntimeException e) {
+				return failed(new OAuthError.ServerError(e));
+			}
+		}
+		final Promise<R> promise = new Promise<R>();
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				if (error != null) {
+					promise.fail(error);
+					return;
+				}
+				Promise<R> next;
+				try {
+					next = function.apply(value);
+				} catch (OAuthError e) {
+					promise.fail(e);
+					return;
+				} catch (RuntimeException e) {
+					promise.fail(new OAuthError.ServerError(e));
+					return;
+				}
+				if (next == null) {
+					promise.complete(null);
+				} else {
+					next.forward(promise);
+				}
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * Compose the next synchronous step.
+	 * @param function The step which receives the value of this promise and
+	 * returns the next value.
+	 * @return The promise of the next value.
+	 */
+	public <R> Promise<R> map(final Function<? super T, R> function) {
+		int current = state;
+		if (current == FAILED) {
+			return cast();
+		} else if (current == SUCCEEDED) {
+			try {
+				return of(function.apply(value()));
+			} catch (OAuthError e) {
+				return failed(e);
+			} catch (RuntimeException e) {
+				return failed(new OAuthError.ServerError(e));
+			}
+		}
+		final Promise<R> promise = new Promise<R>();
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				if (error != null) {
+					promise.fail(error);
+					return;
+				}
+				R next;
+				try {
+					next = function.apply(value);
+				} catch (OAuthError e) {
+					promise.fail(e);
+					return;
+				} catch (RuntimeException e) {
+					promise.fail(new OAuthError.ServerError(e));
+					return;
+				}
+				promise.complete(next);
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * Compose a step which turns the error into a value.
+	 * @param function The step which receives the error of this promise and
+	 * returns the value instead of it.
+	 * @return The promise of the value. If this promise completes with a
+	 * value, it is the same value.
+	 */
+	public Promise<T> recover(final Function<? super OAuthError, ? extends T> function) {
+		int current = state;
+		if (current == SUCCEEDED) {
+			return this;
+		} else if (current == FAILED) {
+			try {
+				return Promise.<T>of(function.apply(error()));
+			} catch (OAuthError e) {
+				return failed(e);
+			} catch (RuntimeException e) {
+				return failed(new OAuthError.ServerError(e));
+			}
+		}
+		final Promise<T> promise = new Promise<T>();
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				if (error == null) {
+					promise.complete(value);
+					return;
+				}
+				T next;
+				try {
+					next = function.apply(error);
+				} catch (OAuthError e) {
+					promise.fail(e);
+					return;
+				} catch (RuntimeException e) {
+					promise.fail(new OAuthError.ServerError(e));
+					return;
+				}
+				promise.complete(next);
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * Pass the result of this promise to the handler as a Try instance.
+	 * @param handler The handler which receives the value or the error.
+	 */
+	public void onComplete(final Handler<Try<OAuthError, T>> handler) {
+		if (handler instanceof TryHandler) {
+			// The handler only unwraps the Try, so no Try is needed.
+			@SuppressWarnings("unchecked")
+			Promise<T> other = ((TryHandler<T>)handler).promise;
+			forward(other);
+			return;
+		}
+		int current = state;
+		if (current >= SUCCEEDED) {
+			handler.handle(current == FAILED
+					? new Try<OAuthError, T>(error()) : new Try<OAuthError, T>(value()));
+			return;
+		}
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				handler.handle(error != null
+						? new Try<OAuthError, T>(error) : new Try<OAuthError, T>(value));
+			}
+		});
+	}
+
+	/**
+	 * Pass the result of the synchronous step to the handler as a Try
+	 * instance. This is the same as map(function).onComplete(handler), but
+	 * no promise and no callback are created when this promise has already
+	 * been completed.
+	 * @param function The step which receives the value of this promise and
+	 * returns the next value.
+	 * @param handler The handler which receives the next value or the error.
+	 */
+	public <R> void onComplete(final Function<? super T, R> function,
+			final Handler<Try<OAuthError, R>> handler) {
+		int current = state;
+		if (current >= SUCCEEDED) {
+			handler.handle(apply(function, value(), error()));
+			return;
+		}
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				handler.handle(apply(function, value, error));
+			}
+		});
+	}
+
+	/**
+	 * Create a handler which passes the result of the synchronous step to
+	 * the handler as a Try instance. Pass it to the DataHandler instead of a
+	 * promise when no other step follows. Unlike a promise, it keeps nothing
+	 * after the call, so it costs nothing when the DataHandler calls it on
+	 * the calling thread.
+	 * @param function The step which receives the value passed to the
+	 * created handler and returns the next value.
+	 * @param handler The handler which receives the next value or the error.
+	 * @return The created handler.
+	 */
+	public static <T, R> Handler<T> mapping(final Function<? super T, R> function,
+			final Handler<Try<OAuthError, R>> handler) {
+		return new Handler<T>() {
+			@Override
+			public void handle(T event) {
+				handler.handle(apply(function, event, null));
+			}
+		};
+	}
+
+	private static <T, R> Try<OAuthError, R> apply(Function<? super T, R> function,
+			T value, OAuthError error) {
+		if (error != null) {
+			return new Try<OAuthError, R>(error);
+		}
+		try {
+			return new Try<OAuthError, R>(function.apply(value));
+		} catch (OAuthError e) {
+			return new Try<OAuthError, R>(e);
+		} catch (RuntimeException e) {
+			return new Try<OAuthError, R>(new OAuthError.ServerError(e));
+		}
+	}
+
+	/**
+	 * Pass the value of this promise to the handler of the DataHandler style.
+	 * Because the handler cannot receive an error, null is passed when this
+	 * promise fails.
+	 * @param handler The handler which receives the value.
+	 */
+	public void onValue(final Handler<? super T> handler) {
+		if (state >= SUCCEEDED) {
+			handler.handle(value());
+			return;
+		}
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				handler.handle(value);
+			}
+		});
+	}
+
+	/**
+	 * Retrieve a handler which completes this promise with the value or the
+	 * error of the Try instance passed to it. Use this to receive the result
+	 * from a method which takes a handler of the Try, like the GrantHandler.
+	 * @return The handler.
+	 */
+	public Handler<Try<OAuthError, T>> asTryHandler() {
+		return new TryHandler<T>(this);
+	}
+
+	/**
+	 * Complete the other promise with the result of this promise.
+	 */
+	private void forward(final Promise<T> other) {
+		int current = state;
+		if (current >= SUCCEEDED) {
+			other.settle(current, result);
+			return;
+		}
+		addCallback(new Callback<T>() {
+			@Override
+			void completed(T value, OAuthError error) {
+				if (error != null) {
+					other.fail(error);
+				} else {
+					other.complete(value);
+				}
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean settle(int newState, Object newResult) {
+		if (!STATE.compareAndSet(this, PENDING, COMPLETING)) {
+			return false;
+		}
+		result = newResult;
+		state = newState;
+		fire(CALLBACKS.getAndSet(this, FIRED));
+		return true;
+	}
+
+	/**
+	 * Pass the result of this promise to the callback. If this promise has
+	 * already been completed, the callback is called immediately.
+	 */
+	void subscribe(Callback<T> callback) {
+		if (state >= SUCCEEDED) {
+			callback.completed(value(), error());
+			return;
+		}
+		addCallback(callback);
+	}
+
+	@SuppressWarnings("unchecked")
+	T value() {
+		return state == SUCCEEDED ? (T)result : null;
+	}
+
+	OAuthError error() {
+		return state == FAILED ? (OAuthError)result : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> Promise<R> cast() {
+		// A failed promise has no value, so it can be shared by any type.
+		return (Promise<R>)this;
+	}
+
+	private void addCallback(Callback<T> callback) {
+		// This is called only after this promise was seen as not completed.
+		// The promises created by of() and failed() never reach here.
+		while (true) {
+			Callback<T> head = callbacks;
+			if (head == FIRED) {
+				break;
+			}
+			callback.next = head;
+			if (CALLBACKS.compareAndSet(this, head, callback)) {
+				return;
+			}
+		}
+		// The callbacks have already been fired, so the result is available.
+		callback.completed(value(), error());
+	}
+
+	private void fire(Callback<T> list) {
+		// Callbacks are pushed in front of the list. Reverse it to call them
+		// in the registered order.
+		Callback<T> reversed = null;
+		while (list != null) {
+			Callback<T> next = list.next;
+			list.next = reversed;
+			reversed = list;
+			list = next;
+		}
+		T value = value();
+		OAuthError error = error();
+		RuntimeException thrown = null;
+		while (reversed != null) {
+			Callback<T> callback = reversed;
+			reversed = reversed.next;
+			// A callback which throws must not keep the others from being
+			// called. The first exception is rethrown after all of them.
+			try {
+				callback.completed(value, error);
+			} catch (RuntimeException e) {
+				if (thrown == null) {
+					thrown = e;
+				}
+			}
+		}
+		if (thrown != null) {
+			throw thrown;
+		}
+	}
+
+	abstract static class Callback<T> {
+
+		private Callback<T> next;
+
+		abstract void completed(T value, OAuthError error);
+
+	}
+
+	private static class TryHandler<T> implements Handler<Try<OAuthError, T>> {
+
+		private final Promise<T> promise;
+
+		TryHandler(Promise<T> promise) {
+			this.promise = promise;
+		}
+
+		@Override
+		public void handle(Try<OAuthError, T> event) {
+			try {
+				promise.complete(event.get());
+			} catch (OAuthError e) {
+				promise.fail(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.code;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This interface defines how to issue the authorization codes and to consume
+ * them. If it is set to the AuthorizationCode grant handler, the code sent by
+ * the client is consumed by this instance instead of the getAuthInfoByCode()
+ * method of the DataHandler. Each code must be consumed only once, even if
+ * the same code is sent by many requests at the same time.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface CodeStore {
+
+	/**
+	 * Issue a new authorization code for the authorization information. Call
+	 * this method from your authorization page.
+	 * @param authInfo The authorization information created by your
+	 * DataHandler. Its redirect URI must be set.
+	 * @return The authorization code.
+	 */
+	public String issue(AuthInfo authInfo);
+
+	/**
+	 * Consume the authorization code. Only the first calling for each code
+	 * retrieves the authorization information.
+	 * @param code The authorization code sent by the client.
+	 * @return The authorization information, or null if the code is unknown,
+	 * expired or already consumed.
+	 */
+	public AuthInfo consume(String code);
+
+}
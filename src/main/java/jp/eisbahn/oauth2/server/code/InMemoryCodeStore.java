@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.code;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.data.expiry.TimingWheel;
+import jp.eisbahn.oauth2.server.data.expiry.TimingWheel.Timeout;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.token.SecureTokenGenerator;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
+
+/**
+ * This class is an implementation of the CodeStore interface which keeps the
+ * authorization codes in memory.
+ * 
+ * Each code is kept with its deadline in a TimingWheel. The code is consumed
+ * by cancelling the deadline with compare-and-set, so only one of the
+ * requests which send the same code at the same time wins, and the code
+ * which has expired can no longer be consumed. Neither issuing nor consuming
+ * a code takes a lock. The expired codes are removed from the memory once per
+ * tick by the thread which issues or consumes a code at that time, so no
+ * background thread is needed.
+ * 
+ * The codes are lost when the process stops, and are not shared with other
+ * processes. Do not modify the authorization information after issuing the
+ * code.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryCodeStore implements CodeStore {
+
+	/** The default lifetime of the codes in seconds. */
+	public static final long DEFAULT_EXPIRES_IN = 600L;
+
+	private static final long TICK_DURATION = 1000L;
+
+	private final ConcurrentMap<String, Issued> codes =
+			new ConcurrentHashMap<String, Issued>();
+	private final TimingWheel<Issued> wheel =
+			new TimingWheel<Issued>(TICK_DURATION, System.currentTimeMillis());
+	private final AtomicLong nextPurge = new AtomicLong();
+	private TokenGenerator tokenGenerator = new SecureTokenGenerator();
+	private long expiresIn = DEFAULT_EXPIRES_IN;
+
+	/**
+	 * Set the generator of the codes. The default is a SecureTokenGenerator.
+	 * @param tokenGenerator The generator instance.
+	 */
+	public void setTokenGenerator(TokenGenerator tokenGenerator) {
+		this.tokenGenerator = tokenGenerator;
+	}
+
+	/**
+	 * Set the lifetime of the codes.
+	 * @param expiresIn The lifetime in seconds.
+	 */
+	public void setExpiresIn(long expiresIn) {
+		this.expiresIn = expiresIn;
+	}
+
+	/**
+	 * Retrieve the lifetime of the codes.
+	 * @return The lifetime in seconds.
+	 */
+	public long getExpiresIn() {
+		return expiresIn;
+	}
+
+	/**
+	 * Issue a new authorization code for the authorization information. The
+	 * authorization information is not modified.
+	 * @param authInfo The authorization information.
+	 * @return The authorization code.
+	 */
+	@Override
+	public String issue(AuthInfo authInfo) {
+		long now = currentTimeMillis();
+		purgeIfNeeded(now);
+		while (true) {
+			Issued issued = new Issued(tokenGenerator.generate(), authInfo);
+			issued.timeout = wheel.schedule(issued, now + expiresIn * 1000);
+			if (codes.putIfAbsent(issued.code, issued) == null) {
+				return issued.code;
+			}
+			issued.timeout.cancel();
+		}
+	}
+
+	/**
+	 * Consume the authorization code.
+	 * @param code The authorization code.
+	 * @return The authorization information, or null if the code is unknown,
+	 * expired or already consumed.
+	 */
+	@Override
+	public AuthInfo consume(String code) {
+		long now = currentTimeMillis();
+		purgeIfNeeded(now);
+		if (code == null) {
+			return null;
+		}
+		Issued issued = codes.get(code);
+		if (issued == null || issued.timeout.getDeadline() <= now
+				|| !issued.timeout.cancel()) {
+			return null;
+		}
+		codes.remove(code, issued);
+		return issued.authInfo;
+	}
+
+	/**
+	 * Retrieve the number of the codes kept currently, including the expired
+	 * ones which have not been removed yet.
+	 * @return The number of the codes.
+	 */
+	public int size() {
+		return codes.size();
+	}
+
+	/**
+	 * Remove the codes whose deadline has passed.
+	 * @param now The current time in milliseconds.
+	 * @return The number of the removed codes.
+	 */
+	public int purge(long now) {
+		List<Issued> expired = wheel.advance(now);
+		for (Issued issued : expired) {
+			codes.remove(issued.code, issued);
+		}
+		return expired.size();
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in milliseconds.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void purgeIfNeeded(long now) {
+		long next = nextPurge.get();
+		if (now >= next && nextPurge.compareAndSet(next, now + TICK_DURATION)) {
+			purge(now);
+		}
+	}
+
+	/**
+	 * The code issued for the authorization information. The same instance
+	 * is kept in the map and in the wheel, so only this code is removed when
+	 * its deadline passes.
+	 */
+	private static final class Issued {
+
+		private final String code;
+		private final AuthInfo authInfo;
+		// This is set before the instance is put into the map.
+		private Timeout<Issued> timeout;
+
+		private Issued(String code, AuthInfo authInfo) {
+			this.code = code;
+			this.authInfo = authInfo;
+		}
+
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This abstract class is a ManagedDataHandlerFactory which prepares shared
+ * resources at starting and hands them to each DataHandler.
+ * 
+ * The createResources() method is called by the start() method, and its
+ * result is passed to the createDataHandler() method for each request.
+ * Therefore, the DataHandler can be a lightweight object which only uses
+ * the shared resources. If the create() method is called before the start()
+ * method, this factory starts itself.
+ * 
+ * If the pool size is set, the released DataHandler instances are kept and
+ * reused for later requests instead of creating new ones. When a DataHandler
+ * is reused, its reset() method is called instead of the init() method. A
+ * cancelled DataHandler is never reused, because its database call may be
+ * still in progress.
+ * 
+ * @param <R> The type of the shared resources.
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class AbstractDataHandlerFactory<R> implements ManagedDataHandlerFactory {
+
+	private int poolSize;
+
+	private volatile boolean started;
+	private volatile R resources;
+	private volatile BlockingQueue<DataHandler> pool;
+
+	/**
+	 * Set the number of released DataHandler instances kept for reuse. If
+	 * this is 0 or this method is not called, the instances are not reused.
+	 * This must be called before the start() method.
+	 * @param poolSize The maximum number of kept instances.
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Retrieve the number of released DataHandler instances kept for reuse.
+	 * @return The maximum number of kept instances.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Prepare the shared resources. If this factory has already been
+	 * started, this method does nothing.
+	 * @throws Exception If the createResources() method fails.
+	 */
+	@Override
+	public synchronized void start() throws Exception {
+		if (started) {
+			return;
+		}
+		resources = createResources();
+		pool = poolSize > 0 ? new ArrayBlockingQueue<DataHandler>(poolSize) : null;
+		started = true;
+	}
+
+	/**
+	 * Close the shared resources and discard the kept DataHandler instances.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (!started) {
+			return;
+		}
+		started = false;
+		pool = null;
+		R current = resources;
+		resources = null;
+		closeResources(current);
+	}
+
+	/**
+	 * Check whether this factory has been started or not.
+	 * @return True if this factory is running.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Retrieve the shared resources.
+	 * @return The resources created by the createResources() method. If this
+	 * factory is not running, return null.
+	 */
+	public R getResources() {
+		return resources;
+	}
+
+	/**
+	 * Retrieve a DataHandler for the request. A kept instance is reused if
+	 * there is one.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		if (!started) {
+			try {
+				start();
+			} catch (Exception e) {
+				throw new IllegalStateException("The factory could not be started.", e);
+			}
+		}
+		BlockingQueue<DataHandler> current = pool;
+		if (current != null) {
+			DataHandler dataHandler = current.poll();
+			if (dataHandler != null) {
+				dataHandler.reuse(request);
+				return dataHandler;
+			}
+		}
+		return createDataHandler(request, resources);
+	}
+
+	/**
+	 * Keep the DataHandler for reuse if the pool has room.
+	 * @param dataHandler The DataHandler created by this factory.
+	 */
+	@Override
+	public void release(DataHandler dataHandler) {
+		BlockingQueue<DataHandler> current = pool;
+		if (current != null && dataHandler != null && !dataHandler.isCancelled()) {
+			current.offer(dataHandler);
+		}
+	}
+
+	/**
+	 * Create the resources shared by all DataHandler instances, like a
+	 * connection pool.
+	 * @return The shared resources.
+	 * @throws Exception If the resources could not be prepared.
+	 */
+	protected abstract R createResources() throws Exception;
+
+	/**
+	 * Close the shared resources. The default implementation does nothing.
+	 * @param resources The resources created by the createResources() method.
+	 */
+	protected void closeResources(R resources) {
+	}
+
+	/**
+	 * Create a new DataHandler instance.
+	 * @param request The request object.
+	 * @param resources The shared resources.
+	 * @return The DataHandler instance.
+	 */
+	protected abstract DataHandler createDataHandler(Request request, R resources);
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This interface defines the methods of the DataHandler which return the
+ * result as a Promise instead of passing it to a Handler.
+ *
+ * <p>
+ * The meaning of each method is the same as the method which has the same
+ * name in the DataHandler class. Unlike the Handler, the returned Promise can
+ * fail with an OAuthError. The error is returned to the client as it is.
+ * </p>
+ *
+ * <p>
+ * The grant handlers and the endpoints of this framework use this interface.
+ * If the DataHandler created by your DataHandlerFactory implements it (for
+ * instance, it extends the DataHandlerAsync class), its methods are called
+ * directly. Otherwise, the DataHandler is adapted by the
+ * AsyncDataHandlerAdapter class.
+ * </p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface AsyncDataHandler {
+
+	/**
+	 * Validate the client.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret string.
+	 * @param grantType The grant type string which the client required.
+	 * @return The promise of true if the client is valid.
+	 * @see DataHandler#validateClient(String, String, String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<Boolean> validateClient(String clientId, String clientSecret, String grantType);
+
+	/**
+	 * Retrieve the user's ID from the user's credential.
+	 * @param username The user's name.
+	 * @param password The user's password.
+	 * @return The promise of the user's ID, or null if not found.
+	 * @see DataHandler#getUserId(String, String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<String> getUserId(String username, String password);
+
+	/**
+	 * Create or update an authorization information.
+	 * @param clientId The client ID.
+	 * @param userId The user's ID.
+	 * @param scope The scope string.
+	 * @return The promise of the created or updated authorization information.
+	 * @see DataHandler#createOrUpdateAuthInfo(String, String, String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AuthInfo> createOrUpdateAuthInfo(String clientId, String userId, String scope);
+
+	/**
+	 * Create or update an access token.
+	 * @param authInfo The authorization information.
+	 * @return The promise of the created or updated access token.
+	 * @see DataHandler#createOrUpdateAccessToken(AuthInfo, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo);
+
+	/**
+	 * Retrieve the authorization information by the authorization code.
+	 * @param code The authorization code.
+	 * @return The promise of the authorization information, or null if not found.
+	 * @see DataHandler#getAuthInfoByCode(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AuthInfo> getAuthInfoByCode(String code);
+
+	/**
+	 * Retrieve the authorization information by the refresh token.
+	 * @param refreshToken The refresh token string.
+	 * @return The promise of the authorization information, or null if not found.
+	 * @see DataHandler#getAuthInfoByRefreshToken(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AuthInfo> getAuthInfoByRefreshToken(String refreshToken);
+
+	/**
+	 * Retrieve the client's user ID from the client credential.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret string.
+	 * @return The promise of the client's user ID, or null if not found.
+	 * @see DataHandler#getClientUserId(String, String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<String> getClientUserId(String clientId, String clientSecret);
+
+	/**
+	 * Validate the client by the client ID.
+	 * @param clientId The client ID.
+	 * @return The promise of true if the client is valid.
+	 * @see DataHandler#validateClientById(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<Boolean> validateClientById(String clientId);
+
+	/**
+	 * Validate the user by the user's ID.
+	 * @param userId The user's ID.
+	 * @return The promise of true if the user is valid.
+	 * @see DataHandler#validateUserById(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<Boolean> validateUserById(String userId);
+
+	/**
+	 * Retrieve the access token by the token string.
+	 * @param token The access token string.
+	 * @return The promise of the access token, or null if not found.
+	 * @see DataHandler#getAccessToken(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AccessToken> getAccessToken(String token);
+
+	/**
+	 * Retrieve the authorization information by its ID.
+	 * @param id The ID of the authorization information.
+	 * @return The promise of the authorization information, or null if not found.
+	 * @see DataHandler#getAuthInfoById(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<AuthInfo> getAuthInfoById(String id);
+
+	/**
+	 * Retrieve all information needed to access a protected resource with the
+	 * token string at once.
+	 * @param token The access token string.
+	 * @return The promise of the result.
+	 * @see DataHandler#introspectToken(String, jp.eisbahn.oauth2.server.async.Handler)
+	 */
+	Promise<TokenIntrospection> introspectToken(String token);
+
+}
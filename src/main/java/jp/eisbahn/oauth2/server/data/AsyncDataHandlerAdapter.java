@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This class adapts a DataHandler to the AsyncDataHandler interface.
+ * Each method passes a new Promise to the method of the DataHandler as the
+ * Handler, so no other object is created to receive the result. If the
+ * DataHandler implements the AsyncDataHandler interface, the methods are
+ * delegated to it instead. When the DataHandler has been cancelled, the
+ * methods fail without calling it.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class AsyncDataHandlerAdapter implements AsyncDataHandler {
+
+	private final DataHandler dataHandler;
+	private final AsyncDataHandler async;
+
+	/**
+	 * Initialize this instance.
+	 * @param dataHandler The DataHandler to adapt. If it implements the
+	 * AsyncDataHandler interface, its methods returning the promise are
+	 * called.
+	 */
+	public AsyncDataHandlerAdapter(DataHandler dataHandler) {
+		super();
+		this.dataHandler = dataHandler;
+		this.async = dataHandler instanceof AsyncDataHandler
+				? (AsyncDataHandler)dataHandler : null;
+	}
+
+	/**
+	 * Retrieve the AsyncDataHandler of the DataHandler. If the DataHandler
+	 * implements the AsyncDataHandler interface and has no deadline, it is
+	 * returned as it is. Otherwise, a new adapter is returned, so the steps
+	 * after the cancellation are stopped.
+	 * @param dataHandler The DataHandler instance.
+	 * @return The AsyncDataHandler instance.
+	 */
+	public static AsyncDataHandler adapt(DataHandler dataHandler) {
+		if (dataHandler instanceof AsyncDataHandler && dataHandler.getDeadline() == null) {
+			return (AsyncDataHandler)dataHandler;
+		}
+		return new AsyncDataHandlerAdapter(dataHandler);
+	}
+
+	/**
+	 * Retrieve the adapted DataHandler.
+	 * @return The DataHandler instance.
+	 */
+	public DataHandler getDataHandler() {
+		return dataHandler;
+	}
+
+	@Override
+	public Promise<Boolean> validateClient(String clientId, String clientSecret,
+			String grantType) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.validateClient(clientId, clientSecret, grantType);
+		}
+		Promise<Boolean> promise = new Promise<Boolean>();
+		dataHandler.validateClient(clientId, clientSecret, grantType, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<String> getUserId(String username, String password) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getUserId(username, password);
+		}
+		Promise<String> promise = new Promise<String>();
+		dataHandler.getUserId(username, password, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+			String userId, String scope) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.createOrUpdateAuthInfo(clientId, userId, scope);
+		}
+		Promise<AuthInfo> promise = new Promise<AuthInfo>();
+		dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.createOrUpdateAccessToken(authInfo);
+		}
+		Promise<AccessToken> promise = new Promise<AccessToken>();
+		dataHandler.createOrUpdateAccessToken(authInfo, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByCode(String code) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getAuthInfoByCode(code);
+		}
+		Promise<AuthInfo> promise = new Promise<AuthInfo>();
+		dataHandler.getAuthInfoByCode(code, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByRefreshToken(String refreshToken) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getAuthInfoByRefreshToken(refreshToken);
+		}
+		Promise<AuthInfo> promise = new Promise<AuthInfo>();
+		dataHandler.getAuthInfoByRefreshToken(refreshToken, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<String> getClientUserId(String clientId, String clientSecret) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getClientUserId(clientId, clientSecret);
+		}
+		Promise<String> promise = new Promise<String>();
+		dataHandler.getClientUserId(clientId, clientSecret, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(String clientId) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.validateClientById(clientId);
+		}
+		Promise<Boolean> promise = new Promise<Boolean>();
+		dataHandler.validateClientById(clientId, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(String userId) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.validateUserById(userId);
+		}
+		Promise<Boolean> promise = new Promise<Boolean>();
+		dataHandler.validateUserById(userId, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(String token) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getAccessToken(token);
+		}
+		Promise<AccessToken> promise = new Promise<AccessToken>();
+		dataHandler.getAccessToken(token, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(String id) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.getAuthInfoById(id);
+		}
+		Promise<AuthInfo> promise = new Promise<AuthInfo>();
+		dataHandler.getAuthInfoById(id, promise);
+		return promise;
+	}
+
+	@Override
+	public Promise<TokenIntrospection> introspectToken(String token) {
+		if (dataHandler.isCancelled()) {
+			return cancelled();
+		}
+		if (async != null) {
+			return async.introspectToken(token);
+		}
+		Promise<TokenIntrospection> promise = new Promise<TokenIntrospection>();
+		dataHandler.introspectToken(token, promise);
+		return promise;
+	}
+
+	private static <T> Promise<T> cancelled() {
+		// The request has already completed with the error of its deadline,
+		// so this error only stops the rest of the steps.
+		return Promise.failed(new OAuthError.TemporarilyUnavailable("The request was cancelled."));
+	}
+
+}
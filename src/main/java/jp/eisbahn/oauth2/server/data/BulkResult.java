@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+/**
+ * This class gathers the results of the individual calls made by the
+ * default implementations of the bulk methods, and passes them to the
+ * handler as a list in the original order when all of them have arrived.
+ * 
+ * @param <T> The type of each result.
+ * @author Yoichiro Tanaka
+ *
+ */
+class BulkResult<T> {
+
+	private final AtomicReferenceArray<Try<OAuthError, T>> results;
+	private final AtomicInteger remaining;
+	private final Handler<List<Try<OAuthError, T>>> handler;
+
+	BulkResult(int size, Handler<List<Try<OAuthError, T>>> handler) {
+		this.results = new AtomicReferenceArray<Try<OAuthError, T>>(size);
+		this.remaining = new AtomicInteger(size);
+		this.handler = handler;
+		if (size == 0) {
+			handler.handle(Collections.<Try<OAuthError, T>>emptyList());
+		}
+	}
+
+	Handler<Try<OAuthError, T>> slot(final int index) {
+		return new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.set(index, event);
+				if (remaining.decrementAndGet() == 0) {
+					List<Try<OAuthError, T>> list =
+							new ArrayList<Try<OAuthError, T>>(results.length());
+					for (int i = 0; i < results.length(); i++) {
+						list.add(results.get(i));
+					}
+					handler.handle(list);
+				}
+			}
+		};
+	}
+
+	Promise<T> promise(int index) {
+		Promise<T> promise = new Promise<T>();
+		promise.onComplete(slot(index));
+		return promise;
+	}
+
+}
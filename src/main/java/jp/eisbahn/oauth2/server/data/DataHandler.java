@@ -18,10 +18,22 @@
 
 package jp.eisbahn.oauth2.server.data;
 
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Cancellable;
+import jp.eisbahn.oauth2.server.async.Deadline;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Join;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+import jp.eisbahn.oauth2.server.token.SecureTokenGenerator;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
 
 /**
  * This abstract class defines some functions to provide and store each
@@ -81,19 +93,25 @@ import jp.eisbahn.oauth2.server.models.Request;
  *   <li>validateClientById(clientId)</li>
  *   <li>validateUserById(userId)</li>
  *   </ul>
+ * These four methods are called through introspectToken(token). If your
+ * storage can answer them with one query, override introspectToken().
  * </p>
  * 
  * @author Yoichiro Tanaka
  *
  */
-public abstract class DataHandler {
+public abstract class DataHandler implements Cancellable {
+
+	private static final TokenGenerator DEFAULT_TOKEN_GENERATOR = new SecureTokenGenerator();
 
 	private Request request;
+	private RequestContext context;
+	private Deadline deadline;
+	private volatile boolean cancelled;
 
 	/**
 	 * Initialize this instance with the request information.
-	 * This constructor calls the init() method to initialize a connection
-	 * to your database, a preparation of your cache and so on.
+	 * This constructor calls the init() method to prepare this instance.
 	 * @param request The request instance.
 	 */
 	public DataHandler(Request request) {
@@ -104,10 +122,29 @@ public abstract class DataHandler {
 	/**
 	 * This method is called at creating this instance.
 	 * You should implement an initialization procedure in this method.
+	 * Because this instance is created for each request, the resources shared
+	 * by requests, like a connection pool, should be prepared by a
+	 * ManagedDataHandlerFactory instead.
 	 */
 	protected void init() {
 	}
 
+	/**
+	 * This method is called when this instance is reused for another request
+	 * by the AbstractDataHandlerFactory. Clear the state kept for the previous
+	 * request in this method.
+	 */
+	protected void reset() {
+	}
+
+	final void reuse(Request request) {
+		this.request = request;
+		this.context = null;
+		this.deadline = null;
+		this.cancelled = false;
+		reset();
+	}
+
 	/**
 	 * Retrieve the request instance passed at creating this instance.
 	 * @return The request instance.
@@ -116,6 +153,79 @@ public abstract class DataHandler {
 		return request;
 	}
 
+	/**
+	 * Set the information parsed from the request by the Token endpoint.
+	 * @param context The context instance.
+	 */
+	public void setContext(RequestContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Retrieve the information parsed from the request by the Token
+	 * endpoint. You can use the grant type and the client credential in it
+	 * instead of parsing the request again.
+	 * @return The context instance. If this instance is not used by the
+	 * Token endpoint, return null.
+	 */
+	public final RequestContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Generate a new random string for an access token, a refresh token or
+	 * an authorization code. The TokenGenerator set to the grant handler is
+	 * used if the context has it. Otherwise, the default SecureTokenGenerator
+	 * is used.
+	 * @return The token string.
+	 */
+	protected String generateToken() {
+		RequestContext current = context;
+		TokenGenerator generator = current != null ? current.getTokenGenerator() : null;
+		return (generator != null ? generator : DEFAULT_TOKEN_GENERATOR).generate();
+	}
+
+	/**
+	 * Set the deadline of the request. This is called by the endpoint when a
+	 * timeout is configured.
+	 * @param deadline The deadline instance.
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Retrieve the deadline of the request. You can use the remaining time
+	 * of it as the timeout of your database queries.
+	 * @return The deadline instance. If no timeout is configured, return
+	 * null.
+	 */
+	public final Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Cancel this instance. This is called by the endpoint when the deadline
+	 * of the request passes before the result is returned, and the results
+	 * passed to the handlers after that are ignored. The methods of this
+	 * instance are not called through the AsyncDataHandlerAdapter any more.
+	 * If you can abort a query in progress, override this method and call
+	 * this super method.
+	 */
+	@Override
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Check whether this instance has been cancelled or not. A long-running
+	 * implementation can check this to stop its work early.
+	 * @return True if the cancel() method has been called.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 	/**
 	 * Validate the client and return the result.
 	 * This method is called at first for all grant types.
@@ -171,6 +281,66 @@ public abstract class DataHandler {
 	 */
 	public abstract void createOrUpdateAccessToken(AuthInfo authInfo, Handler<AccessToken> handler);
 
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once. This method is called by the BatchingDataHandlerFactory with the
+	 * writes gathered from concurrent requests. The default implementation
+	 * calls the createOrUpdateAuthInfo() method for each of them. If your
+	 * database supports bulk writes, override this method to write them in
+	 * one transaction.
+	 * @param authInfos The requested writes. Each element has the client ID,
+	 * the user ID and the scope. The same combination may appear more than
+	 * once.
+	 * @param handler The handler which receives the results in the same order
+	 * as the authInfos. Each result is the created or updated information,
+	 * null, or the error of that element only.
+	 */
+	public void createOrUpdateAuthInfos(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		BulkResult<AuthInfo> result = new BulkResult<AuthInfo>(authInfos.size(), handler);
+		for (int i = 0; i < authInfos.size(); i++) {
+			AuthInfo authInfo = authInfos.get(i);
+			createOrUpdateAuthInfo(authInfo.getClientId(), authInfo.getUserId(),
+					authInfo.getScope(), result.promise(i));
+		}
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once. This
+	 * method is called by the BatchingDataHandlerFactory with the writes
+	 * gathered from concurrent requests. The default implementation calls the
+	 * createOrUpdateAccessToken() method for each of them. If your database
+	 * supports bulk writes, override this method to write them in one
+	 * transaction.
+	 * @param authInfos The authorization information of each access token.
+	 * @param handler The handler which receives the results in the same order
+	 * as the authInfos. Each result is the created or updated access token,
+	 * null, or the error of that element only.
+	 */
+	public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		BulkResult<AccessToken> result =
+				new BulkResult<AccessToken>(authInfos.size(), handler);
+		for (int i = 0; i < authInfos.size(); i++) {
+			createOrUpdateAccessToken(authInfos.get(i), result.promise(i));
+		}
+	}
+
+	/**
+	 * Remove the entries whose lifetime has passed. This method is called by
+	 * the ExpiringDataHandlerFactory in batches when the deadlines arrive, so
+	 * your database does not need to scan all entries to find the expired
+	 * ones. Each entry may have been extended or removed meanwhile, so remove
+	 * it only if it has expired actually. The default implementation removes
+	 * nothing.
+	 * @param expirations The entries which should have expired.
+	 * @param handler The handler which receives the number of the removed
+	 * entries, or null if they could not be removed.
+	 */
+	public void purgeExpired(List<Expiration> expirations, Handler<Integer> handler) {
+		handler.handle(0);
+	}
+
 	/**
 	 * Retrieve the authorization information by the authorization code value.
 	 * This method is used for an Authorization Code grant. The authorization
@@ -260,4 +430,69 @@ public abstract class DataHandler {
 	 */
 	public abstract void getAuthInfoById(String id, Handler<AuthInfo> handler);
 
+	/**
+	 * Retrieve all information needed to access a protected resource with the
+	 * token string at once.
+	 * This method is used at accessing a protected resource. The default
+	 * implementation calls getAccessToken() and getAuthInfoById() in order,
+	 * and stops when the access token is not found or has expired, or the
+	 * authorization information is not found. Then it calls
+	 * validateClientById() and validateUserById() concurrently. The result of
+	 * validateUserById() is ignored when the client is invalid. If your
+	 * database can fetch them by one query, you should override this method
+	 * to reduce the round trips.
+	 * @param token The access token string.
+	 * @param handler The handler which receives the result. Each property of
+	 * the result which was not looked up must be left as null.
+	 */
+	public void introspectToken(String token, final Handler<TokenIntrospection> handler) {
+		final TokenIntrospection introspection = new TokenIntrospection();
+		getAccessToken(token, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				introspection.setAccessToken(accessToken);
+				if (accessToken == null || accessToken.isExpired(System.currentTimeMillis())) {
+					handler.handle(introspection);
+					return;
+				}
+				getAuthInfoById(accessToken.getAuthId(), new Handler<AuthInfo>() {
+					@Override
+					public void handle(final AuthInfo authInfo) {
+						introspection.setAuthInfo(authInfo);
+						if (authInfo == null) {
+							handler.handle(introspection);
+							return;
+						}
+						// The client and the user are independent, so both are
+						// validated at the same time.
+						final Join<Boolean, Boolean> validity = new Join<Boolean, Boolean>();
+						validateClientById(authInfo.getClientId(), validity.first());
+						validateUserById(authInfo.getUserId(), validity.second());
+						validity.onValue(new Handler<Join<Boolean, Boolean>>() {
+							@Override
+							public void handle(Join<Boolean, Boolean> event) {
+								setValidity(introspection, validity);
+								handler.handle(introspection);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Set the results of validateClientById() and validateUserById() to the
+	 * introspection. The user's validity is left as null when the client is
+	 * invalid, as if validateUserById() had not been called.
+	 */
+	static void setValidity(TokenIntrospection introspection,
+			Join<Boolean, Boolean> validity) {
+		Boolean clientValid = validity.getFirst();
+		introspection.setClientValid(clientValid);
+		if (Boolean.TRUE.equals(clientValid)) {
+			introspection.setUserValid(validity.getSecond());
+		}
+	}
+
 }
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Function;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Join;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This abstract class is a DataHandler whose methods return a Promise.
+ * Extend this class instead of the DataHandler when your database client
+ * returns futures. The methods of the DataHandler which take a Handler are
+ * implemented with the methods of the AsyncDataHandler interface. Because
+ * a Handler cannot receive an error, null is passed to it when the Promise
+ * fails. The grant handlers and the endpoints of this framework call the
+ * methods returning a Promise, so the error reaches the client.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class DataHandlerAsync extends DataHandler implements AsyncDataHandler {
+
+	public DataHandlerAsync(Request request) {
+		super(request);
+	}
+
+	@Override
+	public void validateClient(String clientId, String clientSecret,
+			String grantType, Handler<Boolean> handler) {
+		validateClient(clientId, clientSecret, grantType).onValue(handler);
+	}
+
+	@Override
+	public void getUserId(String username, String password,
+			Handler<String> handler) {
+		getUserId(username, password).onValue(handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(String clientId, String userId,
+			String scope, Handler<AuthInfo> handler) {
+		createOrUpdateAuthInfo(clientId, userId, scope).onValue(handler);
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(AuthInfo authInfo,
+			Handler<AccessToken> handler) {
+		createOrUpdateAccessToken(authInfo).onValue(handler);
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once. The default implementation calls the createOrUpdateAuthInfo()
+	 * method returning a Promise for each of them, so the error of each
+	 * element is kept.
+	 */
+	@Override
+	public void createOrUpdateAuthInfos(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		BulkResult<AuthInfo> result = new BulkResult<AuthInfo>(authInfos.size(), handler);
+		for (int i = 0; i < authInfos.size(); i++) {
+			AuthInfo authInfo = authInfos.get(i);
+			createOrUpdateAuthInfo(authInfo.getClientId(), authInfo.getUserId(),
+					authInfo.getScope()).onComplete(result.slot(i));
+		}
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once. The
+	 * default implementation calls the createOrUpdateAccessToken() method
+	 * returning a Promise for each of them, so the error of each element is
+	 * kept.
+	 */
+	@Override
+	public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		BulkResult<AccessToken> result =
+				new BulkResult<AccessToken>(authInfos.size(), handler);
+		for (int i = 0; i < authInfos.size(); i++) {
+			createOrUpdateAccessToken(authInfos.get(i)).onComplete(result.slot(i));
+		}
+	}
+
+	@Override
+	public void purgeExpired(List<Expiration> expirations, Handler<Integer> handler) {
+		purgeExpired(expirations).onValue(handler);
+	}
+
+	/**
+	 * Remove the entries whose lifetime has passed. Each entry may have been
+	 * extended or removed meanwhile, so remove it only if it has expired
+	 * actually. The default implementation removes nothing.
+	 * @param expirations The entries which should have expired.
+	 * @return The promise of the number of the removed entries.
+	 */
+	public Promise<Integer> purgeExpired(List<Expiration> expirations) {
+		return Promise.of(0);
+	}
+
+	@Override
+	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+		getAuthInfoByCode(code).onValue(handler);
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(String refreshToken,
+			Handler<AuthInfo> handler) {
+		getAuthInfoByRefreshToken(refreshToken).onValue(handler);
+	}
+
+	@Override
+	public void getClientUserId(String clientId, String clientSecret,
+			Handler<String> handler) {
+		getClientUserId(clientId, clientSecret).onValue(handler);
+	}
+
+	@Override
+	public void validateClientById(String clientId, Handler<Boolean> handler) {
+		validateClientById(clientId).onValue(handler);
+	}
+
+	@Override
+	public void validateUserById(String userId, Handler<Boolean> handler) {
+		validateUserById(userId).onValue(handler);
+	}
+
+	@Override
+	public void getAccessToken(String token, Handler<AccessToken> handler) {
+		getAccessToken(token).onValue(handler);
+	}
+
+	@Override
+	public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+		getAuthInfoById(id).onValue(handler);
+	}
+
+	@Override
+	public void introspectToken(String token, Handler<TokenIntrospection> handler) {
+		introspectToken(token).onValue(handler);
+	}
+
+	/**
+	 * Retrieve all information needed to access a protected resource with the
+	 * token string at once. The default implementation composes
+	 * getAccessToken(), getAuthInfoById(), validateClientById() and
+	 * validateUserById() in the same way as the DataHandler does. The client
+	 * and the user are validated concurrently. Override
+	 * this method if your database can fetch them by one query.
+	 * @param token The access token string.
+	 * @return The promise of the result.
+	 */
+	@Override
+	public Promise<TokenIntrospection> introspectToken(String token) {
+		final TokenIntrospection introspection = new TokenIntrospection();
+		return getAccessToken(token).then(new Function<AccessToken, Promise<AuthInfo>>() {
+			@Override
+			public Promise<AuthInfo> apply(AccessToken accessToken) {
+				introspection.setAccessToken(accessToken);
+				if (accessToken == null || accessToken.isExpired(System.currentTimeMillis())) {
+					return null;
+				}
+				return getAuthInfoById(accessToken.getAuthId());
+			}
+		}).then(new Function<AuthInfo, Promise<Join<Boolean, Boolean>>>() {
+			@Override
+			public Promise<Join<Boolean, Boolean>> apply(AuthInfo authInfo) {
+				introspection.setAuthInfo(authInfo);
+				if (authInfo == null) {
+					return null;
+				}
+				return Join.of(validateClientById(authInfo.getClientId()),
+						validateUserById(authInfo.getUserId()));
+			}
+		}).map(new Function<Join<Boolean, Boolean>, TokenIntrospection>() {
+			@Override
+			public TokenIntrospection apply(Join<Boolean, Boolean> validity) {
+				if (validity != null) {
+					setValidity(introspection, validity);
+				}
+				return introspection;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class provides the methods to handle a DataHandlerFactory which might
+ * be a ManagedDataHandlerFactory. Each method does nothing for the factory
+ * which does not have its own lifecycle.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class DataHandlerFactoryUtil {
+
+	private DataHandlerFactoryUtil() {
+	}
+
+	/**
+	 * Start the factory if it is a ManagedDataHandlerFactory.
+	 * @param dataHandlerFactory The factory instance.
+	 * @throws Exception If the factory could not be started.
+	 */
+	public static void start(DataHandlerFactory dataHandlerFactory) throws Exception {
+		if (dataHandlerFactory instanceof ManagedDataHandlerFactory) {
+			((ManagedDataHandlerFactory)dataHandlerFactory).start();
+		}
+	}
+
+	/**
+	 * Stop the factory if it is a ManagedDataHandlerFactory.
+	 * @param dataHandlerFactory The factory instance.
+	 */
+	public static void stop(DataHandlerFactory dataHandlerFactory) {
+		if (dataHandlerFactory instanceof ManagedDataHandlerFactory) {
+			((ManagedDataHandlerFactory)dataHandlerFactory).stop();
+		}
+	}
+
+	/**
+	 * Release the DataHandler to the factory if it is a
+	 * ManagedDataHandlerFactory.
+	 * @param dataHandlerFactory The factory which created the DataHandler.
+	 * @param dataHandler The DataHandler which is not used any more.
+	 */
+	public static void release(DataHandlerFactory dataHandlerFactory,
+			DataHandler dataHandler) {
+		if (dataHandlerFactory instanceof ManagedDataHandlerFactory) {
+			((ManagedDataHandlerFactory)dataHandlerFactory).release(dataHandler);
+		}
+	}
+
+	/**
+	 * Wrap the handler so that the DataHandler is released to the factory
+	 * before the handler receives the result.
+	 * @param dataHandlerFactory The factory which created the DataHandler.
+	 * @param dataHandler The DataHandler which produces the result.
+	 * @param handler The handler to receive the result.
+	 * @return The wrapped handler. If the factory is not a
+	 * ManagedDataHandlerFactory, return the handler itself.
+	 */
+	public static <T> Handler<T> releasing(DataHandlerFactory dataHandlerFactory,
+			final DataHandler dataHandler, final Handler<T> handler) {
+		if (!(dataHandlerFactory instanceof ManagedDataHandlerFactory)) {
+			return handler;
+		}
+		final ManagedDataHandlerFactory factory = (ManagedDataHandlerFactory)dataHandlerFactory;
+		return new Handler<T>() {
+			@Override
+			public void handle(T event) {
+				factory.release(dataHandler);
+				handler.handle(event);
+			}
+		};
+	}
+
+}
@@ -1,99 +1,430 @@
 package jp.eisbahn.oauth2.server.data;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
 
+/**
+ * This abstract class is a DataHandler whose methods return the result
+ * directly. Extend this class when your database access is blocking.
+ * 
+ * By default, each method is called on the caller thread and the result is
+ * passed to the Handler immediately. If the Executor is set with the
+ * setExecutor() method, each method is called on a thread of the Executor
+ * instead, so the caller thread is not blocked while waiting for the
+ * database. The Handler is always called once, even if the method fails.
+ * When the method throws an exception on the thread, the Promise passed as
+ * the Handler fails with the ServerError. If the DataHandler has been
+ * cancelled before the thread starts, the method is not called and the
+ * Promise fails with the TemporarilyUnavailable. Any other Handler receives
+ * null in both cases, like the handler passed to Promise.onValue().
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
 public abstract class DataHandlerSync extends DataHandler {
 
+	private Executor executor;
+
 	public DataHandlerSync(Request request) {
 		super(request);
 	}
 
+	/**
+	 * Set the Executor to call each method on. If this is null or this method
+	 * is not called, each method is called on the caller thread.
+	 * @param executor The Executor instance, like the one running each task
+	 * on a virtual thread.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Retrieve the Executor to call each method on.
+	 * @return The Executor instance. If it is not set, return null.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
 	@Override
-	public void validateClient(String clientId, String clientSecret,
-			String grantType, Handler<Boolean> handler) {
-		handler.handle(validateClient(clientId, clientSecret, grantType));
+	public void validateClient(final String clientId, final String clientSecret,
+			final String grantType, final Handler<Boolean> handler) {
+		if (executor == null) {
+			handler.handle(validateClient(clientId, clientSecret, grantType));
+			return;
+		}
+		execute(new Task<Boolean>(handler) {
+			@Override
+			Boolean call() {
+				return validateClient(clientId, clientSecret, grantType);
+			}
+		});
 	}
 
 	public abstract boolean validateClient(String clientId, String clientSecret,
 			String grantType);
 
 	@Override
-	public void getUserId(String username, String password,
-			Handler<String> handler) {
-		handler.handle(getUserId(username, password));
-
+	public void getUserId(final String username, final String password,
+			final Handler<String> handler) {
+		if (executor == null) {
+			handler.handle(getUserId(username, password));
+			return;
+		}
+		execute(new Task<String>(handler) {
+			@Override
+			String call() {
+				return getUserId(username, password);
+			}
+		});
 	}
 
 	public abstract String getUserId(String username, String password);
 
 	@Override
-	public void createOrUpdateAuthInfo(String clientId, String userId,
-			String scope, Handler<AuthInfo> handler) {
-		handler.handle(createOrUpdateAuthInfo(clientId, userId, scope));
+	public void createOrUpdateAuthInfo(final String clientId, final String userId,
+			final String scope, final Handler<AuthInfo> handler) {
+		if (executor == null) {
+			handler.handle(createOrUpdateAuthInfo(clientId, userId, scope));
+			return;
+		}
+		execute(new Task<AuthInfo>(handler) {
+			@Override
+			AuthInfo call() {
+				return createOrUpdateAuthInfo(clientId, userId, scope);
+			}
+		});
 	}
 
 	public abstract AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope);
 
 	@Override
-	public void createOrUpdateAccessToken(AuthInfo authInfo,
-			Handler<AccessToken> handler) {
-		handler.handle(createOrUpdateAccessToken(authInfo));
+	public void createOrUpdateAccessToken(final AuthInfo authInfo,
+			final Handler<AccessToken> handler) {
+		if (executor == null) {
+			handler.handle(createOrUpdateAccessToken(authInfo));
+			return;
+		}
+		execute(new Task<AccessToken>(handler) {
+			@Override
+			AccessToken call() {
+				return createOrUpdateAccessToken(authInfo);
+			}
+		});
 	}
 
 	public abstract AccessToken createOrUpdateAccessToken(AuthInfo authInfo);
 
 	@Override
-	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
-		handler.handle(getAuthInfoByCode(code));
+	public void createOrUpdateAuthInfos(final List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		if (executor == null) {
+			handler.handle(createOrUpdateAuthInfos(authInfos));
+			return;
+		}
+		execute(new Task<List<Try<OAuthError, AuthInfo>>>(handler) {
+			@Override
+			List<Try<OAuthError, AuthInfo>> call() {
+				return createOrUpdateAuthInfos(authInfos);
+			}
+		});
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once. The default implementation calls the createOrUpdateAuthInfo()
+	 * method for each of them, and the exception thrown by it is returned as
+	 * the ServerError of that element. Override this method to write them in
+	 * one transaction.
+	 * @param authInfos The requested writes. Each element has the client ID,
+	 * the user ID and the scope.
+	 * @return The results in the same order as the authInfos.
+	 */
+	public List<Try<OAuthError, AuthInfo>> createOrUpdateAuthInfos(List<AuthInfo> authInfos) {
+		List<Try<OAuthError, AuthInfo>> results =
+				new ArrayList<Try<OAuthError, AuthInfo>>(authInfos.size());
+		for (AuthInfo authInfo : authInfos) {
+			try {
+				results.add(new Try<OAuthError, AuthInfo>(createOrUpdateAuthInfo(
+						authInfo.getClientId(), authInfo.getUserId(), authInfo.getScope())));
+			} catch (RuntimeException e) {
+				results.add(new Try<OAuthError, AuthInfo>(new OAuthError.ServerError(e)));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public void createOrUpdateAccessTokens(final List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		if (executor == null) {
+			handler.handle(createOrUpdateAccessTokens(authInfos));
+			return;
+		}
+		execute(new Task<List<Try<OAuthError, AccessToken>>>(handler) {
+			@Override
+			List<Try<OAuthError, AccessToken>> call() {
+				return createOrUpdateAccessTokens(authInfos);
+			}
+		});
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once. The
+	 * default implementation calls the createOrUpdateAccessToken() method for
+	 * each of them, and the exception thrown by it is returned as the
+	 * ServerError of that element. Override this method to write them in one
+	 * transaction.
+	 * @param authInfos The authorization information of each access token.
+	 * @return The results in the same order as the authInfos.
+	 */
+	public List<Try<OAuthError, AccessToken>> createOrUpdateAccessTokens(List<AuthInfo> authInfos) {
+		List<Try<OAuthError, AccessToken>> results =
+				new ArrayList<Try<OAuthError, AccessToken>>(authInfos.size());
+		for (AuthInfo authInfo : authInfos) {
+			try {
+				results.add(new Try<OAuthError, AccessToken>(createOrUpdateAccessToken(authInfo)));
+			} catch (RuntimeException e) {
+				results.add(new Try<OAuthError, AccessToken>(new OAuthError.ServerError(e)));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public void purgeExpired(final List<Expiration> expirations,
+			final Handler<Integer> handler) {
+		if (executor == null) {
+			handler.handle(purgeExpired(expirations));
+			return;
+		}
+		execute(new Task<Integer>(handler) {
+			@Override
+			Integer call() {
+				return purgeExpired(expirations);
+			}
+		});
+	}
+
+	/**
+	 * Remove the entries whose lifetime has passed. Each entry may have been
+	 * extended or removed meanwhile, so remove it only if it has expired
+	 * actually. The default implementation removes nothing.
+	 * @param expirations The entries which should have expired.
+	 * @return The number of the removed entries.
+	 */
+	public int purgeExpired(List<Expiration> expirations) {
+		return 0;
+	}
+
+	@Override
+	public void getAuthInfoByCode(final String code, final Handler<AuthInfo> handler) {
+		if (executor == null) {
+			handler.handle(getAuthInfoByCode(code));
+			return;
+		}
+		execute(new Task<AuthInfo>(handler) {
+			@Override
+			AuthInfo call() {
+				return getAuthInfoByCode(code);
+			}
+		});
 	}
 
 	public abstract AuthInfo getAuthInfoByCode(String code);
 
 	@Override
-	public void getAuthInfoByRefreshToken(String refreshToken,
-			Handler<AuthInfo> handler) {
-		handler.handle(getAuthInfoByRefreshToken(refreshToken));
+	public void getAuthInfoByRefreshToken(final String refreshToken,
+			final Handler<AuthInfo> handler) {
+		if (executor == null) {
+			handler.handle(getAuthInfoByRefreshToken(refreshToken));
+			return;
+		}
+		execute(new Task<AuthInfo>(handler) {
+			@Override
+			AuthInfo call() {
+				return getAuthInfoByRefreshToken(refreshToken);
+			}
+		});
 	}
 
 	public abstract AuthInfo getAuthInfoByRefreshToken(String refreshToken);
 
 	@Override
-	public void getClientUserId(String clientId, String clientSecret,
-			Handler<String> handler) {
-		handler.handle(getClientUserId(clientId, clientSecret));
+	public void getClientUserId(final String clientId, final String clientSecret,
+			final Handler<String> handler) {
+		if (executor == null) {
+			handler.handle(getClientUserId(clientId, clientSecret));
+			return;
+		}
+		execute(new Task<String>(handler) {
+			@Override
+			String call() {
+				return getClientUserId(clientId, clientSecret);
+			}
+		});
 	}
 
 	public abstract String getClientUserId(String clientId, String clientSecret);
 
 	@Override
-	public void validateClientById(String clientId, Handler<Boolean> handler) {
-		handler.handle(validateClientById(clientId));
+	public void validateClientById(final String clientId, final Handler<Boolean> handler) {
+		if (executor == null) {
+			handler.handle(validateClientById(clientId));
+			return;
+		}
+		execute(new Task<Boolean>(handler) {
+			@Override
+			Boolean call() {
+				return validateClientById(clientId);
+			}
+		});
 	}
 
 	public abstract boolean validateClientById(String clientId);
 
 	@Override
-	public void validateUserById(String userId, Handler<Boolean> handler) {
-		handler.handle(validateUserById(userId));
+	public void validateUserById(final String userId, final Handler<Boolean> handler) {
+		if (executor == null) {
+			handler.handle(validateUserById(userId));
+			return;
+		}
+		execute(new Task<Boolean>(handler) {
+			@Override
+			Boolean call() {
+				return validateUserById(userId);
+			}
+		});
 	}
 
 	public abstract boolean validateUserById(String userId);
 
 	@Override
-	public void getAccessToken(String token, Handler<AccessToken> handler) {
-		handler.handle(getAccessToken(token));
+	public void getAccessToken(final String token, final Handler<AccessToken> handler) {
+		if (executor == null) {
+			handler.handle(getAccessToken(token));
+			return;
+		}
+		execute(new Task<AccessToken>(handler) {
+			@Override
+			AccessToken call() {
+				return getAccessToken(token);
+			}
+		});
 	}
 
 	public abstract AccessToken getAccessToken(String token);
 
 	@Override
-	public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
-		handler.handle(getAuthInfoById(id));
+	public void getAuthInfoById(final String id, final Handler<AuthInfo> handler) {
+		if (executor == null) {
+			handler.handle(getAuthInfoById(id));
+			return;
+		}
+		execute(new Task<AuthInfo>(handler) {
+			@Override
+			AuthInfo call() {
+				return getAuthInfoById(id);
+			}
+		});
 	}
 
 	public abstract AuthInfo getAuthInfoById(String id);
 
+	@Override
+	public void introspectToken(final String token,
+			final Handler<TokenIntrospection> handler) {
+		if (executor == null) {
+			handler.handle(introspectToken(token));
+			return;
+		}
+		execute(new Task<TokenIntrospection>(handler) {
+			@Override
+			TokenIntrospection call() {
+				return introspectToken(token);
+			}
+		});
+	}
+
+	public TokenIntrospection introspectToken(String token) {
+		TokenIntrospection introspection = new TokenIntrospection();
+		AccessToken accessToken = getAccessToken(token);
+		introspection.setAccessToken(accessToken);
+		if (accessToken == null || accessToken.isExpired(System.currentTimeMillis())) {
+			return introspection;
+		}
+		AuthInfo authInfo = getAuthInfoById(accessToken.getAuthId());
+		introspection.setAuthInfo(authInfo);
+		if (authInfo == null) {
+			return introspection;
+		}
+		boolean clientValid = validateClientById(authInfo.getClientId());
+		introspection.setClientValid(clientValid);
+		if (clientValid) {
+			introspection.setUserValid(validateUserById(authInfo.getUserId()));
+		}
+		return introspection;
+	}
+
+	private <T> void execute(Task<T> task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			OAuthError error = new OAuthError.TemporarilyUnavailable("The server is busy.");
+			error.initCause(e);
+			task.fail(error);
+		}
+	}
+
+	private abstract class Task<T> implements Runnable {
+
+		private final Handler<T> handler;
+
+		private Task(Handler<T> handler) {
+			this.handler = handler;
+		}
+
+		abstract T call();
+
+		@Override
+		public void run() {
+			if (isCancelled()) {
+				// The request has already completed with the error of its
+				// deadline, so this error only stops the rest of the steps.
+				fail(new OAuthError.TemporarilyUnavailable("The request was cancelled."));
+				return;
+			}
+			T result;
+			try {
+				result = call();
+			} catch (RuntimeException e) {
+				fail(new OAuthError.ServerError(e));
+				return;
+			}
+			handler.handle(result);
+		}
+
+		private void fail(OAuthError error) {
+			if (handler instanceof Promise) {
+				((Promise<T>)handler).fail(error);
+			} else {
+				handler.handle(null);
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+/**
+ * This interface is a DataHandlerFactory which has its own lifecycle.
+ * 
+ * The TokenServlet and the ProtectedResourceFilter call the start() method
+ * at their initialization and the stop() method at their destruction. Open
+ * the resources shared by all requests, like a connection pool, in the
+ * start() method instead of the init() method of the DataHandler, so that
+ * they are not prepared for each request.
+ * 
+ * The endpoints call the release() method when they finish using the
+ * DataHandler created for a request. The factory can reuse the instance for
+ * another request. The release() method might not be called for a request
+ * which failed before the DataHandler was used, so the factory must not rely
+ * on it to free any resource.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ManagedDataHandlerFactory extends DataHandlerFactory {
+
+	/**
+	 * Start this factory. This is called once before the first request.
+	 * @throws Exception If the shared resources could not be prepared.
+	 */
+	public void start() throws Exception;
+
+	/**
+	 * Stop this factory and close the shared resources. No request is
+	 * handled after this call.
+	 */
+	public void stop();
+
+	/**
+	 * Receive the DataHandler which is not used by the endpoint any more.
+	 * @param dataHandler The DataHandler created by this factory.
+	 */
+	public void release(DataHandler dataHandler);
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Deadline;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This abstract class is a DataHandler which wraps another DataHandler, like
+ * the caching or the limiting one. It is created by the subclasses of the
+ * WrappingDataHandlerFactory.
+ * 
+ * All methods, including the bulk methods and the purgeExpired() method,
+ * are forwarded to the wrapped DataHandler. The context, the deadline and the cancellation are
+ * passed to it as well. Override the methods which the subclass handles, and
+ * call the wrapped DataHandler through the getTarget() method.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class WrappingDataHandler extends DataHandlerAsync {
+
+	private final DataHandler dataHandler;
+	private final AsyncDataHandler target;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param dataHandler The wrapped DataHandler.
+	 */
+	protected WrappingDataHandler(Request request, DataHandler dataHandler) {
+		super(request);
+		this.dataHandler = dataHandler;
+		this.target = new AsyncDataHandlerAdapter(dataHandler);
+	}
+
+	/**
+	 * Retrieve the wrapped DataHandler instance.
+	 * @return The wrapped DataHandler instance.
+	 */
+	public DataHandler getDataHandler() {
+		return dataHandler;
+	}
+
+	/**
+	 * Retrieve the wrapped DataHandler as the AsyncDataHandler. Its methods
+	 * fail when the wrapped DataHandler has been cancelled.
+	 * @return The AsyncDataHandler instance.
+	 */
+	protected AsyncDataHandler getTarget() {
+		return target;
+	}
+
+	@Override
+	public void setContext(RequestContext context) {
+		super.setContext(context);
+		dataHandler.setContext(context);
+	}
+
+	@Override
+	public void setDeadline(Deadline deadline) {
+		super.setDeadline(deadline);
+		dataHandler.setDeadline(deadline);
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		dataHandler.cancel();
+	}
+
+	@Override
+	public Promise<Boolean> validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return target.validateClient(clientId, clientSecret, grantType);
+	}
+
+	@Override
+	public Promise<String> getUserId(String username, String password) {
+		return target.getUserId(username, password);
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+			String userId, String scope) {
+		return target.createOrUpdateAuthInfo(clientId, userId, scope);
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		return target.createOrUpdateAccessToken(authInfo);
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once with the bulk method of the wrapped DataHandler.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAuthInfos(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		dataHandler.createOrUpdateAuthInfos(authInfos, handler);
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once with the
+	 * bulk method of the wrapped DataHandler.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		dataHandler.createOrUpdateAccessTokens(authInfos, handler);
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByCode(String code) {
+		return target.getAuthInfoByCode(code);
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByRefreshToken(String refreshToken) {
+		return target.getAuthInfoByRefreshToken(refreshToken);
+	}
+
+	@Override
+	public Promise<String> getClientUserId(String clientId, String clientSecret) {
+		return target.getClientUserId(clientId, clientSecret);
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(String clientId) {
+		return target.validateClientById(clientId);
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(String userId) {
+		return target.validateUserById(userId);
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(String token) {
+		return target.getAccessToken(token);
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(String id) {
+		return target.getAuthInfoById(id);
+	}
+
+	@Override
+	public Promise<TokenIntrospection> introspectToken(String token) {
+		return target.introspectToken(token);
+	}
+
+	/**
+	 * Delete the expired tokens with the purgeExpired() method of the wrapped
+	 * DataHandler.
+	 * @param expirations The expirations of the tokens.
+	 * @return The promise of the number of the deleted tokens.
+	 */
+	@Override
+	public Promise<Integer> purgeExpired(List<Expiration> expirations) {
+		Promise<Integer> promise = new Promise<Integer>();
+		dataHandler.purgeExpired(expirations, promise);
+		return promise;
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+/**
+ * This abstract class is a ManagedDataHandlerFactory which wraps another
+ * DataHandlerFactory, like the caching or the limiting one.
+ * 
+ * The start() and the stop() methods are forwarded to the wrapped factory if
+ * it is a ManagedDataHandlerFactory. The release() method takes the wrapped
+ * DataHandler out with the unwrap() method and releases it to the wrapped
+ * factory. Override the start() and the stop() methods to prepare and close
+ * the resources of the subclass, and call them of this class.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class WrappingDataHandlerFactory implements ManagedDataHandlerFactory {
+
+	private DataHandlerFactory dataHandlerFactory;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the create() method.
+	 */
+	public WrappingDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public WrappingDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		this();
+		this.dataHandlerFactory = dataHandlerFactory;
+	}
+
+	/**
+	 * Set the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public void setDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		this.dataHandlerFactory = dataHandlerFactory;
+	}
+
+	/**
+	 * Retrieve the wrapped factory.
+	 * @return The factory to create the DataHandler which actually accesses
+	 * to your database.
+	 */
+	public DataHandlerFactory getDataHandlerFactory() {
+		return dataHandlerFactory;
+	}
+
+	/**
+	 * Start the wrapped factory if it is a ManagedDataHandlerFactory.
+	 * @throws Exception If the wrapped factory could not be started.
+	 */
+	@Override
+	public void start() throws Exception {
+		DataHandlerFactoryUtil.start(dataHandlerFactory);
+	}
+
+	/**
+	 * Stop the wrapped factory if it is a ManagedDataHandlerFactory.
+	 */
+	@Override
+	public void stop() {
+		DataHandlerFactoryUtil.stop(dataHandlerFactory);
+	}
+
+	/**
+	 * Release the wrapped DataHandler to the wrapped factory if it is a
+	 * ManagedDataHandlerFactory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 */
+	@Override
+	public void release(DataHandler dataHandler) {
+		DataHandler wrapped = unwrap(dataHandler);
+		if (wrapped != null) {
+			DataHandlerFactoryUtil.release(dataHandlerFactory, wrapped);
+		}
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler was not created by
+	 * this factory, return null.
+	 */
+	protected abstract DataHandler unwrap(DataHandler dataHandler);
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This class gathers the writes submitted by concurrent requests, and passes
+ * them to a bulk method of the DataHandler at once.
+ * 
+ * The writes are gathered until the batch has the maximum number of them or
+ * the window has passed since the first one arrived. A full batch is written
+ * on the thread which submitted the last write, and the other batches are
+ * written on the thread of the scheduler. The bulk method is called on a
+ * new DataHandler created for the first request in the batch which has not
+ * been cancelled. The DataHandler of each request is cancelled by its own
+ * deadline, so it is not used to write the writes of the other requests.
+ * Each result is passed to the Promise of its own request, so a failed
+ * element fails that request only.
+ * 
+ * @param <T> The type of the result of each write.
+ * @author Yoichiro Tanaka
+ *
+ */
+abstract class Batcher<T> {
+
+	private final DataHandlerFactory dataHandlerFactory;
+	private final int maxSize;
+	private final long window;
+	private final ScheduledExecutorService scheduler;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	// These are guarded by this instance.
+	private List<Entry<T>> pending;
+	private ScheduledFuture<?> timer;
+
+	Batcher(DataHandlerFactory dataHandlerFactory, int maxSize, long window,
+			ScheduledExecutorService scheduler) {
+		this.dataHandlerFactory = dataHandlerFactory;
+		this.maxSize = maxSize;
+		this.window = window;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Write the batch with the bulk method of the DataHandler.
+	 * @param dataHandler The DataHandler to call.
+	 * @param authInfos The gathered writes.
+	 * @param promise The promise which receives the results.
+	 */
+	abstract void write(DataHandler dataHandler, List<AuthInfo> authInfos,
+			Promise<List<Try<OAuthError, T>>> promise);
+
+	Promise<T> submit(DataHandler dataHandler, AuthInfo authInfo) {
+		Entry<T> entry = new Entry<T>(dataHandler, authInfo);
+		List<Entry<T>> full = null;
+		synchronized (this) {
+			if (pending == null) {
+				pending = new ArrayList<Entry<T>>();
+			}
+			pending.add(entry);
+			if (pending.size() >= maxSize) {
+				full = take();
+			} else if (pending.size() == 1) {
+				timer = scheduler.schedule(flushTask, window, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (full != null) {
+			write(full);
+		}
+		return entry.promise;
+	}
+
+	/**
+	 * Write the gathered writes now without waiting for the window.
+	 */
+	void flush() {
+		List<Entry<T>> entries;
+		synchronized (this) {
+			entries = take();
+		}
+		if (entries != null) {
+			write(entries);
+		}
+	}
+
+	private List<Entry<T>> take() {
+		List<Entry<T>> entries = pending;
+		pending = null;
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		return entries;
+	}
+
+	private void write(List<Entry<T>> entries) {
+		// The cancelled requests have already been answered by their deadline.
+		final List<Entry<T>> live = new ArrayList<Entry<T>>(entries.size());
+		List<AuthInfo> authInfos = new ArrayList<AuthInfo>(entries.size());
+		for (Entry<T> entry : entries) {
+			if (entry.dataHandler.isCancelled()) {
+				entry.promise.fail(new OAuthError.TemporarilyUnavailable(
+						"The request was cancelled."));
+			} else {
+				live.add(entry);
+				authInfos.add(entry.authInfo);
+			}
+		}
+		if (live.isEmpty()) {
+			return;
+		}
+		DataHandler first = live.get(0).dataHandler;
+		final DataHandler dataHandler;
+		try {
+			dataHandler = dataHandlerFactory.create(first.getRequest());
+			dataHandler.setContext(first.getContext());
+		} catch (RuntimeException e) {
+			failAll(live, new OAuthError.ServerError(e));
+			return;
+		}
+		Promise<List<Try<OAuthError, T>>> results = new Promise<List<Try<OAuthError, T>>>();
+		results.onComplete(new Handler<Try<OAuthError, List<Try<OAuthError, T>>>>() {
+			@Override
+			public void handle(Try<OAuthError, List<Try<OAuthError, T>>> event) {
+				DataHandlerFactoryUtil.release(dataHandlerFactory, dataHandler);
+				try {
+					distribute(live, event.get());
+				} catch (OAuthError e) {
+					failAll(live, e);
+				}
+			}
+		});
+		try {
+			write(dataHandler, authInfos, results);
+		} catch (RuntimeException e) {
+			results.fail(new OAuthError.ServerError(e));
+		}
+	}
+
+	private void distribute(List<Entry<T>> entries, List<Try<OAuthError, T>> results) {
+		if (results == null || results.size() != entries.size()) {
+			failAll(entries, new OAuthError.ServerError("The bulk write returned "
+					+ (results == null ? 0 : results.size()) + " results for "
+					+ entries.size() + " writes."));
+			return;
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			Promise<T> promise = entries.get(i).promise;
+			Try<OAuthError, T> result = results.get(i);
+			if (result == null) {
+				promise.complete(null);
+				continue;
+			}
+			try {
+				promise.complete(result.get());
+			} catch (OAuthError e) {
+				promise.fail(e);
+			}
+		}
+	}
+
+	private void failAll(List<Entry<T>> entries, OAuthError error) {
+		for (Entry<T> entry : entries) {
+			entry.promise.fail(error);
+		}
+	}
+
+	private static class Entry<T> {
+
+		private final DataHandler dataHandler;
+		private final AuthInfo authInfo;
+		private final Promise<T> promise = new Promise<T>();
+
+		private Entry(DataHandler dataHandler, AuthInfo authInfo) {
+			this.dataHandler = dataHandler;
+			this.authInfo = authInfo;
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.batch;
+
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandler;
+import jp.eisbahn.oauth2.server.data.batch.BatchingDataHandlerFactory.Batchers;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandler created by the BatchingDataHandlerFactory.
+ * 
+ * The createOrUpdateAuthInfo() and createOrUpdateAccessToken() methods
+ * submit the write to the batch of the factory, and the result arrives when
+ * the batch has been written. The other methods are delegated to the wrapped
+ * DataHandler.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class BatchingDataHandler extends WrappingDataHandler {
+
+	private final Batchers batchers;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param dataHandler The wrapped DataHandler.
+	 * @param batchers The batches of the factory.
+	 */
+	BatchingDataHandler(Request request, DataHandler dataHandler, Batchers batchers) {
+		super(request, dataHandler);
+		this.batchers = batchers;
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+			String userId, String scope) {
+		if (isCancelled()) {
+			return cancelled();
+		}
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId(clientId);
+		authInfo.setUserId(userId);
+		authInfo.setScope(scope);
+		return batchers.authInfos.submit(getDataHandler(), authInfo);
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		if (isCancelled()) {
+			return cancelled();
+		}
+		return batchers.accessTokens.submit(getDataHandler(), authInfo);
+	}
+
+	private static <T> Promise<T> cancelled() {
+		return Promise.failed(new OAuthError.TemporarilyUnavailable(
+				"The request was cancelled."));
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.batch;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import jp.eisbahn.oauth2.server.async.DaemonThreadFactory;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and writes
+ * the authorization information and the access tokens of concurrent
+ * requests together.
+ * 
+ * The createOrUpdateAuthInfo() and createOrUpdateAccessToken() calls of the
+ * DataHandler created by this factory are gathered for the window or until
+ * the maximum batch size is reached, and are passed to the
+ * createOrUpdateAuthInfos() and createOrUpdateAccessTokens() methods of the
+ * wrapped DataHandler at once. Override these bulk methods in your
+ * DataHandler to write each batch in one transaction. Each request receives
+ * its own result, so a failed element fails that request only. The other
+ * methods are delegated to the wrapped DataHandler as they are.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class BatchingDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	/** The default maximum number of writes in a batch. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/** The default time to gather the writes in milliseconds. */
+	public static final long DEFAULT_WINDOW = 2L;
+
+	private static volatile ScheduledExecutorService sharedScheduler;
+
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private long window = DEFAULT_WINDOW;
+	private ScheduledExecutorService scheduler;
+
+	private volatile Batchers batchers;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the create() method.
+	 */
+	public BatchingDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public BatchingDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		super(dataHandlerFactory);
+	}
+
+	/**
+	 * Set the maximum number of writes in a batch. When a batch reaches this
+	 * size, it is written immediately.
+	 * This must be called before the first calling of the create() method.
+	 * @param maxBatchSize The number of writes.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the time to gather the writes after the first one of a batch.
+	 * This is added to the latency of the requests which do not fill a batch.
+	 * This must be called before the first calling of the create() method.
+	 * @param window The time in milliseconds.
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * Set the scheduler to write the batches when their window has passed.
+	 * If this method is not called, the scheduler shared in this process is
+	 * used. The bulk method is called on its thread, so the next batches are
+	 * gathered while your database is writing the current one.
+	 * This must be called before the first calling of the create() method.
+	 * @param scheduler The scheduler instance.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Write the gathered writes, and stop the wrapped factory if it is a
+	 * ManagedDataHandlerFactory.
+	 */
+	@Override
+	public void stop() {
+		flush();
+		super.stop();
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory. Each batch is
+	 * written with its own DataHandler, which is released when the batch has
+	 * been written.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler is not a
+	 * BatchingDataHandler, return null.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler instanceof BatchingDataHandler
+				? ((BatchingDataHandler)dataHandler).getDataHandler() : null;
+	}
+
+	/**
+	 * Create a DataHandler which wraps the DataHandler created by the wrapped
+	 * factory.
+	 * @param request The request object.
+	 * @return The batching DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new BatchingDataHandler(request, getDataHandlerFactory().create(request),
+				getBatchers());
+	}
+
+	/**
+	 * Write the gathered writes now without waiting for the window.
+	 */
+	public void flush() {
+		Batchers current = batchers;
+		if (current != null) {
+			current.authInfos.flush();
+			current.accessTokens.flush();
+		}
+	}
+
+	Batchers getBatchers() {
+		Batchers current = batchers;
+		if (current == null) {
+			synchronized (this) {
+				current = batchers;
+				if (current == null) {
+					ScheduledExecutorService timer =
+							scheduler != null ? scheduler : getSharedScheduler();
+					current = new Batchers(getDataHandlerFactory(), maxBatchSize, window, timer);
+					batchers = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private static ScheduledExecutorService getSharedScheduler() {
+		ScheduledExecutorService current = sharedScheduler;
+		if (current == null) {
+			synchronized (BatchingDataHandlerFactory.class) {
+				current = sharedScheduler;
+				if (current == null) {
+					current = DaemonThreadFactory.newScheduler("oauth2-batch");
+					sharedScheduler = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	static class Batchers {
+
+		final Batcher<AuthInfo> authInfos;
+		final Batcher<AccessToken> accessTokens;
+
+		private Batchers(DataHandlerFactory dataHandlerFactory, int maxSize, long window,
+				ScheduledExecutorService scheduler) {
+			authInfos = new Batcher<AuthInfo>(dataHandlerFactory, maxSize, window, scheduler) {
+				@Override
+				void write(DataHandler dataHandler, List<AuthInfo> authInfos,
+						Promise<List<Try<OAuthError, AuthInfo>>> promise) {
+					dataHandler.createOrUpdateAuthInfos(authInfos, promise);
+				}
+			};
+			accessTokens = new Batcher<AccessToken>(dataHandlerFactory, maxSize, window,
+					scheduler) {
+				@Override
+				void write(DataHandler dataHandler, List<AuthInfo> authInfos,
+						Promise<List<Try<OAuthError, AccessToken>>> promise) {
+					dataHandler.createOrUpdateAccessTokens(authInfos, promise);
+				}
+			};
+		}
+
+	}
+
+}
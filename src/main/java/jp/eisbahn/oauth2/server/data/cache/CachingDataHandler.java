@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.cache;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Function;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandler;
+import jp.eisbahn.oauth2.server.data.cache.CachingDataHandlerFactory.Caches;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This class is a DataHandler created by the CachingDataHandlerFactory.
+ * All methods are delegated to the wrapped DataHandler, and the results of
+ * the methods used at accessing a protected resource are cached.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class CachingDataHandler extends WrappingDataHandler {
+
+	private final CachingDataHandlerFactory factory;
+	private final Caches caches;
+	private volatile long ceiling = Long.MAX_VALUE;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request instance.
+	 * @param dataHandler The wrapped DataHandler instance.
+	 * @param factory The factory which has the caches.
+	 */
+	CachingDataHandler(Request request, DataHandler dataHandler,
+			CachingDataHandlerFactory factory) {
+		super(request, dataHandler);
+		this.factory = factory;
+		this.caches = factory.getCaches();
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		return getTarget().createOrUpdateAuthInfo(clientId, userId, scope).map(
+				new Function<AuthInfo, AuthInfo>() {
+			@Override
+			public AuthInfo apply(AuthInfo authInfo) {
+				if (authInfo != null && authInfo.getId() != null) {
+					caches.authInfos.remove(authInfo.getId());
+				}
+				return authInfo;
+			}
+		});
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(final AuthInfo authInfo) {
+		return getTarget().createOrUpdateAccessToken(authInfo).map(
+				new Function<AccessToken, AccessToken>() {
+			@Override
+			public AccessToken apply(AccessToken accessToken) {
+				if (accessToken != null && accessToken.getToken() != null) {
+					caches.accessTokens.remove(accessToken.getToken());
+				}
+				if (authInfo.getId() != null) {
+					caches.authInfos.remove(authInfo.getId());
+				}
+				return accessToken;
+			}
+		});
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once with the bulk method of the wrapped DataHandler, and remove each
+	 * of them from the cache.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAuthInfos(final List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		getDataHandler().createOrUpdateAuthInfos(authInfos,
+				new Handler<List<Try<OAuthError, AuthInfo>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AuthInfo>> results) {
+				if (results != null) {
+					for (Try<OAuthError, AuthInfo> result : results) {
+						try {
+							AuthInfo authInfo = result != null ? result.get() : null;
+							if (authInfo != null && authInfo.getId() != null) {
+								caches.authInfos.remove(authInfo.getId());
+							}
+						} catch (OAuthError e) {
+							// The element failed, so nothing was changed.
+						}
+					}
+				}
+				handler.handle(results);
+			}
+		});
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once with the
+	 * bulk method of the wrapped DataHandler, and remove each of them and its
+	 * authorization information from the cache.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAccessTokens(final List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		getDataHandler().createOrUpdateAccessTokens(authInfos,
+				new Handler<List<Try<OAuthError, AccessToken>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AccessToken>> results) {
+				for (AuthInfo authInfo : authInfos) {
+					if (authInfo.getId() != null) {
+						caches.authInfos.remove(authInfo.getId());
+					}
+				}
+				if (results != null) {
+					for (Try<OAuthError, AccessToken> result : results) {
+						try {
+							AccessToken accessToken = result != null ? result.get() : null;
+							if (accessToken != null && accessToken.getToken() != null) {
+								caches.accessTokens.remove(accessToken.getToken());
+							}
+						} catch (OAuthError e) {
+							// The element failed, so nothing was changed.
+						}
+					}
+				}
+				handler.handle(results);
+			}
+		});
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(final String clientId) {
+		Boolean cached = caches.clients.get(clientId, factory.currentTimeMillis());
+		if (cached != null) {
+			return Promise.of(cached);
+		}
+		return getTarget().validateClientById(clientId).map(
+				new Function<Boolean, Boolean>() {
+			@Override
+			public Boolean apply(Boolean valid) {
+				if (valid != null) {
+					long now = factory.currentTimeMillis();
+					caches.clients.put(clientId, valid, expiresAt(now), now);
+				}
+				return valid;
+			}
+		});
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(final String userId) {
+		Boolean cached = caches.users.get(userId, factory.currentTimeMillis());
+		if (cached != null) {
+			return Promise.of(cached);
+		}
+		return getTarget().validateUserById(userId).map(
+				new Function<Boolean, Boolean>() {
+			@Override
+			public Boolean apply(Boolean valid) {
+				if (valid != null) {
+					long now = factory.currentTimeMillis();
+					caches.users.put(userId, valid, expiresAt(now), now);
+				}
+				return valid;
+			}
+		});
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(final String token) {
+		AccessToken cached = caches.accessTokens.get(token, factory.currentTimeMillis());
+		if (cached != null) {
+			limitTo(cached);
+			return Promise.of(cached);
+		}
+		return getTarget().getAccessToken(token).map(
+				new Function<AccessToken, AccessToken>() {
+			@Override
+			public AccessToken apply(AccessToken accessToken) {
+				if (accessToken != null) {
+					limitTo(accessToken);
+					long now = factory.currentTimeMillis();
+					caches.accessTokens.put(token, accessToken, expiresAt(now), now);
+				}
+				return accessToken;
+			}
+		});
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(final String id) {
+		AuthInfo cached = caches.authInfos.get(id, factory.currentTimeMillis());
+		if (cached != null) {
+			return Promise.of(cached);
+		}
+		return getTarget().getAuthInfoById(id).map(
+				new Function<AuthInfo, AuthInfo>() {
+			@Override
+			public AuthInfo apply(AuthInfo authInfo) {
+				if (authInfo != null) {
+					long now = factory.currentTimeMillis();
+					caches.authInfos.put(id, authInfo, expiresAt(now), now);
+				}
+				return authInfo;
+			}
+		});
+	}
+
+	/**
+	 * Retrieve all information about the token from the caches. If any of
+	 * them is not cached, the wrapped DataHandler's introspectToken() is
+	 * called once and its result is cached.
+	 * @param token The access token string.
+	 * @return The promise of the information about the token.
+	 */
+	@Override
+	public Promise<TokenIntrospection> introspectToken(final String token) {
+		TokenIntrospection cached = introspectFromCaches(token);
+		if (cached != null) {
+			return Promise.of(cached);
+		}
+		return getTarget().introspectToken(token).map(
+				new Function<TokenIntrospection, TokenIntrospection>() {
+			@Override
+			public TokenIntrospection apply(TokenIntrospection introspection) {
+				if (introspection != null) {
+					store(token, introspection);
+				}
+				return introspection;
+			}
+		});
+	}
+
+	private TokenIntrospection introspectFromCaches(String token) {
+		long now = factory.currentTimeMillis();
+		AccessToken accessToken = caches.accessTokens.get(token, now);
+		if (accessToken == null) {
+			return null;
+		}
+		AuthInfo authInfo = caches.authInfos.get(accessToken.getAuthId(), now);
+		if (authInfo == null) {
+			return null;
+		}
+		Boolean clientValid = caches.clients.get(authInfo.getClientId(), now);
+		if (clientValid == null) {
+			return null;
+		}
+		TokenIntrospection introspection = new TokenIntrospection();
+		introspection.setAccessToken(accessToken);
+		introspection.setAuthInfo(authInfo);
+		introspection.setClientValid(clientValid);
+		if (clientValid) {
+			Boolean userValid = caches.users.get(authInfo.getUserId(), now);
+			if (userValid == null) {
+				return null;
+			}
+			introspection.setUserValid(userValid);
+		}
+		limitTo(accessToken);
+		return introspection;
+	}
+
+	private void store(String token, TokenIntrospection introspection) {
+		AccessToken accessToken = introspection.getAccessToken();
+		if (accessToken == null) {
+			return;
+		}
+		limitTo(accessToken);
+		long now = factory.currentTimeMillis();
+		long expiresAt = expiresAt(now);
+		caches.accessTokens.put(token, accessToken, expiresAt, now);
+		AuthInfo authInfo = introspection.getAuthInfo();
+		if (authInfo == null) {
+			return;
+		}
+		caches.authInfos.put(accessToken.getAuthId(), authInfo, expiresAt, now);
+		if (introspection.getClientValid() != null) {
+			caches.clients.put(authInfo.getClientId(), introspection.getClientValid(), expiresAt, now);
+		}
+		if (introspection.getUserValid() != null) {
+			caches.users.put(authInfo.getUserId(), introspection.getUserValid(), expiresAt, now);
+		}
+	}
+
+	private void limitTo(AccessToken accessToken) {
+		if (accessToken.getExpiresIn() > 0 && accessToken.getCreatedOn() != null) {
+			ceiling = Math.min(ceiling,
+					accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000);
+		}
+	}
+
+	private long expiresAt(long now) {
+		long ttl = factory.getTimeToLive();
+		long expiresAt = (Long.MAX_VALUE - ttl < now) ? Long.MAX_VALUE : now + ttl;
+		return Math.min(expiresAt, ceiling);
+	}
+
+}
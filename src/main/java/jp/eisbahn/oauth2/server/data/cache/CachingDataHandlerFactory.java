@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.cache;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and caches
+ * the results of lookups used at accessing a protected resource.
+ * 
+ * The DataHandler created by this factory delegates all methods to the
+ * DataHandler created by the wrapped factory. But, the results of
+ * getAccessToken(), getAuthInfoById(), validateClientById() and
+ * validateUserById() are kept in memory until the time to live passes, and
+ * the kept result is returned without calling the wrapped DataHandler.
+ * An entry of the access token never lives beyond the expiration of the
+ * token itself. The entries stored while handling one request never live
+ * beyond the expiration of the access token fetched in the same request.
+ * 
+ * The null result is not cached. If you revoke an access token or disable a
+ * client or an user, you should call the invalidate methods of this instance
+ * so that the cached result is not used any more.
+ * 
+ * The cached AccessToken and AuthInfo instances are shared by requests,
+ * therefore they must not be modified by your application.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class CachingDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	/** The default time to live of each entry in milliseconds. */
+	public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000L;
+
+	/** The default maximum number of entries of each cache. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private static final int CONCURRENCY_LEVEL = 16;
+
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+	private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+	private volatile Caches caches;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the create() method.
+	 */
+	public CachingDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public CachingDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		super(dataHandlerFactory);
+	}
+
+	/**
+	 * Set the time to live of each entry.
+	 * This must be called before the first calling of the create() method.
+	 * @param timeToLive The time to live in milliseconds.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Retrieve the time to live of each entry.
+	 * @return The time to live in milliseconds.
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Set the maximum number of entries of each cache. When the cache is full,
+	 * the least recently used entries are evicted.
+	 * This must be called before the first calling of the create() method.
+	 * @param maximumSize The maximum number of entries.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Retrieve the maximum number of entries of each cache.
+	 * @return The maximum number of entries.
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler is not a
+	 * CachingDataHandler, return null.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler instanceof CachingDataHandler
+				? ((CachingDataHandler)dataHandler).getDataHandler() : null;
+	}
+
+	/**
+	 * Create a DataHandler which wraps the DataHandler created by the wrapped
+	 * factory.
+	 * @param request The request object.
+	 * @return The caching DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new CachingDataHandler(request, getDataHandlerFactory().create(request), this);
+	}
+
+	/**
+	 * Remove the cached access token. Call this method when the access token
+	 * is revoked.
+	 * @param token The access token string.
+	 */
+	public void invalidateAccessToken(String token) {
+		getCaches().accessTokens.remove(token);
+	}
+
+	/**
+	 * Remove the cached authorization information. Call this method when the
+	 * authorization is revoked or updated.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void invalidateAuthInfo(String authId) {
+		getCaches().authInfos.remove(authId);
+	}
+
+	/**
+	 * Remove the cached validation result of the client. Call this method when
+	 * the status of the client is changed.
+	 * @param clientId The client ID.
+	 */
+	public void invalidateClient(String clientId) {
+		getCaches().clients.remove(clientId);
+	}
+
+	/**
+	 * Remove the cached validation result of the user. Call this method when
+	 * the status of the user is changed.
+	 * @param userId The user's ID.
+	 */
+	public void invalidateUser(String userId) {
+		getCaches().users.remove(userId);
+	}
+
+	/**
+	 * Remove all cached entries.
+	 */
+	public void invalidateAll() {
+		Caches current = getCaches();
+		current.accessTokens.clear();
+		current.authInfos.clear();
+		current.clients.clear();
+		current.users.clear();
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in milliseconds.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	Caches getCaches() {
+		Caches current = caches;
+		if (current == null) {
+			synchronized (this) {
+				current = caches;
+				if (current == null) {
+					current = new Caches(maximumSize);
+					caches = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	static class Caches {
+
+		final ExpiringCache<String, AccessToken> accessTokens;
+		final ExpiringCache<String, AuthInfo> authInfos;
+		final ExpiringCache<String, Boolean> clients;
+		final ExpiringCache<String, Boolean> users;
+
+		private Caches(int maximumSize) {
+			accessTokens = new ExpiringCache<String, AccessToken>(maximumSize, CONCURRENCY_LEVEL);
+			authInfos = new ExpiringCache<String, AuthInfo>(maximumSize, CONCURRENCY_LEVEL);
+			clients = new ExpiringCache<String, Boolean>(maximumSize, CONCURRENCY_LEVEL);
+			users = new ExpiringCache<String, Boolean>(maximumSize, CONCURRENCY_LEVEL);
+		}
+
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a size-bounded cache whose entries have each expiration time.
+ * 
+ * The entries are divided into some segments by the hash code of the key.
+ * Each segment is kept in the access order and is locked independently, then
+ * the least recently used entry in the segment is evicted when the segment
+ * is full. An expired entry is removed when it is found by the get() method.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ * @param <K> The type of the key.
+ * @param <V> The type of the value.
+ */
+public class ExpiringCache<K, V> {
+
+	private final Segment<K, V>[] segments;
+	private final int mask;
+
+	/**
+	 * Initialize this instance.
+	 * @param maximumSize The maximum number of entries this cache holds.
+	 * @param concurrencyLevel The estimated number of threads which access
+	 * to this cache concurrently. This value is rounded up to the power of 2.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ExpiringCache(int maximumSize, int concurrencyLevel) {
+		super();
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("maximumSize must be positive.");
+		}
+		int count = 1;
+		while (count < concurrencyLevel && count < maximumSize) {
+			count <<= 1;
+		}
+		segments = new Segment[count];
+		int capacity = (maximumSize + count - 1) / count;
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<K, V>(capacity);
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Retrieve the value against the key.
+	 * @param key The key.
+	 * @param now The current time in milliseconds.
+	 * @return The value. If the entry is not found or has already expired,
+	 * return null.
+	 */
+	public V get(K key, long now) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expiresAt <= now) {
+				segment.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Store the value with the expiration time.
+	 * If the expiration time has already passed, the value is not stored and
+	 * the existing entry is removed.
+	 * @param key The key.
+	 * @param value The value.
+	 * @param expiresAt The time in milliseconds when the entry expires.
+	 * @param now The current time in milliseconds.
+	 */
+	public void put(K key, V value, long expiresAt, long now) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			if (expiresAt <= now) {
+				segment.remove(key);
+			} else {
+				segment.put(key, new Entry<V>(value, expiresAt));
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry against the key.
+	 * @param key The key.
+	 */
+	public void remove(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the number of entries including expired ones which have not
+	 * been removed yet.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & mask];
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private final long expiresAt;
+
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+
+		private final int capacity;
+
+		private Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+			return size() > capacity;
+		}
+
+	}
+
+}
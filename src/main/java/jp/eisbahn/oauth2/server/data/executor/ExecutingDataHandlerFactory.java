@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jp.eisbahn.oauth2.server.async.DaemonThreadFactory;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerSync;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and sets the
+ * Executor to each DataHandlerSync created by it.
+ * 
+ * The methods of the DataHandlerSync are called on the threads of the
+ * Executor, and the results are passed to the Handler from there. Therefore,
+ * the container thread is released while your database access is blocking,
+ * and the number of concurrent requests is not limited by the size of the
+ * container thread pool. Use this factory with the asynchronous servlets.
+ * 
+ * If the Executor is not set, this factory creates its own one: an Executor
+ * which starts a virtual thread for each call if the runtime supports them
+ * (Java 21 or later), or a thread pool of the specified number of threads
+ * otherwise. Its own Executor is shut down by the stop() method. The
+ * DataHandler which is not a DataHandlerSync is returned as it is.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ExecutingDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	/** The default number of threads when virtual threads are not available. */
+	public static final int DEFAULT_THREADS = 200;
+
+	private Executor executor;
+	private boolean virtualThreads = true;
+	private int threads = DEFAULT_THREADS;
+
+	private volatile ExecutorService ownExecutor;
+	private volatile boolean virtual;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the create() method.
+	 */
+	public ExecutingDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public ExecutingDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		super(dataHandlerFactory);
+	}
+
+	/**
+	 * Set the Executor to call the methods of the DataHandlerSync on. If this
+	 * method is not called, this factory creates its own Executor. The
+	 * Executor passed by this method is not shut down by this factory.
+	 * @param executor The Executor instance.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set whether the own Executor uses virtual threads when the runtime
+	 * supports them. The default is true.
+	 * This must be called before the first calling of the create() method.
+	 * @param virtualThreads False to always use the thread pool.
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Set the number of threads of the own Executor when virtual threads are
+	 * not used.
+	 * This must be called before the first calling of the create() method.
+	 * @param threads The number of threads.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Check whether the own Executor runs each call on a virtual thread.
+	 * @return True if virtual threads are used.
+	 */
+	public boolean isVirtual() {
+		getExecutor();
+		return virtual;
+	}
+
+	/**
+	 * Retrieve the Executor set to each DataHandlerSync.
+	 * @return The Executor instance set by the setExecutor() method, or the
+	 * own Executor of this factory.
+	 */
+	public Executor getExecutor() {
+		if (executor != null) {
+			return executor;
+		}
+		ExecutorService current = ownExecutor;
+		if (current == null) {
+			synchronized (this) {
+				current = ownExecutor;
+				if (current == null) {
+					current = virtualThreads ? newVirtualThreadExecutor() : null;
+					virtual = current != null;
+					if (current == null) {
+						current = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("oauth2-data-handler"));
+					}
+					ownExecutor = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Start the wrapped factory if it is a ManagedDataHandlerFactory, and
+	 * prepare the Executor.
+	 * @throws Exception If the wrapped factory could not be started.
+	 */
+	@Override
+	public void start() throws Exception {
+		super.start();
+		getExecutor();
+	}
+
+	/**
+	 * Shut down the own Executor, and stop the wrapped factory if it is a
+	 * ManagedDataHandlerFactory. The calls in progress are not interrupted.
+	 */
+	@Override
+	public void stop() {
+		ExecutorService current;
+		synchronized (this) {
+			current = ownExecutor;
+			ownExecutor = null;
+		}
+		if (current != null) {
+			current.shutdown();
+		}
+		super.stop();
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory. This factory
+	 * does not wrap the DataHandler, so it is returned as it is.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The same DataHandler.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler;
+	}
+
+	/**
+	 * Create a DataHandler with the wrapped factory, and set the Executor to
+	 * it if it is a DataHandlerSync.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		DataHandler dataHandler = getDataHandlerFactory().create(request);
+		if (dataHandler instanceof DataHandlerSync) {
+			((DataHandlerSync)dataHandler).setExecutor(getExecutor());
+		}
+		return dataHandler;
+	}
+
+	/**
+	 * Create an ExecutorService which starts a virtual thread for each task.
+	 * The method is looked up by reflection, so this class works with the
+	 * runtimes older than Java 21.
+	 * @return The ExecutorService instance. If virtual threads are not
+	 * supported, return null.
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		} catch (Exception e) {
+			// This runtime does not support virtual threads.
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.expiry;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Function;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandler created by the ExpiringDataHandlerFactory.
+ * 
+ * All methods are delegated to the wrapped DataHandler. The deadline of each
+ * access token and each authorization information created by it is added
+ * to the wheel of the factory.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ExpiringDataHandler extends WrappingDataHandler {
+
+	private final ExpiringDataHandlerFactory factory;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param dataHandler The wrapped DataHandler.
+	 * @param factory The factory which has the wheel.
+	 */
+	ExpiringDataHandler(Request request, DataHandler dataHandler,
+			ExpiringDataHandlerFactory factory) {
+		super(request, dataHandler);
+		this.factory = factory;
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+			String userId, String scope) {
+		return getTarget().createOrUpdateAuthInfo(clientId, userId, scope).map(
+				new Function<AuthInfo, AuthInfo>() {
+			@Override
+			public AuthInfo apply(AuthInfo authInfo) {
+				factory.schedule(authInfo);
+				return authInfo;
+			}
+		});
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		return getTarget().createOrUpdateAccessToken(authInfo).map(
+				new Function<AccessToken, AccessToken>() {
+			@Override
+			public AccessToken apply(AccessToken accessToken) {
+				factory.schedule(accessToken);
+				return accessToken;
+			}
+		});
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once with the bulk method of the wrapped DataHandler, and add the
+	 * deadline of each created authorization information.
+	 */
+	@Override
+	public void createOrUpdateAuthInfos(List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		getDataHandler().createOrUpdateAuthInfos(authInfos,
+				new Handler<List<Try<OAuthError, AuthInfo>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AuthInfo>> results) {
+				if (results != null) {
+					for (Try<OAuthError, AuthInfo> result : results) {
+						try {
+							factory.schedule(result != null ? result.get() : null);
+						} catch (OAuthError e) {
+							// The element failed, so there is nothing to expire.
+						}
+					}
+				}
+				handler.handle(results);
+			}
+		});
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once with the
+	 * bulk method of the wrapped DataHandler, and add the deadline of each
+	 * created access token.
+	 */
+	@Override
+	public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+			final Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		getDataHandler().createOrUpdateAccessTokens(authInfos,
+				new Handler<List<Try<OAuthError, AccessToken>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AccessToken>> results) {
+				if (results != null) {
+					for (Try<OAuthError, AccessToken> result : results) {
+						try {
+							factory.schedule(result != null ? result.get() : null);
+						} catch (OAuthError e) {
+							// The element failed, so there is nothing to expire.
+						}
+					}
+				}
+				handler.handle(results);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.expiry;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.async.DaemonThreadFactory;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.expiry.TimingWheel.Timeout;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and removes
+ * the expired entries from your database incrementally.
+ * 
+ * The deadline of each access token and each authorization information
+ * created by the DataHandler of this factory is kept in a TimingWheel. The
+ * deadline of the authorization information is computed with the lifetime
+ * set by the setAuthInfoExpiresIn() method. Your application can add the deadlines
+ * of other entries, like the authorization codes, with the schedule()
+ * method. While this factory is started, the wheel is advanced every tick,
+ * and the entries whose deadline has passed are passed to the
+ * purgeExpired() method of a DataHandler created by the wrapped factory in
+ * batches. Therefore, your database does not need to scan all entries
+ * periodically. The DataHandler is created with the null request.
+ * 
+ * The deadlines are kept in memory only, so the entries which were created
+ * before this factory started are not removed by it. A batch which failed is
+ * not retried. A tick which failed is counted, and the next tick runs as
+ * usual.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ExpiringDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	/** The default length of a tick in milliseconds. */
+	public static final long DEFAULT_TICK_DURATION = 1000L;
+
+	/** The default maximum number of the entries passed to the purgeExpired() method at once. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/** The default lifetime of the authorization information in seconds. */
+	public static final long DEFAULT_AUTH_INFO_EXPIRES_IN = 30 * 24 * 3600L;
+
+	private long tickDuration = DEFAULT_TICK_DURATION;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long authInfoExpiresIn = DEFAULT_AUTH_INFO_EXPIRES_IN;
+	private ScheduledExecutorService scheduler;
+
+	private final AtomicLong purgedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong failedTickCount = new AtomicLong();
+
+	private volatile TimingWheel<Expiration> wheel;
+	private ScheduledExecutorService ownScheduler;
+	private ScheduledFuture<?> tickTask;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the start() method.
+	 */
+	public ExpiringDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public ExpiringDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		super(dataHandlerFactory);
+	}
+
+	/**
+	 * Set the length of a tick. The expired entries are removed every tick,
+	 * and an entry is removed one tick after its deadline at the latest.
+	 * This must be called before the start() method.
+	 * @param tickDuration The length in milliseconds.
+	 */
+	public void setTickDuration(long tickDuration) {
+		this.tickDuration = tickDuration;
+	}
+
+	/**
+	 * Set the maximum number of the entries passed to the purgeExpired()
+	 * method at once.
+	 * @param batchSize The number of the entries.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the lifetime of the authorization information created by the
+	 * DataHandler of this factory. Set the same lifetime as your database.
+	 * If 0 is set, the deadline of the authorization information is not
+	 * added.
+	 * @param authInfoExpiresIn The lifetime in seconds.
+	 */
+	public void setAuthInfoExpiresIn(long authInfoExpiresIn) {
+		this.authInfoExpiresIn = authInfoExpiresIn;
+	}
+
+	/**
+	 * Set the scheduler to advance the wheel. If this method is not called, a
+	 * daemon thread is started by the start() method.
+	 * This must be called before the start() method.
+	 * @param scheduler The scheduler instance.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Add the deadline of an entry. The entry is passed to the purgeExpired()
+	 * method after the deadline. This is ignored while this factory is not
+	 * started.
+	 * @param expiration The entry and its deadline.
+	 * @return The timeout to cancel it, or null if this factory is not
+	 * started.
+	 */
+	public Timeout<Expiration> schedule(Expiration expiration) {
+		TimingWheel<Expiration> current = wheel;
+		return current != null
+				? current.schedule(expiration, expiration.getDeadline()) : null;
+	}
+
+	/**
+	 * Pass the entries whose deadline has passed to the purgeExpired() method
+	 * now. This is called every tick while this factory is started.
+	 * @param now The current time in milliseconds.
+	 * @return The number of the entries whose deadline has passed.
+	 */
+	public int advance(long now) {
+		TimingWheel<Expiration> current = wheel;
+		if (current == null) {
+			return 0;
+		}
+		List<Expiration> expired = current.advance(now);
+		int size = Math.max(batchSize, 1);
+		for (int from = 0; from < expired.size(); from += size) {
+			purge(expired.subList(from, Math.min(from + size, expired.size())));
+		}
+		return expired.size();
+	}
+
+	/**
+	 * Retrieve the number of the deadlines which have not passed yet.
+	 * @return The number of the deadlines.
+	 */
+	public int getPendingCount() {
+		TimingWheel<Expiration> current = wheel;
+		return current != null ? current.size() : 0;
+	}
+
+	/**
+	 * Retrieve the total number of the entries removed by the purgeExpired()
+	 * method.
+	 * @return The number of the entries.
+	 */
+	public long getPurgedCount() {
+		return purgedCount.get();
+	}
+
+	/**
+	 * Retrieve the total number of the entries of the batches which failed.
+	 * @return The number of the entries.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Retrieve the number of the ticks which failed with an exception.
+	 * @return The number of the ticks.
+	 */
+	public long getFailedTickCount() {
+		return failedTickCount.get();
+	}
+
+	/**
+	 * Start the wrapped factory if it is a ManagedDataHandlerFactory, and
+	 * start advancing the wheel.
+	 * @throws Exception If the wrapped factory could not be started.
+	 */
+	@Override
+	public void start() throws Exception {
+		super.start();
+		synchronized (this) {
+			if (tickTask != null) {
+				return;
+			}
+			wheel = new TimingWheel<Expiration>(tickDuration, System.currentTimeMillis());
+			ScheduledExecutorService executor = scheduler;
+			if (executor == null) {
+				ownScheduler = DaemonThreadFactory.newScheduler("oauth2-expiry");
+				executor = ownScheduler;
+			}
+			tickTask = executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					// An exception would cancel the following ticks.
+					try {
+						advance(System.currentTimeMillis());
+					} catch (RuntimeException e) {
+						failedTickCount.incrementAndGet();
+					}
+				}
+			}, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop advancing the wheel and drop the deadlines, and stop the wrapped
+	 * factory if it is a ManagedDataHandlerFactory.
+	 */
+	@Override
+	public void stop() {
+		synchronized (this) {
+			if (tickTask != null) {
+				tickTask.cancel(false);
+				tickTask = null;
+			}
+			if (ownScheduler != null) {
+				ownScheduler.shutdown();
+				ownScheduler = null;
+			}
+			wheel = null;
+		}
+		super.stop();
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler is not a
+	 * ExpiringDataHandler, return null.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler instanceof ExpiringDataHandler
+				? ((ExpiringDataHandler)dataHandler).getDataHandler() : null;
+	}
+
+	/**
+	 * Create a DataHandler which wraps the DataHandler created by the wrapped
+	 * factory.
+	 * @param request The request object.
+	 * @return The expiring DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new ExpiringDataHandler(request, getDataHandlerFactory().create(request), this);
+	}
+
+	void schedule(AccessToken accessToken) {
+		if (accessToken != null && accessToken.getToken() != null
+				&& accessToken.getCreatedOn() != null && accessToken.getExpiresIn() > 0) {
+			schedule(new Expiration(Expiration.Type.ACCESS_TOKEN, accessToken.getToken(),
+					accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000));
+		}
+	}
+
+	void schedule(AuthInfo authInfo) {
+		if (authInfo != null && authInfo.getId() != null && authInfoExpiresIn > 0) {
+			schedule(new Expiration(Expiration.Type.AUTH_INFO, authInfo.getId(),
+					System.currentTimeMillis() + authInfoExpiresIn * 1000));
+		}
+	}
+
+	private void purge(List<Expiration> expirations) {
+		final int size = expirations.size();
+		final DataHandler dataHandler;
+		try {
+			dataHandler = getDataHandlerFactory().create(null);
+		} catch (RuntimeException e) {
+			failedCount.addAndGet(size);
+			return;
+		}
+		try {
+			dataHandler.purgeExpired(expirations, new Handler<Integer>() {
+				@Override
+				public void handle(Integer count) {
+					if (count != null) {
+						purgedCount.addAndGet(count);
+					} else {
+						failedCount.addAndGet(size);
+					}
+					DataHandlerFactoryUtil.release(getDataHandlerFactory(), dataHandler);
+				}
+			});
+		} catch (RuntimeException e) {
+			failedCount.addAndGet(size);
+		}
+	}
+
+}
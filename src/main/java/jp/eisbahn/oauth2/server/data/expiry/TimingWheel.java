@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * This class keeps many deadlines and finds the ones which have passed
+ * without scanning all of them.
+ * 
+ * The time is divided into ticks, and the deadlines are put into the slots of
+ * four wheels which have 256 slots each. Each slot of the first wheel has the
+ * deadlines of one tick, and each slot of the next wheel covers the whole
+ * previous wheel. When the first wheel turns round, the deadlines in the next
+ * slot of the second wheel are moved down into it, and so on. Therefore,
+ * both of scheduling and cancelling take constant time, and advancing the
+ * time visits only the deadlines which have passed or move down. The ticks
+ * are skipped while the wheels to visit are empty, so a long advance does
+ * not visit each tick. A deadline beyond the range of the wheels is moved
+ * again when its slot is reached.
+ * A deadline passes at the end of its tick at the latest.
+ * 
+ * The schedule() method and the cancel() method of the Timeout can be called
+ * from any thread. They are queued and applied by the thread which calls the
+ * advance() method, so they never wait for it. The advance() method must be
+ * called periodically, otherwise the queue grows.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ * @param <T> The type of the item of each deadline.
+ */
+public class TimingWheel<T> {
+
+	private static final int WHEEL_BITS = 8;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final int LEVELS = 4;
+	private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+	private final long tickDuration;
+	private final Slot<T>[][] wheels;
+	private final Queue<Timeout<T>> scheduled = new ConcurrentLinkedQueue<Timeout<T>>();
+	private final Queue<Timeout<T>> cancelled = new ConcurrentLinkedQueue<Timeout<T>>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	// These fields are guarded by this instance.
+	private final int[] counts = new int[LEVELS];
+	private long currentTick;
+	private int count;
+
+	/**
+	 * Initialize this instance.
+	 * @param tickDuration The length of a tick in milliseconds.
+	 * @param now The current time in milliseconds.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimingWheel(long tickDuration, long now) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive.");
+		}
+		this.tickDuration = tickDuration;
+		wheels = new Slot[LEVELS][WHEEL_SIZE];
+		for (int level = 0; level < LEVELS; level++) {
+			for (int i = 0; i < WHEEL_SIZE; i++) {
+				wheels[level][i] = new Slot<T>(level);
+			}
+		}
+		currentTick = now / tickDuration + 1;
+	}
+
+	/**
+	 * Retrieve the length of a tick.
+	 * @return The length in milliseconds.
+	 */
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	/**
+	 * Add the deadline of the item. A deadline which has already passed is
+	 * returned by the next calling of the advance() method.
+	 * @param item The item which is returned when the deadline passes.
+	 * @param deadline The deadline in milliseconds.
+	 * @return The timeout to cancel the deadline.
+	 */
+	public Timeout<T> schedule(T item, long deadline) {
+		long tick = deadline / tickDuration;
+		if (deadline % tickDuration != 0) {
+			tick++;
+		}
+		Timeout<T> timeout = new Timeout<T>(this, item, deadline, tick);
+		size.incrementAndGet();
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Retrieve the number of the deadlines which have neither passed nor been
+	 * cancelled.
+	 * @return The number of the deadlines.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Advance the time, and retrieve the items whose deadline has passed.
+	 * Each item is returned only once.
+	 * @param now The current time in milliseconds.
+	 * @return The items in the order of their ticks.
+	 */
+	public synchronized List<T> advance(long now) {
+		List<T> expired = new ArrayList<T>();
+		drain(now, expired);
+		long target = now / tickDuration;
+		while (currentTick <= target) {
+			if (count == 0) {
+				// Nothing to visit until the target.
+				currentTick = target + 1;
+				break;
+			}
+			long next = nextTick();
+			if (next > currentTick) {
+				currentTick = Math.min(next, target + 1);
+				continue;
+			}
+			int index = (int)(currentTick & WHEEL_MASK);
+			if (index == 0) {
+				cascade();
+			}
+			expire(wheels[0][index], expired);
+			currentTick++;
+		}
+		return expired;
+	}
+
+	private long nextTick() {
+		// While the lower wheels are empty, nothing happens until the next
+		// slot of the upper wheel is moved down.
+		long next = currentTick;
+		for (int level = 0; level < LEVELS - 1 && counts[level] == 0; level++) {
+			long span = 1L << (WHEEL_BITS * (level + 1));
+			next = (currentTick + span - 1) & -span;
+		}
+		return next;
+	}
+
+	private void drain(long now, List<T> expired) {
+		Timeout<T> timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.deadline <= now) {
+				// It has passed before being put into the wheels.
+				if (timeout.expire()) {
+					expired.add(timeout.item);
+				}
+			} else if (timeout.state == Timeout.PENDING) {
+				place(timeout);
+			}
+		}
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.slot != null) {
+				unlink(timeout.slot.level);
+				timeout.slot.remove(timeout);
+			}
+		}
+	}
+
+	private void cascade() {
+		for (int level = 1; level < LEVELS; level++) {
+			int index = (int)((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+			Timeout<T> timeout = wheels[level][index].clear();
+			while (timeout != null) {
+				Timeout<T> next = timeout.next;
+				timeout.detach();
+				unlink(level);
+				place(timeout);
+				timeout = next;
+			}
+			if (index != 0) {
+				break;
+			}
+		}
+	}
+
+	private void expire(Slot<T> slot, List<T> expired) {
+		Timeout<T> timeout = slot.clear();
+		while (timeout != null) {
+			Timeout<T> next = timeout.next;
+			timeout.detach();
+			unlink(0);
+			if (timeout.tick > currentTick) {
+				// The deadline was beyond the range of the wheels.
+				place(timeout);
+			} else if (timeout.expire()) {
+				expired.add(timeout.item);
+			}
+			timeout = next;
+		}
+	}
+
+	private void place(Timeout<T> timeout) {
+		long tick = timeout.tick;
+		long delta = tick - currentTick;
+		if (delta < 0) {
+			tick = currentTick;
+			delta = 0;
+		} else if (delta > MAX_DELTA) {
+			tick = currentTick + MAX_DELTA;
+			delta = MAX_DELTA;
+		}
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+			level++;
+		}
+		int index = (int)((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+		wheels[level][index].add(timeout);
+		counts[level]++;
+		count++;
+	}
+
+	private void unlink(int level) {
+		counts[level]--;
+		count--;
+	}
+
+	/**
+	 * This class is a deadline added to the TimingWheel.
+	 * 
+	 * @param <T> The type of the item.
+	 */
+	public static final class Timeout<T> {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final TimingWheel<T> wheel;
+		private final T item;
+		private final long deadline;
+		private final long tick;
+		private volatile int state;
+
+		// These fields are guarded by the wheel.
+		private Slot<T> slot;
+		private Timeout<T> prev;
+		private Timeout<T> next;
+
+		private Timeout(TimingWheel<T> wheel, T item, long deadline, long tick) {
+			this.wheel = wheel;
+			this.item = item;
+			this.deadline = deadline;
+			this.tick = tick;
+		}
+
+		/**
+		 * Retrieve the item of this deadline.
+		 * @return The item.
+		 */
+		public T getItem() {
+			return item;
+		}
+
+		/**
+		 * Retrieve the deadline.
+		 * @return The deadline in milliseconds.
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Cancel this deadline, so that the item is not returned by the
+		 * wheel.
+		 * @return True if this was cancelled, or false if this had already
+		 * passed or been cancelled.
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				return false;
+			}
+			wheel.size.decrementAndGet();
+			wheel.cancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * Retrieve whether this deadline has been cancelled.
+		 * @return True if this has been cancelled.
+		 */
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		/**
+		 * Retrieve whether this deadline has passed.
+		 * @return True if the item has been returned by the wheel.
+		 */
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		private boolean expire() {
+			if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+				return false;
+			}
+			wheel.size.decrementAndGet();
+			return true;
+		}
+
+		private void detach() {
+			slot = null;
+			prev = null;
+			next = null;
+		}
+
+	}
+
+	/**
+	 * This class is a doubly linked list of the timeouts in a slot.
+	 */
+	private static class Slot<T> {
+
+		private final int level;
+		private Timeout<T> head;
+		private Timeout<T> tail;
+
+		private Slot(int level) {
+			this.level = level;
+		}
+
+		private void add(Timeout<T> timeout) {
+			timeout.slot = this;
+			timeout.prev = tail;
+			timeout.next = null;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		private void remove(Timeout<T> timeout) {
+			if (timeout.prev == null) {
+				head = timeout.next;
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.prev;
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.detach();
+		}
+
+		private Timeout<T> clear() {
+			Timeout<T> first = head;
+			head = null;
+			tail = null;
+			return first;
+		}
+
+	}
+
+}
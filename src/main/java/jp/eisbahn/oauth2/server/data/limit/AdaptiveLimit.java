@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class limits the number of concurrent calls of one method of the
+ * DataHandler, and adapts the limit to the observed latency.
+ * 
+ * The limit follows the AIMD (additive increase, multiplicative decrease)
+ * rule. When a call finishes within the latency threshold while more than
+ * half of the limit is in use, the limit grows by 1/limit, so it grows by
+ * about one per round trip. When a call takes longer than the threshold,
+ * the limit is multiplied by the backoff ratio. The limit always stays
+ * between the minimum and the maximum.
+ * 
+ * A call which cannot acquire a permit is not queued. It is rejected
+ * immediately, and the number of rejections is counted for monitoring.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class AdaptiveLimit {
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThreshold;
+	private final double backoffRatio;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	// The limit is a double value to grow by fractions. Its bits are stored
+	// here to update it without a lock.
+	private final AtomicLong limitBits;
+
+	/**
+	 * Initialize this instance.
+	 * @param name The name of the method.
+	 * @param initialLimit The limit at starting.
+	 * @param minLimit The minimum limit.
+	 * @param maxLimit The maximum limit.
+	 * @param latencyThreshold The latency in milliseconds over which the
+	 * limit is decreased.
+	 * @param backoffRatio The ratio to multiply the limit when the latency
+	 * exceeds the threshold. It must be greater than 0 and less than 1.
+	 */
+	public AdaptiveLimit(String name, int initialLimit, int minLimit, int maxLimit,
+			long latencyThreshold, double backoffRatio) {
+		super();
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Invalid range of the limit.");
+		}
+		if (backoffRatio <= 0 || backoffRatio >= 1) {
+			throw new IllegalArgumentException("Invalid backoff ratio.");
+		}
+		this.name = name;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+		this.backoffRatio = backoffRatio;
+		double initial = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+		this.limitBits = new AtomicLong(Double.doubleToRawLongBits(initial));
+	}
+
+	/**
+	 * Retrieve the name of the method.
+	 * @return The method name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Retrieve the current limit.
+	 * @return The number of calls allowed at the same time.
+	 */
+	public int getLimit() {
+		return (int)Double.longBitsToDouble(limitBits.get());
+	}
+
+	/**
+	 * Retrieve the number of calls in progress.
+	 * @return The number of calls.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Retrieve the number of rejected calls since this instance was created.
+	 * @return The number of rejections.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Acquire a permit to call the method.
+	 * @return True if the call is allowed. If false is returned, the call
+	 * must not be made and the release() method must not be called.
+	 */
+	public boolean tryAcquire() {
+		int limit = getLimit();
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release the permit acquired by the tryAcquire() method, and adapt the
+	 * limit to the latency of the call.
+	 * @param latency The time taken by the call in nanoseconds.
+	 */
+	public void release(long latency) {
+		int used = inFlight.getAndDecrement();
+		while (true) {
+			long bits = limitBits.get();
+			double limit = Double.longBitsToDouble(bits);
+			double next;
+			if (latency > latencyThreshold) {
+				next = Math.max(minLimit, limit * backoffRatio);
+			} else if (used * 2 >= limit) {
+				next = Math.min(maxLimit, limit + 1 / limit);
+			} else {
+				// The limit is not the bottleneck, so the latency tells
+				// nothing about it.
+				return;
+			}
+			if (next == limit
+					|| limitBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.limit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandler;
+import jp.eisbahn.oauth2.server.data.limit.LimitingDataHandlerFactory.Limits;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This class is a DataHandler created by the LimitingDataHandlerFactory.
+ * 
+ * Each method acquires a permit from the AdaptiveLimit of the method before
+ * delegating to the wrapped DataHandler, and releases it with the latency
+ * when the result arrives. If no permit is available, the method fails with
+ * the rejection error without calling the wrapped DataHandler. The permits
+ * of the calls in progress are released when this instance is cancelled,
+ * so a call whose result never arrives does not hold its permit forever.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class LimitingDataHandler extends WrappingDataHandler {
+
+	private final LimitingDataHandlerFactory factory;
+	private final Limits limits;
+
+	// The calls waiting for their results. This is guarded by this instance.
+	private List<Call<?>> pending;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param dataHandler The wrapped DataHandler.
+	 * @param factory The factory which has the limits.
+	 */
+	public LimitingDataHandler(Request request, DataHandler dataHandler,
+			LimitingDataHandlerFactory factory) {
+		super(request, dataHandler);
+		this.factory = factory;
+		this.limits = factory.getLimitSet();
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		List<Call<?>> calls;
+		synchronized (this) {
+			calls = pending;
+			pending = null;
+		}
+		if (calls != null) {
+			long now = System.nanoTime();
+			for (Call<?> call : calls) {
+				call.limit.release(now - call.start);
+			}
+		}
+	}
+
+	@Override
+	public Promise<Boolean> validateClient(final String clientId,
+			final String clientSecret, final String grantType) {
+		return limit(new Call<Boolean>(limits.validateClient) {
+			@Override
+			Promise<Boolean> call() {
+				return getTarget().validateClient(clientId, clientSecret, grantType);
+			}
+		});
+	}
+
+	@Override
+	public Promise<String> getUserId(final String username, final String password) {
+		return limit(new Call<String>(limits.getUserId) {
+			@Override
+			Promise<String> call() {
+				return getTarget().getUserId(username, password);
+			}
+		});
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(final String clientId,
+			final String userId, final String scope) {
+		return limit(new Call<AuthInfo>(limits.createOrUpdateAuthInfo) {
+			@Override
+			Promise<AuthInfo> call() {
+				return getTarget().createOrUpdateAuthInfo(clientId, userId, scope);
+			}
+		});
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(final AuthInfo authInfo) {
+		return limit(new Call<AccessToken>(limits.createOrUpdateAccessToken) {
+			@Override
+			Promise<AccessToken> call() {
+				return getTarget().createOrUpdateAccessToken(authInfo);
+			}
+		});
+	}
+
+	/**
+	 * Create or update the authorization information of several requests at
+	 * once with the bulk method of the wrapped DataHandler. The whole batch
+	 * holds one permit of the createOrUpdateAuthInfo() method.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAuthInfos(final List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+		limit(new Call<List<Try<OAuthError, AuthInfo>>>(limits.createOrUpdateAuthInfo) {
+			@Override
+			Promise<List<Try<OAuthError, AuthInfo>>> call() {
+				Promise<List<Try<OAuthError, AuthInfo>>> promise =
+						new Promise<List<Try<OAuthError, AuthInfo>>>();
+				getDataHandler().createOrUpdateAuthInfos(authInfos, promise);
+				return promise;
+			}
+		}).onValue(handler);
+	}
+
+	/**
+	 * Create or update the access tokens of several requests at once with the
+	 * bulk method of the wrapped DataHandler. The whole batch holds one permit
+	 * of the createOrUpdateAccessToken() method.
+	 * @param authInfos The list of the authorization information.
+	 * @param handler The handler which receives the result of each element.
+	 */
+	@Override
+	public void createOrUpdateAccessTokens(final List<AuthInfo> authInfos,
+			Handler<List<Try<OAuthError, AccessToken>>> handler) {
+		limit(new Call<List<Try<OAuthError, AccessToken>>>(limits.createOrUpdateAccessToken) {
+			@Override
+			Promise<List<Try<OAuthError, AccessToken>>> call() {
+				Promise<List<Try<OAuthError, AccessToken>>> promise =
+						new Promise<List<Try<OAuthError, AccessToken>>>();
+				getDataHandler().createOrUpdateAccessTokens(authInfos, promise);
+				return promise;
+			}
+		}).onValue(handler);
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByCode(final String code) {
+		return limit(new Call<AuthInfo>(limits.getAuthInfoByCode) {
+			@Override
+			Promise<AuthInfo> call() {
+				return getTarget().getAuthInfoByCode(code);
+			}
+		});
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByRefreshToken(final String refreshToken) {
+		return limit(new Call<AuthInfo>(limits.getAuthInfoByRefreshToken) {
+			@Override
+			Promise<AuthInfo> call() {
+				return getTarget().getAuthInfoByRefreshToken(refreshToken);
+			}
+		});
+	}
+
+	@Override
+	public Promise<String> getClientUserId(final String clientId,
+			final String clientSecret) {
+		return limit(new Call<String>(limits.getClientUserId) {
+			@Override
+			Promise<String> call() {
+				return getTarget().getClientUserId(clientId, clientSecret);
+			}
+		});
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(final String clientId) {
+		return limit(new Call<Boolean>(limits.validateClientById) {
+			@Override
+			Promise<Boolean> call() {
+				return getTarget().validateClientById(clientId);
+			}
+		});
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(final String userId) {
+		return limit(new Call<Boolean>(limits.validateUserById) {
+			@Override
+			Promise<Boolean> call() {
+				return getTarget().validateUserById(userId);
+			}
+		});
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(final String token) {
+		return limit(new Call<AccessToken>(limits.getAccessToken) {
+			@Override
+			Promise<AccessToken> call() {
+				return getTarget().getAccessToken(token);
+			}
+		});
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(final String id) {
+		return limit(new Call<AuthInfo>(limits.getAuthInfoById) {
+			@Override
+			Promise<AuthInfo> call() {
+				return getTarget().getAuthInfoById(id);
+			}
+		});
+	}
+
+	@Override
+	public Promise<TokenIntrospection> introspectToken(final String token) {
+		return limit(new Call<TokenIntrospection>(limits.introspectToken) {
+			@Override
+			Promise<TokenIntrospection> call() {
+				return getTarget().introspectToken(token);
+			}
+		});
+	}
+
+	private <T> Promise<T> rejected() {
+		return Promise.failed(factory.getRejectionError());
+	}
+
+	/**
+	 * Acquire the permit of the call and invoke it. If no permit is
+	 * available, the call is not invoked and the rejection error is returned.
+	 * @param call The call of the wrapped DataHandler.
+	 * @return The promise of the call, or the rejected promise.
+	 */
+	private <T> Promise<T> limit(Call<T> call) {
+		if (!call.limit.tryAcquire()) {
+			return rejected();
+		}
+		call.start = System.nanoTime();
+		Promise<T> result = null;
+		try {
+			result = call.call();
+			return result;
+		} finally {
+			track(call, result);
+		}
+	}
+
+	private <T> void track(Call<T> call, Promise<T> result) {
+		if (result == null || result.isDone()) {
+			call.limit.release(System.nanoTime() - call.start);
+			return;
+		}
+		synchronized (this) {
+			if (pending == null) {
+				pending = new ArrayList<Call<?>>(2);
+			}
+			pending.add(call);
+		}
+		result.onComplete(call);
+	}
+
+	private void finish(Call<?> call) {
+		// The permit is released only once, either here or by the cancel()
+		// method.
+		synchronized (this) {
+			if (pending == null || !pending.remove(call)) {
+				return;
+			}
+		}
+		call.limit.release(System.nanoTime() - call.start);
+	}
+
+	/**
+	 * The call of one method of the wrapped DataHandler. The same instance
+	 * holds the permit while the result is pending.
+	 */
+	private abstract class Call<T> implements Handler<Try<OAuthError, T>> {
+
+		private final AdaptiveLimit limit;
+		private long start;
+
+		private Call(AdaptiveLimit limit) {
+			this.limit = limit;
+		}
+
+		abstract Promise<T> call();
+
+		@Override
+		public void handle(Try<OAuthError, T> event) {
+			finish(this);
+		}
+
+	}
+
+}
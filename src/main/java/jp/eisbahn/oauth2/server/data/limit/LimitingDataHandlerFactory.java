@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.limit;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and limits
+ * the number of concurrent calls to the DataHandler created by it.
+ * 
+ * Each method of the DataHandler has its own AdaptiveLimit, so a slow
+ * lookup does not block the other ones. When the limit of a method is
+ * reached, the call fails immediately with the rejection error instead of
+ * waiting for the database, and the endpoint returns it to the client. The
+ * default rejection error is the TemporarilyUnavailable error (503).
+ * 
+ * The current limits and the rejection counts can be retrieved with the
+ * getLimits() method for monitoring.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class LimitingDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	/** The default limit of each method at starting. */
+	public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+	/** The default minimum limit of each method. */
+	public static final int DEFAULT_MIN_LIMIT = 1;
+
+	/** The default maximum limit of each method. */
+	public static final int DEFAULT_MAX_LIMIT = 1000;
+
+	/** The default latency threshold in milliseconds. */
+	public static final long DEFAULT_LATENCY_THRESHOLD = 100L;
+
+	/** The default ratio to decrease the limit. */
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+	private int initialLimit = DEFAULT_INITIAL_LIMIT;
+	private int minLimit = DEFAULT_MIN_LIMIT;
+	private int maxLimit = DEFAULT_MAX_LIMIT;
+	private long latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+	private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+	private OAuthError rejectionError =
+			new OAuthError.TemporarilyUnavailable("The server is busy.");
+
+	private volatile Limits limits;
+
+	/**
+	 * Initialize this instance. The wrapped factory must be set with the
+	 * setDataHandlerFactory() method before calling the create() method.
+	 */
+	public LimitingDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 */
+	public LimitingDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		super(dataHandlerFactory);
+	}
+
+	/**
+	 * Set the limit of each method at starting.
+	 * This must be called before the first calling of the create() method.
+	 * @param initialLimit The number of concurrent calls.
+	 */
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	/**
+	 * Set the minimum limit of each method.
+	 * This must be called before the first calling of the create() method.
+	 * @param minLimit The number of concurrent calls.
+	 */
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	/**
+	 * Set the maximum limit of each method.
+	 * This must be called before the first calling of the create() method.
+	 * @param maxLimit The number of concurrent calls.
+	 */
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Set the latency over which the limit is decreased. Specify the latency
+	 * your database shows when it is healthy, with some margin.
+	 * This must be called before the first calling of the create() method.
+	 * @param latencyThreshold The latency in milliseconds.
+	 */
+	public void setLatencyThreshold(long latencyThreshold) {
+		this.latencyThreshold = latencyThreshold;
+	}
+
+	/**
+	 * Set the ratio to multiply the limit when a call is slower than the
+	 * latency threshold.
+	 * This must be called before the first calling of the create() method.
+	 * @param backoffRatio The ratio greater than 0 and less than 1.
+	 */
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * Set the error returned when a call is rejected.
+	 * @param rejectionError The error instance. It is shared by all requests.
+	 */
+	public void setRejectionError(OAuthError rejectionError) {
+		this.rejectionError = rejectionError;
+	}
+
+	/**
+	 * Retrieve the error returned when a call is rejected.
+	 * @return The error instance.
+	 */
+	public OAuthError getRejectionError() {
+		return rejectionError;
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler is not a
+	 * LimitingDataHandler, return null.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler instanceof LimitingDataHandler
+				? ((LimitingDataHandler)dataHandler).getDataHandler() : null;
+	}
+
+	/**
+	 * Create a DataHandler which wraps the DataHandler created by the wrapped
+	 * factory.
+	 * @param request The request object.
+	 * @return The limiting DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new LimitingDataHandler(request, getDataHandlerFactory().create(request), this);
+	}
+
+	/**
+	 * Retrieve the limits of all methods for monitoring.
+	 * @return The map from the method name to its limit.
+	 */
+	public Map<String, AdaptiveLimit> getLimits() {
+		return getLimitSet().all;
+	}
+
+	/**
+	 * Retrieve the total number of rejected calls of all methods.
+	 * @return The number of rejections.
+	 */
+	public long getRejectedCount() {
+		long count = 0;
+		for (AdaptiveLimit limit : getLimitSet().all.values()) {
+			count += limit.getRejectedCount();
+		}
+		return count;
+	}
+
+	Limits getLimitSet() {
+		Limits current = limits;
+		if (current == null) {
+			synchronized (this) {
+				current = limits;
+				if (current == null) {
+					current = new Limits(this);
+					limits = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	static class Limits {
+
+		final AdaptiveLimit validateClient;
+		final AdaptiveLimit getUserId;
+		final AdaptiveLimit createOrUpdateAuthInfo;
+		final AdaptiveLimit createOrUpdateAccessToken;
+		final AdaptiveLimit getAuthInfoByCode;
+		final AdaptiveLimit getAuthInfoByRefreshToken;
+		final AdaptiveLimit getClientUserId;
+		final AdaptiveLimit validateClientById;
+		final AdaptiveLimit validateUserById;
+		final AdaptiveLimit getAccessToken;
+		final AdaptiveLimit getAuthInfoById;
+		final AdaptiveLimit introspectToken;
+		final Map<String, AdaptiveLimit> all;
+
+		private Limits(LimitingDataHandlerFactory factory) {
+			Map<String, AdaptiveLimit> map = new LinkedHashMap<String, AdaptiveLimit>();
+			validateClient = create(factory, "validateClient", map);
+			getUserId = create(factory, "getUserId", map);
+			createOrUpdateAuthInfo = create(factory, "createOrUpdateAuthInfo", map);
+			createOrUpdateAccessToken = create(factory, "createOrUpdateAccessToken", map);
+			getAuthInfoByCode = create(factory, "getAuthInfoByCode", map);
+			getAuthInfoByRefreshToken = create(factory, "getAuthInfoByRefreshToken", map);
+			getClientUserId = create(factory, "getClientUserId", map);
+			validateClientById = create(factory, "validateClientById", map);
+			validateUserById = create(factory, "validateUserById", map);
+			getAccessToken = create(factory, "getAccessToken", map);
+			getAuthInfoById = create(factory, "getAuthInfoById", map);
+			introspectToken = create(factory, "introspectToken", map);
+			all = Collections.unmodifiableMap(map);
+		}
+
+		private static AdaptiveLimit create(LimitingDataHandlerFactory factory,
+				String name, Map<String, AdaptiveLimit> map) {
+			AdaptiveLimit limit = new AdaptiveLimit(name, factory.initialLimit,
+					factory.minLimit, factory.maxLimit, factory.latencyThreshold,
+					factory.backoffRatio);
+			map.put(name, limit);
+			return limit;
+		}
+
+	}
+
+}
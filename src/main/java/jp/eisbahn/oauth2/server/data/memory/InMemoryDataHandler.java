@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.util.Date;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerSync;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+
+/**
+ * This class is a DataHandler created by the InMemoryDataHandlerFactory.
+ * 
+ * Each method accesses to the data kept by the factory, and never blocks
+ * the calling thread.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryDataHandler extends DataHandlerSync {
+
+	private final InMemoryDataHandlerFactory factory;
+	private final InMemoryTokenStore store;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param factory The factory which has the data.
+	 */
+	public InMemoryDataHandler(Request request, InMemoryDataHandlerFactory factory) {
+		super(request);
+		this.factory = factory;
+		this.store = factory.getStore();
+	}
+
+	@Override
+	public boolean validateClient(String clientId, String clientSecret, String grantType) {
+		return factory.validateClient(clientId, clientSecret, grantType);
+	}
+
+	@Override
+	public String getUserId(String username, String password) {
+		return factory.getUserId(username, password);
+	}
+
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope) {
+		// The Client Credentials grant must not issue the refresh token.
+		RequestContext context = getContext();
+		boolean refreshable = context == null
+				|| !"client_credentials".equals(context.getGrantType());
+		return factory.createOrUpdateAuthInfo(clientId, userId, scope, refreshable,
+				System.currentTimeMillis());
+	}
+
+	@Override
+	protected String generateToken() {
+		RequestContext context = getContext();
+		if (context != null && context.getTokenGenerator() != null) {
+			return super.generateToken();
+		}
+		return factory.generateToken();
+	}
+
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		long now = System.currentTimeMillis();
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authInfo.getId());
+		accessToken.setToken(generateToken());
+		accessToken.setCreatedOn(new Date(now));
+		accessToken.setExpiresIn(factory.getAccessTokenExpiresIn());
+		if (!store.putAccessToken(accessToken, now)) {
+			return null;
+		}
+		factory.expireAt(Expiration.Type.ACCESS_TOKEN, accessToken.getToken(),
+				now + accessToken.getExpiresIn() * 1000);
+		return accessToken;
+	}
+
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		return code != null ? store.consumeCode(code, System.currentTimeMillis()) : null;
+	}
+
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		return refreshToken != null
+				? store.getAuthInfoByRefreshToken(refreshToken, System.currentTimeMillis()) : null;
+	}
+
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		return factory.getClientUserId(clientId, clientSecret);
+	}
+
+	@Override
+	public boolean validateClientById(String clientId) {
+		return factory.validateClientById(clientId);
+	}
+
+	@Override
+	public boolean validateUserById(String userId) {
+		return factory.validateUserById(userId);
+	}
+
+	@Override
+	public AccessToken getAccessToken(String token) {
+		return token != null ? store.getAccessToken(token, System.currentTimeMillis()) : null;
+	}
+
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		return id != null ? store.getAuthInfoById(id, System.currentTimeMillis()) : null;
+	}
+
+	@Override
+	public int purgeExpired(List<Expiration> expirations) {
+		return store.purgeExpired(expirations, System.currentTimeMillis());
+	}
+
+}
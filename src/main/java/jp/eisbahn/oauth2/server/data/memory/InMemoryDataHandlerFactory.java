@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.DaemonThreadFactory;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.ManagedDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.expiry.TimingWheel;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.token.SecureTokenGenerator;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
+
+
+/**
+ * This class is a DataHandlerFactory which keeps all data in memory, so that
+ * small deployments, tests and benchmarks can run without a database.
+ * 
+ * The clients and the users are registered with the addClient() and
+ * addUser() methods. The access tokens, the refresh tokens and the
+ * authorization information are created by the DataHandler of this factory
+ * as random strings. The authorization codes are issued by your
+ * authorization page with the issueCode() method, and each of them can be
+ * used only once.
+ * 
+ * Each entry expires automatically. An expired entry is ignored at once.
+ * While this factory is started, the deadline of each entry is kept in a
+ * TimingWheel, and the entries whose deadline has passed are removed from the
+ * memory every purge interval without scanning all entries. The entries
+ * created while this factory is stopped are removed by the purge() method.
+ * The revokeByClient() and revokeByUser() methods remove all tokens of a
+ * client or an user at once.
+ * 
+ * All data is lost when the process stops.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryDataHandlerFactory implements ManagedDataHandlerFactory {
+
+	/** The default lifetime of the access tokens in seconds. */
+	public static final long DEFAULT_ACCESS_TOKEN_EXPIRES_IN = 3600L;
+
+	/** The default lifetime of the authorization information and its refresh token in seconds. */
+	public static final long DEFAULT_AUTH_INFO_EXPIRES_IN = 30 * 24 * 3600L;
+
+	/** The default lifetime of the authorization codes in seconds. */
+	public static final long DEFAULT_CODE_EXPIRES_IN = 600L;
+
+	/** The default interval to remove the expired entries in milliseconds. */
+	public static final long DEFAULT_PURGE_INTERVAL = 60 * 1000L;
+
+	static final int TOKEN_BYTES = 32;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final InMemoryTokenStore store = new InMemoryTokenStore();
+	private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+	private final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>();
+	private final Set<String> userIds =
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private TokenGenerator tokenGenerator = new SecureTokenGenerator();
+
+	private long accessTokenExpiresIn = DEFAULT_ACCESS_TOKEN_EXPIRES_IN;
+	private long authInfoExpiresIn = DEFAULT_AUTH_INFO_EXPIRES_IN;
+	private long codeExpiresIn = DEFAULT_CODE_EXPIRES_IN;
+	private boolean issueRefreshToken = true;
+	private long purgeInterval = DEFAULT_PURGE_INTERVAL;
+	private ScheduledExecutorService scheduler;
+
+	private volatile TimingWheel<Expiration> wheel;
+	private ScheduledExecutorService ownScheduler;
+	private ScheduledFuture<?> purgeTask;
+
+	/**
+	 * Set the generator of the token strings. The default is a
+	 * SecureTokenGenerator with 32 bytes. The access tokens whose length is
+	 * not the one of the default are kept in a map instead of the compact
+	 * index. If a TokenGenerator is set to the grant handler, it is used for
+	 * the access tokens instead.
+	 * @param tokenGenerator The generator instance.
+	 */
+	public void setTokenGenerator(TokenGenerator tokenGenerator) {
+		this.tokenGenerator = tokenGenerator;
+	}
+
+	/**
+	 * Set the lifetime of the access tokens.
+	 * @param accessTokenExpiresIn The lifetime in seconds.
+	 */
+	public void setAccessTokenExpiresIn(long accessTokenExpiresIn) {
+		this.accessTokenExpiresIn = accessTokenExpiresIn;
+	}
+
+	/**
+	 * Retrieve the lifetime of the access tokens.
+	 * @return The lifetime in seconds.
+	 */
+	public long getAccessTokenExpiresIn() {
+		return accessTokenExpiresIn;
+	}
+
+	/**
+	 * Set the lifetime of the authorization information. The refresh token
+	 * can be used until the authorization information expires. If this is 0,
+	 * it never expires.
+	 * @param authInfoExpiresIn The lifetime in seconds.
+	 */
+	public void setAuthInfoExpiresIn(long authInfoExpiresIn) {
+		this.authInfoExpiresIn = authInfoExpiresIn;
+	}
+
+	/**
+	 * Set the lifetime of the authorization codes.
+	 * @param codeExpiresIn The lifetime in seconds.
+	 */
+	public void setCodeExpiresIn(long codeExpiresIn) {
+		this.codeExpiresIn = codeExpiresIn;
+	}
+
+	/**
+	 * Set whether the refresh token is issued. Even if this is true, the
+	 * refresh token is not issued for the Client Credentials grant.
+	 * @param issueRefreshToken True if the refresh token is issued.
+	 */
+	public void setIssueRefreshToken(boolean issueRefreshToken) {
+		this.issueRefreshToken = issueRefreshToken;
+	}
+
+	/**
+	 * Set the interval to remove the expired entries. This is also the length
+	 * of a tick of the wheel, so an entry is removed within two intervals
+	 * after its deadline. If this is 0, the deadlines are not kept and the
+	 * purge() method should be called by your application.
+	 * This must be called before the start() method.
+	 * @param purgeInterval The interval in milliseconds.
+	 */
+	public void setPurgeInterval(long purgeInterval) {
+		this.purgeInterval = purgeInterval;
+	}
+
+	/**
+	 * Set the scheduler to remove the expired entries. If this method is not called,
+	 * a daemon thread is started by the start() method.
+	 * This must be called before the start() method.
+	 * @param scheduler The scheduler instance.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Register the client.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret.
+	 * @param userId The user ID used for the Client Credentials grant, or
+	 * null if the client cannot use it.
+	 * @param grantTypes The grant types which the client can use. If nothing
+	 * is specified, the client can use all grant types.
+	 */
+	public void addClient(String clientId, String clientSecret, String userId,
+			String... grantTypes) {
+		Set<String> types = grantTypes.length > 0
+				? new HashSet<String>(Arrays.asList(grantTypes)) : null;
+		clients.put(clientId, new Client(clientSecret, userId, types));
+		if (userId != null) {
+			userIds.add(userId);
+		}
+	}
+
+	/**
+	 * Unregister the client and revoke all tokens of it.
+	 * @param clientId The client ID.
+	 */
+	public void removeClient(String clientId) {
+		clients.remove(clientId);
+		revokeByClient(clientId);
+	}
+
+	/**
+	 * Register the user.
+	 * @param username The user name used for the Resource Owner Password
+	 * Credentials grant.
+	 * @param password The password.
+	 * @param userId The user ID.
+	 */
+	public void addUser(String username, String password, String userId) {
+		users.put(username, new User(password, userId));
+		userIds.add(userId);
+	}
+
+	/**
+	 * Unregister the user and revoke all tokens of the user.
+	 * @param username The user name.
+	 */
+	public void removeUser(String username) {
+		User user = users.remove(username);
+		if (user != null) {
+			userIds.remove(user.userId);
+			revokeByUser(user.userId);
+		}
+	}
+
+	/**
+	 * Issue the authorization code. Call this method when the user has
+	 * authorized the client on your authorization page, and redirect the
+	 * user to the redirect URI with the code of the result.
+	 * @param clientId The client ID.
+	 * @param userId The user ID.
+	 * @param scope The authorized scope string.
+	 * @param redirectUri The redirect URI specified by the client.
+	 * @return The authorization information which has the code.
+	 */
+	public AuthInfo issueCode(String clientId, String userId, String scope,
+			String redirectUri) {
+		long now = System.currentTimeMillis();
+		AuthInfo authInfo = createOrUpdateAuthInfo(clientId, userId, scope, true, now);
+		long expiresOn = now + codeExpiresIn * 1000;
+		AuthInfo result = store.setCode(authInfo.getId(), generateToken(), redirectUri,
+				expiresOn);
+		if (result != null) {
+			expireAt(Expiration.Type.CODE, result.getCode(), expiresOn);
+		}
+		return result;
+	}
+
+	/**
+	 * Revoke the access token.
+	 * @param token The access token string.
+	 * @return True if the access token was revoked.
+	 */
+	public boolean revokeAccessToken(String token) {
+		return store.removeAccessToken(token);
+	}
+
+	/**
+	 * Revoke all authorization information of the client with their
+	 * refresh tokens, codes and access tokens.
+	 * @param clientId The client ID.
+	 * @return The number of the revoked authorization information.
+	 */
+	public int revokeByClient(String clientId) {
+		return store.removeByClient(clientId);
+	}
+
+	/**
+	 * Revoke all authorization information of the user with their refresh
+	 * tokens, codes and access tokens.
+	 * @param userId The user ID.
+	 * @return The number of the revoked authorization information.
+	 */
+	public int revokeByUser(String userId) {
+		return store.removeByUser(userId);
+	}
+
+	/**
+	 * Remove the expired entries from the memory now by scanning all entries.
+	 * @return The number of the removed entries.
+	 */
+	public int purge() {
+		return store.purge(System.currentTimeMillis());
+	}
+
+	/**
+	 * Retrieve the number of the access tokens in the memory. The expired
+	 * ones which have not been purged yet are included.
+	 * @return The number of the access tokens.
+	 */
+	public int getAccessTokenCount() {
+		return store.getAccessTokenCount();
+	}
+
+	/**
+	 * Retrieve the number of the authorization information in the memory.
+	 * The expired ones which have not been purged yet are included.
+	 * @return The number of the authorization information.
+	 */
+	public int getAuthInfoCount() {
+		return store.getAuthInfoCount();
+	}
+
+	/**
+	 * Start keeping the deadlines and removing the expired entries.
+	 */
+	@Override
+	public synchronized void start() {
+		if (purgeTask != null || purgeInterval <= 0) {
+			return;
+		}
+		wheel = new TimingWheel<Expiration>(purgeInterval, System.currentTimeMillis());
+		ScheduledExecutorService executor = scheduler;
+		if (executor == null) {
+			ownScheduler = DaemonThreadFactory.newScheduler("oauth2-in-memory-purge");
+			executor = ownScheduler;
+		}
+		purgeTask = executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				purgeExpired(System.currentTimeMillis());
+			}
+		}, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop removing the expired entries and drop the deadlines. The data is
+	 * kept, so this factory can be started again.
+	 */
+	@Override
+	public synchronized void stop() {
+		wheel = null;
+		if (purgeTask != null) {
+			purgeTask.cancel(false);
+			purgeTask = null;
+		}
+		if (ownScheduler != null) {
+			ownScheduler.shutdown();
+			ownScheduler = null;
+		}
+	}
+
+	/**
+	 * Do nothing, because the DataHandler of this factory has no resource.
+	 * @param dataHandler The DataHandler created by this factory.
+	 */
+	@Override
+	public void release(DataHandler dataHandler) {
+	}
+
+	/**
+	 * Create a DataHandler which accesses to the data of this factory.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new InMemoryDataHandler(request, this);
+	}
+
+	InMemoryTokenStore getStore() {
+		return store;
+	}
+
+	int purgeExpired(long now) {
+		TimingWheel<Expiration> current = wheel;
+		return current != null ? store.purgeExpired(current.advance(now), now) : 0;
+	}
+
+	int getPendingExpirationCount() {
+		TimingWheel<Expiration> current = wheel;
+		return current != null ? current.size() : 0;
+	}
+
+	void expireAt(Expiration.Type type, String key, long deadline) {
+		TimingWheel<Expiration> current = wheel;
+		if (current != null) {
+			current.schedule(new Expiration(type, key, deadline), deadline);
+		}
+	}
+
+	AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope,
+			boolean refreshable, long now) {
+		String refreshToken = refreshable && issueRefreshToken ? generateToken() : null;
+		long expiresOn = authInfoExpiresIn > 0 ? now + authInfoExpiresIn * 1000 : 0L;
+		String id = generateToken();
+		AuthInfo authInfo = store.createOrUpdateAuthInfo(clientId, userId, scope, id,
+				refreshToken, expiresOn, now);
+		// Only the new record has a new deadline.
+		if (expiresOn > 0 && id.equals(authInfo.getId())) {
+			expireAt(Expiration.Type.AUTH_INFO, id, expiresOn);
+		}
+		return authInfo;
+	}
+
+	String generateToken() {
+		return tokenGenerator.generate();
+	}
+
+	boolean validateClient(String clientId, String clientSecret, String grantType) {
+		Client client = authenticate(clientId, clientSecret);
+		return client != null
+				&& (client.grantTypes == null || client.grantTypes.contains(grantType));
+	}
+
+	String getClientUserId(String clientId, String clientSecret) {
+		Client client = authenticate(clientId, clientSecret);
+		return client != null ? client.userId : null;
+	}
+
+	boolean validateClientById(String clientId) {
+		return clientId != null && clients.containsKey(clientId);
+	}
+
+	String getUserId(String username, String password) {
+		User user = username != null ? users.get(username) : null;
+		return user != null && matches(user.password, password) ? user.userId : null;
+	}
+
+	boolean validateUserById(String userId) {
+		return userId != null && userIds.contains(userId);
+	}
+
+	private Client authenticate(String clientId, String clientSecret) {
+		Client client = clientId != null ? clients.get(clientId) : null;
+		return client != null && matches(client.secret, clientSecret) ? client : null;
+	}
+
+	private static boolean matches(String expected, String actual) {
+		// This compares in constant time not to tell how many characters
+		// matched.
+		return actual != null
+				&& MessageDigest.isEqual(expected.getBytes(UTF_8), actual.getBytes(UTF_8));
+	}
+
+	private static class Client {
+
+		private final String secret;
+		private final String userId;
+		private final Set<String> grantTypes;
+
+		private Client(String secret, String userId, Set<String> grantTypes) {
+			this.secret = secret;
+			this.userId = userId;
+			this.grantTypes = grantTypes;
+		}
+
+	}
+
+	private static class User {
+
+		private final String password;
+		private final String userId;
+
+		private User(String password, String userId) {
+			this.password = password;
+			this.userId = userId;
+		}
+
+	}
+
+}
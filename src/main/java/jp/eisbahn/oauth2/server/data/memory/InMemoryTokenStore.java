@@ -0,0 +1,742 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+
+/**
+ * This class keeps the authorization information and the access tokens in
+ * concurrent maps.
+ * 
+ * Each authorization information is kept as a record, and is indexed by its
+ * ID, the combination of the client ID, the user ID and the scope, the
+ * refresh token and the authorization code. The records are also indexed by
+ * the client ID and the user ID to revoke them at once. Each record has the
+ * latest access token issued for it only. The access tokens generated by
+ * InMemoryDataHandlerFactory are indexed by TokenIndex, and their strings
+ * are not kept. The access tokens of other formats are indexed by the token
+ * string. The lookup returns a copy of the access token.
+ * 
+ * The lookups never take a lock. The changes of a record are guarded by the
+ * record itself, so the requests for different records never wait for each
+ * other. The expired entries are ignored by the lookups, and are removed by
+ * the purgeExpired() method when their deadline arrives, or by the purge()
+ * method which scans all entries.
+ * 
+ * When a journal is set, each change is passed to it while the record is
+ * locked, so the changes can be written into files and applied again. The
+ * change is applied to the entries read by the snapshot() method under the
+ * same lock, so the snapshot taken after the journal switched its file
+ * always has the changes written into the previous file.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+class InMemoryTokenStore {
+
+	private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+	private final ConcurrentMap<String, Record> recordsByKey = new ConcurrentHashMap<String, Record>();
+	private final ConcurrentMap<String, Record> recordsByRefreshToken =
+			new ConcurrentHashMap<String, Record>();
+	private final ConcurrentMap<String, Record> recordsByCode = new ConcurrentHashMap<String, Record>();
+	private final TokenIndex<TokenEntry> accessTokens =
+			new TokenIndex<TokenEntry>(InMemoryDataHandlerFactory.TOKEN_BYTES);
+	private final ConcurrentMap<String, TokenEntry> otherAccessTokens =
+			new ConcurrentHashMap<String, TokenEntry>();
+	private final Index recordsByClient = new Index();
+	private final Index recordsByUser = new Index();
+
+	private volatile TokenJournal journal;
+
+	/**
+	 * Set the journal which receives the changes.
+	 * @param journal The journal, or null not to pass the changes.
+	 */
+	void setJournal(TokenJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Retrieve the record of the client, the user and the scope, or create
+	 * it if it does not exist or has expired.
+	 * @param clientId The client ID.
+	 * @param userId The user ID.
+	 * @param scope The scope string.
+	 * @param id The ID of the new record.
+	 * @param refreshToken The refresh token of the new record, or null.
+	 * @param expiresOn The time when the new record expires in milliseconds,
+	 * or 0 if it never expires.
+	 * @param now The current time in milliseconds.
+	 * @return The copy of the authorization information of the record.
+	 */
+	AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope,
+			String id, String refreshToken, long expiresOn, long now) {
+		String key = key(clientId, userId, scope);
+		Record record = null;
+		for (;;) {
+			Record current = recordsByKey.get(key);
+			if (current != null) {
+				if (!current.isExpired(now)) {
+					return current.copy();
+				}
+				remove(current);
+				continue;
+			}
+			if (record == null) {
+				AuthInfo authInfo = new AuthInfo();
+				authInfo.setId(id);
+				authInfo.setClientId(clientId);
+				authInfo.setUserId(userId);
+				authInfo.setScope(scope);
+				authInfo.setRefreshToken(refreshToken);
+				record = new Record(authInfo, key, expiresOn);
+			}
+			// The record is locked until it can be found by its ID and its
+			// refresh token. Another request which finds it by the key reads
+			// it with copy(), so it waits for the lock and never receives an
+			// ID which is not found yet.
+			synchronized (record) {
+				if (recordsByKey.putIfAbsent(key, record) != null) {
+					continue;
+				}
+				records.put(record.authInfo.getId(), record);
+				if (refreshToken != null) {
+					recordsByRefreshToken.put(refreshToken, record);
+				}
+				// The record is passed to the journal after the snapshot can
+				// find it, and before any other change of it.
+				TokenJournal currentJournal = journal;
+				if (currentJournal != null) {
+					currentJournal.authInfoCreated(record.authInfo, expiresOn);
+					record.logged = true;
+				}
+			}
+			break;
+		}
+		recordsByClient.add(clientId, record);
+		recordsByUser.add(userId, record);
+		// The record may have been removed by a revocation meanwhile.
+		if (record.isRemoved()) {
+			remove(record, true);
+		}
+		return record.copy();
+	}
+
+	/**
+	 * Set the authorization code to the record.
+	 * @param id The ID of the record.
+	 * @param code The authorization code.
+	 * @param redirectUri The redirect URI sent with the code.
+	 * @param expiresOn The time when the code expires in milliseconds.
+	 * @return The copy of the authorization information which has the code,
+	 * or null if the record does not exist.
+	 */
+	AuthInfo setCode(String id, String code, String redirectUri, long expiresOn) {
+		Record record = records.get(id);
+		if (record == null) {
+			return null;
+		}
+		String old;
+		AuthInfo result;
+		synchronized (record) {
+			if (record.removed) {
+				return null;
+			}
+			TokenJournal current = journal;
+			if (current != null) {
+				current.codeIssued(id, code, redirectUri, expiresOn);
+			}
+			old = record.authInfo.getCode();
+			record.authInfo.setCode(code);
+			record.authInfo.setRedirectUri(redirectUri);
+			record.codeExpiresOn = expiresOn;
+			recordsByCode.put(code, record);
+			result = record.copy();
+		}
+		if (old != null) {
+			recordsByCode.remove(old, record);
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve the authorization information by the authorization code, and
+	 * remove the code. Only one of the concurrent calls with the same code
+	 * receives the result.
+	 * @param code The authorization code.
+	 * @param now The current time in milliseconds.
+	 * @return The copy of the authorization information, or null if the code
+	 * is unknown, already used or expired.
+	 */
+	AuthInfo consumeCode(String code, long now) {
+		Record record = recordsByCode.remove(code);
+		if (record == null) {
+			return null;
+		}
+		synchronized (record) {
+			if (record.removed || !code.equals(record.authInfo.getCode())) {
+				return null;
+			}
+			AuthInfo result = record.copy();
+			record.authInfo.setCode(null);
+			codeRemoved(record, code);
+			if (record.codeExpiresOn <= now || record.isExpired(now)) {
+				return null;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Retrieve the authorization information by the refresh token.
+	 * @param refreshToken The refresh token.
+	 * @param now The current time in milliseconds.
+	 * @return The copy of the authorization information, or null if it does
+	 * not exist or has expired.
+	 */
+	AuthInfo getAuthInfoByRefreshToken(String refreshToken, long now) {
+		return live(recordsByRefreshToken.get(refreshToken), now);
+	}
+
+	/**
+	 * Retrieve the authorization information by the ID.
+	 * @param id The ID of the authorization information.
+	 * @param now The current time in milliseconds.
+	 * @return The copy of the authorization information, or null if it does
+	 * not exist or has expired.
+	 */
+	AuthInfo getAuthInfoById(String id, long now) {
+		return live(records.get(id), now);
+	}
+
+	private AuthInfo live(Record record, long now) {
+		if (record == null) {
+			return null;
+		}
+		if (record.isExpired(now)) {
+			remove(record);
+			return null;
+		}
+		synchronized (record) {
+			return record.removed ? null : record.copy();
+		}
+	}
+
+	/**
+	 * Store the access token as the latest one of the record. The previous
+	 * access token of the record is removed.
+	 * @param accessToken The access token which has the ID of the record.
+	 * @param now The current time in milliseconds.
+	 * @return True if it was stored, or false if the record does not exist
+	 * or has expired.
+	 */
+	boolean putAccessToken(AccessToken accessToken, long now) {
+		Record record = records.get(accessToken.getAuthId());
+		if (record == null) {
+			return false;
+		}
+		if (record.isExpired(now)) {
+			remove(record);
+			return false;
+		}
+		String token = accessToken.getToken();
+		boolean indexed = accessTokens.accepts(token);
+		TokenEntry entry = new TokenEntry(record, indexed ? null : token,
+				indexed ? accessTokens.prefix(token) : 0L, accessToken);
+		TokenEntry old;
+		synchronized (record) {
+			if (record.removed) {
+				return false;
+			}
+			TokenJournal current = journal;
+			if (current != null) {
+				current.accessTokenCreated(accessToken);
+			}
+			old = record.accessToken;
+			record.accessToken = entry;
+			if (indexed) {
+				accessTokens.put(token, entry);
+			} else {
+				otherAccessTokens.put(token, entry);
+			}
+		}
+		if (old != null) {
+			unindex(old);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieve the access token.
+	 * @param token The access token string.
+	 * @param now The current time in milliseconds.
+	 * @return The copy of the access token, or null if it does not exist or
+	 * has expired.
+	 */
+	AccessToken getAccessToken(String token, long now) {
+		TokenEntry entry = findAccessToken(token);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.isExpired(now)) {
+			removeAccessToken(entry, token);
+			return null;
+		}
+		return entry.toAccessToken(token);
+	}
+
+	/**
+	 * Remove the access token.
+	 * @param token The access token string.
+	 * @return True if it was removed.
+	 */
+	boolean removeAccessToken(String token) {
+		TokenEntry entry = findAccessToken(token);
+		return entry != null && removeAccessToken(entry, token);
+	}
+
+	private TokenEntry findAccessToken(String token) {
+		return accessTokens.accepts(token) ? accessTokens.get(token) : otherAccessTokens.get(token);
+	}
+
+	private boolean removeAccessToken(TokenEntry entry, String token) {
+		// The string of an indexed token is restored before it is removed.
+		String removed = token != null ? token : tokenOf(entry);
+		if (removed == null) {
+			return false;
+		}
+		Record record = entry.record;
+		synchronized (record) {
+			if (!unindex(entry)) {
+				return false;
+			}
+			TokenJournal current = journal;
+			if (current != null) {
+				current.accessTokenRemoved(removed);
+			}
+			if (record.accessToken == entry) {
+				record.accessToken = null;
+			}
+		}
+		return true;
+	}
+
+	private String tokenOf(TokenEntry entry) {
+		return entry.token != null ? entry.token : accessTokens.token(entry.prefix, entry);
+	}
+
+	private boolean unindex(TokenEntry entry) {
+		return entry.token != null
+				? otherAccessTokens.remove(entry.token, entry) : accessTokens.remove(entry.prefix, entry);
+	}
+
+	/**
+	 * Remove all records of the client and their access tokens.
+	 * @param clientId The client ID.
+	 * @return The number of removed records.
+	 */
+	int removeByClient(String clientId) {
+		return removeAll(recordsByClient.get(clientId));
+	}
+
+	/**
+	 * Remove all records of the user and their access tokens.
+	 * @param userId The user ID.
+	 * @return The number of removed records.
+	 */
+	int removeByUser(String userId) {
+		return removeAll(recordsByUser.get(userId));
+	}
+
+	private int removeAll(List<Record> targets) {
+		int count = 0;
+		for (Record record : targets) {
+			if (remove(record)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the expired access tokens, authorization codes and records.
+	 * @param now The current time in milliseconds.
+	 * @return The number of removed entries.
+	 */
+	int purge(long now) {
+		int count = 0;
+		for (Record record : records.values()) {
+			TokenEntry accessToken;
+			synchronized (record) {
+				accessToken = record.accessToken;
+			}
+			if (accessToken != null && accessToken.isExpired(now)
+					&& removeAccessToken(accessToken, null)) {
+				count++;
+			}
+			if (record.isExpired(now)) {
+				if (remove(record)) {
+					count++;
+				}
+				continue;
+			}
+			if (removeCode(record, now)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the specified entries if they have expired.
+	 * @param expirations The entries which should have expired.
+	 * @param now The current time in milliseconds.
+	 * @return The number of removed entries.
+	 */
+	int purgeExpired(List<Expiration> expirations, long now) {
+		int count = 0;
+		for (Expiration expiration : expirations) {
+			String key = expiration.getKey();
+			switch (expiration.getType()) {
+			case ACCESS_TOKEN:
+				TokenEntry accessToken = findAccessToken(key);
+				if (accessToken != null && accessToken.isExpired(now)
+						&& removeAccessToken(accessToken, key)) {
+					count++;
+				}
+				break;
+			case AUTH_INFO:
+				Record record = records.get(key);
+				if (record != null && record.isExpired(now) && remove(record)) {
+					count++;
+				}
+				break;
+			case CODE:
+				Record owner = recordsByCode.get(key);
+				if (owner != null && removeCode(owner, now)) {
+					count++;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return count;
+	}
+
+	private boolean removeCode(Record record, long now) {
+		String code = null;
+		synchronized (record) {
+			if (record.authInfo.getCode() != null && record.codeExpiresOn <= now) {
+				code = record.authInfo.getCode();
+				record.authInfo.setCode(null);
+				codeRemoved(record, code);
+			}
+		}
+		return code != null && recordsByCode.remove(code, record);
+	}
+
+	private void codeRemoved(Record record, String code) {
+		TokenJournal current = journal;
+		if (current != null) {
+			current.codeRemoved(record.authInfo.getId(), code);
+		}
+	}
+
+	/**
+	 * Remove the record by the ID with its access token.
+	 * @param id The ID of the record.
+	 * @return True if it was removed.
+	 */
+	boolean removeAuthInfo(String id) {
+		Record record = records.get(id);
+		return record != null && remove(record);
+	}
+
+	/**
+	 * Remove the authorization code of the record if it is still the current
+	 * one.
+	 * @param id The ID of the record.
+	 * @param code The authorization code.
+	 */
+	void removeCode(String id, String code) {
+		Record record = records.get(id);
+		if (record == null) {
+			return;
+		}
+		synchronized (record) {
+			if (!code.equals(record.authInfo.getCode())) {
+				return;
+			}
+			record.authInfo.setCode(null);
+			codeRemoved(record, code);
+		}
+		recordsByCode.remove(code, record);
+	}
+
+	/**
+	 * Pass the live records with their authorization codes and access tokens
+	 * to the journal. The changes made while this is running may or may not
+	 * be passed.
+	 * @param target The journal which receives the entries.
+	 * @param now The current time in milliseconds.
+	 */
+	void snapshot(TokenJournal target, long now) {
+		for (Record record : records.values()) {
+			if (record.isExpired(now)) {
+				continue;
+			}
+			synchronized (record) {
+				if (record.removed) {
+					continue;
+				}
+				AuthInfo authInfo = record.authInfo;
+				target.authInfoCreated(authInfo, record.expiresOn);
+				if (authInfo.getCode() != null && record.codeExpiresOn > now) {
+					target.codeIssued(authInfo.getId(), authInfo.getCode(),
+							authInfo.getRedirectUri(), record.codeExpiresOn);
+				}
+				TokenEntry accessToken = record.accessToken;
+				String token = accessToken != null && !accessToken.isExpired(now)
+						? tokenOf(accessToken) : null;
+				if (token != null) {
+					target.accessTokenCreated(accessToken.toAccessToken(token));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the number of the access tokens including the expired ones
+	 * which have not been purged yet.
+	 * @return The number of the access tokens.
+	 */
+	int getAccessTokenCount() {
+		return accessTokens.size() + otherAccessTokens.size();
+	}
+
+	/**
+	 * Retrieve the number of the records including the expired ones which
+	 * have not been purged yet.
+	 * @return The number of the records.
+	 */
+	int getAuthInfoCount() {
+		return records.size();
+	}
+
+	private boolean remove(Record record) {
+		return remove(record, false);
+	}
+
+	private boolean remove(Record record, boolean force) {
+		String code;
+		TokenEntry accessToken;
+		synchronized (record) {
+			if (record.removed && !force) {
+				return false;
+			}
+			record.removed = true;
+			code = record.authInfo.getCode();
+			accessToken = record.accessToken;
+			record.accessToken = null;
+			TokenJournal current = journal;
+			if (current != null && record.logged) {
+				current.authInfoRemoved(record.authInfo.getId());
+			}
+		}
+		AuthInfo authInfo = record.authInfo;
+		records.remove(authInfo.getId(), record);
+		recordsByKey.remove(record.key, record);
+		if (authInfo.getRefreshToken() != null) {
+			recordsByRefreshToken.remove(authInfo.getRefreshToken(), record);
+		}
+		if (code != null) {
+			recordsByCode.remove(code, record);
+		}
+		if (accessToken != null) {
+			unindex(accessToken);
+		}
+		recordsByClient.remove(authInfo.getClientId(), record);
+		recordsByUser.remove(authInfo.getUserId(), record);
+		return true;
+	}
+
+	private static String key(String clientId, String userId, String scope) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(clientId).append('\n').append(userId).append('\n').append(scope);
+		return sb.toString();
+	}
+
+	private static class Record {
+
+		// The fields of the authInfo and the fields below are guarded by this
+		// instance, except the ones which never change.
+		private final AuthInfo authInfo;
+		private final String key;
+		private final long expiresOn;
+		private long codeExpiresOn;
+		private TokenEntry accessToken;
+		private boolean removed;
+		private boolean logged;
+
+		private Record(AuthInfo authInfo, String key, long expiresOn) {
+			this.authInfo = authInfo;
+			this.key = key;
+			this.expiresOn = expiresOn;
+		}
+
+		private boolean isExpired(long now) {
+			return expiresOn > 0 && expiresOn <= now;
+		}
+
+		private synchronized boolean isRemoved() {
+			return removed;
+		}
+
+		private synchronized AuthInfo copy() {
+			AuthInfo copy = new AuthInfo();
+			copy.setId(authInfo.getId());
+			copy.setClientId(authInfo.getClientId());
+			copy.setUserId(authInfo.getUserId());
+			copy.setScope(authInfo.getScope());
+			copy.setRefreshToken(authInfo.getRefreshToken());
+			copy.setCode(authInfo.getCode());
+			copy.setRedirectUri(authInfo.getRedirectUri());
+			return copy;
+		}
+
+	}
+
+	/**
+	 * This class keeps an access token of a record. The token string is kept
+	 * only when the token is not indexed by the TokenIndex.
+	 */
+	private static class TokenEntry {
+
+		private final Record record;
+		private final String token;
+		private final long prefix;
+		private final long createdOn;
+		private final long expiresIn;
+		private final String idToken;
+
+		private TokenEntry(Record record, String token, long prefix, AccessToken accessToken) {
+			this.record = record;
+			this.token = token;
+			this.prefix = prefix;
+			createdOn = accessToken.getCreatedOn().getTime();
+			expiresIn = accessToken.getExpiresIn();
+			idToken = accessToken.getIdToken();
+		}
+
+		private boolean isExpired(long now) {
+			return createdOn + expiresIn * 1000 <= now;
+		}
+
+		private AccessToken toAccessToken(String token) {
+			AccessToken accessToken = new AccessToken();
+			accessToken.setAuthId(record.authInfo.getId());
+			accessToken.setToken(token);
+			accessToken.setCreatedOn(new Date(createdOn));
+			accessToken.setExpiresIn(expiresIn);
+			accessToken.setIdToken(idToken);
+			return accessToken;
+		}
+
+	}
+
+	/**
+	 * This class indexes the records by a secondary key. Each key has its
+	 * own bucket, and an empty bucket is removed from the map. A bucket
+	 * removed from the map is never used again.
+	 */
+	private static class Index {
+
+		private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+		private void add(String key, Record record) {
+			if (key == null) {
+				return;
+			}
+			for (;;) {
+				Bucket bucket = buckets.get(key);
+				if (bucket == null) {
+					bucket = new Bucket();
+					Bucket current = buckets.putIfAbsent(key, bucket);
+					if (current != null) {
+						bucket = current;
+					}
+				}
+				synchronized (bucket) {
+					if (!bucket.dead) {
+						bucket.records.add(record);
+						return;
+					}
+				}
+			}
+		}
+
+		private void remove(String key, Record record) {
+			if (key == null) {
+				return;
+			}
+			Bucket bucket = buckets.get(key);
+			if (bucket == null) {
+				return;
+			}
+			synchronized (bucket) {
+				bucket.records.remove(record);
+				if (bucket.records.isEmpty() && !bucket.dead) {
+					bucket.dead = true;
+					buckets.remove(key, bucket);
+				}
+			}
+		}
+
+		private List<Record> get(String key) {
+			Bucket bucket = key != null ? buckets.get(key) : null;
+			if (bucket == null) {
+				return Collections.emptyList();
+			}
+			synchronized (bucket) {
+				return new ArrayList<Record>(bucket.records);
+			}
+		}
+
+	}
+
+	private static class Bucket {
+
+		private final Set<Record> records = new HashSet<Record>();
+		private boolean dead;
+
+	}
+
+}
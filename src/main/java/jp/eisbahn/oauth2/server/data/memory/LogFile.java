@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class is a file of records which is mapped into memory region by
+ * region.
+ * 
+ * Each record is written as the length of its payload, the CRC-32 of its
+ * payload and the payload. A record is never split into two regions: when
+ * the rest of a region is too short, the mark to skip it is written and the
+ * record is written at the head of the next region. The zero length means
+ * the end of the records.
+ * 
+ * When the file is opened, the records are read from the head, and the first
+ * broken one, like the one written partially when the process crashed, is
+ * regarded as the end. The bytes after it are cleared and the regions after
+ * it are cut off, so the next record is written there.
+ * 
+ * The written records are kept by the OS when this process crashes. They
+ * reach the disk when the force() method is called. This class is not
+ * thread-safe.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+class LogFile {
+
+	private static final int HEADER_SIZE = 8;
+	private static final int SKIP = -1;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final int regionSize;
+
+	private MappedByteBuffer region;
+	private long regionOffset;
+
+	private LogFile(File file, int regionSize) throws IOException {
+		this.file = file;
+		this.regionSize = regionSize;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+	}
+
+	/**
+	 * Open the file, and read all records in it. The file is created if it
+	 * does not exist.
+	 * @param file The file.
+	 * @param regionSize The size of each region in bytes.
+	 * @param reader The handler which receives the payload of each record,
+	 * or null to skip them.
+	 * @return The file to append the next record after the last one.
+	 * @throws IOException If the file could not be opened.
+	 */
+	static LogFile open(File file, int regionSize, Handler<byte[]> reader)
+			throws IOException {
+		LogFile logFile = new LogFile(file, regionSize);
+		boolean opened = false;
+		try {
+			logFile.recover(reader);
+			opened = true;
+			return logFile;
+		} finally {
+			if (!opened) {
+				logFile.close();
+			}
+		}
+	}
+
+	private void recover(Handler<byte[]> reader) throws IOException {
+		long length = channel.size();
+		long offset = 0L;
+		for (;;) {
+			region = map(offset);
+			int end = read(reader);
+			if (end >= 0) {
+				region.position(end);
+				break;
+			}
+			offset += regionSize;
+		}
+		regionOffset = offset;
+		// Clear the broken bytes, and the regions which might have been
+		// written before the broken record reached the disk.
+		for (int i = region.position(); i < regionSize; i++) {
+			if (region.get(i) != 0) {
+				region.put(i, (byte)0);
+			}
+		}
+		if (length > offset + regionSize) {
+			channel.truncate(offset + regionSize);
+		}
+	}
+
+	private int read(Handler<byte[]> reader) {
+		CRC32 crc = new CRC32();
+		while (region.remaining() >= HEADER_SIZE) {
+			int start = region.position();
+			int length = region.getInt();
+			if (length == SKIP) {
+				return -1;
+			}
+			if (length <= 0 || length > region.remaining() - 4) {
+				return start;
+			}
+			int checksum = region.getInt();
+			byte[] payload = new byte[length];
+			region.get(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int)crc.getValue() != checksum) {
+				return start;
+			}
+			if (reader != null) {
+				reader.handle(payload);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Append the record.
+	 * @param payload The payload of the record.
+	 * @throws IOException If the next region could not be mapped.
+	 */
+	void append(byte[] payload) throws IOException {
+		int size = HEADER_SIZE + payload.length;
+		if (size > regionSize) {
+			throw new IllegalArgumentException("The record is larger than the region.");
+		}
+		if (region.remaining() < size) {
+			if (region.remaining() >= 4) {
+				region.putInt(SKIP);
+			}
+			regionOffset += regionSize;
+			region = map(regionOffset);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		region.putInt(payload.length);
+		region.putInt((int)crc.getValue());
+		region.put(payload);
+	}
+
+	/**
+	 * Retrieve the position after the last record.
+	 * @return The position in bytes.
+	 */
+	long size() {
+		return regionOffset + region.position();
+	}
+
+	/**
+	 * Retrieve the file.
+	 * @return The file.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Write the records to the disk.
+	 * @throws IOException If the records could not be written.
+	 */
+	void force() throws IOException {
+		region.force();
+		channel.force(false);
+	}
+
+	/**
+	 * Close the file. The records which have not been forced are written to
+	 * the disk by the OS later.
+	 * @throws IOException If the file could not be closed.
+	 */
+	void close() throws IOException {
+		region = null;
+		channel.close();
+		randomAccessFile.close();
+	}
+
+	private MappedByteBuffer map(long offset) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_WRITE, offset, regionSize);
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.io.File;
+import java.io.IOException;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+
+/**
+ * This class is an InMemoryDataHandlerFactory which writes the tokens into
+ * files, so that they survive the restart of the process.
+ * 
+ * Each change of the access tokens, the authorization information and the
+ * authorization codes is appended to a memory-mapped log file in the
+ * directory specified by the setDirectory() method. The start() method reads
+ * the files into the memory before the first request, and the lookups are
+ * served from the memory as the InMemoryDataHandlerFactory does. A change
+ * written partially at a crash is ignored.
+ * 
+ * The log file is compacted in the background when it grows larger than
+ * both of the compaction threshold and the latest snapshot: the live entries
+ * are written into a new snapshot file, and the old files are deleted. The
+ * changes are forced to the disk every purge interval, at each compaction
+ * and at the stop() method. They survive a crash of the process at any time,
+ * but a crash of the OS loses the changes after the last force.
+ * 
+ * The clients and the users are not written, so register them at every
+ * start as well.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class PersistentDataHandlerFactory extends InMemoryDataHandlerFactory {
+
+	/** The default size of each region of the files mapped into the memory in bytes. */
+	public static final int DEFAULT_REGION_SIZE = 8 * 1024 * 1024;
+
+	/** The default size of the log file to start a compaction in bytes. */
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 64 * 1024 * 1024L;
+
+	private File directory;
+	private int regionSize = DEFAULT_REGION_SIZE;
+	private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	private volatile TokenLog log;
+
+	/**
+	 * Set the directory which has the files. It is created if it does not
+	 * exist. This must be called before the start() method.
+	 * @param directory The directory.
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Set the size of each region of the files mapped into the memory. Each
+	 * file grows by this size.
+	 * This must be called before the start() method.
+	 * @param regionSize The size in bytes.
+	 */
+	public void setRegionSize(int regionSize) {
+		this.regionSize = regionSize;
+	}
+
+	/**
+	 * Set the size of the log file to start a compaction. The log file is
+	 * compacted when it is larger than both of this size and the latest
+	 * snapshot.
+	 * @param compactionThreshold The size in bytes.
+	 */
+	public void setCompactionThreshold(long compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Read the files into the memory, and start writing the changes and
+	 * removing the expired entries.
+	 * @throws IllegalStateException If the files could not be read.
+	 */
+	@Override
+	public synchronized void start() {
+		if (log != null) {
+			return;
+		}
+		if (directory == null) {
+			throw new IllegalStateException("The directory is not set.");
+		}
+		super.start();
+		TokenLog opened = new TokenLog(directory, regionSize);
+		InMemoryTokenStore store = getStore();
+		// The changes are not written while the files are being read, but
+		// the restored records are marked as written.
+		store.setJournal(opened.getJournal());
+		try {
+			opened.open(new Restorer(store, System.currentTimeMillis()));
+		} catch (IOException e) {
+			store.setJournal(null);
+			super.stop();
+			throw new IllegalStateException("Could not read the files in " + directory, e);
+		} catch (RuntimeException e) {
+			store.setJournal(null);
+			super.stop();
+			throw e;
+		}
+		log = opened;
+	}
+
+	/**
+	 * Write the changes to the disk and close the files, and stop removing
+	 * the expired entries. The changes made after this call are not written.
+	 */
+	@Override
+	public synchronized void stop() {
+		super.stop();
+		TokenLog current = log;
+		if (current == null) {
+			return;
+		}
+		log = null;
+		getStore().setJournal(null);
+		try {
+			current.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not close the log.", e);
+		}
+	}
+
+	/**
+	 * Compact the log file now: write the live entries into a new snapshot
+	 * file and delete the old files. The requests are served while this is
+	 * running.
+	 * @throws IOException If the files could not be written.
+	 */
+	public void compact() throws IOException {
+		TokenLog current = log;
+		if (current == null) {
+			throw new IllegalStateException("This factory is not started.");
+		}
+		current.compact(getStore(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Retrieve the size of the current log file.
+	 * @return The size in bytes.
+	 */
+	public long getLogSize() {
+		TokenLog current = log;
+		return current != null ? current.getLogSize() : 0L;
+	}
+
+	@Override
+	int purgeExpired(long now) {
+		int count = super.purgeExpired(now);
+		TokenLog current = log;
+		if (current == null) {
+			return count;
+		}
+		try {
+			current.force();
+			if (current.getLogSize() > Math.max(compactionThreshold, current.getSnapshotSize())) {
+				current.compact(getStore(), now);
+			}
+		} catch (IOException e) {
+			// This is retried at the next interval.
+		} catch (IllegalStateException e) {
+			// This factory was stopped meanwhile.
+		}
+		return count;
+	}
+
+	/**
+	 * This class applies the changes read from the files to the store.
+	 */
+	private class Restorer implements TokenJournal {
+
+		private final InMemoryTokenStore store;
+		private final long now;
+
+		private Restorer(InMemoryTokenStore store, long now) {
+			this.store = store;
+			this.now = now;
+		}
+
+		@Override
+		public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+			if (expiresOn > 0 && expiresOn <= now) {
+				return;
+			}
+			store.createOrUpdateAuthInfo(authInfo.getClientId(), authInfo.getUserId(),
+					authInfo.getScope(), authInfo.getId(), authInfo.getRefreshToken(),
+					expiresOn, now);
+			if (expiresOn > 0) {
+				expireAt(Expiration.Type.AUTH_INFO, authInfo.getId(), expiresOn);
+			}
+		}
+
+		@Override
+		public void authInfoRemoved(String id) {
+			store.removeAuthInfo(id);
+		}
+
+		@Override
+		public void codeIssued(String id, String code, String redirectUri, long expiresOn) {
+			if (store.setCode(id, code, redirectUri, expiresOn) != null) {
+				expireAt(Expiration.Type.CODE, code, expiresOn);
+			}
+		}
+
+		@Override
+		public void codeRemoved(String id, String code) {
+			store.removeCode(id, code);
+		}
+
+		@Override
+		public void accessTokenCreated(AccessToken accessToken) {
+			if (store.putAccessToken(accessToken, now)) {
+				expireAt(Expiration.Type.ACCESS_TOKEN, accessToken.getToken(),
+						accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000);
+			}
+		}
+
+		@Override
+		public void accessTokenRemoved(String token) {
+			store.removeAccessToken(token);
+		}
+
+	}
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class indexes the values by the tokens which are the URL-safe Base64
+ * strings without padding of a fixed number of random bytes, like the
+ * tokens generated by InMemoryDataHandlerFactory. Each token is decoded
+ * into long values, two for a 128-bit token, which are stored in a
+ * primitive open-addressing table. So no String nor entry object is kept
+ * for each token. The strings of other formats are not accepted.
+ * 
+ * The table is split into the segments. The changes of a segment are
+ * guarded by the segment, and the lookups never take a lock nor allocate an
+ * object. A slot is never reused for another token: a removed value leaves
+ * a marker, and the markers are dropped when the segment is copied into a
+ * new table. The keys of a slot are written before its value, so a reader
+ * which sees the value sees the keys too.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ * @param <V> The type of the values.
+ */
+class TokenIndex<V> {
+
+	private static final int SEGMENT_BITS = 4;
+	private static final int MIN_CAPACITY = 16;
+	private static final Object REMOVED = new Object();
+
+	private static final char[] ENCODE =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	private static final byte[] DECODE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE, (byte)-1);
+		for (int i = 0; i < ENCODE.length; i++) {
+			DECODE[ENCODE[i]] = (byte)i;
+		}
+	}
+
+	private final int bits;
+	private final int length;
+	private final int width;
+	private final Segment[] segments;
+
+	/**
+	 * Initialize this instance.
+	 * @param tokenBytes The number of the bytes encoded into each token.
+	 */
+	TokenIndex(int tokenBytes) {
+		if (tokenBytes <= 0) {
+			throw new IllegalArgumentException("tokenBytes must be positive.");
+		}
+		bits = tokenBytes * 8;
+		length = (bits + 5) / 6;
+		width = (bits + 63) / 64;
+		segments = new Segment[1 << SEGMENT_BITS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(new Table(width, MIN_CAPACITY));
+		}
+	}
+
+	/**
+	 * Check whether the token has the format of this index.
+	 * @param token The token string.
+	 * @return True if it can be stored in this index.
+	 */
+	boolean accepts(String token) {
+		if (token == null || token.length() != length) {
+			return false;
+		}
+		// An invalid character sets the bits above 6.
+		int invalid = 0;
+		for (int i = 0; i < length; i++) {
+			char c = token.charAt(i);
+			invalid |= c | DECODE[c & 0x7F];
+		}
+		if ((invalid & ~0x7F) != 0) {
+			return false;
+		}
+		// Another string which has the same bytes must not be accepted.
+		int padding = length * 6 - bits;
+		return (DECODE[token.charAt(length - 1)] & ((1 << padding) - 1)) == 0;
+	}
+
+	/**
+	 * Retrieve the first long value of the token. This can be kept instead
+	 * of the token to remove the value or to restore the token.
+	 * @param token The token accepted by this index.
+	 * @return The first long value.
+	 */
+	long prefix(String token) {
+		return word(token, 0);
+	}
+
+	/**
+	 * Retrieve the value of the token.
+	 * @param token The token string.
+	 * @return The value, or null if it is not stored or the token is not
+	 * accepted.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(String token) {
+		// The format is checked only when the token is found.
+		if (token == null || token.length() != length) {
+			return null;
+		}
+		long prefix = word(token, 0);
+		Segment segment = segmentFor(prefix);
+		for (;;) {
+			Table table = segment.table;
+			int slot = find(table, token, prefix);
+			Object value = slot >= 0 ? table.values.get(slot) : null;
+			// The segment may have been copied into a new table meanwhile.
+			if (segment.table == table) {
+				return value != REMOVED ? (V)value : null;
+			}
+		}
+	}
+
+	/**
+	 * Store the value of the token.
+	 * @param token The token accepted by this index.
+	 * @param value The value.
+	 * @return The previous value of the token, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	V put(String token, V value) {
+		if (!accepts(token)) {
+			throw new IllegalArgumentException("The token is not accepted.");
+		}
+		if (value == null) {
+			throw new NullPointerException("value is null.");
+		}
+		long prefix = word(token, 0);
+		Segment segment = segmentFor(prefix);
+		synchronized (segment) {
+			Table table = segment.table;
+			int slot = find(table, token, prefix);
+			if (slot >= 0) {
+				Object old = table.values.get(slot);
+				table.values.set(slot, value);
+				if (old == REMOVED) {
+					segment.count++;
+					return null;
+				}
+				return (V)old;
+			}
+			if (segment.used >= table.threshold) {
+				table = rehash(segment);
+				slot = find(table, token, prefix);
+			}
+			slot = -1 - slot;
+			int base = slot * width;
+			for (int i = 0; i < width; i++) {
+				table.keys[base + i] = word(token, i);
+			}
+			table.values.set(slot, value);
+			segment.used++;
+			segment.count++;
+			return null;
+		}
+	}
+
+	/**
+	 * Remove the value of the token if it is the specified instance.
+	 * @param token The token string.
+	 * @param value The value.
+	 * @return True if it was removed.
+	 */
+	boolean remove(String token, V value) {
+		if (!accepts(token)) {
+			return false;
+		}
+		long prefix = word(token, 0);
+		Segment segment = segmentFor(prefix);
+		synchronized (segment) {
+			Table table = segment.table;
+			return remove(segment, table, find(table, token, prefix), value);
+		}
+	}
+
+	/**
+	 * Remove the specified instance stored with the token which has the
+	 * prefix.
+	 * @param prefix The first long value of the token.
+	 * @param value The value.
+	 * @return True if it was removed.
+	 */
+	boolean remove(long prefix, V value) {
+		Segment segment = segmentFor(prefix);
+		synchronized (segment) {
+			Table table = segment.table;
+			return remove(segment, table, find(table, prefix, value), value);
+		}
+	}
+
+	private boolean remove(Segment segment, Table table, int slot, Object value) {
+		if (slot < 0 || table.values.get(slot) != value) {
+			return false;
+		}
+		table.values.set(slot, REMOVED);
+		segment.count--;
+		return true;
+	}
+
+	/**
+	 * Restore the token of the specified instance.
+	 * @param prefix The first long value of the token.
+	 * @param value The value.
+	 * @return The token string, or null if the value is not stored.
+	 */
+	String token(long prefix, V value) {
+		Segment segment = segmentFor(prefix);
+		for (;;) {
+			Table table = segment.table;
+			int slot = find(table, prefix, value);
+			if (slot >= 0) {
+				return encode(table.keys, slot * width);
+			}
+			if (segment.table == table) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the number of the stored values.
+	 * @return The number of the values.
+	 */
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.count;
+		}
+		return size;
+	}
+
+	private Segment segmentFor(long prefix) {
+		return segments[(int)(mix(prefix) >>> (64 - SEGMENT_BITS))];
+	}
+
+	private static long mix(long prefix) {
+		return prefix * 0x9E3779B97F4A7C15L;
+	}
+
+	private static int start(Table table, long prefix) {
+		long hash = mix(prefix);
+		return (int)(hash ^ (hash >>> 32)) & table.mask;
+	}
+
+	/**
+	 * Find the slot of the token.
+	 * @return The slot, or -1 - the empty slot where the token should be.
+	 */
+	private int find(Table table, String token, long prefix) {
+		int slot = start(table, prefix);
+		for (;;) {
+			if (table.values.get(slot) == null) {
+				return -1 - slot;
+			}
+			if (table.keys[slot * width] == prefix && matches(table, slot, token)) {
+				return slot;
+			}
+			slot = (slot + 1) & table.mask;
+		}
+	}
+
+	private int find(Table table, long prefix, Object value) {
+		int slot = start(table, prefix);
+		for (;;) {
+			Object current = table.values.get(slot);
+			if (current == null) {
+				return -1;
+			}
+			if (current == value && table.keys[slot * width] == prefix) {
+				return slot;
+			}
+			slot = (slot + 1) & table.mask;
+		}
+	}
+
+	private boolean matches(Table table, int slot, String token) {
+		int base = slot * width;
+		for (int i = 1; i < width; i++) {
+			if (table.keys[base + i] != word(token, i)) {
+				return false;
+			}
+		}
+		return accepts(token);
+	}
+
+	private Table rehash(Segment segment) {
+		Table old = segment.table;
+		int capacity = MIN_CAPACITY;
+		while ((segment.count + 1) * 2 > capacity) {
+			capacity <<= 1;
+		}
+		Table table = new Table(width, capacity);
+		for (int slot = 0; slot <= old.mask; slot++) {
+			Object value = old.values.get(slot);
+			if (value == null || value == REMOVED) {
+				continue;
+			}
+			int base = slot * width;
+			int target = start(table, old.keys[base]);
+			while (table.values.get(target) != null) {
+				target = (target + 1) & table.mask;
+			}
+			System.arraycopy(old.keys, base, table.keys, target * width, width);
+			table.values.lazySet(target, value);
+		}
+		segment.used = segment.count;
+		segment.table = table;
+		return table;
+	}
+
+	/**
+	 * Decode the 64 bits of the token from the specified index. The bits
+	 * after the end of the token are 0. The result of a token which is not
+	 * accepted is meaningless.
+	 */
+	private long word(String token, int index) {
+		int start = index * 64;
+		int i = start / 6;
+		// The first character may have the bits of the previous word.
+		int filled = 6 - (start - i * 6);
+		long word = DECODE[token.charAt(i) & 0x7F] & ((1 << filled) - 1);
+		int end = Math.min(length, (start + 64) / 6);
+		for (i++; i < end; i++) {
+			word = word << 6 | DECODE[token.charAt(i) & 0x7F];
+			filled += 6;
+		}
+		// The last character may have the bits of the next word.
+		int rest = 64 - filled;
+		if (i < length) {
+			return word << rest | DECODE[token.charAt(i) & 0x7F] >>> (6 - rest);
+		}
+		return word << rest;
+	}
+
+	private String encode(long[] keys, int base) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			int bit = i * 6;
+			int index = bit / 64;
+			int offset = bit % 64;
+			long value = keys[base + index] >>> Math.max(58 - offset, 0);
+			if (offset > 58) {
+				value <<= offset - 58;
+				if (index + 1 < width) {
+					value |= keys[base + index + 1] >>> (122 - offset);
+				}
+			}
+			chars[i] = ENCODE[(int)value & 63];
+		}
+		return new String(chars);
+	}
+
+	private static final class Segment {
+
+		private volatile Table table;
+		private volatile int count;
+		// This is guarded by this instance.
+		private int used;
+
+		private Segment(Table table) {
+			this.table = table;
+		}
+
+	}
+
+	private static final class Table {
+
+		private final long[] keys;
+		private final AtomicReferenceArray<Object> values;
+		private final int mask;
+		private final int threshold;
+
+		private Table(int width, int capacity) {
+			keys = new long[width * capacity];
+			values = new AtomicReferenceArray<Object>(capacity);
+			mask = capacity - 1;
+			threshold = capacity / 4 * 3;
+		}
+
+	}
+
+}
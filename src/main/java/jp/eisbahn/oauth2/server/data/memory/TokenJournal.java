@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This interface receives the changes of the InMemoryTokenStore.
+ * 
+ * The TokenLog implements this interface to write the changes into files,
+ * and the PersistentDataHandlerFactory implements this interface to apply
+ * the changes read from the files to the store. Each method is called while
+ * the record of the change is locked, so the changes of a record are
+ * received in the order they were made.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+interface TokenJournal {
+
+	/**
+	 * Receive the authorization information which was created.
+	 * @param authInfo The authorization information. Its code and its
+	 * redirect URI are ignored.
+	 * @param expiresOn The time when it expires in milliseconds, or 0 if it
+	 * never expires.
+	 */
+	void authInfoCreated(AuthInfo authInfo, long expiresOn);
+
+	/**
+	 * Receive the ID of the authorization information which was removed
+	 * with its code and its access token.
+	 * @param id The ID of the authorization information.
+	 */
+	void authInfoRemoved(String id);
+
+	/**
+	 * Receive the authorization code which was issued.
+	 * @param id The ID of the authorization information.
+	 * @param code The authorization code.
+	 * @param redirectUri The redirect URI sent with the code.
+	 * @param expiresOn The time when the code expires in milliseconds.
+	 */
+	void codeIssued(String id, String code, String redirectUri, long expiresOn);
+
+	/**
+	 * Receive the authorization code which was used or expired.
+	 * @param id The ID of the authorization information.
+	 * @param code The authorization code.
+	 */
+	void codeRemoved(String id, String code);
+
+	/**
+	 * Receive the access token which was created. The previous access token
+	 * of the same authorization information was removed.
+	 * @param accessToken The access token.
+	 */
+	void accessTokenCreated(AccessToken accessToken);
+
+	/**
+	 * Receive the access token which was removed.
+	 * @param token The access token string.
+	 */
+	void accessTokenRemoved(String token);
+
+}
@@ -0,0 +1,460 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This class writes the changes of the InMemoryTokenStore into files in a
+ * directory, and reads them again when the process restarts.
+ * 
+ * The directory has the log files and the snapshot files, which are
+ * numbered by their generation. Each change is appended to the log file of
+ * the current generation. The compact() method starts the next generation:
+ * it switches the log file, and writes the live entries of the store into
+ * the snapshot file of the next generation. The files of the previous
+ * generations are deleted after the snapshot is completed. At the
+ * restart, the latest snapshot and the log files from its generation are
+ * read in order. A change which is in both of them is applied twice, and
+ * this has no effect because each change sets or removes an entry by its
+ * key. The store passes each change to the journal and applies it while the
+ * record is locked, and the snapshot reads each record under the same lock,
+ * so a change appended to a deleted log file is always in the snapshot.
+ * 
+ * All files are LogFile instances, so they are memory-mapped, and the
+ * change written partially at a crash is ignored.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+class TokenLog {
+
+	private static final String PREFIX = "tokens-";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final byte AUTH_INFO_CREATED = 1;
+	private static final byte AUTH_INFO_REMOVED = 2;
+	private static final byte CODE_ISSUED = 3;
+	private static final byte CODE_REMOVED = 4;
+	private static final byte ACCESS_TOKEN_CREATED = 5;
+	private static final byte ACCESS_TOKEN_REMOVED = 6;
+
+	private final File directory;
+	private final int regionSize;
+	private final Object compactionLock = new Object();
+	private final TokenJournal journal = new Encoder() {
+		@Override
+		void write(byte[] payload) {
+			append(payload);
+		}
+	};
+
+	// These fields are guarded by this instance.
+	private LogFile current;
+	private long generation;
+	private long snapshotSize;
+
+	/**
+	 * Initialize this instance.
+	 * @param directory The directory which has the files.
+	 * @param regionSize The size of each region of the files in bytes.
+	 */
+	TokenLog(File directory, int regionSize) {
+		this.directory = directory;
+		this.regionSize = regionSize;
+	}
+
+	/**
+	 * Retrieve the journal which appends each change to the current log
+	 * file. The changes are ignored while this log is not opened.
+	 * @return The journal.
+	 */
+	TokenJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Read the latest snapshot and the log files after it, and open the last
+	 * log file to append the changes.
+	 * @param target The journal which receives the changes in the files.
+	 * @throws IOException If the files could not be read.
+	 */
+	synchronized void open(TokenJournal target) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the directory: " + directory);
+		}
+		SortedSet<Long> logs = new TreeSet<Long>();
+		long snapshot = -1L;
+		File[] files = directory.listFiles();
+		for (File file : files != null ? files : new File[0]) {
+			String name = file.getName();
+			if (!name.startsWith(PREFIX)) {
+				continue;
+			}
+			if (name.endsWith(TEMPORARY_SUFFIX)) {
+				// The snapshot which was being written at a crash.
+				delete(file);
+			} else if (name.endsWith(LOG_SUFFIX)) {
+				logs.add(parseGeneration(name, LOG_SUFFIX));
+			} else if (name.endsWith(SNAPSHOT_SUFFIX)) {
+				snapshot = Math.max(snapshot, parseGeneration(name, SNAPSHOT_SUFFIX));
+			}
+		}
+		Handler<byte[]> reader = reader(target);
+		if (snapshot >= 0) {
+			LogFile file = LogFile.open(file(snapshot, SNAPSHOT_SUFFIX), regionSize, reader);
+			snapshotSize = file.size();
+			file.close();
+		}
+		long last = Math.max(snapshot, 0L);
+		LogFile log = null;
+		for (long each : logs) {
+			if (each < snapshot) {
+				delete(file(each, LOG_SUFFIX));
+				continue;
+			}
+			if (log != null) {
+				log.close();
+			}
+			log = LogFile.open(file(each, LOG_SUFFIX), regionSize, reader);
+			last = each;
+		}
+		if (log == null) {
+			log = LogFile.open(file(last, LOG_SUFFIX), regionSize, null);
+		}
+		current = log;
+		generation = last;
+	}
+
+	/**
+	 * Start the next generation: switch the log file, and write the live
+	 * entries of the store into the snapshot file. The changes made while
+	 * this is running are appended to the new log file.
+	 * @param store The store whose entries are written.
+	 * @param now The current time in milliseconds.
+	 * @throws IOException If the files could not be written.
+	 */
+	void compact(InMemoryTokenStore store, long now) throws IOException {
+		synchronized (compactionLock) {
+			long next;
+			LogFile previous;
+			synchronized (this) {
+				if (current == null) {
+					throw new IOException("The log is not opened.");
+				}
+				next = generation + 1;
+				LogFile log = LogFile.open(file(next, LOG_SUFFIX), regionSize, null);
+				previous = current;
+				current = log;
+				generation = next;
+			}
+			previous.force();
+			previous.close();
+
+			File temporary = new File(directory,
+					file(next, SNAPSHOT_SUFFIX).getName() + TEMPORARY_SUFFIX);
+			delete(temporary);
+			final LogFile snapshot = LogFile.open(temporary, regionSize, null);
+			long size;
+			try {
+				store.snapshot(new Encoder() {
+					@Override
+					void write(byte[] payload) {
+						try {
+							snapshot.append(payload);
+						} catch (IOException e) {
+							throw new IllegalStateException("Could not write the snapshot.", e);
+						}
+					}
+				}, now);
+				snapshot.force();
+				size = snapshot.size();
+			} finally {
+				snapshot.close();
+			}
+			Files.move(temporary.toPath(), file(next, SNAPSHOT_SUFFIX).toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this) {
+				snapshotSize = size;
+			}
+			for (long each = next - 1; each >= 0; each--) {
+				File log = file(each, LOG_SUFFIX);
+				File old = file(each, SNAPSHOT_SUFFIX);
+				if (!log.exists() && !old.exists()) {
+					break;
+				}
+				delete(log);
+				delete(old);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the size of the current log file.
+	 * @return The size in bytes.
+	 */
+	synchronized long getLogSize() {
+		return current != null ? current.size() : 0L;
+	}
+
+	/**
+	 * Retrieve the size of the latest snapshot file.
+	 * @return The size in bytes.
+	 */
+	synchronized long getSnapshotSize() {
+		return snapshotSize;
+	}
+
+	/**
+	 * Retrieve the generation of the current log file.
+	 * @return The generation.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Write the appended changes to the disk.
+	 * @throws IOException If the changes could not be written.
+	 */
+	synchronized void force() throws IOException {
+		if (current != null) {
+			current.force();
+		}
+	}
+
+	/**
+	 * Write the appended changes to the disk and close the current log file.
+	 * The changes after this call are ignored.
+	 * @throws IOException If the file could not be closed.
+	 */
+	synchronized void close() throws IOException {
+		if (current != null) {
+			LogFile log = current;
+			current = null;
+			log.force();
+			log.close();
+		}
+	}
+
+	private synchronized void append(byte[] payload) {
+		if (current == null) {
+			return;
+		}
+		try {
+			current.append(payload);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write the log.", e);
+		}
+	}
+
+	private File file(long generation, String suffix) {
+		return new File(directory, PREFIX + generation + suffix);
+	}
+
+	private static long parseGeneration(String name, String suffix) {
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - suffix.length()));
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	private static void delete(File file) throws IOException {
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Could not delete the file: " + file);
+		}
+	}
+
+	private static Handler<byte[]> reader(final TokenJournal target) {
+		return new Handler<byte[]>() {
+			@Override
+			public void handle(byte[] payload) {
+				try {
+					decode(payload, target);
+				} catch (IOException e) {
+					throw new IllegalStateException("The record is broken.", e);
+				}
+			}
+		};
+	}
+
+	static void decode(byte[] payload, TokenJournal target) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		switch (type) {
+		case AUTH_INFO_CREATED:
+			AuthInfo authInfo = new AuthInfo();
+			authInfo.setId(readString(in));
+			authInfo.setClientId(readString(in));
+			authInfo.setUserId(readString(in));
+			authInfo.setScope(readString(in));
+			authInfo.setRefreshToken(readString(in));
+			target.authInfoCreated(authInfo, in.readLong());
+			break;
+		case AUTH_INFO_REMOVED:
+			target.authInfoRemoved(readString(in));
+			break;
+		case CODE_ISSUED:
+			target.codeIssued(readString(in), readString(in), readString(in), in.readLong());
+			break;
+		case CODE_REMOVED:
+			target.codeRemoved(readString(in), readString(in));
+			break;
+		case ACCESS_TOKEN_CREATED:
+			AccessToken accessToken = new AccessToken();
+			accessToken.setAuthId(readString(in));
+			accessToken.setToken(readString(in));
+			accessToken.setCreatedOn(new Date(in.readLong()));
+			accessToken.setExpiresIn(in.readLong());
+			accessToken.setIdToken(readString(in));
+			target.accessTokenCreated(accessToken);
+			break;
+		case ACCESS_TOKEN_REMOVED:
+			target.accessTokenRemoved(readString(in));
+			break;
+		default:
+			throw new IOException("Unknown record type: " + type);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * This class encodes each change into the payload of a record.
+	 */
+	private abstract static class Encoder implements TokenJournal {
+
+		abstract void write(byte[] payload);
+
+		@Override
+		public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+			Output out = new Output(AUTH_INFO_CREATED);
+			out.writeString(authInfo.getId());
+			out.writeString(authInfo.getClientId());
+			out.writeString(authInfo.getUserId());
+			out.writeString(authInfo.getScope());
+			out.writeString(authInfo.getRefreshToken());
+			out.writeLong(expiresOn);
+			write(out.toByteArray());
+		}
+
+		@Override
+		public void authInfoRemoved(String id) {
+			Output out = new Output(AUTH_INFO_REMOVED);
+			out.writeString(id);
+			write(out.toByteArray());
+		}
+
+		@Override
+		public void codeIssued(String id, String code, String redirectUri, long expiresOn) {
+			Output out = new Output(CODE_ISSUED);
+			out.writeString(id);
+			out.writeString(code);
+			out.writeString(redirectUri);
+			out.writeLong(expiresOn);
+			write(out.toByteArray());
+		}
+
+		@Override
+		public void codeRemoved(String id, String code) {
+			Output out = new Output(CODE_REMOVED);
+			out.writeString(id);
+			out.writeString(code);
+			write(out.toByteArray());
+		}
+
+		@Override
+		public void accessTokenCreated(AccessToken accessToken) {
+			Output out = new Output(ACCESS_TOKEN_CREATED);
+			out.writeString(accessToken.getAuthId());
+			out.writeString(accessToken.getToken());
+			out.writeLong(accessToken.getCreatedOn().getTime());
+			out.writeLong(accessToken.getExpiresIn());
+			out.writeString(accessToken.getIdToken());
+			write(out.toByteArray());
+		}
+
+		@Override
+		public void accessTokenRemoved(String token) {
+			Output out = new Output(ACCESS_TOKEN_REMOVED);
+			out.writeString(token);
+			write(out.toByteArray());
+		}
+
+	}
+
+	/**
+	 * This class writes the fields of a payload into a byte array.
+	 */
+	private static class Output {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		private Output(byte type) {
+			bytes.write(type);
+		}
+
+		private void writeString(String value) {
+			try {
+				out.writeBoolean(value != null);
+				if (value != null) {
+					out.writeUTF(value);
+				}
+			} catch (IOException e) {
+				// This never happens with the ByteArrayOutputStream, except
+				// for the string longer than 65535 bytes.
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		private void writeLong(long value) {
+			try {
+				out.writeLong(value);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		private byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.metrics;
+
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandler;
+import jp.eisbahn.oauth2.server.data.metrics.MeteringDataHandlerFactory.Recorders;
+import jp.eisbahn.oauth2.server.metrics.Recorder;
+import jp.eisbahn.oauth2.server.metrics.RecordingHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+/**
+ * This class is a DataHandler created by the MeteringDataHandlerFactory.
+ * 
+ * Each method delegates to the wrapped DataHandler, and records the time
+ * until the result arrives and the error of the result to the Recorder of
+ * the method. A call whose result never arrives is not recorded.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class MeteringDataHandler extends WrappingDataHandler {
+
+	private final Recorders recorders;
+
+	MeteringDataHandler(Request request, DataHandler dataHandler, Recorders recorders) {
+		super(request, dataHandler);
+		this.recorders = recorders;
+	}
+
+	@Override
+	public Promise<Boolean> validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return track(recorders.validateClient, System.nanoTime(),
+				getTarget().validateClient(clientId, clientSecret, grantType));
+	}
+
+	@Override
+	public Promise<String> getUserId(String username, String password) {
+		return track(recorders.getUserId, System.nanoTime(),
+				getTarget().getUserId(username, password));
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+			String userId, String scope) {
+		return track(recorders.createOrUpdateAuthInfo, System.nanoTime(),
+				getTarget().createOrUpdateAuthInfo(clientId, userId, scope));
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		return track(recorders.createOrUpdateAccessToken, System.nanoTime(),
+				getTarget().createOrUpdateAccessToken(authInfo));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByCode(String code) {
+		return track(recorders.getAuthInfoByCode, System.nanoTime(),
+				getTarget().getAuthInfoByCode(code));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByRefreshToken(String refreshToken) {
+		return track(recorders.getAuthInfoByRefreshToken, System.nanoTime(),
+				getTarget().getAuthInfoByRefreshToken(refreshToken));
+	}
+
+	@Override
+	public Promise<String> getClientUserId(String clientId, String clientSecret) {
+		return track(recorders.getClientUserId, System.nanoTime(),
+				getTarget().getClientUserId(clientId, clientSecret));
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(String clientId) {
+		return track(recorders.validateClientById, System.nanoTime(),
+				getTarget().validateClientById(clientId));
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(String userId) {
+		return track(recorders.validateUserById, System.nanoTime(),
+				getTarget().validateUserById(userId));
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(String token) {
+		return track(recorders.getAccessToken, System.nanoTime(),
+				getTarget().getAccessToken(token));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(String id) {
+		return track(recorders.getAuthInfoById, System.nanoTime(),
+				getTarget().getAuthInfoById(id));
+	}
+
+	@Override
+	public Promise<TokenIntrospection> introspectToken(String token) {
+		return track(recorders.introspectToken, System.nanoTime(),
+				getTarget().introspectToken(token));
+	}
+
+	private <T> Promise<T> track(Recorder recorder, long start, Promise<T> result) {
+		result.onComplete(new RecordingHandler<T>(recorder, start));
+		return result;
+	}
+
+}
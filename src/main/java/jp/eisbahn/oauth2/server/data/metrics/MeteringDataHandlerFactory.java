@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.metrics;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.WrappingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.metrics.MetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.Recorder;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a DataHandlerFactory which wraps other factory and measures
+ * each call to the DataHandler created by it.
+ * 
+ * The latency and the outcome of each method are recorded to the Recorder
+ * named "dataHandler.[method name]" of the MetricsRegistry. The Recorder
+ * instances are retrieved from the registry once, so the overhead of each
+ * call is a few atomic increments.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class MeteringDataHandlerFactory extends WrappingDataHandlerFactory {
+
+	private MetricsRegistry metricsRegistry;
+
+	private volatile Recorders recorders;
+
+	/**
+	 * Initialize this instance. The wrapped factory and the registry must be
+	 * set with the setter methods before calling the create() method.
+	 */
+	public MeteringDataHandlerFactory() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the wrapped factory and the registry.
+	 * @param dataHandlerFactory The factory to create the DataHandler which
+	 * actually accesses to your database.
+	 * @param metricsRegistry The registry to record the measurements.
+	 */
+	public MeteringDataHandlerFactory(DataHandlerFactory dataHandlerFactory,
+			MetricsRegistry metricsRegistry) {
+		super(dataHandlerFactory);
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Set the registry to record the measurements.
+	 * This must be called before the first calling of the create() method.
+	 * @param metricsRegistry The registry instance.
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Retrieve the DataHandler created by the wrapped factory.
+	 * @param dataHandler The DataHandler created by this factory.
+	 * @return The wrapped DataHandler. If the DataHandler is not a
+	 * MeteringDataHandler, return null.
+	 */
+	@Override
+	protected DataHandler unwrap(DataHandler dataHandler) {
+		return dataHandler instanceof MeteringDataHandler
+				? ((MeteringDataHandler)dataHandler).getDataHandler() : null;
+	}
+
+	/**
+	 * Create a DataHandler which wraps the DataHandler created by the wrapped
+	 * factory.
+	 * @param request The request object.
+	 * @return The metering DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new MeteringDataHandler(request, getDataHandlerFactory().create(request),
+				getRecorders());
+	}
+
+	Recorders getRecorders() {
+		Recorders current = recorders;
+		if (current == null) {
+			synchronized (this) {
+				current = recorders;
+				if (current == null) {
+					current = new Recorders(metricsRegistry);
+					recorders = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	static class Recorders {
+
+		final Recorder validateClient;
+		final Recorder getUserId;
+		final Recorder createOrUpdateAuthInfo;
+		final Recorder createOrUpdateAccessToken;
+		final Recorder getAuthInfoByCode;
+		final Recorder getAuthInfoByRefreshToken;
+		final Recorder getClientUserId;
+		final Recorder validateClientById;
+		final Recorder validateUserById;
+		final Recorder getAccessToken;
+		final Recorder getAuthInfoById;
+		final Recorder introspectToken;
+
+		private Recorders(MetricsRegistry registry) {
+			validateClient = registry.getRecorder("dataHandler.validateClient");
+			getUserId = registry.getRecorder("dataHandler.getUserId");
+			createOrUpdateAuthInfo = registry.getRecorder("dataHandler.createOrUpdateAuthInfo");
+			createOrUpdateAccessToken = registry.getRecorder("dataHandler.createOrUpdateAccessToken");
+			getAuthInfoByCode = registry.getRecorder("dataHandler.getAuthInfoByCode");
+			getAuthInfoByRefreshToken = registry.getRecorder("dataHandler.getAuthInfoByRefreshToken");
+			getClientUserId = registry.getRecorder("dataHandler.getClientUserId");
+			validateClientById = registry.getRecorder("dataHandler.validateClientById");
+			validateUserById = registry.getRecorder("dataHandler.validateUserById");
+			getAccessToken = registry.getRecorder("dataHandler.getAccessToken");
+			getAuthInfoById = registry.getRecorder("dataHandler.getAuthInfoById");
+			introspectToken = registry.getRecorder("dataHandler.introspectToken");
+		}
+
+	}
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.metrics.MetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.Recorder;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.serializer.ResponseSerializer;
+import jp.eisbahn.oauth2.server.serializer.impl.DefaultResponseSerializer;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
+
+/**
+ * This class provides the token introspection endpoint for resource servers
+ * which run in other processes than the authorization server.
+ * 
+ * The token specified by the "token" parameter is validated with the
+ * validateToken() method of the ProtectedResource, so the result is same as
+ * the ProtectedResource filter. The response is the JSON object which has
+ * the "active", "scope", "client_id", "username" and "exp" properties. When
+ * the token is invalid or expired, the response has the "active" property
+ * with false only. When the token could not be validated by other reasons,
+ * like the time limit, the error is returned as the Token endpoint does.
+ * 
+ * Several tokens can be validated at once with the "tokens" parameter
+ * instead. The tokens are separated by spaces or commas, and are validated
+ * concurrently. The response is the JSON array which has the results in the
+ * same order as the tokens. Each result which could not be validated has
+ * the "active" property with false and the "error" property with the error
+ * type, so the caller can retry it. Each token is still validated by its
+ * own validateToken() call. Therefore, each of them uses a DataHandler, a
+ * permit of the LimitingDataHandlerFactory and a deadline of its own, and
+ * the limit of the tokens in a request should be set with this in mind.
+ * 
+ * This endpoint does not authenticate the caller. Protect it so that only
+ * your resource servers can access to it.
+ * 
+ * If the MetricsRegistry is set, the latency and the error of each request
+ * are recorded to its Recorder named "introspection".
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Introspection {
+
+	/** The default maximum number of tokens in a request. */
+	public static final int DEFAULT_MAX_TOKENS = 100;
+
+	private ProtectedResource protectedResource;
+	private ResponseSerializer responseSerializer = new DefaultResponseSerializer();
+	private int maxTokens = DEFAULT_MAX_TOKENS;
+	private Recorder recorder;
+
+	/**
+	 * Set the ProtectedResource instance to validate each token.
+	 * The instance must be passed using this method before calling the
+	 * handleRequest() method.
+	 * @param protectedResource The ProtectedResource instance.
+	 */
+	public void setProtectedResource(ProtectedResource protectedResource) {
+		this.protectedResource = protectedResource;
+	}
+
+	/**
+	 * Set the ResponseSerializer instance to encode the error.
+	 * If this method is not called, the DefaultResponseSerializer is used.
+	 * @param responseSerializer The ResponseSerializer instance.
+	 */
+	public void setResponseSerializer(ResponseSerializer responseSerializer) {
+		this.responseSerializer = responseSerializer;
+	}
+
+	/**
+	 * Set the maximum number of tokens in a request. The request which has
+	 * more tokens fails with the invalid_request error.
+	 * @param maxTokens The number of tokens.
+	 */
+	public void setMaxTokens(int maxTokens) {
+		this.maxTokens = maxTokens;
+	}
+
+	/**
+	 * Set the registry to record the latency and the error of each request.
+	 * If this method is not called, nothing is recorded.
+	 * @param metricsRegistry The registry instance.
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.recorder = metricsRegistry != null
+				? metricsRegistry.getRecorder("introspection") : null;
+	}
+
+	/**
+	 * Handle the request and validate the token or the tokens.
+	 * @param request The request instance.
+	 * @param respHandler The handler which receives the response object
+	 * which has the status code and JSON string.
+	 */
+	public void handleRequest(Request request, final Handler<Response> respHandler) {
+		final Recorder current = recorder;
+		final long start = current != null ? System.nanoTime() : 0L;
+		try {
+			String tokens = request.getParameter("tokens");
+			if (tokens != null) {
+				introspect(request, split(tokens), new Handler<String>() {
+					@Override
+					public void handle(String body) {
+						if (current != null) {
+							current.record(System.nanoTime() - start, null);
+						}
+						respHandler.handle(new Response(200, body));
+					}
+				});
+				return;
+			}
+			String token = request.getParameter("token");
+			if (StringUtils.isEmpty(token)) {
+				throw new OAuthError.InvalidRequest("'token' not found");
+			}
+			protectedResource.validateToken(request, token,
+					new Handler<Try<OAuthError, ProtectedResource.Response>>() {
+				@Override
+				public void handle(Try<OAuthError, ProtectedResource.Response> event) {
+					Result result = toResult(event);
+					OAuthError error = result.cause;
+					if (current != null) {
+						current.record(System.nanoTime() - start, error);
+					}
+					if (error != null) {
+						respHandler.handle(new Response(error.getCode(),
+								responseSerializer.serialize(error)));
+					} else {
+						respHandler.handle(new Response(200, Util.toJson(result)));
+					}
+				}
+			});
+		} catch (OAuthError e) {
+			if (current != null) {
+				current.record(System.nanoTime() - start, e);
+			}
+			respHandler.handle(new Response(e.getCode(), responseSerializer.serialize(e)));
+		}
+	}
+
+	private List<String> split(String tokens) throws OAuthError {
+		String[] values = StringUtils.split(tokens, " ,\t\r\n");
+		if (values.length == 0) {
+			throw new OAuthError.InvalidRequest("'tokens' not found");
+		}
+		if (values.length > maxTokens) {
+			throw new OAuthError.InvalidRequest("Too many tokens.");
+		}
+		List<String> result = new ArrayList<String>(values.length);
+		for (String value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	private void introspect(Request request, List<String> tokens,
+			final Handler<String> handler) {
+		final AtomicReferenceArray<Result> results =
+				new AtomicReferenceArray<Result>(tokens.size());
+		final AtomicInteger remaining = new AtomicInteger(tokens.size());
+		for (int i = 0; i < tokens.size(); i++) {
+			final int index = i;
+			Handler<Try<OAuthError, ProtectedResource.Response>> slot =
+					new Handler<Try<OAuthError, ProtectedResource.Response>>() {
+				@Override
+				public void handle(Try<OAuthError, ProtectedResource.Response> event) {
+					Result result = toResult(event);
+					if (result.cause != null) {
+						result.error = result.cause.getType();
+					}
+					// Only the first result of each token is counted.
+					if (!results.compareAndSet(index, null, result)) {
+						return;
+					}
+					if (remaining.decrementAndGet() == 0) {
+						List<Result> list = new ArrayList<Result>(results.length());
+						for (int j = 0; j < results.length(); j++) {
+							list.add(results.get(j));
+						}
+						handler.handle(Util.toJson(list));
+					}
+				}
+			};
+			try {
+				protectedResource.validateToken(request, tokens.get(i), slot);
+			} catch (RuntimeException e) {
+				// The other tokens are still validated and answered.
+				slot.handle(new Try<OAuthError, ProtectedResource.Response>(
+						new OAuthError.ServerError(e)));
+			}
+		}
+	}
+
+	private static Result toResult(Try<OAuthError, ProtectedResource.Response> event) {
+		Result result = new Result();
+		try {
+			ProtectedResource.Response response = event.get();
+			result.active = true;
+			result.scope = response.getScope();
+			result.clientId = response.getClientId();
+			result.username = response.getRemoteUser();
+			if (response.getExpiresOn() > 0) {
+				result.exp = response.getExpiresOn() / 1000;
+			}
+		} catch (OAuthError.InvalidToken e) {
+			// An invalid token is not an error of this endpoint.
+		} catch (OAuthError.ExpiredToken e) {
+			// Same as above.
+		} catch (OAuthError e) {
+			result.cause = e;
+		}
+		return result;
+	}
+
+	/**
+	 * This class has the result of the validation of a token, and is
+	 * encoded to the JSON object.
+	 */
+	@JsonSerialize(include = Inclusion.NON_NULL)
+	@JsonPropertyOrder({"active",
+		"scope",
+		"client_id",
+		"username",
+		"exp",
+		"error"})
+	static class Result {
+
+		@JsonProperty("active")
+		private boolean active;
+		@JsonProperty("scope")
+		private String scope;
+		@JsonProperty("client_id")
+		private String clientId;
+		@JsonProperty("username")
+		private String username;
+		@JsonProperty("exp")
+		private Long exp;
+		@JsonProperty("error")
+		private String error;
+
+		// The error which is not a reason why the token is not active.
+		private OAuthError cause;
+
+	}
+
+	/**
+	 * This class has two properties: A status code and JSON string as the result
+	 * of the introspection.
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Response {
+
+		private int code;
+		private String body;
+
+		/**
+		 * Initialize this instance with arguments passed.
+		 * @param code The status code of the introspection.
+		 * @param body The JSON string which has the token information.
+		 */
+		public Response(int code, String body) {
+			super();
+			this.code = code;
+			this.body = body;
+		}
+
+		/**
+		 * Retrieve the status code value.
+		 * This status code will be 200 when the token could be validated,
+		 * even if the token is not active.
+		 * @return The HTTP status code value.
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * Retrieve the JSON string which has the token information.
+		 * @return The JSON string value.
+		 */
+		public String getBody() {
+			return body;
+		}
+
+	}
+
+}
@@ -18,17 +18,33 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import java.util.concurrent.ScheduledExecutorService;
+
+import jp.eisbahn.oauth2.server.async.Deadline;
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher.FetchResult;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.metrics.MetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.Recorder;
+import jp.eisbahn.oauth2.server.metrics.RecordingHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+import jp.eisbahn.oauth2.server.scope.Scopes;
+import jp.eisbahn.oauth2.server.token.RevocationList;
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec;
 
 /**
  * This class provides the function to judge whether an access to protected
@@ -40,6 +56,23 @@ import jp.eisbahn.oauth2.server.models.Request;
  * If the access token is invalid, OAuthError will be thrown. The exception
  * has the reason why the token was judged as invalid.
  * 
+ * If the SignedTokenCodec is set, a self-contained signed token is validated
+ * with its signature and expiration only, and no DataHandler is used. The
+ * revoked tokens are rejected only if the RevocationList is set. The token
+ * which is not a signed token is validated with the DataHandler as usual.
+ * 
+ * The granted scope is compiled by the ScopeRegistry into the Scopes bitset,
+ * which is passed with the Response. If the required scope is set, the
+ * request whose token does not have all of the required scopes fails with
+ * the InsufficientScope error. The required scope can be given for each
+ * request too.
+ * 
+ * If the time limit is set with the setTimeout() method, the request which
+ * is not answered by the DataHandler within it fails with the timeout error.
+ * 
+ * If the MetricsRegistry is set, the latency and the error of each request
+ * are recorded to its Recorder named "protectedResource".
+ * 
  * @author Yoichiro Tanaka
  *
  */
@@ -47,10 +80,19 @@ public class ProtectedResource {
 
 	private AccessTokenFetcherProvider accessTokenFetcherProvider;
 	private DataHandlerFactory dataHandlerFactory;
+	private SignedTokenCodec signedTokenCodec;
+	private RevocationList revocationList;
+	private ScopeRegistry scopeRegistry = new ScopeRegistry();
+	private Scopes requiredScope;
+	private long timeout;
+	private OAuthError timeoutError;
+	private ScheduledExecutorService scheduler;
+	private Recorder recorder;
 
 	/**
 	 * This method handles a request and judges whether the request can be
-	 * applied or not.
+	 * applied or not. The information about the access token is retrieved by
+	 * the introspectToken() method of the DataHandler.
 	 * 
 	 * @param request This argument value has the information of the request.
 	 * @return If the request is valid, this result has three informations (
@@ -58,75 +100,166 @@ public class ProtectedResource {
 	 * @throws OAuthError If the request is invalid. This exception has a reason
 	 * why this request was judged as invalid.
 	 */
-	public void handleRequest(Request request, final Handler<Try<OAuthError, Response>> handler) {
+	public void handleRequest(Request request, Handler<Try<OAuthError, Response>> handler) {
+		handleRequest(request, requiredScope, handler);
+	}
+
+	/**
+	 * This method handles a request and judges whether the request can be
+	 * applied or not, with the required scope given instead of the one set
+	 * by the setRequiredScope() method.
+	 * 
+	 * @param request This argument value has the information of the request.
+	 * @param required The scopes which the access token must have, compiled
+	 * by the ScopeRegistry of this instance, or null not to check the scope.
+	 * @param handler The handler which receives the information about the
+	 * token, or the OAuthError which has a reason why the request was judged
+	 * as invalid.
+	 */
+	public void handleRequest(Request request, Scopes required,
+			Handler<Try<OAuthError, Response>> handler) {
+		Recorder current = recorder;
+		if (current != null) {
+			handler = new RecordingHandler<Response>(current, System.nanoTime(), handler);
+		}
 		try {
 			AccessTokenFetcher accessTokenFetcher = accessTokenFetcherProvider.getFetcher(request);
 			if (accessTokenFetcher == null) {
 				throw new OAuthError.InvalidRequest("Access token was not specified.");
 			}
 			FetchResult fetchResult = accessTokenFetcher.fetch(request);
-			String token = fetchResult.getToken();
-			final DataHandler dataHandler = dataHandlerFactory.create(request);
-			dataHandler.getAccessToken(token, new Handler<AccessToken>() {
-				
-				@Override
-				public void handle(AccessToken accessToken) {
-					try {
-						if (accessToken == null) {
-							throw new OAuthError.InvalidToken("Invalid access token.");
-						}
-						long now = System.currentTimeMillis();
-						if (accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000 <= now) {
-							throw new OAuthError.ExpiredToken();
-						}
-						dataHandler.getAuthInfoById(accessToken.getAuthId(), new Handler<AuthInfo>() {
-		
-							@Override
-							public void handle(final AuthInfo authInfo) {
-								if (authInfo == null) {
-									handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-											new OAuthError.InvalidToken("Invalid access token.")));
-								} else {
-									dataHandler.validateClientById(authInfo.getClientId(), new Handler<Boolean>() {
-
-										@Override
-										public void handle(Boolean valid) {
-											if (Boolean.TRUE.equals(valid)) {
-												dataHandler.validateUserById(authInfo.getUserId(), new Handler<Boolean>() {
-
-													@Override
-													public void handle(Boolean userValid) {
-														if (Boolean.TRUE.equals(userValid)) {
-															handler.handle(
-					new Try<OAuthError, ProtectedResource.Response>(new Response(
-									authInfo.getUserId(),
-									authInfo.getClientId(),
-									authInfo.getScope())));
-														} else {
-															handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-																	new OAuthError.InvalidToken("Invalid user.")));
-														}
-													}
-												});
-											} else {
-												handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-														new OAuthError.InvalidToken("Invalid client.")));
-											}
-										}
-									});
-								}
-							}
-						});
-					} catch (OAuthError e) {
-						handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
-					}
+			validateToken(request, fetchResult.getToken(), required, handler);
+		} catch (OAuthError e) {
+			handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
+		}
+	}
+
+	/**
+	 * This method validates the token passed directly instead of fetching it
+	 * from the request. The token is validated in the same way as the
+	 * handleRequest() method, but nothing is recorded to the MetricsRegistry.
+	 * This is used by other endpoints which receive tokens in their own way,
+	 * like the Introspection endpoint.
+	 * 
+	 * @param request The request object. This is passed to the
+	 * DataHandlerFactory.
+	 * @param token The access token string.
+	 * @param handler The handler which receives the information about the
+	 * token, or the OAuthError which has a reason why the token was judged as
+	 * invalid.
+	 */
+	public void validateToken(Request request, String token,
+			Handler<Try<OAuthError, Response>> handler) {
+		validateToken(request, token, requiredScope, handler);
+	}
+
+	/**
+	 * This method validates the token passed directly, with the required
+	 * scope given instead of the one set by the setRequiredScope() method.
+	 * 
+	 * @param request The request object. This is passed to the
+	 * DataHandlerFactory.
+	 * @param token The access token string.
+	 * @param required The scopes which the access token must have, compiled
+	 * by the ScopeRegistry of this instance, or null not to check the scope.
+	 * @param handler The handler which receives the information about the
+	 * token, or the OAuthError which has a reason why the token was judged as
+	 * invalid.
+	 */
+	public void validateToken(Request request, String token, final Scopes required,
+			Handler<Try<OAuthError, Response>> handler) {
+		try {
+			if (signedTokenCodec != null) {
+				SignedTokenCodec.Claims claims = signedTokenCodec.decode(token);
+				if (claims != null) {
+					handler.handle(new Try<OAuthError, ProtectedResource.Response>(
+							validate(claims, required)));
+					return;
 				}
-			});
+			}
+			DataHandler dataHandler = dataHandlerFactory.create(request);
+			Function<TokenIntrospection, Response> validation = validateIntrospection;
+			if (required != null) {
+				validation = new Function<TokenIntrospection, Response>() {
+					@Override
+					public Response apply(TokenIntrospection introspection) throws OAuthError {
+						return validate(introspection, required);
+					}
+				};
+			}
+			if (timeout <= 0 && !(dataHandler instanceof AsyncDataHandler)) {
+				// Without the deadline, no promise is needed to receive the result.
+				dataHandler.introspectToken(token,
+						Promise.mapping(validation, releasing(dataHandler, handler)));
+				return;
+			}
+			Deadline deadline = null;
+			if (timeout > 0) {
+				deadline = new Deadline(timeout, scheduler);
+				dataHandler.setDeadline(deadline);
+			}
+			Promise<TokenIntrospection> introspection =
+					AsyncDataHandlerAdapter.adapt(dataHandler).introspectToken(token);
+			if (deadline != null) {
+				introspection = deadline.guard(introspection, getTimeoutError(), dataHandler);
+			}
+			introspection.onComplete(validation, releasing(dataHandler, handler));
 		} catch (OAuthError e) {
 			handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
 		}
 	}
 
+	private Response validate(SignedTokenCodec.Claims claims, Scopes required) throws OAuthError {
+		if (claims.isExpired(System.currentTimeMillis())) {
+			throw new OAuthError.ExpiredToken();
+		}
+		if (revocationList != null && revocationList.isRevoked(claims)) {
+			throw new OAuthError.InvalidToken("Invalid access token.");
+		}
+		Scopes granted = scopeRegistry.compile(claims.getScope());
+		checkScope(granted, required);
+		return new Response(claims.getUserId(), claims.getClientId(), claims.getScope(),
+				claims.getIssuedAt() + claims.getExpiresIn() * 1000, granted);
+	}
+
+	private final Function<TokenIntrospection, Response> validateIntrospection =
+			new Function<TokenIntrospection, Response>() {
+		@Override
+		public Response apply(TokenIntrospection introspection) throws OAuthError {
+			return validate(introspection, null);
+		}
+	};
+
+	private Response validate(TokenIntrospection introspection, Scopes required) throws OAuthError {
+		AccessToken accessToken = introspection.getAccessToken();
+		if (accessToken == null) {
+			throw new OAuthError.InvalidToken("Invalid access token.");
+		}
+		if (accessToken.isExpired(System.currentTimeMillis())) {
+			throw new OAuthError.ExpiredToken();
+		}
+		AuthInfo authInfo = introspection.getAuthInfo();
+		if (authInfo == null) {
+			throw new OAuthError.InvalidToken("Invalid access token.");
+		}
+		if (!Boolean.TRUE.equals(introspection.getClientValid())) {
+			throw new OAuthError.InvalidToken("Invalid client.");
+		}
+		if (!Boolean.TRUE.equals(introspection.getUserValid())) {
+			throw new OAuthError.InvalidToken("Invalid user.");
+		}
+		Scopes granted = scopeRegistry.compile(authInfo);
+		checkScope(granted, required);
+		return new Response(authInfo.getUserId(), authInfo.getClientId(), authInfo.getScope(),
+				accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000, granted);
+	}
+
+	private void checkScope(Scopes granted, Scopes required) throws OAuthError {
+		if (required != null && !granted.containsAll(required)) {
+			throw new OAuthError.InsufficientScope("The scope \"" + required + "\" is required.");
+		}
+	}
+
 	/**
 	 * Set a provider of fetchers to fetch an access token from a request.
 	 * @param accessTokenFetcherProvider The instance of the provider.
@@ -143,6 +276,102 @@ public class ProtectedResource {
 		this.dataHandlerFactory = dataHandlerFactory;
 	}
 
+	/**
+	 * Set the codec to validate self-contained signed access tokens.
+	 * @param signedTokenCodec The codec instance. It must have the same secret
+	 * key as the one used to issue tokens.
+	 */
+	public void setSignedTokenCodec(SignedTokenCodec signedTokenCodec) {
+		this.signedTokenCodec = signedTokenCodec;
+	}
+
+	/**
+	 * Set the list of revoked signed tokens.
+	 * @param revocationList The instance of the list.
+	 */
+	public void setRevocationList(RevocationList revocationList) {
+		this.revocationList = revocationList;
+	}
+
+	/**
+	 * Set the registry to compile the scopes. If this method is not called,
+	 * the registry of this instance is used. The required scope set already
+	 * is registered to the new registry.
+	 * @param scopeRegistry The registry instance.
+	 */
+	public void setScopeRegistry(ScopeRegistry scopeRegistry) {
+		this.scopeRegistry = scopeRegistry;
+		if (requiredScope != null) {
+			requiredScope = scopeRegistry.require(requiredScope.toString());
+		}
+	}
+
+	/**
+	 * Retrieve the registry to compile the scopes. Compile the scopes passed
+	 * to the handleRequest() method with this registry.
+	 * @return The registry instance.
+	 */
+	public ScopeRegistry getScopeRegistry() {
+		return scopeRegistry;
+	}
+
+	/**
+	 * Set the scope which the access token of each request must have.
+	 * @param scope The space-delimited scope string, or null not to check
+	 * the scope.
+	 */
+	public void setRequiredScope(String scope) {
+		this.requiredScope = scope != null ? scopeRegistry.require(scope) : null;
+	}
+
+	/**
+	 * Set the time limit of each request. When the DataHandler does not
+	 * return the result within this time, the request completes with the
+	 * timeout error and the DataHandler is cancelled. If this is 0 or this
+	 * method is not called, there is no time limit.
+	 * @param timeout The time limit in milliseconds.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set the error returned when a request exceeds the time limit. If this
+	 * method is not called, the TemporarilyUnavailable error is returned.
+	 * @param timeoutError The error instance. It is shared by all requests.
+	 */
+	public void setTimeoutError(OAuthError timeoutError) {
+		this.timeoutError = timeoutError;
+	}
+
+	/**
+	 * Set the scheduler to run the timers of the time limit. If this method
+	 * is not called, the scheduler shared in this process is used.
+	 * @param scheduler The scheduler instance.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Set the registry to record the latency and the error of each request.
+	 * If this method is not called, nothing is recorded.
+	 * @param metricsRegistry The registry instance.
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.recorder = metricsRegistry != null
+				? metricsRegistry.getRecorder("protectedResource") : null;
+	}
+
+	private <T> Handler<T> releasing(DataHandler dataHandler, Handler<T> handler) {
+		return DataHandlerFactoryUtil.releasing(dataHandlerFactory, dataHandler, handler);
+	}
+
+	private OAuthError getTimeoutError() {
+		return timeoutError != null ? timeoutError
+				: new OAuthError.TemporarilyUnavailable("The request timed out.");
+	}
+
 	/**
 	 * This class has the information about an OAuth2.0 request.
 	 * 
@@ -159,6 +388,8 @@ public class ProtectedResource {
 		private String remoteUser;
 		private String clientId;
 		private String scope;
+		private long expiresOn;
+		private Scopes scopes;
 
 		/**
 		 * This constructor initializes this instance.
@@ -167,9 +398,39 @@ public class ProtectedResource {
 		 * @param scope The scope string authorized by the remote user.
 		 */
 		public Response(String remoteUser, String clientId, String scope) {
+			this(remoteUser, clientId, scope, 0L);
+		}
+
+		/**
+		 * This constructor initializes this instance with the expiration
+		 * time of the access token.
+		 * @param remoteUser The remote user's ID.
+		 * @param clientId The client ID.
+		 * @param scope The scope string authorized by the remote user.
+		 * @param expiresOn The time when the access token expires in
+		 * milliseconds.
+		 */
+		public Response(String remoteUser, String clientId, String scope, long expiresOn) {
 			this.remoteUser = remoteUser;
 			this.clientId = clientId;
 			this.scope = scope;
+			this.expiresOn = expiresOn;
+		}
+
+		/**
+		 * This constructor initializes this instance with the expiration
+		 * time of the access token and the compiled scopes.
+		 * @param remoteUser The remote user's ID.
+		 * @param clientId The client ID.
+		 * @param scope The scope string authorized by the remote user.
+		 * @param expiresOn The time when the access token expires in
+		 * milliseconds.
+		 * @param scopes The scopes compiled from the scope string.
+		 */
+		public Response(String remoteUser, String clientId, String scope, long expiresOn,
+				Scopes scopes) {
+			this(remoteUser, clientId, scope, expiresOn);
+			this.scopes = scopes;
 		}
 
 		/**
@@ -196,6 +457,23 @@ public class ProtectedResource {
 			return scope;
 		}
 
+		/**
+		 * Retrieve the time when the access token expires.
+		 * @return The time in milliseconds, or 0 if it is not known.
+		 */
+		public long getExpiresOn() {
+			return expiresOn;
+		}
+
+		/**
+		 * Retrieve the scopes compiled from the scope string. Use the
+		 * contains() and containsAll() methods of it to check the scopes.
+		 * @return The compiled scopes, or null if not compiled.
+		 */
+		public Scopes getScopes() {
+			return scopes;
+		}
+
 	}
 
 }
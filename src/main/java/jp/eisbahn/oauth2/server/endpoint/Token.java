@@ -18,18 +18,28 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import java.util.concurrent.ScheduledExecutorService;
+
+import jp.eisbahn.oauth2.server.async.Deadline;
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
-import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.metrics.MetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.RecordingHandler;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
-import jp.eisbahn.oauth2.server.utils.Util;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.serializer.ResponseSerializer;
+import jp.eisbahn.oauth2.server.serializer.impl.DefaultResponseSerializer;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -50,6 +60,27 @@ public class Token {
 	private DataHandlerFactory dataHandlerFactory;
 	private GrantHandlerProvider grantHandlerProvider;
 	private ClientCredentialFetcher clientCredentialFetcher;
+	private ResponseSerializer responseSerializer = new DefaultResponseSerializer();
+	private long timeout;
+	private OAuthError timeoutError;
+	private ScheduledExecutorService scheduler;
+	private MetricsRegistry metricsRegistry;
+
+	private final Function<GrantHandlerResult, Response> toResponse =
+			new Function<GrantHandlerResult, Response>() {
+		@Override
+		public Response apply(GrantHandlerResult result) {
+			return new Response(200, responseSerializer.serialize(result));
+		}
+	};
+
+	private final Function<OAuthError, Response> toErrorResponse =
+			new Function<OAuthError, Response>() {
+		@Override
+		public Response apply(OAuthError error) {
+			return new Response(error.getCode(), responseSerializer.serialize(error));
+		}
+	};
 
 	/**
 	 * Set the DataHandlerFactory instance.
@@ -86,6 +117,57 @@ public class Token {
 		this.clientCredentialFetcher = clientCredentialFetcher;
 	}
 
+	/**
+	 * Set the ResponseSerializer instance.
+	 * This class encodes the issued token and the error to the JSON string
+	 * with this serializer. If this method is not called, the
+	 * DefaultResponseSerializer is used.
+	 * @param responseSerializer The ResponseSerializer instance.
+	 */
+	public void setResponseSerializer(ResponseSerializer responseSerializer) {
+		this.responseSerializer = responseSerializer;
+	}
+
+	/**
+	 * Set the time limit of each request. When the DataHandler does not
+	 * return the result within this time, the request completes with the
+	 * timeout error and the DataHandler is cancelled. If this is 0 or this
+	 * method is not called, there is no time limit.
+	 * @param timeout The time limit in milliseconds.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set the error returned when a request exceeds the time limit. If this
+	 * method is not called, the TemporarilyUnavailable error is returned.
+	 * @param timeoutError The error instance. It is shared by all requests.
+	 */
+	public void setTimeoutError(OAuthError timeoutError) {
+		this.timeoutError = timeoutError;
+	}
+
+	/**
+	 * Set the scheduler to run the timers of the time limit. If this method
+	 * is not called, the scheduler shared in this process is used.
+	 * @param scheduler The scheduler instance.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Set the registry to record the latency and the error of each request.
+	 * The request is recorded to the Recorder named "token.[grant type]", or
+	 * "token" if the grant type is not supported. If this method is not
+	 * called, nothing is recorded.
+	 * @param metricsRegistry The registry instance.
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
 	/**
 	 * Handle the request and issue a token.
 	 * This class is an entry point to issue the token. When this method receives
@@ -95,11 +177,20 @@ public class Token {
 	 * and the JSON string. The status code will be 200 when the issuing token
 	 * is succeeded. If an error occurs, the code will be the 300 series value.
 	 * The JSON string has the access token, refresh token, expires_in value and
-	 * the scope string.
+	 * the scope string. The grant type and the client credential are parsed
+	 * once, and passed to the grant handler with the RequestContext set to
+	 * the DataHandler. If the time limit is set, the Deadline is also set to
+	 * the DataHandler. If the factory is a ManagedDataHandlerFactory, the
+	 * DataHandler is released to it before the response is passed, also when
+	 * the request is rejected before the DataHandler is used.
 	 * @param request The request instance.
 	 * @return The response object which has the status code and JSON string.
 	 */
 	public void handleRequest(Request request, final Handler<Response> respHandler) {
+		MetricsRegistry registry = metricsRegistry;
+		long start = registry != null ? System.nanoTime() : 0L;
+		String metricName = "token";
+		DataHandler created = null;
 		try {
 			String type = request.getParameter("grant_type");
 			if (StringUtils.isEmpty(type)) {
@@ -109,7 +200,11 @@ public class Token {
 			if (handler == null) {
 				throw new OAuthError.UnsupportedGrantType("");
 			}
+			if (registry != null) {
+				metricName = "token." + type;
+			}
 			final DataHandler dataHandler = dataHandlerFactory.create(request);
+			created = dataHandler;
 			ClientCredential clientCredential =
 					clientCredentialFetcher.fetch(request);
 			String clientId = clientCredential.getClientId();
@@ -120,33 +215,63 @@ public class Token {
 			if (StringUtils.isEmpty(clientSecret)) {
 				throw new OAuthError.InvalidRequest("'client_secret' not found");
 			}
-			dataHandler.validateClient(clientId, clientSecret, type, new Handler<Boolean>() {
-
+			RequestContext context = new RequestContext(request);
+			context.setGrantType(type);
+			context.setClientCredential(clientCredential);
+			dataHandler.setContext(context);
+			Deadline deadline = null;
+			if (timeout > 0) {
+				deadline = new Deadline(timeout, scheduler);
+				dataHandler.setDeadline(deadline);
+			}
+			Promise<GrantHandlerResult> result = AsyncDataHandlerAdapter.adapt(dataHandler)
+					.validateClient(clientId, clientSecret, type)
+					.then(new Function<Boolean, Promise<GrantHandlerResult>>() {
 				@Override
-				public void handle(Boolean valid) {
-					if (Boolean.TRUE.equals(valid)) {
-						handler.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
-
-							@Override
-							public void handle(Try<OAuthError, GrantHandlerResult> handlerResult) {
-								try {
-									respHandler.handle(new Response(200, Util.toJson(handlerResult.get())));
-								} catch (OAuthError e) {
-									respHandler.handle(new Response(e.getCode(), Util.toJson(e)));
-								}
-							}
-						});
-					} else {
-						OAuthError ex = new OAuthError.InvalidClient("");
-						respHandler.handle(new Response(ex.getCode(), Util.toJson(ex)));
+				public Promise<GrantHandlerResult> apply(Boolean valid) throws OAuthError {
+					if (!Boolean.TRUE.equals(valid)) {
+						throw new OAuthError.InvalidClient("");
 					}
+					if (dataHandler.isCancelled()) {
+						// The response has already been returned at the deadline.
+						throw new OAuthError.TemporarilyUnavailable("The request was cancelled.");
+					}
+					Promise<GrantHandlerResult> granted = new Promise<GrantHandlerResult>();
+					handler.handleRequest(dataHandler, granted.asTryHandler());
+					return granted;
 				}
 			});
+			if (deadline != null) {
+				result = deadline.guard(result, getTimeoutError(), dataHandler);
+			}
+			if (registry != null) {
+				result.onComplete(new RecordingHandler<GrantHandlerResult>(
+						registry.getRecorder(metricName), start));
+			}
+			// From here the DataHandler is released when the response is passed.
+			created = null;
+			result.map(toResponse).recover(toErrorResponse)
+					.onValue(releasing(dataHandler, respHandler));
 		} catch (OAuthError e) {
-			respHandler.handle(new Response(e.getCode(), Util.toJson(e)));
+			if (created != null) {
+				DataHandlerFactoryUtil.release(dataHandlerFactory, created);
+			}
+			if (registry != null) {
+				registry.getRecorder(metricName).record(System.nanoTime() - start, e);
+			}
+			respHandler.handle(new Response(e.getCode(), responseSerializer.serialize(e)));
 		}
 	}
 
+	private <T> Handler<T> releasing(DataHandler dataHandler, Handler<T> handler) {
+		return DataHandlerFactoryUtil.releasing(dataHandlerFactory, dataHandler, handler);
+	}
+
+	private OAuthError getTimeoutError() {
+		return timeoutError != null ? timeoutError
+				: new OAuthError.TemporarilyUnavailable("The request timed out.");
+	}
+
 	/**
 	 * This class has two properties: A status code and JSON string as the result
 	 * of issuing a token.
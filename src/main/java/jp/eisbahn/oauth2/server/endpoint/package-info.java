@@ -19,7 +19,9 @@
 /**
  * This package has classes to become an endpoint. One is a class to issue a
  * token defined by OAuth 2.0. Other one is a class to check whether the request
- * for each API is valid or not. These classes are created as POJO class,
- * therefore, you can use them in your adopted architecture.
+ * for each API is valid or not. The last one is a class to tell resource
+ * servers in other processes whether tokens are valid or not. These classes
+ * are created as POJO class, therefore, you can use them in your adopted
+ * architecture.
  */
 package jp.eisbahn.oauth2.server.endpoint;
\ No newline at end of file
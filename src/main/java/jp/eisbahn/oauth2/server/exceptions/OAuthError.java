@@ -18,6 +18,9 @@
 
 package jp.eisbahn.oauth2.server.exceptions;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import org.codehaus.jackson.annotate.JsonAutoDetect;
 import org.codehaus.jackson.annotate.JsonPropertyOrder;
 import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
@@ -440,4 +443,76 @@ public abstract class OAuthError extends Exception {
 
 	}
 
+	/**
+	 * This means that the server cannot handle the request temporarily, for
+	 * instance because the request did not finish before its deadline. For
+	 * instance, this error type is "temporarily_unavailable".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class TemporarilyUnavailable extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 503.
+		 * @param description The error description string.
+		 */
+		public TemporarilyUnavailable(String description) {
+			super(503, description);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "temporarily_unavailable".
+		 */
+		@Override
+		public String getType() {
+			return "temporarily_unavailable";
+		}
+
+	}
+
+	/**
+	 * This means that the server encountered an unexpected condition, for
+	 * instance because the DataHandler threw an exception on another thread.
+	 * For instance, this error type is "server_error".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class ServerError extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 500.
+		 * @param description The error description string.
+		 */
+		public ServerError(String description) {
+			super(500, description);
+		}
+
+		/**
+		 * Initialize this instance with the exception thrown by the server.
+		 * The message of the exception is not returned to the client, because
+		 * it may tell the details of the backend. The exception is logged and
+		 * set as the cause instead.
+		 * @param cause The exception thrown by the server.
+		 */
+		public ServerError(Throwable cause) {
+			super(500, "The server encountered an unexpected error.");
+			initCause(cause);
+			Logger.getLogger(ServerError.class.getName()).log(Level.WARNING,
+					"The server encountered an unexpected error.", cause);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "server_error".
+		 */
+		@Override
+		public String getType() {
+			return "server_error";
+		}
+
+	}
+
 }
@@ -20,8 +20,6 @@ package jp.eisbahn.oauth2.server.fetcher.accesstoken.impl;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.models.Request;
@@ -29,8 +27,13 @@ import jp.eisbahn.oauth2.server.utils.Util;
 
 /**
  * This class fetches an access token from Authorization Request header.
- * Actually, the access token is clipped from the header string with a regular
- * expression.
+ * Actually, the access token is clipped from the header string with a
+ * single-pass scanner which accepts "Bearer" and "OAuth" credentials
+ * followed by comma-separated auth-params.
+ * 
+ * The match() method parses the header and keeps the result for the current
+ * thread, so that the following fetch() method for the same header returns
+ * it without parsing again.
  * 
  * @author Yoichiro Tanaka
  *
@@ -38,10 +41,9 @@ import jp.eisbahn.oauth2.server.utils.Util;
 public class AuthHeader implements AccessTokenFetcher {
 
 	private static final String HEADER_AUTHORIZATION = "Authorization";
-	private static final Pattern REGEXP_AUTHORIZATION =
-			Pattern.compile("^\\s*(OAuth|Bearer)\\s+([^\\s\\,]*)");
-	private static final Pattern REGEXP_TRIM = Pattern.compile("^\\s*,\\s*");
-	private static final Pattern REGEXP_DIV_COMMA = Pattern.compile(",\\s*");
+	private static final String[] SCHEMES = {"OAuth", "Bearer"};
+
+	private final ThreadLocal<Parsed> lastParsed = new ThreadLocal<Parsed>();
 
 	/**
 	 * Return whether an access token is included in the Authorization
@@ -53,8 +55,27 @@ public class AuthHeader implements AccessTokenFetcher {
 	@Override
 	public boolean match(Request request) {
 		String header = request.getHeader(HEADER_AUTHORIZATION);
-		return (header != null)
-			&& (Pattern.matches("^\\s*(OAuth|Bearer)(.*)$", header));
+		if (header == null) {
+			return false;
+		}
+		int schemeEnd = scanScheme(header);
+		if (schemeEnd < 0) {
+			return false;
+		}
+		for (int i = schemeEnd; i < header.length(); i++) {
+			if (isLineTerminator(header.charAt(i))) {
+				return false;
+			}
+		}
+		try {
+			FetchResult result = parse(header, schemeEnd);
+			if (result != null) {
+				lastParsed.set(new Parsed(header, result));
+			}
+		} catch (RuntimeException e) {
+			// The fetch() method parses it again and throws the exception.
+		}
+		return true;
 	}
 
 	/**
@@ -68,26 +89,145 @@ public class AuthHeader implements AccessTokenFetcher {
 	@Override
 	public FetchResult fetch(Request request) {
 		String header = request.getHeader(HEADER_AUTHORIZATION);
-		Matcher matcher = REGEXP_AUTHORIZATION.matcher(header);
-		if (!matcher.find()) {
+		Parsed parsed = lastParsed.get();
+		if (parsed != null) {
+			lastParsed.remove();
+			if (parsed.header.equals(header)) {
+				return parsed.result;
+			}
+		}
+		int schemeEnd = header != null ? scanScheme(header) : -1;
+		FetchResult result = schemeEnd < 0 ? null : parse(header, schemeEnd);
+		if (result == null) {
 			throw new IllegalStateException(
 				"parse() method was called when match() result was false.");
 		}
-		String token = matcher.group(2);
+		return result;
+	}
+
+	/**
+	 * Scan the leading white spaces and the scheme name.
+	 * @param header The header value.
+	 * @return The index after the scheme name. If the header does not start
+	 * with any supported scheme, return -1.
+	 */
+	private static int scanScheme(String header) {
+		int i = skipWhitespace(header, 0);
+		for (String scheme : SCHEMES) {
+			if (header.startsWith(scheme, i)) {
+				return i + scheme.length();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parse the credentials after the scheme name. One or more white spaces
+	 * are needed between the scheme name and the access token. The access
+	 * token continues until a white space or a comma. The rest of the header
+	 * has auth-params separated by commas, and each value may be quoted and
+	 * URL-encoded.
+	 * @param header The header value.
+	 * @param schemeEnd The index after the scheme name.
+	 * @return The result. If the header has no white space after the scheme
+	 * name, return null.
+	 * @throws IllegalStateException If an auth-param does not have "=".
+	 */
+	private static FetchResult parse(String header, int schemeEnd) {
+		int length = header.length();
+		int tokenStart = skipWhitespace(header, schemeEnd);
+		if (tokenStart == schemeEnd) {
+			return null;
+		}
+		int tokenEnd = tokenStart;
+		while (tokenEnd < length) {
+			char c = header.charAt(tokenEnd);
+			if (c == ',' || isWhitespace(c)) {
+				break;
+			}
+			tokenEnd++;
+		}
+		String token = header.substring(tokenStart, tokenEnd);
 		Map<String, String> params = new HashMap<String, String>();
-		int end = matcher.end();
-		if (header.length() != end) {
-			header = header.substring(end);
-			header = REGEXP_TRIM.matcher(header).replaceFirst("");
-			String[] expList = REGEXP_DIV_COMMA.split(header);
-			for (String exp : expList) {
-				String[] keyValue = exp.split("=", 2);
-				String value = keyValue[1].replaceFirst("^\"", "");
-				value = value.replaceFirst("\"$", "");
-				params.put(keyValue[0], Util.decodeParam(value));
+		int i = tokenEnd;
+		if (i < length) {
+			int comma = skipWhitespace(header, i);
+			if (comma < length && header.charAt(comma) == ',') {
+				i = skipWhitespace(header, comma + 1);
 			}
 		}
+		while (i < length) {
+			int end = header.indexOf(',', i);
+			if (end < 0) {
+				end = length;
+			}
+			parseParam(header, i, end, params);
+			i = end < length ? skipWhitespace(header, end + 1) : length;
+		}
 		return new FetchResult(token, params);
 	}
 
+	private static void parseParam(String header, int start, int end,
+			Map<String, String> params) {
+		if (skipWhitespace(header, start) >= end) {
+			return;
+		}
+		int separator = header.indexOf('=', start);
+		if (separator < 0 || separator >= end) {
+			throw new IllegalStateException(
+				"The auth-param does not have a value: " + header.substring(start, end));
+		}
+		int valueStart = separator + 1;
+		int valueEnd = end;
+		if (valueStart < valueEnd && header.charAt(valueStart) == '"') {
+			valueStart++;
+		}
+		if (valueStart < valueEnd && header.charAt(valueEnd - 1) == '"') {
+			valueEnd--;
+		}
+		params.put(header.substring(start, separator),
+				decode(header.substring(valueStart, valueEnd)));
+	}
+
+	private static String decode(String value) {
+		if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+			return value;
+		}
+		return Util.decodeParam(value);
+	}
+
+	private static int skipWhitespace(String header, int from) {
+		int i = from;
+		while (i < header.length() && isWhitespace(header.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * The same characters as "\s" of the regular expression.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * The same characters as the line terminators of the regular expression.
+	 */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static class Parsed {
+
+		private final String header;
+		private final FetchResult result;
+
+		private Parsed(String header, FetchResult result) {
+			this.header = header;
+			this.result = result;
+		}
+
+	}
+
 }
@@ -18,24 +18,43 @@
 
 package jp.eisbahn.oauth2.server.fetcher.clientcredential;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
 
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
-import jp.eisbahn.oauth2.server.utils.Util;
 
 /**
  * This implementation provides a client credential information
  * from a request header or request parameters
  * 
+ * The Basic credential is decoded directly from the characters of the
+ * header without regular expressions. Nothing is kept between calls, so
+ * a decoded secret never outlives the request it came from. The Token
+ * endpoint and the grant handlers share the credential of one request
+ * through the RequestContext instead of fetching it again.
+ * 
  * @author Yoichiro Tanaka
  *
  */
 public class ClientCredentialFetcherImpl implements ClientCredentialFetcher {
 
-	private static final Pattern REGEXP_BASIC =
-			Pattern.compile("^\\s*(Basic)\\s+(.*)$");
+	private static final String SCHEME_BASIC = "Basic";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = -1;
+		}
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+		for (int i = 0; i < alphabet.length(); i++) {
+			DECODE_TABLE[alphabet.charAt(i)] = (byte)i;
+		}
+		DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['-'] = 62;
+		DECODE_TABLE['/'] = 63;
+		DECODE_TABLE['_'] = 63;
+	}
 
 	/**
 	 * Fetch a client credential sent from the client as a request header
@@ -53,13 +72,9 @@ public class ClientCredentialFetcherImpl implements ClientCredentialFetcher {
 	public ClientCredential fetch(Request request) {
 		String header = request.getHeader("Authorization");
 		if (header != null) {
-			Matcher matcher = REGEXP_BASIC.matcher(header);
-			if (matcher.find()) {
-				String decoded = Util.decodeBase64(matcher.group(2));
-				if (decoded.indexOf(':') > 0) {
-					String[] credential = decoded.split(":", 2);
-					return new ClientCredential(credential[0], credential[1]);
-				}
+			ClientCredential clientCredential = decodeBasic(header);
+			if (clientCredential != null) {
+				return clientCredential;
 			}
 		}
 		return new ClientCredential(
@@ -67,4 +82,102 @@ public class ClientCredentialFetcherImpl implements ClientCredentialFetcher {
 			request.getParameter("client_secret"));
 	}
 
+	/**
+	 * Decode the Basic credential. Like the BASE64 decoder of the
+	 * commons-codec, characters out of the alphabet are ignored and the
+	 * decoding stops at the first padding character.
+	 * @param header The header value.
+	 * @return The client credential. If the header is not a Basic credential
+	 * or the decoded value does not have a client ID, return null.
+	 */
+	private static ClientCredential decodeBasic(String header) {
+		int length = header.length();
+		int i = skipWhitespace(header, 0);
+		if (!header.startsWith(SCHEME_BASIC, i)) {
+			return null;
+		}
+		int schemeEnd = i + SCHEME_BASIC.length();
+		int start = skipWhitespace(header, schemeEnd);
+		if (start == schemeEnd || hasLineTerminator(header, start)) {
+			return null;
+		}
+		byte[] decoded = new byte[(length - start) * 3 / 4 + 1];
+		int size = 0;
+		int bits = 0;
+		int count = 0;
+		for (int j = start; j < length; j++) {
+			char c = header.charAt(j);
+			if (c == '=') {
+				break;
+			}
+			int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+			if (value < 0) {
+				continue;
+			}
+			bits = bits << 6 | value;
+			if (++count == 4) {
+				decoded[size++] = (byte)(bits >> 16);
+				decoded[size++] = (byte)(bits >> 8);
+				decoded[size++] = (byte)bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count == 2) {
+			decoded[size++] = (byte)(bits >> 4);
+		} else if (count == 3) {
+			decoded[size++] = (byte)(bits >> 10);
+			decoded[size++] = (byte)(bits >> 2);
+		}
+		int colon = -1;
+		for (int j = 0; j < size; j++) {
+			if (decoded[j] == ':') {
+				colon = j;
+				break;
+			}
+		}
+		if (colon <= 0) {
+			return null;
+		}
+		return new ClientCredential(
+			new String(decoded, 0, colon, UTF_8),
+			new String(decoded, colon + 1, size - colon - 1, UTF_8));
+	}
+
+	private static int skipWhitespace(String header, int from) {
+		int i = from;
+		while (i < header.length()) {
+			char c = header.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Judge whether the credential part has a line terminator except at its
+	 * end. Such a header has never been accepted as a Basic credential.
+	 */
+	private static boolean hasLineTerminator(String header, int from) {
+		int end = header.length();
+		if (end > from && isLineTerminator(header.charAt(end - 1))) {
+			end--;
+			if (end > from && header.charAt(end) == '\n' && header.charAt(end - 1) == '\r') {
+				end--;
+			}
+		}
+		for (int i = from; i < end; i++) {
+			if (isLineTerminator(header.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
 }
@@ -20,7 +20,10 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
@@ -28,6 +31,9 @@ import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
 
 /**
  * This abstract class provides some common functions for this sub classes.
@@ -38,6 +44,8 @@ import jp.eisbahn.oauth2.server.models.Request;
 public abstract class AbstractGrantHandler implements GrantHandler {
 
 	private ClientCredentialFetcher clientCredentialFetcher;
+	private SignedTokenCodec signedTokenCodec;
+	private TokenGenerator tokenGenerator;
 
 	/**
 	 * Set the client credential fetcher instance.
@@ -56,45 +64,150 @@ public abstract class AbstractGrantHandler implements GrantHandler {
 		return clientCredentialFetcher;
 	}
 
+	/**
+	 * Set the codec to issue self-contained signed access tokens.
+	 * If this is set, the access token returned to the client is a signed
+	 * token created from the authorization information instead of the token
+	 * string created by the data handler.
+	 * @param signedTokenCodec The codec instance.
+	 */
+	public void setSignedTokenCodec(SignedTokenCodec signedTokenCodec) {
+		this.signedTokenCodec = signedTokenCodec;
+	}
+
+	/**
+	 * Retrieve the codec to issue self-contained signed access tokens.
+	 * @return The codec instance. If not set, null.
+	 */
+	protected SignedTokenCodec getSignedTokenCodec() {
+		return signedTokenCodec;
+	}
+
+	/**
+	 * Set the generator of the token strings. It is passed to the DataHandler
+	 * through the RequestContext, and is used by the generateToken() method
+	 * of the DataHandler.
+	 * @param tokenGenerator The generator instance.
+	 */
+	public void setTokenGenerator(TokenGenerator tokenGenerator) {
+		this.tokenGenerator = tokenGenerator;
+	}
+
+	/**
+	 * Retrieve the generator of the token strings.
+	 * @return The generator instance. If not set, null.
+	 */
+	protected TokenGenerator getTokenGenerator() {
+		return tokenGenerator;
+	}
+
 	/**
 	 * Issue an access token and relating information and return it.
 	 * Actually, issuing the access token is delegated to the specified data
 	 * handler. If the issued result has a expires_in, refresh token and/or
 	 * scope string, each parameter is included to the result of this method.
+	 * If the SignedTokenCodec is set, the access token is replaced with the
+	 * signed token which has the authorization information and the expiration
+	 * of the issued access token.
+	 * @param dataHandler The data handler instance to access to your database
+	 * and issue an access token.
+	 * @param authInfo The authorization information created in advance.
+	 * @param description The description of the InvalidGrant error which is
+	 * returned when the data handler does not issue the access token.
+	 * @return The promise of the result object which has an access token and etc.
+	 */
+	protected Promise<GrantHandlerResult> issueAccessToken(AsyncDataHandler dataHandler,
+			final AuthInfo authInfo, final String description) {
+		return dataHandler.createOrUpdateAccessToken(authInfo).map(
+				new Function<AccessToken, GrantHandlerResult>() {
+			@Override
+			public GrantHandlerResult apply(AccessToken accessToken) throws OAuthError {
+				if (accessToken == null) {
+					throw new OAuthError.InvalidGrant(description);
+				}
+				return createResult(authInfo, accessToken);
+			}
+		});
+	}
+
+	/**
+	 * Issue an access token and relating information and return it.
 	 * @param dataHandler The data handler instance to access to your database
 	 * and issue an access token.
 	 * @param authInfo The authorization information created in advance.
-	 * @return The result object which has an access token and etc.
+	 * @param handler The handler which receives the result object, or null
+	 * when the access token was not issued.
+	 * @deprecated Use issueAccessToken(AsyncDataHandler, AuthInfo, String).
 	 */
+	@Deprecated
 	protected void issueAccessToken(DataHandler dataHandler,
 			final AuthInfo authInfo, final Handler<GrantHandlerResult> handler) {
 		dataHandler.createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
 
 			@Override
 			public void handle(AccessToken accessToken) {
-				if (accessToken == null) {
-					handler.handle(null);
-					return;
-				}
-				GrantHandlerResult result =
-						new GrantHandlerResult("Bearer", accessToken.getToken());
-				if (accessToken.getExpiresIn() > 0) {
-					result.setExpiresIn(accessToken.getExpiresIn());
-				}
-				if (StringUtils.isNotEmpty(authInfo.getRefreshToken())) {
-					result.setRefreshToken(authInfo.getRefreshToken());
-				}
-				if (StringUtils.isNotEmpty(authInfo.getScope())) {
-					result.setScope(authInfo.getScope());
-				}
-				if (StringUtils.isNotEmpty(accessToken.getIdToken())) {
-					result.setIdToken(accessToken.getIdToken());
-				}
-				handler.handle(result);
+				handler.handle(accessToken != null ? createResult(authInfo, accessToken) : null);
 			}
 		});
 	}
 
+	private GrantHandlerResult createResult(AuthInfo authInfo, AccessToken accessToken) {
+		GrantHandlerResult result =
+				new GrantHandlerResult("Bearer", tokenString(authInfo, accessToken));
+		if (accessToken.getExpiresIn() > 0) {
+			result.setExpiresIn(accessToken.getExpiresIn());
+		}
+		if (StringUtils.isNotEmpty(authInfo.getRefreshToken())) {
+			result.setRefreshToken(authInfo.getRefreshToken());
+		}
+		if (StringUtils.isNotEmpty(authInfo.getScope())) {
+			result.setScope(authInfo.getScope());
+		}
+		if (StringUtils.isNotEmpty(accessToken.getIdToken())) {
+			result.setIdToken(accessToken.getIdToken());
+		}
+		return result;
+	}
+
+	private String tokenString(AuthInfo authInfo, AccessToken accessToken) {
+		if (signedTokenCodec == null) {
+			return accessToken.getToken();
+		}
+		SignedTokenCodec.Claims claims = new SignedTokenCodec.Claims();
+		claims.setAuthId(authInfo.getId());
+		claims.setClientId(authInfo.getClientId());
+		claims.setUserId(authInfo.getUserId());
+		claims.setScope(authInfo.getScope());
+		claims.setIssuedAt(accessToken.getCreatedOn() != null
+				? accessToken.getCreatedOn().getTime() : System.currentTimeMillis());
+		claims.setExpiresIn(accessToken.getExpiresIn());
+		return signedTokenCodec.encode(claims);
+	}
+
+	/**
+	 * Retrieve the information parsed from the request. If the Token
+	 * endpoint has already set it to the DataHandler, it is returned.
+	 * Otherwise, a new context is created, the client credential is fetched
+	 * from the request with the ClientCredentialFetcher, and the context is
+	 * set to the DataHandler. The TokenGenerator of this instance is set to
+	 * the context.
+	 * @param dataHandler The DataHandler instance.
+	 * @return The context instance.
+	 */
+	protected RequestContext getContext(DataHandler dataHandler) {
+		RequestContext context = dataHandler.getContext();
+		if (context == null) {
+			Request request = dataHandler.getRequest();
+			context = new RequestContext(request);
+			context.setClientCredential(clientCredentialFetcher.fetch(request));
+			dataHandler.setContext(context);
+		}
+		if (tokenGenerator != null) {
+			context.setTokenGenerator(tokenGenerator);
+		}
+		return context;
+	}
+
 	/**
 	 * Retrieve the parameter value against the parameter name.
 	 * 
@@ -20,73 +20,86 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.code.CodeStore;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
 
 /**
  * This class is an implementation for processing the Authorization Code Grant
  * flow of OAuth2.0.
  * 
+ * If a CodeStore is set, the code is consumed by it instead of the
+ * getAuthInfoByCode() method of the DataHandler, so that your database does
+ * not need a transaction to use each code only once. The code is consumed
+ * before the client and the redirect URI are checked, therefore a code sent
+ * with wrong ones can no longer be used.
+ * 
  * @author Yoichiro Tanaka
  *
  */
 public class AuthorizationCode extends AbstractGrantHandler {
 
+	private CodeStore codeStore;
+
+	/**
+	 * Set the store of the authorization codes.
+	 * @param codeStore The CodeStore instance, or null to use the
+	 * getAuthInfoByCode() method of the DataHandler.
+	 */
+	public void setCodeStore(CodeStore codeStore) {
+		this.codeStore = codeStore;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
 	 */
 	@Override
-	public void handleRequest(final DataHandler dataHandler, final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
-		Request request = dataHandler.getRequest();
-
-		ClientCredential clientCredential = getClientCredentialFetcher().fetch(request);
+	public void handleRequest(DataHandler dataHandler, Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		RequestContext context = getContext(dataHandler);
+		Request request = context.getRequest();
+		ClientCredential clientCredential = context.getClientCredential();
 		final String clientId = clientCredential.getClientId();
 
+		Promise<GrantHandlerResult> result;
 		try {
-			final String code = getParameter(request, "code");
+			String code = getParameter(request, "code");
 			final String redirectUri = getParameter(request, "redirect_uri");
 
-			dataHandler.getAuthInfoByCode(code, new Handler<AuthInfo>() {
-
+			final AsyncDataHandler data = AsyncDataHandlerAdapter.adapt(dataHandler);
+			Promise<AuthInfo> authInfo = codeStore != null
+					? Promise.of(codeStore.consume(code)) : data.getAuthInfoByCode(code);
+			result = authInfo.then(
+					new Function<AuthInfo, Promise<GrantHandlerResult>>() {
 				@Override
-				public void handle(AuthInfo authInfo) {
-					try {
-						if (authInfo == null) {
-							throw new OAuthError.InvalidGrant("");
-						}
-						if (!authInfo.getClientId().equals(clientId)) {
-							throw new OAuthError.InvalidClient("");
-						}
-						if (!(StringUtils.isNotEmpty(authInfo.getRedirectUri())
-						&& authInfo.getRedirectUri().equals(redirectUri))) {
-							throw new OAuthError.RedirectUriMismatch("");
-						}
-						issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-		
-							@Override
-							public void handle(GrantHandlerResult result) {
-								if (result != null) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-								} else {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(
-											new OAuthError.InvalidGrant("Code is invalid or already used.")));
-								}
-							}
-						});
-					} catch (OAuthError e) {
-						handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
+				public Promise<GrantHandlerResult> apply(AuthInfo authInfo) throws OAuthError {
+					if (authInfo == null) {
+						throw new OAuthError.InvalidGrant("");
+					}
+					if (!authInfo.getClientId().equals(clientId)) {
+						throw new OAuthError.InvalidClient("");
+					}
+					if (!(StringUtils.isNotEmpty(authInfo.getRedirectUri())
+							&& authInfo.getRedirectUri().equals(redirectUri))) {
+						throw new OAuthError.RedirectUriMismatch("");
 					}
+					return issueAccessToken(data, authInfo, "Code is invalid or already used.");
 				}
 			});
 		} catch (OAuthError ex) {
-			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+			result = Promise.failed(ex);
 		}
+		result.onComplete(handler);
 	}
 
 }
@@ -18,15 +18,19 @@
 
 package jp.eisbahn.oauth2.server.granttype.impl;
 
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
-import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
 
 /**
  * This class is an implementation for processing the Client Credentials Grant
@@ -42,53 +46,31 @@ public class ClientCredentials extends AbstractGrantHandler {
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
 	 */
 	@Override
-	public void handleRequest(final DataHandler dataHandler, final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
-		final Request request = dataHandler.getRequest();
-
-		ClientCredential clientCredential = getClientCredentialFetcher().fetch(request);
+	public void handleRequest(DataHandler dataHandler, Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		final RequestContext context = getContext(dataHandler);
+		ClientCredential clientCredential = context.getClientCredential();
 		final String clientId = clientCredential.getClientId();
 		String clientSecret = clientCredential.getClientSecret();
 
-		dataHandler.getClientUserId(clientId, clientSecret, new Handler<String>() {
+		final AsyncDataHandler data = AsyncDataHandlerAdapter.adapt(dataHandler);
+		data.getClientUserId(clientId, clientSecret).then(
+				new Function<String, Promise<AuthInfo>>() {
 			@Override
-			public void handle(String userId) {
-				try {
-					if (StringUtils.isEmpty(userId)) {
-						throw new OAuthError.InvalidClient("");
-					}
-
-					String scope = request.getParameter("scope");
-
-					dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
-						@Override
-						public void handle(AuthInfo authInfo) {
-							try {
-								if (authInfo == null) {
-									throw new OAuthError.InvalidGrant("");
-								}
-
-								issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-									@Override
-									public void handle(GrantHandlerResult result) {
-										if (result != null) {
-											handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-										} else {
-											handler.handle(new Try<OAuthError, GrantHandlerResult>(
-													new OAuthError.InvalidGrant("ClientCredential is invalid.")));
-										}
-									}
-								});
-							} catch (OAuthError e) {
-								handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
-							}
-						}
-					});
-				} catch (OAuthError e) {
-					handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
+			public Promise<AuthInfo> apply(String userId) throws OAuthError {
+				if (StringUtils.isEmpty(userId)) {
+					throw new OAuthError.InvalidClient("");
+				}
+				return data.createOrUpdateAuthInfo(clientId, userId, context.getScope());
+			}
+		}).then(new Function<AuthInfo, Promise<GrantHandlerResult>>() {
+			@Override
+			public Promise<GrantHandlerResult> apply(AuthInfo authInfo) throws OAuthError {
+				if (authInfo == null) {
+					throw new OAuthError.InvalidGrant("");
 				}
+				return issueAccessToken(data, authInfo, "ClientCredential is invalid.");
 			}
-		});
+		}).onComplete(handler);
 	}
 
 }
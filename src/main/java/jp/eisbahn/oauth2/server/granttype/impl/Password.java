@@ -18,15 +18,20 @@
 
 package jp.eisbahn.oauth2.server.granttype.impl;
 
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
 
 /**
  * This class is an implementation for processing the Resource Owner Password
@@ -42,61 +47,43 @@ public class Password extends AbstractGrantHandler {
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
 	 */
 	@Override
-	public void handleRequest(final DataHandler dataHandler, final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
-		final Request request = dataHandler.getRequest();
-
-		ClientCredential clientCredential = getClientCredentialFetcher().fetch(request);
+	public void handleRequest(DataHandler dataHandler, Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		final RequestContext context = getContext(dataHandler);
+		Request request = context.getRequest();
+		ClientCredential clientCredential = context.getClientCredential();
 		final String clientId = clientCredential.getClientId();
 
+		Promise<GrantHandlerResult> result;
 		try {
 			String username = getParameter(request, "username");
 			String password = getParameter(request, "password");
 
-			dataHandler.getUserId(username, password, new Handler<String>() {
+			final AsyncDataHandler data = AsyncDataHandlerAdapter.adapt(dataHandler);
+			result = data.getUserId(username, password).then(
+					new Function<String, Promise<AuthInfo>>() {
 				@Override
-				public void handle(String userId) {
-					try {
-						if (StringUtils.isEmpty(userId)) {
-							throw new OAuthError.InvalidGrant("");
-						}
-						String scope = request.getParameter("scope");
-
-						dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
-							@Override
-							public void handle(AuthInfo authInfo) {
-								try {
-									if (authInfo == null) {
-										throw new OAuthError.InvalidGrant("");
-									}
-									if (!authInfo.getClientId().equals(clientId)) {
-										throw new OAuthError.InvalidClient("");
-									}
-
-									issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-										@Override
-										public void handle(GrantHandlerResult result) {
-											if (result != null) {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-											} else {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(
-														new OAuthError.InvalidGrant("Credential is invalid.")));
-											}
-										}
-									});
-								} catch (OAuthError ex) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-								}
-							}
-						});
-					} catch (OAuthError ex) {
-						handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+				public Promise<AuthInfo> apply(String userId) throws OAuthError {
+					if (StringUtils.isEmpty(userId)) {
+						throw new OAuthError.InvalidGrant("");
+					}
+					return data.createOrUpdateAuthInfo(clientId, userId, context.getScope());
+				}
+			}).then(new Function<AuthInfo, Promise<GrantHandlerResult>>() {
+				@Override
+				public Promise<GrantHandlerResult> apply(AuthInfo authInfo) throws OAuthError {
+					if (authInfo == null) {
+						throw new OAuthError.InvalidGrant("");
+					}
+					if (!authInfo.getClientId().equals(clientId)) {
+						throw new OAuthError.InvalidClient("");
 					}
+					return issueAccessToken(data, authInfo, "Credential is invalid.");
 				}
 			});
 		} catch (OAuthError ex) {
-			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+			result = Promise.failed(ex);
 		}
+		result.onComplete(handler);
 	}
 
 }
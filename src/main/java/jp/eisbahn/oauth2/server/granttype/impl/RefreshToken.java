@@ -18,13 +18,18 @@
 
 package jp.eisbahn.oauth2.server.granttype.impl;
 
+import jp.eisbahn.oauth2.server.async.Function;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
 
 /**
  * This class is an implementation to re-issue an access token with the
@@ -36,44 +41,35 @@ import jp.eisbahn.oauth2.server.models.Request;
 public class RefreshToken extends AbstractGrantHandler {
 
 	@Override
-	public void handleRequest(final DataHandler dataHandler,
-			final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
-		Request request = dataHandler.getRequest();
-
-		ClientCredential clientCredential = getClientCredentialFetcher().fetch(request);
+	public void handleRequest(DataHandler dataHandler,
+			Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		RequestContext context = getContext(dataHandler);
+		Request request = context.getRequest();
+		ClientCredential clientCredential = context.getClientCredential();
 		final String clientId = clientCredential.getClientId();
+
+		Promise<GrantHandlerResult> result;
 		try {
 			String refreshToken = getParameter(request, "refresh_token");
 
-			dataHandler.getAuthInfoByRefreshToken(refreshToken, new Handler<AuthInfo>() {
+			final AsyncDataHandler data = AsyncDataHandlerAdapter.adapt(dataHandler);
+			result = data.getAuthInfoByRefreshToken(refreshToken).then(
+					new Function<AuthInfo, Promise<GrantHandlerResult>>() {
 				@Override
-				public void handle(AuthInfo authInfo) {
-					try {
-						if (authInfo == null) {
-							throw new OAuthError.InvalidGrant("");
-						}
-						if (!authInfo.getClientId().equals(clientId)) {
-							throw new OAuthError.InvalidClient("");
-						}
-						issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-							@Override
-							public void handle(GrantHandlerResult result) {
-								if (result != null) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-								} else {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(
-											new OAuthError.InvalidGrant("Refresh token is invalid.")));
-								}
-							}
-						});
-					} catch (OAuthError e) {
-						handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
+				public Promise<GrantHandlerResult> apply(AuthInfo authInfo) throws OAuthError {
+					if (authInfo == null) {
+						throw new OAuthError.InvalidGrant("");
+					}
+					if (!authInfo.getClientId().equals(clientId)) {
+						throw new OAuthError.InvalidClient("");
 					}
+					return issueAccessToken(data, authInfo, "Refresh token is invalid.");
 				}
 			});
 		} catch (OAuthError ex) {
-			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+			result = Promise.failed(ex);
 		}
+		result.onComplete(handler);
 	}
 
 }
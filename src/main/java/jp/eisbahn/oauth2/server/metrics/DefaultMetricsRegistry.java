@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class is a MetricsRegistry which keeps a Metric for each operation
+ * in memory.
+ * 
+ * If the JMX domain is set, each Metric is registered to the MBeanServer
+ * with the name "[domain]:type=Metric,name=[operation name]" when it is
+ * created. If the registration fails, for instance because the name is
+ * already used by another registry, the Metric is not published but is
+ * still recorded. Call the unregister() method to remove the published
+ * MBeans at shutdown.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+	private final ConcurrentMap<String, Metric> metrics =
+			new ConcurrentHashMap<String, Metric>();
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	private volatile String jmxDomain;
+	private volatile MBeanServer mBeanServer;
+
+	/**
+	 * Set the JMX domain to publish the metrics. If this method is not
+	 * called, the metrics are not published.
+	 * This must be called before recording.
+	 * @param jmxDomain The domain name (e.g. "jp.eisbahn.oauth2.server").
+	 */
+	public void setJmxDomain(String jmxDomain) {
+		this.jmxDomain = jmxDomain;
+	}
+
+	/**
+	 * Set the MBeanServer to publish the metrics. If this method is not
+	 * called, the platform MBeanServer is used.
+	 * @param mBeanServer The MBeanServer instance.
+	 */
+	public void setMBeanServer(MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	@Override
+	public Metric getRecorder(String name) {
+		return getMetric(name);
+	}
+
+	/**
+	 * Retrieve the Metric of the operation. If it does not exist, it is
+	 * created.
+	 * @param name The name of the operation.
+	 * @return The Metric instance.
+	 */
+	public Metric getMetric(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null) {
+			Metric created = new Metric(name);
+			metric = metrics.putIfAbsent(name, created);
+			if (metric == null) {
+				metric = created;
+				publish(metric);
+			}
+		}
+		return metric;
+	}
+
+	/**
+	 * Retrieve all metrics.
+	 * @return The map from the operation name to the Metric, sorted by the name.
+	 */
+	public Map<String, Metric> getMetrics() {
+		return Collections.unmodifiableMap(new TreeMap<String, Metric>(metrics));
+	}
+
+	/**
+	 * Remove the MBeans published by this registry from the MBeanServer.
+	 */
+	public void unregister() {
+		List<ObjectName> names;
+		synchronized (registered) {
+			names = new ArrayList<ObjectName>(registered);
+			registered.clear();
+		}
+		MBeanServer server = getMBeanServer();
+		for (ObjectName name : names) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				// It has already been removed.
+			}
+		}
+	}
+
+	private void publish(Metric metric) {
+		String domain = jmxDomain;
+		if (domain == null) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(domain + ":type=Metric,name="
+					+ ObjectName.quote(metric.getName()));
+			getMBeanServer().registerMBean(metric, name);
+			synchronized (registered) {
+				registered.add(name);
+			}
+		} catch (JMException e) {
+			// The metric is still recorded without publishing.
+		}
+	}
+
+	private MBeanServer getMBeanServer() {
+		MBeanServer server = mBeanServer;
+		return server != null ? server : ManagementFactory.getPlatformMBeanServer();
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a histogram of latencies which can be recorded from many
+ * threads without locking.
+ * 
+ * The values are counted in buckets whose width grows with the value, so
+ * each bucket covers the values within 12.5% of each other. Therefore, the
+ * percentiles have the same relative precision for a latency of
+ * microseconds and of seconds, and the histogram has a fixed size. The
+ * record() method only increments a few atomic counters.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 * @param value The value, like a latency in nanoseconds. The negative
+	 * value is recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(indexOf(value));
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Retrieve the number of recorded values.
+	 * @return The count.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Retrieve the sum of recorded values.
+	 * @return The sum.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Retrieve the maximum recorded value.
+	 * @return The maximum value. If no value is recorded, return 0.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Retrieve the mean of recorded values.
+	 * @return The mean value. If no value is recorded, return 0.
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double)sum.get() / count;
+	}
+
+	/**
+	 * Retrieve the value at the percentile. The result is the upper bound of
+	 * the bucket which has the value, so it is at most 12.5% larger than the
+	 * actual value.
+	 * @param percentile The percentile from 0 to 100.
+	 * @return The value. If no value is recorded, return 0.
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static long upperBoundOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		long lower = (long)(SUB_COUNT + index % SUB_COUNT) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This class is a Recorder which keeps the latency histogram and the error
+ * counts of one operation in memory.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Metric implements Recorder, MetricMXBean {
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final String name;
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private final ConcurrentMap<String, AtomicLong> errors =
+			new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Initialize this instance.
+	 * @param name The name of the operation.
+	 */
+	public Metric(String name) {
+		super();
+		this.name = name;
+	}
+
+	@Override
+	public void record(long latencyNanos, OAuthError error) {
+		histogram.record(latencyNanos);
+		if (error != null) {
+			String type = error.getType();
+			AtomicLong counter = errors.get(type);
+			if (counter == null) {
+				AtomicLong created = new AtomicLong();
+				counter = errors.putIfAbsent(type, created);
+				if (counter == null) {
+					counter = created;
+				}
+			}
+			counter.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Retrieve the histogram of the latencies in nanoseconds.
+	 * @return The histogram instance.
+	 */
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Retrieve the number of recorded errors of the type.
+	 * @param type The error type (e.g. "invalid_client").
+	 * @return The count of the errors.
+	 */
+	public long getErrorCount(String type) {
+		AtomicLong counter = errors.get(type);
+		return counter == null ? 0 : counter.get();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return histogram.getCount();
+	}
+
+	@Override
+	public long getErrorCount() {
+		long count = 0;
+		for (AtomicLong counter : errors.values()) {
+			count += counter.get();
+		}
+		return count;
+	}
+
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@Override
+	public double getMeanMillis() {
+		return histogram.getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return histogram.getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getPercentile50Millis() {
+		return histogram.getPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getPercentile95Millis() {
+		return histogram.getPercentile(95) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getPercentile99Millis() {
+		return histogram.getPercentile(99) / NANOS_PER_MILLI;
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import java.util.Map;
+
+/**
+ * This interface defines the attributes of a Metric published through JMX.
+ * The latencies are in milliseconds.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface MetricMXBean {
+
+	/**
+	 * Retrieve the name of the operation.
+	 * @return The name.
+	 */
+	public String getName();
+
+	/**
+	 * Retrieve the number of recorded outcomes.
+	 * @return The count including the errors.
+	 */
+	public long getCount();
+
+	/**
+	 * Retrieve the number of recorded errors.
+	 * @return The count of the errors.
+	 */
+	public long getErrorCount();
+
+	/**
+	 * Retrieve the number of recorded errors of each type.
+	 * @return The map from the error type (e.g. "invalid_client") to the count.
+	 */
+	public Map<String, Long> getErrors();
+
+	/**
+	 * Retrieve the mean latency.
+	 * @return The latency in milliseconds.
+	 */
+	public double getMeanMillis();
+
+	/**
+	 * Retrieve the maximum latency.
+	 * @return The latency in milliseconds.
+	 */
+	public double getMaxMillis();
+
+	/**
+	 * Retrieve the median latency.
+	 * @return The latency in milliseconds.
+	 */
+	public double getPercentile50Millis();
+
+	/**
+	 * Retrieve the 95th percentile latency.
+	 * @return The latency in milliseconds.
+	 */
+	public double getPercentile95Millis();
+
+	/**
+	 * Retrieve the 99th percentile latency.
+	 * @return The latency in milliseconds.
+	 */
+	public double getPercentile99Millis();
+
+}
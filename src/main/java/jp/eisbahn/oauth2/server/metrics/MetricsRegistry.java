@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+/**
+ * This interface defines a registry of the Recorder instances.
+ * 
+ * The endpoints and the MeteringDataHandlerFactory retrieve a Recorder with
+ * the name of each operation from this registry. The names are "token" and
+ * "token.[grant type]" for the Token endpoint, "protectedResource" for the
+ * ProtectedResource, and "dataHandler.[method name]" for the DataHandler
+ * methods. Implement this interface to send the measurements to your own
+ * metrics system, or use the DefaultMetricsRegistry.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * Retrieve the Recorder of the operation. This method may be called for
+	 * each request, so the implementation should return the same instance
+	 * for the same name quickly.
+	 * @param name The name of the operation.
+	 * @return The Recorder instance. This must not be null.
+	 */
+	public Recorder getRecorder(String name);
+
+}
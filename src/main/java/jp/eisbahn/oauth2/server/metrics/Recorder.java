@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This interface defines the destination of the measurements of one
+ * operation, like an endpoint or a DataHandler method.
+ * 
+ * The record() method is called on the request path, so the implementation
+ * must be thread-safe and must not block.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface Recorder {
+
+	/**
+	 * Record an outcome of the operation.
+	 * @param latencyNanos The time taken by the operation in nanoseconds.
+	 * @param error The error of the operation. If the operation succeeded,
+	 * this is null.
+	 */
+	public void record(long latencyNanos, OAuthError error);
+
+}
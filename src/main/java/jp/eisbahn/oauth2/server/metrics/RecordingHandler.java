@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+/**
+ * This class is a handler which records the time from its creation to the
+ * arrival of the result, and the error of the result, to the Recorder.
+ * Pass it to the onComplete() method of the Promise of the operation. If the
+ * next handler is specified, the result is passed to it after recording.
+ * 
+ * @param <T> The type of the result.
+ * @author Yoichiro Tanaka
+ *
+ */
+public class RecordingHandler<T> implements Handler<Try<OAuthError, T>> {
+
+	private final Recorder recorder;
+	private final long start;
+	private final Handler<Try<OAuthError, T>> next;
+
+	/**
+	 * Initialize this instance.
+	 * @param recorder The Recorder of the operation.
+	 * @param start The time when the operation started, retrieved by the
+	 * System.nanoTime() method.
+	 */
+	public RecordingHandler(Recorder recorder, long start) {
+		this(recorder, start, null);
+	}
+
+	/**
+	 * Initialize this instance with the handler which receives the result.
+	 * @param recorder The Recorder of the operation.
+	 * @param start The time when the operation started, retrieved by the
+	 * System.nanoTime() method.
+	 * @param next The handler to pass the result after recording.
+	 */
+	public RecordingHandler(Recorder recorder, long start, Handler<Try<OAuthError, T>> next) {
+		super();
+		this.recorder = recorder;
+		this.start = start;
+		this.next = next;
+	}
+
+	@Override
+	public void handle(Try<OAuthError, T> event) {
+		OAuthError error = null;
+		try {
+			event.get();
+		} catch (OAuthError e) {
+			error = e;
+		}
+		recorder.record(System.nanoTime() - start, error);
+		if (next != null) {
+			next.handle(event);
+		}
+	}
+
+}
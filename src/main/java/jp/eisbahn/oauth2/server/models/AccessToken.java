@@ -104,6 +104,15 @@ public class AccessToken {
 		return createdOn;
 	}
 
+	/**
+	 * Judge whether this access token has already expired.
+	 * @param now The current time in milliseconds.
+	 * @return True if the expiration time has passed.
+	 */
+	public boolean isExpired(long now) {
+		return createdOn.getTime() + expiresIn * 1000 <= now;
+	}
+
 	public String getIdToken() {
 		return idToken;
 	}
@@ -18,6 +18,8 @@
 
 package jp.eisbahn.oauth2.server.models;
 
+import jp.eisbahn.oauth2.server.scope.Scopes;
+
 /**
  * This model class has some parameters to authorize.
  * A life-cycle of this model is different each grant types.
@@ -38,6 +40,7 @@ public class AuthInfo {
 	private String refreshToken;
 	private String code;
 	private String redirectUri;
+	private volatile Scopes scopes;
 
 	/**
 	 * Set the ID of this model.
@@ -95,6 +98,7 @@ public class AuthInfo {
 	 */
 	public void setScope(String scope) {
 		this.scope = scope;
+		this.scopes = null;
 	}
 
 	/**
@@ -157,4 +161,21 @@ public class AuthInfo {
 		return redirectUri;
 	}
 
+	/**
+	 * Set the scope compiled by the ScopeRegistry. This is a cache, and is
+	 * cleared when the scope string is changed.
+	 * @param scopes The compiled scopes.
+	 */
+	public void setScopes(Scopes scopes) {
+		this.scopes = scopes;
+	}
+
+	/**
+	 * Retrieve the scope compiled by the ScopeRegistry.
+	 * @return The compiled scopes, or null if not compiled.
+	 */
+	public Scopes getScopes() {
+		return scopes;
+	}
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.models;
+
+/**
+ * This model class has an entry which should be removed from your database
+ * because its lifetime has passed.
+ * 
+ * The instances are created by the ExpiringDataHandlerFactory when the
+ * deadline of each entry arrives, and are passed to the purgeExpired()
+ * method of the DataHandler in batches. The entry may have been extended or
+ * removed meanwhile, so the DataHandler must remove it only if it has
+ * expired actually.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Expiration {
+
+	/**
+	 * The kinds of the entries which expire.
+	 */
+	public enum Type {
+
+		/** The access token. The key is the access token string. */
+		ACCESS_TOKEN,
+
+		/**
+		 * The authorization information with its refresh token. The key is
+		 * the ID of the authorization information.
+		 */
+		AUTH_INFO,
+
+		/** The authorization code. The key is the code string. */
+		CODE
+
+	}
+
+	private final Type type;
+	private final String key;
+	private final long deadline;
+
+	/**
+	 * Initialize this instance.
+	 * @param type The kind of the entry.
+	 * @param key The string to specify the entry.
+	 * @param deadline The time when the entry expires in milliseconds.
+	 */
+	public Expiration(Type type, String key, long deadline) {
+		this.type = type;
+		this.key = key;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Retrieve the kind of the entry.
+	 * @return The type of the entry.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Retrieve the string to specify the entry.
+	 * @return The access token string, the ID of the authorization
+	 * information or the authorization code.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Retrieve the time when the entry expires.
+	 * @return The time in milliseconds.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+}
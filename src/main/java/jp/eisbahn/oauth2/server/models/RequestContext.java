@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.models;
+
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
+
+/**
+ * This class has the information parsed from a request to the Token
+ * endpoint.
+ * 
+ * The Token endpoint creates this instance once per request, and passes it
+ * to the grant handler and the DataHandler through the
+ * DataHandler#getContext() method. Therefore, the client credential is not
+ * fetched from the request again, and commonly used parameters are looked
+ * up once.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class RequestContext {
+
+	private final Request request;
+	private String grantType;
+	private ClientCredential clientCredential;
+	private String scope;
+	private boolean scopeFetched;
+	private TokenGenerator tokenGenerator;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 */
+	public RequestContext(Request request) {
+		super();
+		this.request = request;
+	}
+
+	/**
+	 * Retrieve the request object.
+	 * @return The request object.
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * Set the grant type.
+	 * @param grantType The grant type string.
+	 */
+	public void setGrantType(String grantType) {
+		this.grantType = grantType;
+	}
+
+	/**
+	 * Retrieve the grant type.
+	 * @return The grant type string.
+	 */
+	public String getGrantType() {
+		return grantType;
+	}
+
+	/**
+	 * Set the client credential fetched from the request.
+	 * @param clientCredential The client credential.
+	 */
+	public void setClientCredential(ClientCredential clientCredential) {
+		this.clientCredential = clientCredential;
+	}
+
+	/**
+	 * Retrieve the client credential fetched from the request.
+	 * @return The client credential.
+	 */
+	public ClientCredential getClientCredential() {
+		return clientCredential;
+	}
+
+	/**
+	 * Retrieve the client ID of the client credential.
+	 * @return The client ID.
+	 */
+	public String getClientId() {
+		return clientCredential != null ? clientCredential.getClientId() : null;
+	}
+
+	/**
+	 * Retrieve the "scope" parameter. The parameter is looked up at the first
+	 * call only.
+	 * @return The scope string.
+	 */
+	public String getScope() {
+		if (!scopeFetched) {
+			scope = request.getParameter("scope");
+			scopeFetched = true;
+		}
+		return scope;
+	}
+
+	/**
+	 * Set the generator of the token strings. This is set by the grant
+	 * handler.
+	 * @param tokenGenerator The generator instance.
+	 */
+	public void setTokenGenerator(TokenGenerator tokenGenerator) {
+		this.tokenGenerator = tokenGenerator;
+	}
+
+	/**
+	 * Retrieve the generator of the token strings.
+	 * @return The generator instance. If not set, null.
+	 */
+	public TokenGenerator getTokenGenerator() {
+		return tokenGenerator;
+	}
+
+	/**
+	 * Retrieve the parameter value from the request.
+	 * @param name The parameter name.
+	 * @return The value against the name.
+	 */
+	public String getParameter(String name) {
+		return request.getParameter(name);
+	}
+
+}
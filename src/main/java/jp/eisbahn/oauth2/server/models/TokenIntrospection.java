@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.models;
+
+/**
+ * This model class has all information needed to judge whether an access to
+ * a protected resource with an access token can be applied or not.
+ * 
+ * This instance is created by the DataHandler at once. Each property which
+ * was not looked up is left as the null value. For instance, if the access
+ * token was not found, only the access token property is set as null and
+ * others are not looked up.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenIntrospection {
+
+	private AccessToken accessToken;
+	private AuthInfo authInfo;
+	private Boolean clientValid;
+	private Boolean userValid;
+
+	/**
+	 * Set the access token.
+	 * @param accessToken The access token instance. If not found, null.
+	 */
+	public void setAccessToken(AccessToken accessToken) {
+		this.accessToken = accessToken;
+	}
+
+	/**
+	 * Retrieve the access token.
+	 * @return The access token instance.
+	 */
+	public AccessToken getAccessToken() {
+		return accessToken;
+	}
+
+	/**
+	 * Set the authorization information related on the access token.
+	 * @param authInfo The authorization information. If not found, null.
+	 */
+	public void setAuthInfo(AuthInfo authInfo) {
+		this.authInfo = authInfo;
+	}
+
+	/**
+	 * Retrieve the authorization information.
+	 * @return The authorization information.
+	 */
+	public AuthInfo getAuthInfo() {
+		return authInfo;
+	}
+
+	/**
+	 * Set the result of validating the client of the authorization.
+	 * @param clientValid True if the client is valid.
+	 */
+	public void setClientValid(Boolean clientValid) {
+		this.clientValid = clientValid;
+	}
+
+	/**
+	 * Retrieve the result of validating the client.
+	 * @return True if the client is valid.
+	 */
+	public Boolean getClientValid() {
+		return clientValid;
+	}
+
+	/**
+	 * Set the result of validating the user of the authorization.
+	 * @param userValid True if the user is valid.
+	 */
+	public void setUserValid(Boolean userValid) {
+		this.userValid = userValid;
+	}
+
+	/**
+	 * Retrieve the result of validating the user.
+	 * @return True if the user is valid.
+	 */
+	public Boolean getUserValid() {
+		return userValid;
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This class assigns a bit position to each known scope name, and compiles
+ * the space-delimited scope strings into the Scopes bitsets.
+ * 
+ * The scopes required by the protected resources are registered with the
+ * require() method when they are configured. The granted scopes are compiled
+ * with the compile() methods, which ignore the names not registered because
+ * they are never required. Therefore, the number of the bits does not grow
+ * with the scopes requested by the clients. The compiled sets are cached per
+ * scope string up to the cache size, and per AuthInfo instance. A cached set
+ * is compiled again after a new name is registered.
+ * 
+ * This instance is thread-safe.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ScopeRegistry {
+
+	/** The default maximum number of the scope strings cached. */
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private static final long[] NO_BITS = new long[0];
+
+	private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+	private final ConcurrentMap<String, Scopes> cache = new ConcurrentHashMap<String, Scopes>();
+	private volatile int size;
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+
+	/**
+	 * Set the maximum number of the scope strings whose compiled sets are
+	 * cached.
+	 * @param cacheSize The number of the scope strings.
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Register the scope name. If it has been registered, nothing happens.
+	 * @param name The name of the scope.
+	 * @return The bit position of the scope.
+	 * @throws IllegalArgumentException If the name is empty or has a space.
+	 */
+	public synchronized int register(String name) {
+		if (name == null || name.isEmpty() || name.indexOf(' ') >= 0) {
+			throw new IllegalArgumentException("Invalid scope name: " + name);
+		}
+		Integer index = indexes.get(name);
+		if (index != null) {
+			return index;
+		}
+		int result = size;
+		indexes.put(name, result);
+		size = result + 1;
+		return result;
+	}
+
+	/**
+	 * Retrieve the bit position of the scope name.
+	 * @param name The name of the scope.
+	 * @return The bit position, or -1 if the name has not been registered.
+	 */
+	public int indexOf(String name) {
+		Integer index = name != null ? indexes.get(name) : null;
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Retrieve the number of the registered scope names.
+	 * @return The number of the names.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Register all scope names in the scope string, and compile it. Call this
+	 * method for the scopes required by the protected resources.
+	 * @param scope The space-delimited scope string.
+	 * @return The compiled set.
+	 */
+	public Scopes require(String scope) {
+		String value = scope != null ? scope : "";
+		int start = 0;
+		while (start < value.length()) {
+			int end = value.indexOf(' ', start);
+			if (end < 0) {
+				end = value.length();
+			}
+			if (end > start) {
+				register(value.substring(start, end));
+			}
+			start = end + 1;
+		}
+		return compile(value);
+	}
+
+	/**
+	 * Compile the granted scope string. The names which have not been
+	 * registered are ignored.
+	 * @param scope The space-delimited scope string.
+	 * @return The compiled set.
+	 */
+	public Scopes compile(String scope) {
+		String value = scope != null ? scope : "";
+		int known = size;
+		Scopes cached = cache.get(value);
+		if (cached != null && cached.getKnown() == known) {
+			return cached;
+		}
+		Scopes result = parse(value, known);
+		if (cached != null || cache.size() < cacheSize) {
+			cache.put(value, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Compile the scope granted by the authorization information. The result
+	 * is cached in the AuthInfo instance until its scope is changed.
+	 * @param authInfo The authorization information.
+	 * @return The compiled set.
+	 */
+	public Scopes compile(AuthInfo authInfo) {
+		Scopes cached = authInfo.getScopes();
+		if (cached != null && cached.getRegistry() == this && cached.getKnown() == size) {
+			return cached;
+		}
+		Scopes result = compile(authInfo.getScope());
+		authInfo.setScopes(result);
+		return result;
+	}
+
+	private Scopes parse(String value, int known) {
+		long[] bits = NO_BITS;
+		int start = 0;
+		while (start < value.length()) {
+			int end = value.indexOf(' ', start);
+			if (end < 0) {
+				end = value.length();
+			}
+			if (end > start) {
+				Integer index = indexes.get(value.substring(start, end));
+				if (index != null && index < known) {
+					int word = index >>> 6;
+					if (word >= bits.length) {
+						bits = Arrays.copyOf(bits, word + 1);
+					}
+					bits[word] |= 1L << index;
+				}
+			}
+			start = end + 1;
+		}
+		return new Scopes(this, value, bits, known);
+	}
+
+}
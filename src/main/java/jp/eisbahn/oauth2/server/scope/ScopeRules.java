@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class finds the scopes required by each path with a trie of the path
+ * segments. A pattern is either an exact path like "/photos/upload", or a
+ * prefix like "/photos/*" which matches "/photos" and all paths under it.
+ * The most specific pattern wins, and an exact pattern wins over a prefix of
+ * the same path. The empty segments are ignored, so "/photos/" and
+ * "//photos" are the same as "/photos".
+ * 
+ * Finding the scopes of a path visits each segment once, regardless of the
+ * number of the patterns. Add all patterns before this instance is shared
+ * with other threads, because adding a pattern is not thread-safe.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ScopeRules {
+
+	private static final String WILDCARD = "*";
+
+	private final Node root = new Node();
+
+	/**
+	 * Add the scopes required by the paths matching the pattern.
+	 * @param pattern The exact path, or the path followed by "/*".
+	 * @param required The required scopes.
+	 * @throws IllegalArgumentException If the pattern has "*" as a segment
+	 * other than the last one.
+	 */
+	public void add(String pattern, Scopes required) {
+		Node node = root;
+		boolean prefix = false;
+		int start = 0;
+		while (start < pattern.length()) {
+			int end = nextSlash(pattern, start);
+			if (end > start) {
+				if (prefix) {
+					throw new IllegalArgumentException("Invalid pattern: " + pattern);
+				}
+				String segment = pattern.substring(start, end);
+				if (segment.equals(WILDCARD)) {
+					prefix = true;
+				} else {
+					Node child = node.children.get(segment);
+					if (child == null) {
+						child = new Node();
+						node.children.put(segment, child);
+					}
+					node = child;
+				}
+			}
+			start = end + 1;
+		}
+		if (prefix) {
+			node.prefix = required;
+		} else {
+			node.exact = required;
+		}
+	}
+
+	/**
+	 * Find the scopes required by the path.
+	 * @param path The path of the request.
+	 * @return The required scopes of the most specific pattern, or null if no
+	 * pattern matches.
+	 */
+	public Scopes find(String path) {
+		Node node = root;
+		Scopes found = root.prefix;
+		int start = 0;
+		int length = path != null ? path.length() : 0;
+		while (start < length) {
+			int end = nextSlash(path, start);
+			if (end > start) {
+				node = node.children.get(path.substring(start, end));
+				if (node == null) {
+					return found;
+				}
+				if (node.prefix != null) {
+					found = node.prefix;
+				}
+			}
+			start = end + 1;
+		}
+		return node.exact != null ? node.exact : found;
+	}
+
+	private static int nextSlash(String value, int start) {
+		int end = value.indexOf('/', start);
+		return end >= 0 ? end : value.length();
+	}
+
+	/**
+	 * This class is a node of the trie, which is a path segment.
+	 */
+	private static class Node {
+
+		private final Map<String, Node> children = new HashMap<String, Node>();
+		private Scopes exact;
+		private Scopes prefix;
+
+	}
+
+}
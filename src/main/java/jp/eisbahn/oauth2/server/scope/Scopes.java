@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+/**
+ * This class is a set of scopes compiled by a ScopeRegistry. Each scope is
+ * a bit at the position assigned by the registry, so whether all required
+ * scopes are granted is judged by comparing some words without any string
+ * operation. The names which were not registered when this set was compiled
+ * are not included.
+ * 
+ * This instance is immutable.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class Scopes {
+
+	private final ScopeRegistry registry;
+	private final String value;
+	private final long[] bits;
+	private final int known;
+
+	Scopes(ScopeRegistry registry, String value, long[] bits, int known) {
+		this.registry = registry;
+		this.value = value;
+		this.bits = bits;
+		this.known = known;
+	}
+
+	/**
+	 * Judge whether this set has all scopes of the other set. Both sets must
+	 * be compiled by the same ScopeRegistry.
+	 * @param required The required scopes.
+	 * @return True if all of them are included in this set.
+	 */
+	public boolean containsAll(Scopes required) {
+		long[] other = required.bits;
+		for (int i = 0; i < other.length; i++) {
+			long word = i < bits.length ? bits[i] : 0L;
+			if ((other[i] & ~word) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Judge whether this set has the scope.
+	 * @param name The name of the scope.
+	 * @return True if the scope is included in this set, or false if the
+	 * name has not been registered to the ScopeRegistry.
+	 */
+	public boolean contains(String name) {
+		int index = registry.indexOf(name);
+		if (index < 0 || index >= known || (index >>> 6) >= bits.length) {
+			return false;
+		}
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Judge whether this set has no scope.
+	 * @return True if this set is empty.
+	 */
+	public boolean isEmpty() {
+		return bits.length == 0;
+	}
+
+	/**
+	 * Retrieve the scope string which this set was compiled from.
+	 * @return The scope string.
+	 */
+	@Override
+	public String toString() {
+		return value;
+	}
+
+	ScopeRegistry getRegistry() {
+		return registry;
+	}
+
+	int getKnown() {
+		return known;
+	}
+
+}
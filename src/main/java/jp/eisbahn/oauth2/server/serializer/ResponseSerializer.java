@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.serializer;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+
+/**
+ * This interface defines how to encode a result of the token endpoint to the
+ * JSON string which is sent to the client.
+ * 
+ * The implementation instance is shared by all requests handled by the Token
+ * endpoint. Therefore, the implementation must be thread-safe, and should
+ * keep any expensive object (a mapper, a factory and so on) to reuse it
+ * instead of creating it per request.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ResponseSerializer {
+
+	/**
+	 * Encode the issued token information to the JSON string.
+	 * @param result The result object which has an access token and etc.
+	 * @return The JSON string.
+	 * @throws IllegalStateException If the encoding failed.
+	 */
+	public String serialize(GrantHandlerResult result);
+
+	/**
+	 * Encode the error information to the JSON string.
+	 * @param error The error object.
+	 * @return The JSON string which has the error type and description.
+	 * @throws IllegalStateException If the encoding failed.
+	 */
+	public String serialize(OAuthError error);
+
+}
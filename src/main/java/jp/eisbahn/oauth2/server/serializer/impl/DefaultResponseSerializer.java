@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.serializer.impl;
+
+import java.io.IOException;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.serializer.ResponseSerializer;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+
+/**
+ * This class is a default implementation of the ResponseSerializer interface.
+ * The JSON string is created by the Jackson data binding with the annotations
+ * of GrantHandlerResult and OAuthError classes, therefore the result is same
+ * as the Util.toJson() method.
+ * 
+ * One ObjectWriter is created at constructing this instance and is shared by
+ * all requests. Serializers for GrantHandlerResult and each OAuthError class
+ * are prepared in advance, so that the first request does not pay the cost to
+ * introspect these classes.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class DefaultResponseSerializer implements ResponseSerializer {
+
+	private static final Class<?>[] PREPARED_CLASSES = new Class<?>[] {
+		GrantHandlerResult.class,
+		OAuthError.InvalidRequest.class,
+		OAuthError.InvalidClient.class,
+		OAuthError.UnauthorizedClient.class,
+		OAuthError.RedirectUriMismatch.class,
+		OAuthError.AccessDenied.class,
+		OAuthError.UnsupportedResponseType.class,
+		OAuthError.InvalidGrant.class,
+		OAuthError.UnsupportedGrantType.class,
+		OAuthError.InvalidScope.class,
+		OAuthError.InvalidToken.class,
+		OAuthError.ExpiredToken.class,
+		OAuthError.InsufficientScope.class,
+		OAuthError.TemporarilyUnavailable.class,
+		OAuthError.ServerError.class
+	};
+
+	private final ObjectWriter writer;
+
+	/**
+	 * Initialize this instance. The ObjectWriter is created and serializers
+	 * for the known classes are prepared.
+	 */
+	public DefaultResponseSerializer() {
+		super();
+		ObjectMapper mapper = new ObjectMapper();
+		for (Class<?> clazz : PREPARED_CLASSES) {
+			mapper.canSerialize(clazz);
+		}
+		writer = mapper.writer();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.serializer.ResponseSerializer#serialize(jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult)
+	 */
+	@Override
+	public String serialize(GrantHandlerResult result) {
+		return write(result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.serializer.ResponseSerializer#serialize(jp.eisbahn.oauth2.server.exceptions.OAuthError)
+	 */
+	@Override
+	public String serialize(OAuthError error) {
+		return write(error);
+	}
+
+	private String write(Object source) {
+		try {
+			return writer.writeValueAsString(source);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.serializer.impl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.serializer.ResponseSerializer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * This class is an implementation of the ResponseSerializer interface which
+ * writes each property with the Jackson streaming generator directly.
+ * No data binding and no reflection are used, therefore this is faster than
+ * the DefaultResponseSerializer. The result is same as the JSON string created
+ * by the annotations of GrantHandlerResult and OAuthError classes, but the
+ * properties added by your sub classes of them are not written.
+ * The character buffers used to build the string are recycled per thread:
+ * the generator's ones by the JsonFactory, and the StringWriter by this
+ * class.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class StreamingResponseSerializer implements ResponseSerializer {
+
+	private static final ThreadLocal<StringWriter> WRITERS = new ThreadLocal<StringWriter>() {
+		@Override
+		protected StringWriter initialValue() {
+			return new StringWriter(256);
+		}
+	};
+
+	private final JsonFactory factory = new JsonFactory();
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.serializer.ResponseSerializer#serialize(jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult)
+	 */
+	@Override
+	public String serialize(GrantHandlerResult result) {
+		StringWriter out = writer();
+		try {
+			JsonGenerator generator = factory.createJsonGenerator(out);
+			generator.writeStartObject();
+			writeIfNotNull(generator, "token_type", result.getTokenType());
+			writeIfNotNull(generator, "access_token", result.getAccessToken());
+			writeIfNotNull(generator, "id_token", result.getIdToken());
+			writeIfNotNull(generator, "refresh_token", result.getRefreshToken());
+			if (result.getExpiresIn() != null) {
+				generator.writeNumberField("expires_in", result.getExpiresIn());
+			}
+			writeIfNotNull(generator, "scope", result.getScope());
+			generator.writeEndObject();
+			generator.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.serializer.ResponseSerializer#serialize(jp.eisbahn.oauth2.server.exceptions.OAuthError)
+	 */
+	@Override
+	public String serialize(OAuthError error) {
+		StringWriter out = writer();
+		try {
+			JsonGenerator generator = factory.createJsonGenerator(out);
+			generator.writeStartObject();
+			writeIfNotNull(generator, "error", error.getType());
+			if (StringUtils.isNotEmpty(error.getDescription())) {
+				generator.writeStringField("error_description", error.getDescription());
+			}
+			generator.writeEndObject();
+			generator.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	private static StringWriter writer() {
+		StringWriter out = WRITERS.get();
+		out.getBuffer().setLength(0);
+		return out;
+	}
+
+	private void writeIfNotNull(JsonGenerator generator, String name, String value)
+			throws IOException {
+		if (value != null) {
+			generator.writeStringField(name, value);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class is a handler which parks the request with the AsyncContext
+ * of the Servlet 3.0 API while the result is not available yet.
+ *
+ * <p>
+ * The endpoint is called with this instance as the handler, and then the
+ * await() method is called on the container thread. When the DataHandler
+ * has already called the handler, the result is applied inline and the
+ * asynchronous processing is not started. Otherwise, the request is put
+ * into the asynchronous mode and the container thread is released. The
+ * result is applied on the thread which calls the handler later.
+ * </p>
+ *
+ * <p>
+ * If the request does not support the asynchronous mode, the await()
+ * method blocks the container thread until the result is available.
+ * </p>
+ *
+ * @param <T> The type of the result.
+ * @author Yoichiro Tanaka
+ *
+ */
+abstract class AsyncCallback<T> implements Handler<T> {
+
+	private static final int PENDING = 0;
+	private static final int INLINE = 1;
+	private static final int ASYNC = 2;
+	private static final int DONE = 3;
+	private static final int CLOSED = 4;
+
+	private final HttpServletResponse response;
+	private final long timeout;
+
+	private final AtomicInteger state = new AtomicInteger(PENDING);
+	private volatile T result;
+	private volatile AsyncContext asyncContext;
+
+	/**
+	 * Initialize this instance.
+	 * @param response The response object of the request.
+	 * @param timeout The timeout of the asynchronous processing in milliseconds.
+	 */
+	AsyncCallback(HttpServletResponse response, long timeout) {
+		super();
+		this.response = response;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Apply the result to the response.
+	 * @param result The result passed to the handler.
+	 * @param context The AsyncContext when the request is in the asynchronous
+	 * mode, or null when the result is applied on the container thread. The
+	 * implementation is responsible to complete or dispatch it.
+	 */
+	protected abstract void onResult(T result, AsyncContext context);
+
+	/**
+	 * Write the response when the result was not available in time. The
+	 * default implementation sets the 503 status code. The AsyncContext is
+	 * completed by the caller.
+	 * @param resp The response object.
+	 */
+	protected void onTimeout(HttpServletResponse resp) {
+		resp.setStatus(503);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.async.Handler#handle(java.lang.Object)
+	 */
+	@Override
+	public void handle(T event) {
+		result = event;
+		if (state.compareAndSet(PENDING, INLINE)) {
+			synchronized (this) {
+				notifyAll();
+			}
+		} else if (state.compareAndSet(ASYNC, DONE)) {
+			onResult(event, asyncContext);
+		}
+		// Otherwise the request has already been timed out.
+	}
+
+	/**
+	 * Wait for the result on the container thread. This method returns
+	 * immediately after the request is put into the asynchronous mode.
+	 * @param req The request object.
+	 */
+	void await(HttpServletRequest req) {
+		if (state.get() == INLINE) {
+			onResult(result, null);
+		} else if (req.isAsyncSupported()) {
+			AsyncContext context = req.startAsync();
+			context.setTimeout(timeout);
+			context.addListener(new Listener());
+			asyncContext = context;
+			if (!state.compareAndSet(PENDING, ASYNC)) {
+				// The result arrived while the asynchronous mode was started.
+				onResult(result, context);
+			}
+		} else {
+			awaitBlocking();
+		}
+	}
+
+	private void awaitBlocking() {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		boolean interrupted = false;
+		synchronized (this) {
+			long remaining;
+			while (state.get() == PENDING
+					&& (remaining = deadline - System.nanoTime()) > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					interrupted = true;
+					break;
+				}
+			}
+		}
+		if (state.compareAndSet(PENDING, CLOSED)) {
+			onTimeout(response);
+		} else {
+			onResult(result, null);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void close(AsyncContext context) {
+		if (state.compareAndSet(ASYNC, CLOSED)) {
+			try {
+				onTimeout(response);
+			} finally {
+				context.complete();
+			}
+		}
+	}
+
+	private class Listener implements AsyncListener {
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			close(asyncContext);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			close(asyncContext);
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+
+	}
+
+}
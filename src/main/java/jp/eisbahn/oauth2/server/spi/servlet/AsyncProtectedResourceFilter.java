@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+/**
+ * This filter checks the access to the protected resource like the
+ * ProtectedResourceFilter, but does not hold the container thread while
+ * the DataHandler is working.
+ *
+ * <p>
+ * When the DataHandler calls the handler on another thread, the request is
+ * put into the asynchronous mode of the Servlet 3.0 API. An error is
+ * written and the request is completed on the thread which completes the
+ * DataHandler call. When the access is granted, the request is dispatched
+ * to the original URI again and this filter continues the chain with the
+ * stored result. The stored result is only honoured on the ASYNC dispatch,
+ * so that it cannot stand in for the validation of a new request. Therefore, this filter must be registered with the
+ * &lt;async-supported&gt;true&lt;/async-supported&gt; element and mapped with
+ * both the REQUEST and ASYNC dispatcher types. The servlets behind this
+ * filter must also support the asynchronous mode. Otherwise, the container
+ * thread waits for the result.
+ * </p>
+ *
+ * <p>
+ * In addition to the parameters of the ProtectedResourceFilter, the
+ * "asyncTimeout" init-param can be specified in milliseconds. When the
+ * result is not available in this period, the 503 status code is returned.
+ * </p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class AsyncProtectedResourceFilter extends ProtectedResourceFilter {
+
+	/**
+	 * The name of the request attribute to carry the result of the
+	 * validation to the asynchronous dispatch.
+	 */
+	public static final String RESULT_ATTRIBUTE =
+			AsyncProtectedResourceFilter.class.getName() + ".result";
+
+	private static final String ASYNC_TIMEOUT = "asyncTimeout";
+	private static final long DEFAULT_ASYNC_TIMEOUT = 30000L;
+
+	private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+
+	/**
+	 * Initialize this filter.
+	 * In addition to the initialization of the ProtectedResourceFilter, this
+	 * method reads the timeout of the asynchronous processing.
+	 *
+	 * @param config The FilterConfig object.
+	 * @exception ServletException Each helper instance could not be created,
+	 * or the timeout is not a number.
+	 */
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+		super.init(config);
+		String timeout = config.getInitParameter(ASYNC_TIMEOUT);
+		if (timeout != null) {
+			try {
+				asyncTimeout = Long.parseLong(timeout.trim());
+			} catch (NumberFormatException e) {
+				throw new ServletException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the timeout of the asynchronous processing.
+	 * @return The timeout in milliseconds.
+	 */
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * Check the request for whether can access or not to APIs to access the protected
+	 * resource. This method returns without waiting for the DataHandler when the
+	 * request supports the asynchronous mode.
+	 *
+	 * @param req The request object.
+	 * @param resp The response object.
+	 * @param chain The chain object to chain some filters.
+	 * @exception ServletException When the first argument is not a HttpServletRequest
+	 * instance.
+	 */
+	@Override
+	public void doFilter(final ServletRequest req, final ServletResponse resp,
+						 final FilterChain chain) throws ServletException {
+		if (req instanceof HttpServletRequest && resp instanceof HttpServletResponse) {
+			Object dispatched = req.getDispatcherType() == DispatcherType.ASYNC
+					? req.getAttribute(RESULT_ATTRIBUTE) : null;
+			if (dispatched != null) {
+				req.removeAttribute(RESULT_ATTRIBUTE);
+				@SuppressWarnings("unchecked")
+				Try<OAuthError, Response> event = (Try<OAuthError, Response>)dispatched;
+				handleResult(event, req, resp, chain);
+				return;
+			}
+			HttpServletRequest httpRequest = (HttpServletRequest)req;
+			final HttpServletResponse httpResponse = (HttpServletResponse)resp;
+			HttpServletRequestAdapter adapter = new HttpServletRequestAdapter(httpRequest);
+			AsyncCallback<Try<OAuthError, Response>> callback =
+					new AsyncCallback<Try<OAuthError, Response>>(httpResponse, asyncTimeout) {
+				@Override
+				protected void onResult(Try<OAuthError, Response> result, AsyncContext context) {
+					if (context == null) {
+						handleResult(result, req, resp, chain);
+					} else {
+						dispatch(result, req, httpResponse, context);
+					}
+				}
+			};
+			handleRequest(httpRequest, adapter, callback);
+			callback.await(httpRequest);
+		} else {
+			throw new ServletException("This filter is available under HTTP Servlet container.");
+		}
+	}
+
+	private void dispatch(Try<OAuthError, Response> result, ServletRequest req,
+			HttpServletResponse resp, AsyncContext context) {
+		try {
+			result.get();
+		} catch (OAuthError e) {
+			try {
+				writeError(resp, e);
+			} finally {
+				context.complete();
+			}
+			return;
+		}
+		req.setAttribute(RESULT_ATTRIBUTE, result);
+		context.dispatch();
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jp.eisbahn.oauth2.server.endpoint.Token.Response;
+
+/**
+ * This servlet issues tokens like the TokenServlet, but does not hold the
+ * container thread while the DataHandler is working.
+ *
+ * <p>
+ * When the DataHandler calls the handler on another thread, the request is
+ * put into the asynchronous mode of the Servlet 3.0 API and the response is
+ * written on the thread which completes the DataHandler call. The servlet
+ * must be registered with the &lt;async-supported&gt;true&lt;/async-supported&gt;
+ * element. Otherwise, the container thread waits for the result.
+ * </p>
+ *
+ * <p>
+ * In addition to the parameters of the TokenServlet, the "asyncTimeout"
+ * init-param can be specified in milliseconds. When the result is not
+ * available in this period, the 503 status code is returned.
+ * </p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class AsyncTokenServlet extends TokenServlet {
+
+	private static final String ASYNC_TIMEOUT = "asyncTimeout";
+	private static final long DEFAULT_ASYNC_TIMEOUT = 30000L;
+
+	private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+
+	/**
+	 * Initialize this servlet.
+	 * In addition to the initialization of the TokenServlet, this method
+	 * reads the timeout of the asynchronous processing.
+	 *
+	 * @param config The ServletConfig object.
+	 * @exception ServletException Each helper instance could not be created,
+	 * or the timeout is not a number.
+	 */
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		String timeout = config.getInitParameter(ASYNC_TIMEOUT);
+		if (timeout != null) {
+			try {
+				asyncTimeout = Long.parseLong(timeout.trim());
+			} catch (NumberFormatException e) {
+				throw new ServletException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the timeout of the asynchronous processing.
+	 * @return The timeout in milliseconds.
+	 */
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * Issue the token against the request based on OAuth 2.0.
+	 * This method returns without waiting for the DataHandler when the
+	 * request supports the asynchronous mode.
+	 *
+	 * @param req The request object.
+	 * @param resp The response object.
+	 */
+	@Override
+	protected void doPost(HttpServletRequest req, final HttpServletResponse resp) {
+		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
+		AsyncCallback<Response> callback = new AsyncCallback<Response>(resp, asyncTimeout) {
+			@Override
+			protected void onResult(Response result, AsyncContext context) {
+				try {
+					writeResponse(resp, result);
+				} finally {
+					if (context != null) {
+						context.complete();
+					}
+				}
+			}
+		};
+		getToken().handleRequest(request, callback);
+		callback.await(req);
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
+import jp.eisbahn.oauth2.server.endpoint.Introspection;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+
+/**
+ * This class is an HttpServlet implementation of the token introspection
+ * endpoint.
+ *
+ * This instance needs a DataHandlerFactory instance. The implementation
+ * class name is specified as the init-param value. For instance, specify
+ * the following in your web.xml file:<br />
+ * <br />
+ * <code>
+ * &lt;servlet&gt;<br />
+ * &nbsp;&nbsp;&lt;servlet-name&gt;introspection&lt;servlet-name&gt;<br />
+ * &nbsp;&nbsp;&lt;servlet-class&gt;jp.eisbahn.oauth2.server.spi.servlet.IntrospectionServlet&lt;servlet-name&gt;<br />
+ * &nbsp;&nbsp;&lt;init-param&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-name&gt;dataHandlerFactory&lt;/param-name&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-value&gt;your-class-name&lt;/param-value&gt;<br />
+ * &nbsp;&nbsp;&lt;/init-param&gt;<br />
+ * &nbsp;&nbsp;&lt;async-supported&gt;true&lt;/async-supported&gt;<br />
+ * &lt;/servlet&gt;
+ * </code>
+ * <br />
+ * The "requestTimeout" init-param can be specified in milliseconds as the
+ * time limit of each token. See the ProtectedResource#setTimeout() method.
+ * The container thread is released while the DataHandler is working like
+ * the AsyncTokenServlet, and the "asyncTimeout" init-param can be specified
+ * in the same way.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class IntrospectionServlet extends HttpServlet {
+
+	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
+	private static final String REQUEST_TIMEOUT = "requestTimeout";
+	private static final String ASYNC_TIMEOUT = "asyncTimeout";
+	private static final long DEFAULT_ASYNC_TIMEOUT = 30000L;
+
+	private Introspection introspection;
+	private DataHandlerFactory dataHandlerFactory;
+	private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+
+	/**
+	 * Initialize this servlet.
+	 * This method creates the DataHandlerFactory instance, and then the
+	 * Introspection instance which validates each token with the
+	 * ProtectedResource. If the DataHandlerFactory is a
+	 * ManagedDataHandlerFactory, it is started.
+	 *
+	 * @param config The ServletConfig object.
+	 * @exception ServletException The helper instance could not be created,
+	 * or the timeout is not a number.
+	 */
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		try {
+			dataHandlerFactory = ServletUtil.createInstance(
+				config.getInitParameter(DATA_HANDLER_FACTORY_CLASSNAME));
+			ProtectedResource protectedResource = new ProtectedResource();
+			protectedResource.setDataHandlerFactory(dataHandlerFactory);
+			String timeout = config.getInitParameter(REQUEST_TIMEOUT);
+			if (timeout != null) {
+				protectedResource.setTimeout(Long.parseLong(timeout.trim()));
+			}
+			String async = config.getInitParameter(ASYNC_TIMEOUT);
+			if (async != null) {
+				asyncTimeout = Long.parseLong(async.trim());
+			}
+			introspection = new Introspection();
+			introspection.setProtectedResource(protectedResource);
+		} catch (NumberFormatException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (ReflectiveOperationException e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+		ServletUtil.startDataHandlerFactory(dataHandlerFactory);
+	}
+
+	/**
+	 * Destroy this servlet. If the DataHandlerFactory is a
+	 * ManagedDataHandlerFactory, it is stopped.
+	 */
+	@Override
+	public void destroy() {
+		DataHandlerFactoryUtil.stop(dataHandlerFactory);
+		super.destroy();
+	}
+
+	/**
+	 * Retrieve the Introspection instance created by the init() method.
+	 * @return The Introspection instance.
+	 */
+	protected Introspection getIntrospection() {
+		return introspection;
+	}
+
+	/**
+	 * Retrieve the timeout of the asynchronous processing.
+	 * @return The timeout in milliseconds.
+	 */
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * Validate the token or the tokens specified by the request.
+	 * This method returns without waiting for the DataHandler when the
+	 * request supports the asynchronous mode.
+	 *
+	 * @param req The request object.
+	 * @param resp The response object.
+	 */
+	@Override
+	protected void doPost(HttpServletRequest req, final HttpServletResponse resp) {
+		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
+		AsyncCallback<Response> callback = new AsyncCallback<Response>(resp, asyncTimeout) {
+			@Override
+			protected void onResult(Response result, AsyncContext context) {
+				try {
+					writeResponse(resp, result);
+				} finally {
+					if (context != null) {
+						context.complete();
+					}
+				}
+			}
+		};
+		introspection.handleRequest(request, callback);
+		callback.await(req);
+	}
+
+	/**
+	 * Write the result of the introspection endpoint to the servlet response.
+	 *
+	 * @param resp The response object.
+	 * @param response The result of the introspection endpoint.
+	 */
+	protected void writeResponse(HttpServletResponse resp, Response response) {
+		try {
+			resp.setStatus(response.getCode());
+			resp.setContentType("application/json; charset=UTF-8");
+			resp.setHeader("Cache-Control", "no-store");
+			PrintWriter writer = resp.getWriter();
+			IOUtils.write(response.getBody(), writer);
+			writer.flush();
+		} catch (IOException e) {
+			try {
+				resp.sendError(500, e.getMessage());
+			} catch (IOException e1) {
+				resp.setStatus(500);
+				resp.resetBuffer();
+			}
+		}
+	}
+
+}
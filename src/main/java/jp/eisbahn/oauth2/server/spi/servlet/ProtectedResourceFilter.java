@@ -36,11 +36,16 @@ import jp.eisbahn.oauth2.server.exceptions.Try;
 import org.apache.commons.lang3.StringUtils;
 
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+import jp.eisbahn.oauth2.server.scope.ScopeRules;
+import jp.eisbahn.oauth2.server.scope.Scopes;
 
 /**
  * This servlet filter checks whether a request to access to each protected
@@ -65,6 +70,18 @@ import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetch
  * &nbsp;&nbsp;&lt;/init-param&gt;<br />
  * &lt;/filter&gt;
  * </code>
+ * <br />
+ * The "requestTimeout" init-param can be specified in milliseconds as the
+ * time limit of each request. See the ProtectedResource#setTimeout() method.
+ * <br />
+ * The "requiredScopes" init-param can be specified as the rules of the
+ * scopes required by the paths, separated by ";" or line breaks. Each rule
+ * is like "/photos/*=read photos", where the path is an exact path or a
+ * prefix followed by "/*". The rules are compiled into a ScopeRules trie, and
+ * the path of each request (the servlet path and the path info) is matched
+ * with it. The request whose token does not have the required scopes fails
+ * with the insufficient_scope error. The compiled scopes of the token are
+ * stored as the "scopes" request attribute.
  *
  * @author Yoichiro Tanaka
  *
@@ -73,14 +90,19 @@ public class ProtectedResourceFilter implements Filter {
 
 	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
 	private static final String ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME = "accessTokenFetcherProvider";
+	private static final String REQUEST_TIMEOUT = "requestTimeout";
+	private static final String REQUIRED_SCOPES = "requiredScopes";
 
 	private ProtectedResource protectedResource;
+	private DataHandlerFactory dataHandlerFactory;
+	private ScopeRules scopeRules;
 
 	/**
 	 * Initialize this filter.
 	 * For instance, this method loads two implementation class name and create
 	 * these instances. Then, the ProtectedResource instance to process the
 	 * OAuth 2.0 validation for the request is created with their helper instances.
+	 * If the DataHandlerFactory is a ManagedDataHandlerFactory, it is started.
 	 *
 	 * @param config The FilterConfig object.
 	 * @exception ServletException Each helper instance could not be created.
@@ -88,18 +110,26 @@ public class ProtectedResourceFilter implements Filter {
 	@Override
 	public void init(FilterConfig config) throws ServletException {
 		try {
-			DataHandlerFactory dataHandlerFactory = getDataHandlerFactory(config);
+			dataHandlerFactory = ServletUtil.createInstance(
+				config.getInitParameter(DATA_HANDLER_FACTORY_CLASSNAME));
 			AccessTokenFetcherProvider accessTokenFetcherProvider = getAccessTokenFetcherProvider(config);
 			protectedResource = new ProtectedResource();
 			protectedResource.setDataHandlerFactory(dataHandlerFactory);
 			protectedResource.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
-		} catch (ClassNotFoundException e) {
-			throw new ServletException(e.getMessage(), e);
-		} catch (InstantiationException e) {
+			String timeout = config.getInitParameter(REQUEST_TIMEOUT);
+			if (timeout != null) {
+				protectedResource.setTimeout(Long.parseLong(timeout.trim()));
+			}
+			String requiredScopes = config.getInitParameter(REQUIRED_SCOPES);
+			if (requiredScopes != null) {
+				scopeRules = createScopeRules(requiredScopes, protectedResource.getScopeRegistry());
+			}
+		} catch (IllegalArgumentException e) {
 			throw new ServletException(e.getMessage(), e);
-		} catch (IllegalAccessException e) {
+		} catch (ReflectiveOperationException e) {
 			throw new ServletException(e.getMessage(), e);
 		}
+		ServletUtil.startDataHandlerFactory(dataHandlerFactory);
 	}
 
 	/**
@@ -119,32 +149,10 @@ public class ProtectedResourceFilter implements Filter {
 			HttpServletRequest httpRequest = (HttpServletRequest)req;
 			HttpServletRequestAdapter adapter = new HttpServletRequestAdapter(httpRequest);
 
-			protectedResource.handleRequest(adapter, new Handler<Try<OAuthError, Response>>() {
+			handleRequest(httpRequest, adapter, new Handler<Try<OAuthError, Response>>() {
 				@Override
 				public void handle(Try<OAuthError, Response> event) {
-					try {
-						Response response = event.get();
-						req.setAttribute("client_id", response.getClientId());
-						req.setAttribute("remote_user", response.getRemoteUser());
-						req.setAttribute("scope", response.getScope());
-						chain.doFilter(req, resp);
-					} catch (OAuthError e) {
-							HttpServletResponse httpResponse = (HttpServletResponse)resp;
-							httpResponse.setStatus(e.getCode());
-							List<String> params = new ArrayList<String>();
-							params.add("error=\"" + e.getType() + "\"");
-							if (StringUtils.isNotBlank(e.getDescription())) {
-								params.add("error_description=\"" + e.getDescription() + "\"");
-							}
-							String error = StringUtils.join(params, ", ");
-							httpResponse.setHeader("WWW-Authenticate", "Bearer " + error);
-					} catch (ServletException e) {
-						HttpServletResponse httpResponse = (HttpServletResponse)resp;
-						httpResponse.setStatus(500);
-					} catch (IOException e) {
-						HttpServletResponse httpResponse = (HttpServletResponse)resp;
-						httpResponse.setStatus(500);
-					}
+					handleResult(event, req, resp, chain);
 				}
 			});
 		} else {
@@ -153,36 +161,119 @@ public class ProtectedResourceFilter implements Filter {
 	}
 
 	/**
-	 * Do nothing.
+	 * Retrieve the ProtectedResource instance created by the init() method.
+	 * @return The ProtectedResource instance.
+	 */
+	protected ProtectedResource getProtectedResource() {
+		return protectedResource;
+	}
+
+	/**
+	 * Validate the request with the ProtectedResource. If a rule of the
+	 * required scopes matches the path of the request, its scopes are
+	 * required.
+	 *
+	 * @param httpRequest The request object.
+	 * @param adapter The adapter of the request.
+	 * @param handler The handler which receives the result of the validation.
+	 */
+	protected void handleRequest(HttpServletRequest httpRequest, Request adapter,
+			Handler<Try<OAuthError, Response>> handler) {
+		Scopes required = scopeRules != null ? scopeRules.find(getPath(httpRequest)) : null;
+		if (required != null) {
+			protectedResource.handleRequest(adapter, required, handler);
+		} else {
+			protectedResource.handleRequest(adapter, handler);
+		}
+	}
+
+	/**
+	 * Apply the result of the validation to the request. When the access
+	 * is granted, the information about the token is stored as the request
+	 * attributes and the chain is continued. Otherwise, the error is
+	 * written to the response.
+	 *
+	 * @param event The result of the validation.
+	 * @param req The request object.
+	 * @param resp The response object.
+	 * @param chain The chain object to chain some filters.
+	 */
+	protected void handleResult(Try<OAuthError, Response> event, ServletRequest req,
+			ServletResponse resp, FilterChain chain) {
+		try {
+			Response response = event.get();
+			req.setAttribute("client_id", response.getClientId());
+			req.setAttribute("remote_user", response.getRemoteUser());
+			req.setAttribute("scope", response.getScope());
+			req.setAttribute("scopes", response.getScopes());
+			chain.doFilter(req, resp);
+		} catch (OAuthError e) {
+			writeError((HttpServletResponse)resp, e);
+		} catch (ServletException e) {
+			HttpServletResponse httpResponse = (HttpServletResponse)resp;
+			httpResponse.setStatus(500);
+		} catch (IOException e) {
+			HttpServletResponse httpResponse = (HttpServletResponse)resp;
+			httpResponse.setStatus(500);
+		}
+	}
+
+	/**
+	 * Write the error to the response with the WWW-Authenticate header.
+	 *
+	 * @param httpResponse The response object.
+	 * @param e The error which occurred.
+	 */
+	protected void writeError(HttpServletResponse httpResponse, OAuthError e) {
+		httpResponse.setStatus(e.getCode());
+		List<String> params = new ArrayList<String>();
+		params.add("error=\"" + e.getType() + "\"");
+		if (StringUtils.isNotBlank(e.getDescription())) {
+			params.add("error_description=\"" + e.getDescription() + "\"");
+		}
+		String error = StringUtils.join(params, ", ");
+		httpResponse.setHeader("WWW-Authenticate", "Bearer " + error);
+	}
+
+	/**
+	 * Destroy this filter. If the DataHandlerFactory is a
+	 * ManagedDataHandlerFactory, it is stopped.
 	 */
 	@Override
 	public void destroy() {
+		DataHandlerFactoryUtil.stop(dataHandlerFactory);
 	}
 
-	private AccessTokenFetcherProvider getAccessTokenFetcherProvider(FilterConfig config)
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		AccessTokenFetcherProvider provider = createInstance(ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME, config);
-		if (provider != null) {
-			return provider;
-		} else {
-			return new DefaultAccessTokenFetcherProvider();
+	private static ScopeRules createScopeRules(String value, ScopeRegistry registry) {
+		ScopeRules rules = new ScopeRules();
+		for (String rule : value.split("[;\\r\\n]")) {
+			rule = rule.trim();
+			if (rule.isEmpty()) {
+				continue;
+			}
+			int separator = rule.indexOf('=');
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Invalid rule of requiredScopes: " + rule);
+			}
+			rules.add(rule.substring(0, separator).trim(),
+					registry.require(rule.substring(separator + 1).trim()));
 		}
+		return rules;
 	}
 
-	private DataHandlerFactory getDataHandlerFactory(FilterConfig config)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		return createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
+	private static String getPath(HttpServletRequest request) {
+		String pathInfo = request.getPathInfo();
+		return pathInfo != null ? request.getServletPath() + pathInfo : request.getServletPath();
 	}
 
-	@SuppressWarnings("unchecked")
-	private <T> T createInstance(String name, FilterConfig config)
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		String className = config.getInitParameter(name);
-		if (className != null) {
-			Class<?> clazz = Class.forName(className);
-			return (T)clazz.newInstance();
+	private AccessTokenFetcherProvider getAccessTokenFetcherProvider(FilterConfig config)
+			throws ReflectiveOperationException {
+		AccessTokenFetcherProvider provider = ServletUtil.createInstance(
+				config.getInitParameter(ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME));
+		if (provider != null) {
+			return provider;
 		} else {
-			return null;
+			return new DefaultAccessTokenFetcherProvider();
 		}
 	}
 
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import javax.servlet.ServletException;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
+
+/**
+ * This class provides the methods shared by the servlets and the filters
+ * to prepare their helper instances from the init-params.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+final class ServletUtil {
+
+	private ServletUtil() {
+	}
+
+	/**
+	 * Create the instance of the class with its constructor which has no
+	 * argument.
+	 * @param className The class name given as the init-param, or null.
+	 * @return The created instance. If the class name is null, return null.
+	 * @throws ReflectiveOperationException If the class was not found, or
+	 * could not be instantiated.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T createInstance(String className) throws ReflectiveOperationException {
+		if (className == null) {
+			return null;
+		}
+		Class<?> clazz = Class.forName(className);
+		return (T)clazz.getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * Start the DataHandlerFactory if it is a ManagedDataHandlerFactory.
+	 * @param dataHandlerFactory The factory instance.
+	 * @throws ServletException If the factory could not be started.
+	 */
+	static void startDataHandlerFactory(DataHandlerFactory dataHandlerFactory)
+			throws ServletException {
+		try {
+			DataHandlerFactoryUtil.start(dataHandlerFactory);
+		} catch (Exception e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+	}
+
+}
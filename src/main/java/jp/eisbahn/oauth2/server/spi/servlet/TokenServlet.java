@@ -31,6 +31,7 @@ import jp.eisbahn.oauth2.server.async.Handler;
 import org.apache.commons.io.IOUtils;
 
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactoryUtil;
 import jp.eisbahn.oauth2.server.endpoint.Token;
 import jp.eisbahn.oauth2.server.endpoint.Token.Response;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
@@ -65,6 +66,9 @@ import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
  * &nbsp;&nbsp;&lt;/init-param&gt;<br />
  * &lt;/servlet&gt;
  * </code>
+ * <br />
+ * The "requestTimeout" init-param can be specified in milliseconds as the
+ * time limit of each request. See the Token#setTimeout() method.
  *
  * @author Yoichiro Tanaka
  *
@@ -75,14 +79,17 @@ public class TokenServlet extends HttpServlet {
 	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
 	private static final String GRANT_HANDLER_PROVIDER_CLASSNAME = "grantHandlerProvider";
 	private static final String CLIENT_CREDENTIAL_FETCHER_CLASSNAME = "clientCredentialFetcher";
+	private static final String REQUEST_TIMEOUT = "requestTimeout";
 
 	private Token token;
+	private DataHandlerFactory dataHandlerFactory;
 
 	/**
 	 * Initialize this servlet.
 	 * For instance, this method loads three implementation class name and create
 	 * these instances. Then, the Token instance to process the
 	 * OAuth 2.0 grant execution for the request is created with their helper instances.
+	 * If the DataHandlerFactory is a ManagedDataHandlerFactory, it is started.
 	 *
 	 * @param config The ServletConfig object.
 	 * @exception ServletException Each helper instance could not be created.
@@ -90,25 +97,40 @@ public class TokenServlet extends HttpServlet {
 	@Override
 	public void init(ServletConfig config) throws ServletException {
 		try {
-			DataHandlerFactory dataHandlerFactory = getDataHandlerFactory(config);
+			dataHandlerFactory = ServletUtil.createInstance(
+				config.getInitParameter(DATA_HANDLER_FACTORY_CLASSNAME));
 			GrantHandlerProvider grantHandlerProvider = getGrantHandlerProvider(config);
 			ClientCredentialFetcher clientCredentialFetcher = getClientCredentialFetcher(config);
 			token = new Token();
 			token.setDataHandlerFactory(dataHandlerFactory);
 			token.setGrantHandlerProvider(grantHandlerProvider);
 			token.setClientCredentialFetcher(clientCredentialFetcher);
-		} catch (ClassNotFoundException e) {
-			throw new ServletException(e.getMessage(), e);
-		} catch (InstantiationException e) {
+			String timeout = config.getInitParameter(REQUEST_TIMEOUT);
+			if (timeout != null) {
+				token.setTimeout(Long.parseLong(timeout.trim()));
+			}
+		} catch (NumberFormatException e) {
 			throw new ServletException(e.getMessage(), e);
-		} catch (IllegalAccessException e) {
+		} catch (ReflectiveOperationException e) {
 			throw new ServletException(e.getMessage(), e);
 		}
+		ServletUtil.startDataHandlerFactory(dataHandlerFactory);
+	}
+
+	/**
+	 * Destroy this servlet. If the DataHandlerFactory is a
+	 * ManagedDataHandlerFactory, it is stopped.
+	 */
+	@Override
+	public void destroy() {
+		DataHandlerFactoryUtil.stop(dataHandlerFactory);
+		super.destroy();
 	}
 
 	private ClientCredentialFetcher getClientCredentialFetcher(ServletConfig config)
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		ClientCredentialFetcher fetcher = createInstance(CLIENT_CREDENTIAL_FETCHER_CLASSNAME, config);
+			throws ReflectiveOperationException {
+		ClientCredentialFetcher fetcher = ServletUtil.createInstance(
+				config.getInitParameter(CLIENT_CREDENTIAL_FETCHER_CLASSNAME));
 		if (fetcher != null) {
 			return fetcher;
 		} else {
@@ -117,8 +139,9 @@ public class TokenServlet extends HttpServlet {
 	}
 
 	private GrantHandlerProvider getGrantHandlerProvider(ServletConfig config)
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		GrantHandlerProvider provider = createInstance(GRANT_HANDLER_PROVIDER_CLASSNAME, config);
+			throws ReflectiveOperationException {
+		GrantHandlerProvider provider = ServletUtil.createInstance(
+				config.getInitParameter(GRANT_HANDLER_PROVIDER_CLASSNAME));
 		if (provider != null) {
 			return provider;
 		} else {
@@ -126,21 +149,12 @@ public class TokenServlet extends HttpServlet {
 		}
 	}
 
-	private DataHandlerFactory getDataHandlerFactory(ServletConfig config)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		return createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
-	}
-
-	@SuppressWarnings("unchecked")
-	private <T> T createInstance(String name, ServletConfig config)
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		String className = config.getInitParameter(name);
-		if (className != null) {
-			Class<?> clazz = Class.forName(className);
-			return (T)clazz.newInstance();
-		} else {
-			return null;
-		}
+	/**
+	 * Retrieve the Token instance created by the init() method.
+	 * @return The Token instance.
+	 */
+	protected Token getToken() {
+		return token;
 	}
 
 	/**
@@ -155,22 +169,32 @@ public class TokenServlet extends HttpServlet {
 		token.handleRequest(request, new Handler<Response>() {
 			@Override
 			public void handle(Response response) {
-				try {
-					resp.setStatus(response.getCode());
-					resp.setContentType("application/json; charset=UTF-8");
-					PrintWriter writer = resp.getWriter();
-					IOUtils.write(response.getBody(), writer);
-					writer.flush();
-				} catch (IOException e) {
-					try {
-						resp.sendError(500, e.getMessage());
-					} catch (IOException e1) {
-						resp.setStatus(500);
-						resp.resetBuffer();
-					}
-				}
+				writeResponse(resp, response);
 			}
 		});
 	}
 
+	/**
+	 * Write the result of the token endpoint to the servlet response.
+	 *
+	 * @param resp The response object.
+	 * @param response The result of the token endpoint.
+	 */
+	protected void writeResponse(HttpServletResponse resp, Response response) {
+		try {
+			resp.setStatus(response.getCode());
+			resp.setContentType("application/json; charset=UTF-8");
+			PrintWriter writer = resp.getWriter();
+			IOUtils.write(response.getBody(), writer);
+			writer.flush();
+		} catch (IOException e) {
+			try {
+				resp.sendError(500, e.getMessage());
+			} catch (IOException e1) {
+				resp.setStatus(500);
+				resp.resetBuffer();
+			}
+		}
+	}
+
 }
\ No newline at end of file
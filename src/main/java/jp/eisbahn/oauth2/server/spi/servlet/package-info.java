@@ -47,6 +47,15 @@
  * String body = response.getBody(); // {"token_type":"Bearer","access_token":"...", ...}<br />
  * </code><br />
  * An code for an integration test has the request and response contents of each grant type.
- * Refer the test code TokenScenarioTest.
+ * Refer the test code TokenScenarioTest.<br />
+ * <br />
+ * TokenServlet and ProtectedResourceFilter expect that the DataHandler calls
+ * the handler before the container method returns. When your DataHandler
+ * completes on other threads, use AsyncTokenServlet and
+ * AsyncProtectedResourceFilter. They park the request with the AsyncContext
+ * of the Servlet 3.0 API while the DataHandler is working.<br />
+ * <br />
+ * IntrospectionServlet validates tokens sent by resource servers in other
+ * processes, so that they do not need their own DataHandler.
  */
 package jp.eisbahn.oauth2.server.spi.servlet;
\ No newline at end of file
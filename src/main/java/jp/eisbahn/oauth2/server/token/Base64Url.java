@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+/**
+ * This class encodes and decodes the URL-safe BASE64 without padding.
+ * 
+ * The Base64 class of the commons-codec allocates a large work buffer per
+ * call, therefore this class is used for short tokens validated per request.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+final class Base64Url {
+
+	private static final char[] ALPHABET =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = -1;
+		}
+		for (int i = 0; i < ALPHABET.length; i++) {
+			DECODE_TABLE[ALPHABET[i]] = (byte)i;
+		}
+	}
+
+	private Base64Url() {
+	}
+
+	/**
+	 * Encode the bytes.
+	 * @param source The bytes.
+	 * @return The encoded string.
+	 */
+	static String encode(byte[] source) {
+		char[] result = new char[encodedLength(source.length)];
+		encode(source, 0, source.length, result, 0);
+		return new String(result);
+	}
+
+	/**
+	 * Retrieve the number of the characters to encode the bytes.
+	 * @param length The number of the bytes.
+	 * @return The number of the characters.
+	 */
+	static int encodedLength(int length) {
+		return (length * 4 + 2) / 3;
+	}
+
+	/**
+	 * Encode the part of the bytes into the characters.
+	 * @param source The bytes.
+	 * @param offset The index of the first byte.
+	 * @param length The number of the bytes.
+	 * @param result The array which receives the characters.
+	 * @param position The index of the first character in the array.
+	 * @return The index after the last character.
+	 */
+	static int encode(byte[] source, int offset, int length, char[] result, int position) {
+		int end = offset + length;
+		int j = position;
+		int i = offset;
+		for (; i + 2 < end; i += 3) {
+			int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+			result[j++] = ALPHABET[bits >>> 18];
+			result[j++] = ALPHABET[(bits >>> 12) & 0x3f];
+			result[j++] = ALPHABET[(bits >>> 6) & 0x3f];
+			result[j++] = ALPHABET[bits & 0x3f];
+		}
+		int remaining = end - i;
+		if (remaining == 1) {
+			int bits = (source[i] & 0xff) << 16;
+			result[j++] = ALPHABET[bits >>> 18];
+			result[j++] = ALPHABET[(bits >>> 12) & 0x3f];
+		} else if (remaining == 2) {
+			int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8;
+			result[j++] = ALPHABET[bits >>> 18];
+			result[j++] = ALPHABET[(bits >>> 12) & 0x3f];
+			result[j++] = ALPHABET[(bits >>> 6) & 0x3f];
+		}
+		return j;
+	}
+
+	/**
+	 * Decode the part of the string.
+	 * @param source The string.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 * @return The decoded bytes. If the part has any invalid character or
+	 * an invalid length, return null.
+	 */
+	static byte[] decode(String source, int start, int end) {
+		int length = end - start;
+		if (length % 4 == 1) {
+			return null;
+		}
+		byte[] result = new byte[length * 3 / 4];
+		int bits = 0;
+		int count = 0;
+		int j = 0;
+		for (int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			int value = c < 128 ? DECODE_TABLE[c] : -1;
+			if (value < 0) {
+				return null;
+			}
+			bits = bits << 6 | value;
+			count++;
+			if (count == 4) {
+				result[j++] = (byte)(bits >>> 16);
+				result[j++] = (byte)(bits >>> 8);
+				result[j++] = (byte)bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count == 2) {
+			result[j++] = (byte)(bits >>> 4);
+		} else if (count == 3) {
+			result[j++] = (byte)(bits >>> 10);
+			result[j++] = (byte)(bits >>> 2);
+		}
+		return result;
+	}
+
+}
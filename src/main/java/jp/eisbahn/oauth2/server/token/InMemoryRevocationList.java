@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec.Claims;
+
+/**
+ * This class is an implementation of the RevocationList interface which keeps
+ * revoked authorizations in memory.
+ * 
+ * When an authorization is revoked, all tokens issued for it until then are
+ * rejected. The entry is kept for the retention period, which should be the
+ * longest expires_in value of your tokens, and is removed after that because
+ * all tokens issued before the revocation have expired. The entries are
+ * scanned at most once per purge interval by the revoke() method, so that
+ * revoking does not scan all entries each time.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryRevocationList implements RevocationList {
+
+	/** The default retention period in milliseconds. */
+	public static final long DEFAULT_RETENTION = 60 * 60 * 1000L;
+
+	/** The default interval to remove the old entries in milliseconds. */
+	public static final long DEFAULT_PURGE_INTERVAL = 60 * 1000L;
+
+	private final ConcurrentMap<String, Long> revoked = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong nextPurge = new AtomicLong();
+	private long retention = DEFAULT_RETENTION;
+	private long purgeInterval = DEFAULT_PURGE_INTERVAL;
+
+	/**
+	 * Set the retention period of each entry.
+	 * @param retention The retention period in milliseconds.
+	 */
+	public void setRetention(long retention) {
+		this.retention = retention;
+	}
+
+	/**
+	 * Retrieve the retention period of each entry.
+	 * @return The retention period in milliseconds.
+	 */
+	public long getRetention() {
+		return retention;
+	}
+
+	/**
+	 * Set the minimum interval between the scans to remove the old entries.
+	 * @param purgeInterval The interval in milliseconds.
+	 */
+	public void setPurgeInterval(long purgeInterval) {
+		this.purgeInterval = purgeInterval;
+	}
+
+	/**
+	 * Retrieve the minimum interval between the scans to remove the old
+	 * entries.
+	 * @return The interval in milliseconds.
+	 */
+	public long getPurgeInterval() {
+		return purgeInterval;
+	}
+
+	/**
+	 * Revoke all tokens issued for the authorization until now.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void revoke(String authId) {
+		long now = currentTimeMillis();
+		revoked.put(authId, now);
+		long next = nextPurge.get();
+		if (now >= next && nextPurge.compareAndSet(next, now + purgeInterval)) {
+			purge(now);
+		}
+	}
+
+	/**
+	 * Judge whether the token was issued for a revoked authorization before
+	 * the revocation.
+	 * @param claims The claims in the signed token.
+	 * @return True if the token has been revoked.
+	 */
+	@Override
+	public boolean isRevoked(Claims claims) {
+		if (claims.getAuthId() == null) {
+			return false;
+		}
+		Long revokedAt = revoked.get(claims.getAuthId());
+		return revokedAt != null && claims.getIssuedAt() <= revokedAt;
+	}
+
+	/**
+	 * Retrieve the number of entries kept currently.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return revoked.size();
+	}
+
+	/**
+	 * Remove the entries whose retention period has passed.
+	 * @param now The current time in milliseconds.
+	 */
+	public void purge(long now) {
+		Iterator<Map.Entry<String, Long>> iterator = revoked.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue() + retention <= now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in milliseconds.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+}
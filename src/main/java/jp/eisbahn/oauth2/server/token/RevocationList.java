@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec.Claims;
+
+/**
+ * This interface defines how to check whether a signed token has been revoked.
+ * A signed token is validated without any lookup to your database, therefore
+ * a revoked authorization is rejected only if it is registered to this list
+ * until all tokens issued for it expire.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface RevocationList {
+
+	/**
+	 * Judge whether the token having the claims has been revoked.
+	 * @param claims The claims in the signed token.
+	 * @return True if the token must be rejected.
+	 */
+	public boolean isRevoked(Claims claims);
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * This class generates the tokens from the random bytes of a SecureRandom,
+ * encoded with the URL-safe BASE64 without padding.
+ * 
+ * Calling a shared SecureRandom for each token makes the threads wait for
+ * each other. Therefore, each thread draws a block of the random bytes at
+ * once into its own buffer, and cuts the tokens from it. The token is encoded
+ * into the buffer of the thread too, so only the result string is allocated.
+ * The used bytes and characters are cleared from the buffer. A thread which issues a few
+ * tokens only, like a virtual thread created per request, should use a small
+ * block size.
+ * 
+ * The prefix, like the ID of the shard which stores the token, can be added
+ * to each token to route the requests without a lookup. It is neither secret
+ * nor random, and the length of the random part does not depend on it.
+ * 
+ * This instance is thread-safe.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class SecureTokenGenerator implements TokenGenerator {
+
+	/** The default number of the random bytes of a token. */
+	public static final int DEFAULT_TOKEN_BYTES = 32;
+
+	/** The default number of the random bytes drawn by a thread at once. */
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	private SecureRandom random = new SecureRandom();
+	private int tokenBytes = DEFAULT_TOKEN_BYTES;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private String prefix = "";
+
+	private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+
+	/**
+	 * Set the SecureRandom instance which the blocks are drawn from.
+	 * @param random The SecureRandom instance.
+	 */
+	public void setSecureRandom(SecureRandom random) {
+		this.random = random;
+	}
+
+	/**
+	 * Set the number of the random bytes of a token. The token has 4
+	 * characters per 3 bytes.
+	 * @param tokenBytes The number of the bytes.
+	 */
+	public void setTokenBytes(int tokenBytes) {
+		this.tokenBytes = tokenBytes;
+	}
+
+	/**
+	 * Set the number of the random bytes drawn by a thread at once.
+	 * @param blockSize The number of the bytes.
+	 */
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Set the string added to the head of each token.
+	 * @param prefix The prefix which consists of the alphabets, the digits,
+	 * "-", ".", "_" and "~", or null not to add it.
+	 * @throws IllegalArgumentException If the prefix has other characters.
+	 */
+	public void setPrefix(String prefix) {
+		if (prefix == null) {
+			prefix = "";
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+					|| c == '-' || c == '.' || c == '_' || c == '~')) {
+				throw new IllegalArgumentException("The prefix has an invalid character: " + prefix);
+			}
+		}
+		this.prefix = prefix;
+	}
+
+	@Override
+	public String generate() {
+		return buffers.get().next();
+	}
+
+	/**
+	 * This class has the random bytes and the characters of a thread.
+	 */
+	private class Buffer {
+
+		private byte[] block = new byte[0];
+		private int position;
+		private char[] chars = new char[0];
+
+		private String next() {
+			int bytes = tokenBytes;
+			if (block.length - position < bytes) {
+				int size = Math.max(blockSize, bytes);
+				if (block.length != size) {
+					block = new byte[size];
+				}
+				random.nextBytes(block);
+				position = 0;
+			}
+			String head = prefix;
+			int length = head.length() + Base64Url.encodedLength(bytes);
+			if (chars.length < length) {
+				chars = new char[length];
+			}
+			head.getChars(0, head.length(), chars, 0);
+			int end = Base64Url.encode(block, position, bytes, chars, head.length());
+			Arrays.fill(block, position, position + bytes, (byte)0);
+			position += bytes;
+			String token = new String(chars, 0, end);
+			Arrays.fill(chars, 0, end, '\0');
+			return token;
+		}
+
+	}
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class encodes the information about an authorization into a
+ * self-contained access token signed with HMAC-SHA256, and decodes it.
+ * 
+ * The token has the format "[payload].[signature]". Both parts are encoded
+ * with the URL-safe BASE64 without padding. The payload has the
+ * authorization ID, the client ID, the user's ID, the scope string, the time
+ * when the token was issued and the expires_in value. Because the token
+ * itself has these information, the resource server can validate it without
+ * any lookup to your database.
+ * 
+ * This instance is thread-safe.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class SignedTokenCodec {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int VERSION = 1;
+	private static final char SEPARATOR = '.';
+
+	private final SecretKeySpec key;
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * Initialize this instance with the secret key.
+	 * @param secret The secret key shared by the authorization server and
+	 * resource servers. It should have 32 bytes or more.
+	 */
+	public SignedTokenCodec(byte[] secret) {
+		super();
+		if (secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("secret must not be empty.");
+		}
+		key = new SecretKeySpec(secret.clone(), ALGORITHM);
+		macs.get();
+	}
+
+	/**
+	 * Encode the claims into a signed token string.
+	 * @param claims The information about the authorization.
+	 * @return The signed token string.
+	 */
+	public String encode(Claims claims) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			writeString(out, claims.getAuthId());
+			writeString(out, claims.getClientId());
+			writeString(out, claims.getUserId());
+			writeString(out, claims.getScope());
+			out.writeLong(claims.getIssuedAt());
+			out.writeLong(claims.getExpiresIn());
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		String payload = Base64Url.encode(bytes.toByteArray());
+		return payload + SEPARATOR + Base64Url.encode(sign(payload, payload.length()));
+	}
+
+	/**
+	 * Decode the signed token string and verify its signature.
+	 * The expiration is not checked by this method.
+	 * @param token The token string.
+	 * @return The claims in the token. If the token is not a signed token or
+	 * the signature is invalid, return null.
+	 */
+	public Claims decode(String token) {
+		if (token == null) {
+			return null;
+		}
+		int separator = token.indexOf(SEPARATOR);
+		if (separator <= 0 || separator != token.lastIndexOf(SEPARATOR)) {
+			return null;
+		}
+		byte[] signature = Base64Url.decode(token, separator + 1, token.length());
+		if (signature == null || !MessageDigest.isEqual(sign(token, separator), signature)) {
+			return null;
+		}
+		byte[] payload = Base64Url.decode(token, 0, separator);
+		if (payload == null) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		try {
+			if (in.readByte() != VERSION) {
+				return null;
+			}
+			Claims claims = new Claims();
+			claims.setAuthId(readString(in));
+			claims.setClientId(readString(in));
+			claims.setUserId(readString(in));
+			claims.setScope(readString(in));
+			claims.setIssuedAt(in.readLong());
+			claims.setExpiresIn(in.readLong());
+			return claims;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private byte[] sign(String token, int length) {
+		byte[] payload = new byte[length];
+		for (int i = 0; i < length; i++) {
+			payload[i] = (byte)token.charAt(i);
+		}
+		return macs.get().doFinal(payload);
+	}
+
+	private void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * This class has the information carried by a signed token.
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Claims {
+
+		private String authId;
+		private String clientId;
+		private String userId;
+		private String scope;
+		private long issuedAt;
+		private long expiresIn;
+
+		/**
+		 * Set the ID of the authorization information.
+		 * @param authId The ID string.
+		 */
+		public void setAuthId(String authId) {
+			this.authId = authId;
+		}
+
+		/**
+		 * Retrieve the ID of the authorization information.
+		 * @return The ID string.
+		 */
+		public String getAuthId() {
+			return authId;
+		}
+
+		/**
+		 * Set the client ID.
+		 * @param clientId The client ID.
+		 */
+		public void setClientId(String clientId) {
+			this.clientId = clientId;
+		}
+
+		/**
+		 * Retrieve the client ID.
+		 * @return The client ID.
+		 */
+		public String getClientId() {
+			return clientId;
+		}
+
+		/**
+		 * Set the user's ID.
+		 * @param userId The user's ID.
+		 */
+		public void setUserId(String userId) {
+			this.userId = userId;
+		}
+
+		/**
+		 * Retrieve the user's ID.
+		 * @return The user's ID.
+		 */
+		public String getUserId() {
+			return userId;
+		}
+
+		/**
+		 * Set the scope string.
+		 * @param scope The scope string.
+		 */
+		public void setScope(String scope) {
+			this.scope = scope;
+		}
+
+		/**
+		 * Retrieve the scope string.
+		 * @return The scope string.
+		 */
+		public String getScope() {
+			return scope;
+		}
+
+		/**
+		 * Set the time when the token was issued.
+		 * @param issuedAt The time in milliseconds.
+		 */
+		public void setIssuedAt(long issuedAt) {
+			this.issuedAt = issuedAt;
+		}
+
+		/**
+		 * Retrieve the time when the token was issued.
+		 * @return The time in milliseconds.
+		 */
+		public long getIssuedAt() {
+			return issuedAt;
+		}
+
+		/**
+		 * Set the expiration time of the token.
+		 * @param expiresIn The expiration time value. The unit is second.
+		 */
+		public void setExpiresIn(long expiresIn) {
+			this.expiresIn = expiresIn;
+		}
+
+		/**
+		 * Retrieve the expiration time of the token.
+		 * @return The expiration time value. The unit is second.
+		 */
+		public long getExpiresIn() {
+			return expiresIn;
+		}
+
+		/**
+		 * Judge whether the token has already expired.
+		 * @param now The current time in milliseconds.
+		 * @return True if the expiration time has passed.
+		 */
+		public boolean isExpired(long now) {
+			return issuedAt + expiresIn * 1000 <= now;
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+/**
+ * This interface generates the random strings used as the access tokens, the
+ * refresh tokens and the authorization codes.
+ * 
+ * Set the instance to the grant handlers, and it is passed to your
+ * DataHandler through the RequestContext. Call the generateToken() method of
+ * the DataHandler to use it.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface TokenGenerator {
+
+	/**
+	 * Generate a new token. This method is called by many threads
+	 * concurrently.
+	 * @return The token string which is safe in URLs and headers.
+	 */
+	String generate();
+
+}
@@ -35,6 +35,8 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public class Util {
 
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	/**
 	 * Decode the URL encoded string.
 	 * @param source The URL encoded string.
@@ -63,14 +65,15 @@ public class Util {
 
 	/**
 	 * Encode the object to JSON format string.
+	 * The ObjectMapper is shared by all calls, because its serializer cache
+	 * is expensive to build and the mapper is thread-safe once configured.
 	 * @param source The object that you want to change to JSON string.
 	 * @return The JSON encoded string.
 	 * @throws IllegalStateException If the translation failed.
 	 */
 	public static String toJson(Object source) {
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			return mapper.writeValueAsString(source);
+			return MAPPER.writeValueAsString(source);
 		} catch (JsonGenerationException e) {
 			throw new IllegalStateException(e);
 		} catch (JsonMappingException e) {
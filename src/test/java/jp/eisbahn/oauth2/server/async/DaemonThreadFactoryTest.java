@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.Test;
+
+public class DaemonThreadFactoryTest {
+
+	@Test
+	public void testNewThread() {
+		DaemonThreadFactory target = new DaemonThreadFactory("oauth2-test");
+		Thread first = target.newThread(null);
+		Thread second = target.newThread(null);
+		assertTrue(first.isDaemon());
+		assertEquals("oauth2-test-1", first.getName());
+		assertEquals("oauth2-test-2", second.getName());
+	}
+
+	@Test
+	public void testNewScheduler() {
+		ScheduledThreadPoolExecutor target = DaemonThreadFactory.newScheduler("oauth2-test");
+		try {
+			assertEquals(1, target.getCorePoolSize());
+			assertTrue(target.getRemoveOnCancelPolicy());
+			assertTrue(target.getThreadFactory() instanceof DaemonThreadFactory);
+		} finally {
+			target.shutdownNow();
+		}
+	}
+
+}
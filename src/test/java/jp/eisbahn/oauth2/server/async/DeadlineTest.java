@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+	private static final OAuthError TIMEOUT =
+			new OAuthError.TemporarilyUnavailable("timeout");
+
+	private static class Counter implements Cancellable {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void cancel() {
+			count.incrementAndGet();
+		}
+
+	}
+
+	@Test
+	public void testRemaining() throws Exception {
+		Deadline target = new Deadline(60000, null);
+		assertFalse(target.isExpired());
+		assertTrue(target.getRemaining() > 50000);
+		target = new Deadline(0, null);
+		assertTrue(target.isExpired());
+		assertEquals(0, target.getRemaining());
+	}
+
+	@Test
+	public void testGuardCompletedPromise() throws Exception {
+		Promise<String> promise = Promise.of("a");
+		Counter counter = new Counter();
+		assertSame(promise, new Deadline(0, null).guard(promise, TIMEOUT, counter));
+		assertEquals(0, counter.count.get());
+	}
+
+	@Test
+	public void testGuardInTime() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Promise<String> promise = new Promise<String>();
+			Counter counter = new Counter();
+			Promise<String> target = new Deadline(60000, scheduler).guard(promise, TIMEOUT, counter);
+			assertFalse(target.isDone());
+			promise.complete("b");
+			assertTrue(target.isDone());
+			assertEquals("b", DeadlineTest.<String>get(target));
+			assertEquals(0, counter.count.get());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testGuardExpired() throws Exception {
+		Promise<String> promise = new Promise<String>();
+		Counter counter = new Counter();
+		Promise<String> target = new Deadline(20, null).guard(promise, TIMEOUT, counter);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<Try<OAuthError, String>> results = new ArrayList<Try<OAuthError, String>>();
+		target.onComplete(new Handler<Try<OAuthError, String>>() {
+			@Override
+			public void handle(Try<OAuthError, String> event) {
+				results.add(event);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		try {
+			results.get(0).get();
+		} catch (OAuthError e) {
+			assertSame(TIMEOUT, e);
+		}
+		assertEquals(1, counter.count.get());
+		promise.complete("late");
+		assertEquals(1, results.size());
+		assertEquals(1, counter.count.get());
+	}
+
+	@Test
+	public void testGuardAlreadyExpired() throws Exception {
+		Counter counter = new Counter();
+		Promise<String> target = new Deadline(0, null).guard(new Promise<String>(), TIMEOUT, counter);
+		assertTrue(target.isDone());
+		assertEquals(1, counter.count.get());
+	}
+
+	private static <T> T get(Promise<T> promise) throws OAuthError {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+			}
+		});
+		return results.get(0).get();
+	}
+
+}
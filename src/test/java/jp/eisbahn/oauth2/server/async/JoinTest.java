@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+import org.junit.Test;
+
+public class JoinTest {
+
+	private static <A, B> Try<OAuthError, Join<A, B>> result(Join<A, B> join) {
+		final List<Try<OAuthError, Join<A, B>>> results =
+				new ArrayList<Try<OAuthError, Join<A, B>>>();
+		join.onComplete(new Handler<Try<OAuthError, Join<A, B>>>() {
+			@Override
+			public void handle(Try<OAuthError, Join<A, B>> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	@Test
+	public void testOfCompletedPromises() throws Exception {
+		Join<String, Integer> target = Join.of(Promise.of("a"), Promise.of(1));
+		assertTrue(target.isDone());
+		assertSame(target, result(target).get());
+		assertEquals("a", target.getFirst());
+		assertEquals(Integer.valueOf(1), target.getSecond());
+	}
+
+	@Test
+	public void testOfPendingPromises() throws Exception {
+		Promise<String> first = new Promise<String>();
+		Promise<Integer> second = new Promise<Integer>();
+		Join<String, Integer> target = Join.of(first, second);
+		second.complete(2);
+		assertFalse(target.isDone());
+		first.complete("b");
+		assertTrue(target.isDone());
+		result(target).get();
+		assertEquals("b", target.getFirst());
+		assertEquals(Integer.valueOf(2), target.getSecond());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		Promise<String> first = new Promise<String>();
+		Join<String, Integer> target = Join.of(first,
+				Promise.<Integer>failed(new OAuthError.InvalidToken("second")));
+		assertFalse(target.isDone());
+		first.complete("c");
+		try {
+			result(target).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("second", e.getDescription());
+		}
+		assertEquals("c", target.getFirst());
+		assertNull(target.getSecond());
+	}
+
+	@Test
+	public void testBothFailedUsesFirstError() throws Exception {
+		Promise<String> first = new Promise<String>();
+		Promise<Integer> second = new Promise<Integer>();
+		Join<String, Integer> target = Join.of(first, second);
+		second.fail(new OAuthError.InvalidToken("second"));
+		first.fail(new OAuthError.InvalidToken("first"));
+		try {
+			result(target).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("first", e.getDescription());
+		}
+	}
+
+	@Test
+	public void testHandlers() throws Exception {
+		Join<Boolean, Boolean> target = new Join<Boolean, Boolean>();
+		Handler<Boolean> first = target.first();
+		Handler<Boolean> second = target.second();
+		first.handle(true);
+		assertFalse(target.isDone());
+		second.handle(false);
+		assertTrue(target.isDone());
+		assertEquals(Boolean.TRUE, result(target).get().getFirst());
+		assertEquals(Boolean.FALSE, target.getSecond());
+	}
+
+	@Test
+	public void testConcurrentArrival() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			final Join<Integer, Integer> target = new Join<Integer, Integer>();
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(1);
+			final int value = i;
+			target.onValue(new Handler<Join<Integer, Integer>>() {
+				@Override
+				public void handle(Join<Integer, Integer> event) {
+					assertEquals(Integer.valueOf(value), event.getFirst());
+					assertEquals(Integer.valueOf(-value), event.getSecond());
+					done.countDown();
+				}
+			});
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					target.second().handle(-value);
+				}
+			});
+			thread.start();
+			start.countDown();
+			target.first().handle(value);
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			thread.join();
+		}
+	}
+
+}
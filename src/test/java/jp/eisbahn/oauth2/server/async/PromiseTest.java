@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+
+import org.junit.Test;
+
+public class PromiseTest {
+
+	private static class Capture<T> implements Handler<Try<OAuthError, T>> {
+
+		private int count;
+		private Try<OAuthError, T> result;
+
+		@Override
+		public void handle(Try<OAuthError, T> event) {
+			count++;
+			result = event;
+		}
+
+		T get() throws OAuthError {
+			assertEquals(1, count);
+			return result.get();
+		}
+
+	}
+
+	private static final Function<String, Integer> LENGTH = new Function<String, Integer>() {
+		@Override
+		public Integer apply(String value) throws OAuthError {
+			if (value == null) {
+				throw new OAuthError.InvalidRequest("null");
+			}
+			return value.length();
+		}
+	};
+
+	@Test
+	public void testCompleted() throws Exception {
+		Promise<String> target = Promise.of("abc");
+		assertTrue(target.isDone());
+		assertFalse(target.complete("def"));
+		assertFalse(target.fail(new OAuthError.InvalidGrant("")));
+		Capture<Integer> capture = new Capture<Integer>();
+		target.map(LENGTH).onComplete(capture);
+		assertEquals(Integer.valueOf(3), capture.get());
+	}
+
+	@Test
+	public void testPending() throws Exception {
+		Promise<String> target = new Promise<String>();
+		Capture<Integer> capture = new Capture<Integer>();
+		target.map(LENGTH).onComplete(capture);
+		assertFalse(target.isDone());
+		assertEquals(0, capture.count);
+		target.handle("abcd");
+		assertTrue(target.isDone());
+		assertEquals(Integer.valueOf(4), capture.get());
+		assertFalse(target.complete("ignored"));
+		assertEquals(1, capture.count);
+	}
+
+	@Test
+	public void testThen() throws Exception {
+		final Promise<Integer> inner = new Promise<Integer>();
+		Promise<String> target = new Promise<String>();
+		Capture<Integer> capture = new Capture<Integer>();
+		target.then(new Function<String, Promise<Integer>>() {
+			@Override
+			public Promise<Integer> apply(String value) {
+				return inner;
+			}
+		}).onComplete(capture);
+		target.complete("a");
+		assertEquals(0, capture.count);
+		inner.complete(10);
+		assertEquals(Integer.valueOf(10), capture.get());
+	}
+
+	@Test
+	public void testThenReturnsPromiseWhenCompleted() throws Exception {
+		final Promise<Integer> inner = Promise.of(1);
+		Promise<Integer> result = Promise.of("a").then(new Function<String, Promise<Integer>>() {
+			@Override
+			public Promise<Integer> apply(String value) {
+				return inner;
+			}
+		});
+		assertSame(inner, result);
+	}
+
+	@Test
+	public void testThenNull() throws Exception {
+		Promise<String> target = new Promise<String>();
+		Capture<Object> capture = new Capture<Object>();
+		target.then(new Function<String, Promise<Object>>() {
+			@Override
+			public Promise<Object> apply(String value) {
+				return null;
+			}
+		}).onComplete(capture);
+		target.complete("a");
+		assertNull(capture.get());
+		Capture<Object> completed = new Capture<Object>();
+		Promise.of("a").then(new Function<String, Promise<Object>>() {
+			@Override
+			public Promise<Object> apply(String value) {
+				return null;
+			}
+		}).onComplete(completed);
+		assertNull(completed.get());
+	}
+
+	@Test
+	public void testFailureSkipsSteps() throws Exception {
+		final List<String> called = new ArrayList<String>();
+		Function<Integer, Integer> step = new Function<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer value) {
+				called.add("step");
+				return value;
+			}
+		};
+		Promise<String> pending = new Promise<String>();
+		Capture<Integer> capture = new Capture<Integer>();
+		pending.map(LENGTH).map(step).onComplete(capture);
+		pending.complete(null);
+		try {
+			capture.get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError.InvalidRequest e) {
+			assertEquals("null", e.getDescription());
+		}
+
+		OAuthError error = new OAuthError.InvalidGrant("failed");
+		Capture<Integer> failed = new Capture<Integer>();
+		Promise.<String>failed(error).map(LENGTH).map(step).onComplete(failed);
+		try {
+			failed.get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertSame(error, e);
+		}
+		assertTrue(called.isEmpty());
+	}
+
+	@Test
+	public void testRecover() throws Exception {
+		Function<OAuthError, String> recovery = new Function<OAuthError, String>() {
+			@Override
+			public String apply(OAuthError value) {
+				return value.getType();
+			}
+		};
+		Promise<String> ok = Promise.of("ok");
+		assertSame(ok, ok.recover(recovery));
+
+		Capture<String> completed = new Capture<String>();
+		Promise.<String>failed(new OAuthError.InvalidGrant("")).recover(recovery).onComplete(completed);
+		assertEquals("invalid_grant", completed.get());
+
+		Promise<String> pending = new Promise<String>();
+		Capture<String> capture = new Capture<String>();
+		pending.recover(recovery).onComplete(capture);
+		pending.fail(new OAuthError.InvalidClient(""));
+		assertEquals("invalid_client", capture.get());
+	}
+
+	@Test
+	public void testOnValue() throws Exception {
+		final List<String> values = new ArrayList<String>();
+		Handler<String> handler = new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				values.add(event);
+			}
+		};
+		Promise<String> pending = new Promise<String>();
+		pending.onValue(handler);
+		pending.complete("a");
+		Promise.of("b").onValue(handler);
+		Promise.<String>failed(new OAuthError.InvalidGrant("")).onValue(handler);
+		assertEquals(3, values.size());
+		assertEquals("a", values.get(0));
+		assertEquals("b", values.get(1));
+		assertNull(values.get(2));
+	}
+
+	@Test
+	public void testAsTryHandler() throws Exception {
+		Promise<String> target = new Promise<String>();
+		target.asTryHandler().handle(new Try<OAuthError, String>("a"));
+		Capture<String> capture = new Capture<String>();
+		target.onComplete(capture);
+		assertEquals("a", capture.get());
+
+		OAuthError error = new OAuthError.InvalidGrant("");
+		Promise<String> failed = new Promise<String>();
+		failed.asTryHandler().handle(new Try<OAuthError, String>(error));
+		Capture<String> failure = new Capture<String>();
+		failed.onComplete(failure);
+		try {
+			failure.get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertSame(error, e);
+		}
+	}
+
+	@Test
+	public void testCallbackOrder() throws Exception {
+		final List<Integer> order = new ArrayList<Integer>();
+		Promise<String> target = new Promise<String>();
+		for (int i = 0; i < 3; i++) {
+			final int index = i;
+			target.onValue(new Handler<String>() {
+				@Override
+				public void handle(String event) {
+					order.add(index);
+				}
+			});
+		}
+		target.complete("a");
+		assertEquals(3, order.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(Integer.valueOf(i), order.get(i));
+		}
+	}
+
+	@Test
+	public void testThrowingFunction() throws Exception {
+		final IllegalStateException cause = new IllegalStateException("broken");
+		Function<Object, Integer> broken = new Function<Object, Integer>() {
+			@Override
+			public Integer apply(Object value) {
+				throw cause;
+			}
+		};
+		Function<Object, Promise<Integer>> brokenThen = new Function<Object, Promise<Integer>>() {
+			@Override
+			public Promise<Integer> apply(Object value) {
+				throw cause;
+			}
+		};
+		List<Promise<Integer>> results = new ArrayList<Promise<Integer>>();
+		results.add(Promise.of("a").map(broken));
+		results.add(Promise.of("a").then(brokenThen));
+		results.add(Promise.<Integer>failed(new OAuthError.InvalidGrant("")).recover(broken));
+		Promise<String> pending = new Promise<String>();
+		results.add(pending.map(broken));
+		results.add(pending.then(brokenThen));
+		Promise<Integer> pendingError = new Promise<Integer>();
+		results.add(pendingError.recover(broken));
+		Capture<Integer> direct = new Capture<Integer>();
+		pending.onComplete(broken, direct);
+		pending.complete("a");
+		pendingError.fail(new OAuthError.InvalidGrant(""));
+		for (Promise<Integer> result : results) {
+			Capture<Integer> capture = new Capture<Integer>();
+			result.onComplete(capture);
+			assertServerError(cause, capture);
+		}
+		assertServerError(cause, direct);
+	}
+
+	private static void assertServerError(Throwable cause, Capture<Integer> capture) {
+		try {
+			capture.get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("server_error", e.getType());
+			assertEquals("The server encountered an unexpected error.", e.getDescription());
+			assertSame(cause, e.getCause());
+		}
+	}
+
+	@Test
+	public void testThrowingCallback() throws Exception {
+		final List<String> values = new ArrayList<String>();
+		final IllegalStateException cause = new IllegalStateException("broken");
+		Promise<String> target = new Promise<String>();
+		target.onValue(new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				throw cause;
+			}
+		});
+		target.onValue(new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				values.add(event);
+			}
+		});
+		Capture<Integer> capture = new Capture<Integer>();
+		target.map(LENGTH).onComplete(capture);
+		try {
+			target.complete("abc");
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+			assertSame(cause, e);
+		}
+		assertTrue(target.isDone());
+		assertEquals(1, values.size());
+		assertEquals("abc", values.get(0));
+		assertEquals(Integer.valueOf(3), capture.get());
+	}
+
+	@Test
+	public void testOnCompleteWithFunction() throws Exception {
+		Capture<Integer> completed = new Capture<Integer>();
+		Promise.of("abc").onComplete(LENGTH, completed);
+		assertEquals(Integer.valueOf(3), completed.get());
+
+		Promise<String> pending = new Promise<String>();
+		Capture<Integer> capture = new Capture<Integer>();
+		pending.onComplete(LENGTH, capture);
+		assertEquals(0, capture.count);
+		pending.complete(null);
+		try {
+			capture.get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("invalid_request", e.getType());
+		}
+	}
+
+	@Test
+	public void testCompleteFromAnotherThread() throws Exception {
+		final Promise<String> target = new Promise<String>();
+		Capture<Integer> capture = new Capture<Integer>();
+		final Promise<Integer> mapped = target.map(LENGTH);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				target.complete("abcde");
+			}
+		});
+		thread.start();
+		thread.join();
+		mapped.onComplete(capture);
+		assertEquals(Integer.valueOf(5), capture.get());
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.code;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryCodeStoreTest {
+
+	private long now;
+	private InMemoryCodeStore target;
+
+	@Before
+	public void setUp() {
+		now = System.currentTimeMillis();
+		target = new InMemoryCodeStore() {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void testIssueAndConsume() {
+		AuthInfo authInfo = createAuthInfo();
+		String code = target.issue(authInfo);
+		assertEquals(43, code.length());
+		assertNull(authInfo.getCode());
+		assertEquals(1, target.size());
+		assertSame(authInfo, target.consume(code));
+		assertEquals(0, target.size());
+		assertNull(target.consume(code));
+		assertNull(target.consume("unknown"));
+		assertNull(target.consume(null));
+	}
+
+	@Test
+	public void testExpiresIn() {
+		assertEquals(600L, target.getExpiresIn());
+		target.setExpiresIn(60L);
+		String code1 = target.issue(createAuthInfo());
+		String code2 = target.issue(createAuthInfo());
+		now += 59999L;
+		assertNotNull(target.consume(code1));
+		now += 1L;
+		assertNull(target.consume(code2));
+		assertEquals(1, target.size());
+		now += 1000L;
+		assertEquals(1, target.purge(now));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testPurgeAfterAuthInfoChanged() {
+		target.setExpiresIn(1L);
+		AuthInfo authInfo = createAuthInfo();
+		target.issue(authInfo);
+		authInfo.setCode("changed");
+		now += 2000L;
+		assertEquals(1, target.purge(now));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testPurgeOnIssue() {
+		target.setExpiresIn(1L);
+		for (int i = 0; i < 10; i++) {
+			target.issue(createAuthInfo());
+		}
+		assertEquals(10, target.size());
+		now += 3000L;
+		target.issue(createAuthInfo());
+		assertEquals(1, target.size());
+	}
+
+	@Test
+	public void testDuplicateCode() {
+		final String[] codes = {"code1", "code1", "code2"};
+		target.setTokenGenerator(new TokenGenerator() {
+			private int index;
+			@Override
+			public String generate() {
+				return codes[index++];
+			}
+		});
+		assertEquals("code1", target.issue(createAuthInfo()));
+		assertEquals("code2", target.issue(createAuthInfo()));
+		assertEquals(2, target.size());
+	}
+
+	@Test
+	public void testConsumeConcurrently() throws Exception {
+		final List<String> codes = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			codes.add(target.issue(createAuthInfo()));
+		}
+		final AtomicInteger consumed = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (String code : codes) {
+						if (target.consume(code) != null) {
+							consumed.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, consumed.get());
+		assertEquals(0, target.size());
+	}
+
+	private AuthInfo createAuthInfo() {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		authInfo.setClientId("clientId1");
+		authInfo.setRedirectUri("redirectUri1");
+		return authInfo;
+	}
+
+}
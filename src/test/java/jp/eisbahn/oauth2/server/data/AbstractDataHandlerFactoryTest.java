@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AbstractDataHandlerFactoryTest {
+
+	private List<String> events;
+	private AbstractDataHandlerFactory<String> target;
+
+	@Before
+	public void setUp() {
+		events = new ArrayList<String>();
+		target = new AbstractDataHandlerFactory<String>() {
+			@Override
+			protected String createResources() throws Exception {
+				events.add("createResources");
+				return "resources1";
+			}
+			@Override
+			protected void closeResources(String resources) {
+				events.add("closeResources:" + resources);
+			}
+			@Override
+			protected DataHandler createDataHandler(Request request, String resources) {
+				events.add("createDataHandler:" + resources);
+				return new ResettableDataHandler(request, events);
+			}
+		};
+	}
+
+	@Test
+	public void testStartAndStop() throws Exception {
+		assertFalse(target.isStarted());
+		target.start();
+		target.start();
+		assertTrue(target.isStarted());
+		assertEquals("resources1", target.getResources());
+		target.stop();
+		target.stop();
+		assertFalse(target.isStarted());
+		assertNull(target.getResources());
+		assertEquals(2, events.size());
+		assertEquals("createResources", events.get(0));
+		assertEquals("closeResources:resources1", events.get(1));
+	}
+
+	@Test
+	public void testCreateStartsFactory() throws Exception {
+		Request request = new DummyRequest();
+		DataHandler dataHandler = target.create(request);
+		assertTrue(target.isStarted());
+		assertSame(request, dataHandler.getRequest());
+		assertEquals("createResources", events.get(0));
+		assertEquals("createDataHandler:resources1", events.get(1));
+	}
+
+	@Test
+	public void testCreateStartFailed() throws Exception {
+		AbstractDataHandlerFactory<String> factory = new AbstractDataHandlerFactory<String>() {
+			@Override
+			protected String createResources() throws Exception {
+				throw new Exception("error1");
+			}
+			@Override
+			protected DataHandler createDataHandler(Request request, String resources) {
+				return new MockDataHandler(request);
+			}
+		};
+		try {
+			factory.create(null);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+			assertEquals("error1", e.getCause().getMessage());
+		}
+		assertFalse(factory.isStarted());
+	}
+
+	@Test
+	public void testReleaseWithoutPool() throws Exception {
+		DataHandler first = target.create(null);
+		target.release(first);
+		DataHandler second = target.create(null);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		target.setPoolSize(1);
+		assertEquals(1, target.getPoolSize());
+		Request request1 = new DummyRequest();
+		Request request2 = new DummyRequest();
+		DataHandler first = target.create(request1);
+		first.setContext(new RequestContext(request1));
+		target.release(first);
+		target.release(new MockDataHandler(null));
+		DataHandler second = target.create(request2);
+		assertSame(first, second);
+		assertSame(request2, second.getRequest());
+		assertNull(second.getContext());
+		assertEquals("reset", events.get(events.size() - 1));
+		DataHandler third = target.create(request1);
+		assertNotSame(first, third);
+	}
+
+	@Test
+	public void testCancelledNotReused() throws Exception {
+		target.setPoolSize(1);
+		DataHandler first = target.create(null);
+		first.cancel();
+		target.release(first);
+		DataHandler second = target.create(null);
+		assertNotSame(first, second);
+		assertFalse(second.isCancelled());
+	}
+
+	@Test
+	public void testStopDiscardsPool() throws Exception {
+		target.setPoolSize(1);
+		DataHandler first = target.create(null);
+		target.release(first);
+		target.stop();
+		DataHandler second = target.create(null);
+		assertNotSame(first, second);
+	}
+
+	private static class ResettableDataHandler extends MockDataHandler {
+
+		private final List<String> events;
+
+		public ResettableDataHandler(Request request, List<String> events) {
+			super(request);
+			this.events = events;
+		}
+
+		@Override
+		protected void reset() {
+			events.add("reset");
+		}
+
+	}
+
+	private static class DummyRequest implements Request {
+
+		@Override
+		public String getParameter(String name) {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> getParameterMap() {
+			return null;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static jp.eisbahn.oauth2.server.data.DataHandlerAsyncTest.get;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.junit.Test;
+
+public class AsyncDataHandlerAdapterTest {
+
+	@Test
+	public void testAdapt() throws Exception {
+		MockAsyncDataHandler async = new MockAsyncDataHandler(null);
+		assertSame(async, AsyncDataHandlerAdapter.adapt(async));
+
+		MockDataHandler sync = new MockDataHandler(null);
+		AsyncDataHandler adapted = AsyncDataHandlerAdapter.adapt(sync);
+		assertTrue(adapted instanceof AsyncDataHandlerAdapter);
+		assertSame(sync, ((AsyncDataHandlerAdapter)adapted).getDataHandler());
+	}
+
+	@Test
+	public void testDelegate() throws Exception {
+		MockDataHandler sync = new MockDataHandler(null);
+		AsyncDataHandler target = new AsyncDataHandlerAdapter(sync);
+		assertTrue(get(target.validateClient("clientId1", "clientSecret1", "password")));
+		assertFalse(get(target.validateClient("false", "clientSecret1", "password")));
+		assertEquals("username1", get(target.getUserId("username1", "password1")));
+		assertNull(get(target.getUserId("userNotFound", "password1")));
+		AuthInfo authInfo = get(target.createOrUpdateAuthInfo("clientId1", "userId1", "scope1"));
+		assertEquals("clientId1", authInfo.getClientId());
+		assertEquals(sync.createOrUpdateAccessToken(authInfo).getToken(),
+				get(target.createOrUpdateAccessToken(authInfo)).getToken());
+		assertEquals(sync.getAuthInfoByCode("code1").getClientId(),
+				get(target.getAuthInfoByCode("code1")).getClientId());
+		assertEquals(sync.getAuthInfoByRefreshToken("refreshToken1") == null,
+				get(target.getAuthInfoByRefreshToken("refreshToken1")) == null);
+		assertEquals(sync.getClientUserId("clientId1", "clientSecret1"),
+				get(target.getClientUserId("clientId1", "clientSecret1")));
+		assertEquals(sync.validateClientById("clientId1"),
+				get(target.validateClientById("clientId1")));
+		assertEquals(sync.validateUserById("userId1"),
+				get(target.validateUserById("userId1")));
+		assertEquals(sync.getAccessToken("accessToken1").getAuthId(),
+				get(target.getAccessToken("accessToken1")).getAuthId());
+		assertEquals(sync.getAuthInfoById("authId1").getClientId(),
+				get(target.getAuthInfoById("authId1")).getClientId());
+		TokenIntrospection introspection = get(target.introspectToken("accessToken1"));
+		assertEquals(Boolean.TRUE, introspection.getUserValid());
+	}
+
+}
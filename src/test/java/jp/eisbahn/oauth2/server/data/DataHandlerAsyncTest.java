@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.junit.Test;
+
+public class DataHandlerAsyncTest {
+
+	static <T> T get(Promise<T> promise) throws OAuthError {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(1, results.size());
+		return results.get(0).get();
+	}
+
+	@Test
+	public void testIntrospectToken() throws Exception {
+		DataHandlerSync sync = new MockDataHandler(null);
+		MockAsyncDataHandler target = new MockAsyncDataHandler(null);
+		String[] tokens = {"accessToken1", "null", "expiredToken", "authNull",
+				"clientFailed", "userFailed"};
+		for (String token : tokens) {
+			TokenIntrospection expected = sync.introspectToken(token);
+			TokenIntrospection actual = get(target.introspectToken(token));
+			assertEquals(token, expected.getAccessToken() == null, actual.getAccessToken() == null);
+			assertEquals(token, expected.getAuthInfo() == null, actual.getAuthInfo() == null);
+			assertEquals(token, expected.getClientValid(), actual.getClientValid());
+			assertEquals(token, expected.getUserValid(), actual.getUserValid());
+		}
+	}
+
+	@Test
+	public void testHandlerReceivesValue() throws Exception {
+		MockAsyncDataHandler target = new MockAsyncDataHandler(null);
+		final List<Object> values = new ArrayList<Object>();
+		target.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				values.add(event);
+			}
+		});
+		target.introspectToken("accessToken1", new Handler<TokenIntrospection>() {
+			@Override
+			public void handle(TokenIntrospection event) {
+				values.add(event.getUserValid());
+			}
+		});
+		assertEquals(2, values.size());
+		assertEquals("username1", values.get(0));
+		assertEquals(Boolean.TRUE, values.get(1));
+	}
+
+	@Test
+	public void testHandlerReceivesNullOnFailure() throws Exception {
+		MockAsyncDataHandler target = new MockAsyncDataHandler(null);
+		target.setFailure("getUserId", new OAuthError.InvalidGrant(""));
+		final List<String> values = new ArrayList<String>();
+		target.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				values.add(event);
+			}
+		});
+		assertEquals(1, values.size());
+		assertNull(values.get(0));
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataHandlerSyncTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static <T> Try<OAuthError, T> await(Promise<T> promise) throws InterruptedException {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		return results.get(0);
+	}
+
+	@Test
+	public void testInline() {
+		DataHandlerSync target = new MockDataHandler(null);
+		final List<Thread> threads = new ArrayList<Thread>();
+		target.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				threads.add(Thread.currentThread());
+			}
+		});
+		assertEquals(1, threads.size());
+		assertSame(Thread.currentThread(), threads.get(0));
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		target.setExecutor(executor);
+		assertSame(executor, target.getExecutor());
+		final List<Thread> threads = new ArrayList<Thread>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				assertEquals("username1", event);
+				threads.add(Thread.currentThread());
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), threads.get(0));
+	}
+
+	@Test
+	public void testExecutorIntrospectToken() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		target.setExecutor(executor);
+		Promise<TokenIntrospection> promise = new Promise<TokenIntrospection>();
+		target.introspectToken("accessToken1", promise);
+		assertEquals(Boolean.TRUE, await(promise).get().getUserValid());
+	}
+
+	@Test
+	public void testExecutorException() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		target.setExecutor(executor);
+		Promise<Boolean> promise = new Promise<Boolean>();
+		target.validateClient(null, "clientSecret1", "password", promise);
+		try {
+			await(promise).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.ServerError);
+			assertEquals(500, e.getCode());
+			assertEquals("server_error", e.getType());
+			assertTrue(e.getCause() instanceof NullPointerException);
+		}
+	}
+
+	@Test
+	public void testExecutorRejected() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		target.setExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("full");
+			}
+		});
+		Promise<String> promise = new Promise<String>();
+		target.getUserId("username1", "password1", promise);
+		try {
+			await(promise).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TemporarilyUnavailable);
+		}
+	}
+
+	@Test
+	public void testExecutorCancelled() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		DataHandlerSync target = new MockDataHandler(null) {
+			@Override
+			public String getUserId(String username, String password) {
+				fail("The method must not be called.");
+				return null;
+			}
+		};
+		target.setExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		Promise<String> promise = new Promise<String>();
+		target.getUserId("username1", "password1", promise);
+		final List<String> values = new ArrayList<String>();
+		target.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				values.add(event);
+			}
+		});
+		target.cancel();
+		tasks.get(0).run();
+		tasks.get(1).run();
+		try {
+			await(promise).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TemporarilyUnavailable);
+		}
+		assertEquals(1, values.size());
+		assertNull(values.get(0));
+	}
+
+	@Test
+	public void testExecutorExceptionWithHandler() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		target.setExecutor(executor);
+		final List<Boolean> values = new ArrayList<Boolean>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.validateClient(null, "clientSecret1", "password", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+				values.add(event);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, values.size());
+		assertNull(values.get(0));
+	}
+
+	@Test
+	public void testCreateOrUpdateAccessTokens() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null) {
+			@Override
+			public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+				if (authInfo.getUserId() == null) {
+					throw new IllegalArgumentException("userId");
+				}
+				return super.createOrUpdateAccessToken(authInfo);
+			}
+		};
+		AuthInfo valid = new AuthInfo();
+		valid.setUserId("userId1");
+		List<Try<OAuthError, AccessToken>> results =
+				target.createOrUpdateAccessTokens(Arrays.asList(valid, new AuthInfo()));
+		assertEquals(2, results.size());
+		assertEquals("accessToken1", results.get(0).get().getToken());
+		try {
+			results.get(1).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.ServerError);
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void testPurgeExpired() throws Exception {
+		List<Expiration> expirations = Arrays.asList(
+				new Expiration(Expiration.Type.ACCESS_TOKEN, "accessToken1", 0L));
+		DataHandlerSync target = new MockDataHandler(null);
+		// Nothing is removed by default.
+		assertEquals(0, target.purgeExpired(expirations));
+		target = new MockDataHandler(null) {
+			@Override
+			public int purgeExpired(List<Expiration> expirations) {
+				return expirations.size();
+			}
+		};
+		target.setExecutor(executor);
+		Promise<Integer> promise = new Promise<Integer>();
+		target.purgeExpired(expirations, promise);
+		assertEquals(Integer.valueOf(1), await(promise).get());
+	}
+
+}
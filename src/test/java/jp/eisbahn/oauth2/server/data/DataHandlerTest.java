@@ -20,12 +20,20 @@ package jp.eisbahn.oauth2.server.data;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
 
 public class DataHandlerTest {
 
@@ -103,4 +111,178 @@ public class DataHandlerTest {
 		assertTrue(target.validateUserById(null));
 	}
 
+	@Test
+	public void testGenerateToken() throws Exception {
+		Request request = EasyMock.createMock(Request.class);
+		DataHandlerSync target = new Target(request);
+		String token1 = target.generateToken();
+		assertEquals(43, token1.length());
+		assertTrue(token1.matches("[A-Za-z0-9_-]+"));
+		assertFalse(token1.equals(target.generateToken()));
+
+		RequestContext context = new RequestContext(request);
+		target.setContext(context);
+		assertEquals(43, target.generateToken().length());
+		context.setTokenGenerator(new TokenGenerator() {
+			@Override
+			public String generate() {
+				return "token1";
+			}
+		});
+		assertEquals("token1", target.generateToken());
+	}
+
+	@Test
+	public void testIntrospectTokenSync() throws Exception {
+		DataHandlerSync target = new MockDataHandler(null);
+		TokenIntrospection result = target.introspectToken("accessToken1");
+		assertEquals("authId1", result.getAccessToken().getAuthId());
+		assertEquals("clientId1", result.getAuthInfo().getClientId());
+		assertEquals(Boolean.TRUE, result.getClientValid());
+		assertEquals(Boolean.TRUE, result.getUserValid());
+
+		result = target.introspectToken("null");
+		assertNull(result.getAccessToken());
+		assertNull(result.getAuthInfo());
+
+		result = target.introspectToken("expiredToken");
+		assertNotNull(result.getAccessToken());
+		assertNull(result.getAuthInfo());
+
+		result = target.introspectToken("authNull");
+		assertNotNull(result.getAccessToken());
+		assertNull(result.getAuthInfo());
+		assertNull(result.getClientValid());
+
+		result = target.introspectToken("clientFailed");
+		assertEquals(Boolean.FALSE, result.getClientValid());
+		assertNull(result.getUserValid());
+
+		result = target.introspectToken("userFailed");
+		assertEquals(Boolean.TRUE, result.getClientValid());
+		assertEquals(Boolean.FALSE, result.getUserValid());
+	}
+
+	@Test
+	public void testIntrospectTokenDefaultChain() throws Exception {
+		final DataHandlerSync sync = new MockDataHandler(null);
+		DataHandler target = new AsyncTarget(sync);
+		final TokenIntrospection expected = sync.introspectToken("userFailed");
+		target.introspectToken("userFailed", new Handler<TokenIntrospection>() {
+			@Override
+			public void handle(TokenIntrospection result) {
+				assertEquals(expected.getAccessToken().getAuthId(), result.getAccessToken().getAuthId());
+				assertEquals(expected.getAuthInfo().getUserId(), result.getAuthInfo().getUserId());
+				assertEquals(expected.getClientValid(), result.getClientValid());
+				assertEquals(expected.getUserValid(), result.getUserValid());
+			}
+		});
+	}
+
+	@Test
+	public void testIntrospectTokenValidatesClientAndUserConcurrently() throws Exception {
+		final List<Handler<Boolean>> clientHandlers = new ArrayList<Handler<Boolean>>();
+		final List<String> userIds = new ArrayList<String>();
+		DataHandler target = new AsyncTarget(new MockDataHandler(null)) {
+			@Override
+			public void validateClientById(String clientId, Handler<Boolean> handler) {
+				clientHandlers.add(handler);
+			}
+			@Override
+			public void validateUserById(String userId, Handler<Boolean> handler) {
+				userIds.add(userId);
+				handler.handle(false);
+			}
+		};
+		final List<TokenIntrospection> results = new ArrayList<TokenIntrospection>();
+		Handler<TokenIntrospection> handler = new Handler<TokenIntrospection>() {
+			@Override
+			public void handle(TokenIntrospection event) {
+				results.add(event);
+			}
+		};
+		target.introspectToken("accessToken1", handler);
+		assertEquals(1, clientHandlers.size());
+		assertEquals(1, userIds.size());
+		assertTrue(results.isEmpty());
+		clientHandlers.get(0).handle(true);
+		assertEquals(1, results.size());
+		assertEquals(Boolean.TRUE, results.get(0).getClientValid());
+		assertEquals(Boolean.FALSE, results.get(0).getUserValid());
+
+		target.introspectToken("accessToken1", handler);
+		clientHandlers.get(1).handle(false);
+		assertEquals(2, results.size());
+		assertEquals(Boolean.FALSE, results.get(1).getClientValid());
+		assertNull(results.get(1).getUserValid());
+	}
+
+	private static class AsyncTarget extends DataHandler {
+
+		private final DataHandlerSync sync;
+
+		public AsyncTarget(DataHandlerSync sync) {
+			super(null);
+			this.sync = sync;
+		}
+
+		@Override
+		public void validateClient(String clientId, String clientSecret,
+				String grantType, Handler<Boolean> handler) {
+			sync.validateClient(clientId, clientSecret, grantType, handler);
+		}
+
+		@Override
+		public void getUserId(String username, String password, Handler<String> handler) {
+			sync.getUserId(username, password, handler);
+		}
+
+		@Override
+		public void createOrUpdateAuthInfo(String clientId, String userId,
+				String scope, Handler<AuthInfo> handler) {
+			sync.createOrUpdateAuthInfo(clientId, userId, scope, handler);
+		}
+
+		@Override
+		public void createOrUpdateAccessToken(AuthInfo authInfo, Handler<AccessToken> handler) {
+			sync.createOrUpdateAccessToken(authInfo, handler);
+		}
+
+		@Override
+		public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+			sync.getAuthInfoByCode(code, handler);
+		}
+
+		@Override
+		public void getAuthInfoByRefreshToken(String refreshToken, Handler<AuthInfo> handler) {
+			sync.getAuthInfoByRefreshToken(refreshToken, handler);
+		}
+
+		@Override
+		public void getClientUserId(String clientId, String clientSecret, Handler<String> handler) {
+			sync.getClientUserId(clientId, clientSecret, handler);
+		}
+
+		@Override
+		public void validateClientById(String clientId, Handler<Boolean> handler) {
+			sync.validateClientById(clientId, handler);
+		}
+
+		@Override
+		public void validateUserById(String userId, Handler<Boolean> handler) {
+			sync.validateUserById(userId, handler);
+		}
+
+		@Override
+		public void getAccessToken(String token, Handler<AccessToken> handler) {
+			sync.getAccessToken(token, handler);
+		}
+
+		@Override
+		public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+			sync.getAuthInfoById(id, handler);
+		}
+
+	}
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Deadline;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.batch.BatchingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.cache.CachingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.expiry.ExpiringDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.limit.LimitingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.metrics.MeteringDataHandlerFactory;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WrappingDataHandlerTest {
+
+	private List<PurgingDataHandler> created;
+	private DataHandlerFactory factory;
+
+	@Before
+	public void setUp() {
+		created = new ArrayList<PurgingDataHandler>();
+		factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				PurgingDataHandler dataHandler = new PurgingDataHandler(request);
+				created.add(dataHandler);
+				return dataHandler;
+			}
+		};
+	}
+
+	@Test
+	public void testForwarding() {
+		WrappingDataHandler target = new WrappingDataHandler(null, factory.create(null)) {
+		};
+		PurgingDataHandler wrapped = created.get(0);
+		assertSame(wrapped, target.getDataHandler());
+		RequestContext context = new RequestContext(null);
+		target.setContext(context);
+		assertSame(context, wrapped.getContext());
+		Deadline deadline = new Deadline(60000, null);
+		target.setDeadline(deadline);
+		assertSame(deadline, wrapped.getDeadline());
+		target.cancel();
+		assertTrue(wrapped.isCancelled());
+	}
+
+	@Test
+	public void testPurgeExpiredThroughAllWrappers() throws Exception {
+		DataHandlerFactory stacked = new MeteringDataHandlerFactory(
+				new CachingDataHandlerFactory(
+						new LimitingDataHandlerFactory(
+								new ExpiringDataHandlerFactory(
+										new BatchingDataHandlerFactory(factory)))),
+				new DefaultMetricsRegistry());
+		DataHandlerAsync target = (DataHandlerAsync)stacked.create(null);
+		List<Expiration> expirations = Arrays.asList(
+				new Expiration(Expiration.Type.ACCESS_TOKEN, "token1", 0L),
+				new Expiration(Expiration.Type.CODE, "code1", 0L));
+		assertEquals(Integer.valueOf(2),
+				DataHandlerAsyncTest.get(target.purgeExpired(expirations)));
+		assertEquals(expirations, created.get(0).purged);
+	}
+
+	private static class PurgingDataHandler extends MockAsyncDataHandler {
+
+		private List<Expiration> purged;
+
+		private PurgingDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		public Promise<Integer> purgeExpired(List<Expiration> expirations) {
+			purged = expirations;
+			return Promise.of(expirations.size());
+		}
+
+	}
+
+}
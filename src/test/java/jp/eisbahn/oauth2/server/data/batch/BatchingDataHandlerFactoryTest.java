@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.ManagedDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.cache.CachingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.expiry.ExpiringDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.limit.LimitingDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.metrics.MeteringDataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingDataHandlerFactoryTest {
+
+	private List<List<AuthInfo>> batches;
+	private String mode;
+	private ScheduledThreadPoolExecutor scheduler;
+	private BatchingDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		batches = new ArrayList<List<AuthInfo>>();
+		mode = "normal";
+		scheduler = new ScheduledThreadPoolExecutor(1);
+		target = new BatchingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new BulkDataHandler(request);
+			}
+		});
+		target.setMaxBatchSize(3);
+		target.setWindow(60000L);
+		target.setScheduler(scheduler);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	private static AuthInfo authInfo(String userId) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId(userId);
+		return authInfo;
+	}
+
+	private static <T> Try<OAuthError, T> result(Promise<T> promise) {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	private AsyncDataHandler create() {
+		return (AsyncDataHandler)target.create(null);
+	}
+
+	@Test
+	public void testFullBatch() throws Exception {
+		Promise<AccessToken> p1 = create().createOrUpdateAccessToken(authInfo("user1"));
+		Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("user2"));
+		assertFalse(p1.isDone());
+		assertTrue(batches.isEmpty());
+		Promise<AccessToken> p3 = create().createOrUpdateAccessToken(authInfo("user3"));
+		assertEquals(1, batches.size());
+		assertEquals(3, batches.get(0).size());
+		assertEquals("token-user1", result(p1).get().getToken());
+		assertEquals("token-user2", result(p2).get().getToken());
+		assertEquals("token-user3", result(p3).get().getToken());
+		// The next write starts a new batch.
+		Promise<AccessToken> p4 = create().createOrUpdateAccessToken(authInfo("user4"));
+		assertFalse(p4.isDone());
+		target.flush();
+		assertEquals(2, batches.size());
+		assertEquals("token-user4", result(p4).get().getToken());
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+		target = new BatchingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new BulkDataHandler(request);
+			}
+		});
+		target.setWindow(10L);
+		target.setScheduler(scheduler);
+		final CountDownLatch latch = new CountDownLatch(2);
+		Handler<Try<OAuthError, AccessToken>> handler = new Handler<Try<OAuthError, AccessToken>>() {
+			@Override
+			public void handle(Try<OAuthError, AccessToken> event) {
+				latch.countDown();
+			}
+		};
+		create().createOrUpdateAccessToken(authInfo("user1")).onComplete(handler);
+		create().createOrUpdateAccessToken(authInfo("user2")).onComplete(handler);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, batches.size());
+		assertEquals(2, batches.get(0).size());
+	}
+
+	@Test
+	public void testAuthInfos() throws Exception {
+		Promise<AuthInfo> p1 = create().createOrUpdateAuthInfo("clientId1", "user1", "scope1");
+		target.flush();
+		AuthInfo authInfo = result(p1).get();
+		assertEquals("id-user1", authInfo.getId());
+		assertEquals("clientId1", authInfo.getClientId());
+		assertEquals("scope1", authInfo.getScope());
+		assertEquals(1, batches.size());
+	}
+
+	@Test
+	public void testThroughWrappingFactories() throws Exception {
+		target = new BatchingDataHandlerFactory(new MeteringDataHandlerFactory(
+				new CachingDataHandlerFactory(
+						new LimitingDataHandlerFactory(
+								new ExpiringDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new BulkDataHandler(request);
+			}
+		}))), new DefaultMetricsRegistry()));
+		target.setMaxBatchSize(3);
+		target.setWindow(60000L);
+		target.setScheduler(scheduler);
+		Promise<AccessToken> p1 = create().createOrUpdateAccessToken(authInfo("user1"));
+		Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("user2"));
+		Promise<AccessToken> p3 = create().createOrUpdateAccessToken(authInfo("user3"));
+		assertEquals(1, batches.size());
+		assertEquals(3, batches.get(0).size());
+		assertEquals("token-user1", result(p1).get().getToken());
+		assertEquals("token-user2", result(p2).get().getToken());
+		assertEquals("token-user3", result(p3).get().getToken());
+	}
+
+	@Test
+	public void testPartialFailure() throws Exception {
+		Promise<AccessToken> p1 = create().createOrUpdateAccessToken(authInfo("user1"));
+		Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("bad"));
+		Promise<AccessToken> p3 = create().createOrUpdateAccessToken(authInfo("none"));
+		assertEquals("token-user1", result(p1).get().getToken());
+		try {
+			result(p2).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.InvalidGrant);
+		}
+		assertNull(result(p3).get());
+	}
+
+	@Test
+	public void testSizeMismatch() throws Exception {
+		mode = "short";
+		Promise<AccessToken> p1 = create().createOrUpdateAccessToken(authInfo("user1"));
+		Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("user2"));
+		target.flush();
+		for (Promise<AccessToken> promise : Arrays.asList(p1, p2)) {
+			try {
+				result(promise).get();
+				fail("OAuthError not occurred.");
+			} catch (OAuthError e) {
+				assertEquals(500, e.getCode());
+			}
+		}
+	}
+
+	@Test
+	public void testBulkThrows() throws Exception {
+		mode = "throw";
+		Promise<AccessToken> p1 = create().createOrUpdateAccessToken(authInfo("user1"));
+		target.flush();
+		try {
+			result(p1).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.ServerError);
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testCancelled() throws Exception {
+		AsyncDataHandler first = create();
+		Promise<AccessToken> p1 = first.createOrUpdateAccessToken(authInfo("user1"));
+		Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("user2"));
+		((DataHandler)first).cancel();
+		target.flush();
+		try {
+			result(p1).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TemporarilyUnavailable);
+		}
+		assertEquals("token-user2", result(p2).get().getToken());
+		assertEquals(1, batches.get(0).size());
+		// A cancelled request is not submitted.
+		try {
+			result(first.createOrUpdateAccessToken(authInfo("user3"))).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TemporarilyUnavailable);
+		}
+	}
+
+	@Test
+	public void testDelegate() throws Exception {
+		DataHandler dataHandler = target.create(null);
+		assertTrue(((BatchingDataHandler)dataHandler).getDataHandler() instanceof BulkDataHandler);
+		AsyncDataHandler async = (AsyncDataHandler)dataHandler;
+		assertEquals("username1", result(async.getUserId("username1", "password1")).get());
+		assertTrue(batches.isEmpty());
+	}
+
+	@Test
+	public void testCancelledWhileWriting() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			target = new BatchingDataHandlerFactory(new DataHandlerFactory() {
+				@Override
+				public DataHandler create(Request request) {
+					MockDataHandler dataHandler = new MockDataHandler(request);
+					dataHandler.setExecutor(executor);
+					return dataHandler;
+				}
+			});
+			target.setWindow(60000L);
+			target.setScheduler(scheduler);
+			// Hold the executor, so the first request is cancelled after
+			// the batch has been handed to it.
+			final CountDownLatch gate = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			AsyncDataHandler first = create();
+			Promise<AccessToken> p1 = first.createOrUpdateAccessToken(authInfo("user1"));
+			Promise<AccessToken> p2 = create().createOrUpdateAccessToken(authInfo("user2"));
+			target.flush();
+			((DataHandler)first).cancel();
+			gate.countDown();
+			final CountDownLatch done = new CountDownLatch(1);
+			final List<Try<OAuthError, AccessToken>> results =
+					new ArrayList<Try<OAuthError, AccessToken>>();
+			p2.onComplete(new Handler<Try<OAuthError, AccessToken>>() {
+				@Override
+				public void handle(Try<OAuthError, AccessToken> event) {
+					results.add(event);
+					done.countDown();
+				}
+			});
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertEquals("accessToken1", results.get(0).get().getToken());
+			assertTrue(p1.isDone());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testReleaseBatchDataHandler() throws Exception {
+		final List<DataHandler> created = new ArrayList<DataHandler>();
+		final List<DataHandler> released = new ArrayList<DataHandler>();
+		target = new BatchingDataHandlerFactory(new ManagedDataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				DataHandler dataHandler = new BulkDataHandler(request);
+				created.add(dataHandler);
+				return dataHandler;
+			}
+
+			@Override
+			public void start() {
+			}
+
+			@Override
+			public void stop() {
+			}
+
+			@Override
+			public void release(DataHandler dataHandler) {
+				released.add(dataHandler);
+			}
+		});
+		target.setWindow(60000L);
+		target.setScheduler(scheduler);
+		DataHandler dataHandler = target.create(null);
+		Promise<AccessToken> p1 =
+				((AsyncDataHandler)dataHandler).createOrUpdateAccessToken(authInfo("user1"));
+		target.release(dataHandler);
+		assertEquals(1, released.size());
+		assertSame(created.get(0), released.get(0));
+		target.flush();
+		assertEquals("token-user1", result(p1).get().getToken());
+		// The batch was written with its own DataHandler.
+		assertEquals(2, created.size());
+		assertEquals(2, released.size());
+		assertSame(created.get(1), released.get(1));
+	}
+
+	private class BulkDataHandler extends MockAsyncDataHandler {
+
+		private BulkDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		public void createOrUpdateAuthInfos(List<AuthInfo> authInfos,
+				Handler<List<Try<OAuthError, AuthInfo>>> handler) {
+			batches.add(authInfos);
+			List<Try<OAuthError, AuthInfo>> results = new ArrayList<Try<OAuthError, AuthInfo>>();
+			for (AuthInfo authInfo : authInfos) {
+				authInfo.setId("id-" + authInfo.getUserId());
+				results.add(new Try<OAuthError, AuthInfo>(authInfo));
+			}
+			handler.handle(results);
+		}
+
+		@Override
+		public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+				Handler<List<Try<OAuthError, AccessToken>>> handler) {
+			batches.add(authInfos);
+			if (mode.equals("throw")) {
+				throw new IllegalStateException("The database is down.");
+			}
+			List<Try<OAuthError, AccessToken>> results = new ArrayList<Try<OAuthError, AccessToken>>();
+			for (AuthInfo authInfo : authInfos) {
+				if (authInfo.getUserId().equals("bad")) {
+					results.add(new Try<OAuthError, AccessToken>(new OAuthError.InvalidGrant("")));
+				} else if (authInfo.getUserId().equals("none")) {
+					results.add(null);
+				} else {
+					AccessToken accessToken = new AccessToken();
+					accessToken.setToken("token-" + authInfo.getUserId());
+					results.add(new Try<OAuthError, AccessToken>(accessToken));
+				}
+			}
+			if (mode.equals("short")) {
+				results.remove(0);
+			}
+			handler.handle(results);
+		}
+
+	}
+
+}
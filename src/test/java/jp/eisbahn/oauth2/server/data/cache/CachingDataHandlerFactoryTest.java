@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingDataHandlerFactoryTest {
+
+	private long now;
+	private Map<String, Integer> calls;
+	private CachingDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		now = System.currentTimeMillis();
+		calls = new HashMap<String, Integer>();
+		target = new CachingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new CountingDataHandler(request);
+			}
+		}) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		target.setTimeToLive(60000L);
+	}
+
+	@Test
+	public void testDefaults() {
+		CachingDataHandlerFactory factory = new CachingDataHandlerFactory();
+		assertEquals(CachingDataHandlerFactory.DEFAULT_TIME_TO_LIVE, factory.getTimeToLive());
+		assertEquals(CachingDataHandlerFactory.DEFAULT_MAXIMUM_SIZE, factory.getMaximumSize());
+	}
+
+	@Test
+	public void testCreate() {
+		DataHandler dataHandler = target.create(null);
+		assertTrue(dataHandler instanceof CachingDataHandler);
+		assertTrue(((CachingDataHandler)dataHandler).getDataHandler() instanceof CountingDataHandler);
+	}
+
+	@Test
+	public void testProtectedResourceLookupsAreCached() {
+		AccessToken first = getAccessToken("token1");
+		assertSame(first, getAccessToken("token1"));
+		assertEquals(1, count("getAccessToken"));
+
+		AuthInfo authInfo = getAuthInfoById("authId1");
+		assertSame(authInfo, getAuthInfoById("authId1"));
+		assertEquals(1, count("getAuthInfoById"));
+
+		assertEquals(Boolean.TRUE, validateClientById("clientId1"));
+		assertEquals(Boolean.TRUE, validateClientById("clientId1"));
+		assertEquals(1, count("validateClientById"));
+
+		assertEquals(Boolean.FALSE, validateUserById("userFailed"));
+		assertEquals(Boolean.FALSE, validateUserById("userFailed"));
+		assertEquals(1, count("validateUserById"));
+	}
+
+	@Test
+	public void testIntrospectTokenIsCached() {
+		introspectToken("token1");
+		introspectToken("token1");
+		assertEquals(1, count("getAccessToken"));
+		assertEquals(1, count("getAuthInfoById"));
+		assertEquals(1, count("validateClientById"));
+		assertEquals(1, count("validateUserById"));
+		// Each lookup has been cached by the introspection.
+		getAuthInfoById("authId1");
+		validateClientById("clientId1");
+		assertEquals(1, count("getAuthInfoById"));
+		assertEquals(1, count("validateClientById"));
+
+		TokenIntrospection result = introspectToken("clientFailed");
+		assertEquals(Boolean.FALSE, result.getClientValid());
+		assertNull(result.getUserValid());
+		introspectToken("clientFailed");
+		assertEquals(2, count("getAccessToken"));
+	}
+
+	@Test
+	public void testTimeToLive() {
+		getAuthInfoById("authId1");
+		now += 59999L;
+		getAuthInfoById("authId1");
+		assertEquals(1, count("getAuthInfoById"));
+		now += 1L;
+		getAuthInfoById("authId1");
+		assertEquals(2, count("getAuthInfoById"));
+	}
+
+	@Test
+	public void testCappedByTokenExpiration() {
+		// MockDataHandler issues a token which expires in 3600 seconds from
+		// the clock of this test, which is shorter than the time to live.
+		target.setTimeToLive(7200 * 1000L);
+		getAccessToken("token1");
+		now += 3600 * 1000L - 1L;
+		getAccessToken("token1");
+		assertEquals(1, count("getAccessToken"));
+		now += 1L;
+		getAccessToken("token1");
+		assertEquals(2, count("getAccessToken"));
+	}
+
+	@Test
+	public void testNullNotCached() {
+		assertNull(getAccessToken("null"));
+		assertNull(getAccessToken("null"));
+		assertEquals(2, count("getAccessToken"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		getAccessToken("token1");
+		getAuthInfoById("authId1");
+		validateClientById("clientId1");
+		validateUserById("userId1");
+		target.invalidateAccessToken("token1");
+		target.invalidateAuthInfo("authId1");
+		target.invalidateClient("clientId1");
+		target.invalidateUser("userId1");
+		getAccessToken("token1");
+		getAuthInfoById("authId1");
+		validateClientById("clientId1");
+		validateUserById("userId1");
+		assertEquals(2, count("getAccessToken"));
+		assertEquals(2, count("getAuthInfoById"));
+		assertEquals(2, count("validateClientById"));
+		assertEquals(2, count("validateUserById"));
+		target.invalidateAll();
+		getAccessToken("token1");
+		assertEquals(3, count("getAccessToken"));
+	}
+
+	@Test
+	public void testIssuingInvalidatesAuthInfo() {
+		getAuthInfoById("authId1");
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		target.create(null).createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				assertEquals("accessToken1", accessToken.getToken());
+			}
+		});
+		getAuthInfoById("authId1");
+		assertEquals(2, count("getAuthInfoById"));
+	}
+
+	@Test
+	public void testBulkIssuingInvalidatesAuthInfo() throws Exception {
+		getAuthInfoById("authId1");
+		getAccessToken("accessToken1");
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		final List<List<Try<OAuthError, AccessToken>>> results =
+				new ArrayList<List<Try<OAuthError, AccessToken>>>();
+		target.create(null).createOrUpdateAccessTokens(Arrays.asList(authInfo),
+				new Handler<List<Try<OAuthError, AccessToken>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AccessToken>> event) {
+				results.add(event);
+			}
+		});
+		assertEquals("accessToken1", results.get(0).get(0).get().getToken());
+		getAuthInfoById("authId1");
+		getAccessToken("accessToken1");
+		assertEquals(2, count("getAuthInfoById"));
+		assertEquals(2, count("getAccessToken"));
+	}
+
+	private int count(String method) {
+		Integer count = calls.get(method);
+		return count == null ? 0 : count;
+	}
+
+	private AccessToken getAccessToken(String token) {
+		final AccessToken[] result = new AccessToken[1];
+		target.create(null).getAccessToken(token, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				result[0] = accessToken;
+			}
+		});
+		return result[0];
+	}
+
+	private TokenIntrospection introspectToken(String token) {
+		final TokenIntrospection[] result = new TokenIntrospection[1];
+		target.create(null).introspectToken(token, new Handler<TokenIntrospection>() {
+			@Override
+			public void handle(TokenIntrospection introspection) {
+				result[0] = introspection;
+			}
+		});
+		return result[0];
+	}
+
+	private AuthInfo getAuthInfoById(String id) {
+		final AuthInfo[] result = new AuthInfo[1];
+		target.create(null).getAuthInfoById(id, new Handler<AuthInfo>() {
+			@Override
+			public void handle(AuthInfo authInfo) {
+				result[0] = authInfo;
+			}
+		});
+		return result[0];
+	}
+
+	private Boolean validateClientById(String clientId) {
+		final Boolean[] result = new Boolean[1];
+		target.create(null).validateClientById(clientId, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean valid) {
+				result[0] = valid;
+			}
+		});
+		return result[0];
+	}
+
+	private Boolean validateUserById(String userId) {
+		final Boolean[] result = new Boolean[1];
+		target.create(null).validateUserById(userId, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean valid) {
+				result[0] = valid;
+			}
+		});
+		return result[0];
+	}
+
+	private class CountingDataHandler extends MockDataHandler {
+
+		public CountingDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+
+		private void called(String method) {
+			calls.put(method, count(method) + 1);
+		}
+
+		@Override
+		public AccessToken getAccessToken(String token) {
+			called("getAccessToken");
+			return super.getAccessToken(token);
+		}
+
+		@Override
+		public AuthInfo getAuthInfoById(String id) {
+			called("getAuthInfoById");
+			return super.getAuthInfoById(id);
+		}
+
+		@Override
+		public boolean validateClientById(String clientId) {
+			called("validateClientById");
+			return super.validateClientById(clientId);
+		}
+
+		@Override
+		public boolean validateUserById(String userId) {
+			called("validateUserById");
+			return super.validateUserById(userId);
+		}
+
+	}
+
+}
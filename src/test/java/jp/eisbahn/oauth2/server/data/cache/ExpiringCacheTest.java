@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+	@Test
+	public void testGetAndPut() {
+		ExpiringCache<String, String> target = new ExpiringCache<String, String>(10, 4);
+		assertNull(target.get("key1", 0L));
+		target.put("key1", "value1", 100L, 0L);
+		assertEquals("value1", target.get("key1", 99L));
+		assertNull(target.get("key1", 100L));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testPutExpired() {
+		ExpiringCache<String, String> target = new ExpiringCache<String, String>(10, 4);
+		target.put("key1", "value1", 100L, 0L);
+		target.put("key1", "value2", 50L, 50L);
+		assertNull(target.get("key1", 0L));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		ExpiringCache<Integer, String> target = new ExpiringCache<Integer, String>(2, 1);
+		target.put(1, "value1", 100L, 0L);
+		target.put(2, "value2", 100L, 0L);
+		assertEquals("value1", target.get(1, 0L));
+		target.put(3, "value3", 100L, 0L);
+		assertEquals(2, target.size());
+		assertEquals("value1", target.get(1, 0L));
+		assertNull(target.get(2, 0L));
+		assertEquals("value3", target.get(3, 0L));
+	}
+
+	@Test
+	public void testRemoveAndClear() {
+		ExpiringCache<String, String> target = new ExpiringCache<String, String>(10, 4);
+		target.put("key1", "value1", 100L, 0L);
+		target.put("key2", "value2", 100L, 0L);
+		target.remove("key1");
+		assertNull(target.get("key1", 0L));
+		assertEquals("value2", target.get("key2", 0L));
+		target.clear();
+		assertEquals(0, target.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaximumSize() {
+		new ExpiringCache<String, String>(0, 4);
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandlerSync;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.Test;
+
+public class ExecutingDataHandlerFactoryTest {
+
+	private final DataHandlerFactory syncFactory = new DataHandlerFactory() {
+		@Override
+		public DataHandler create(Request request) {
+			return new MockDataHandler(request);
+		}
+	};
+
+	@Test
+	public void testCreateWithExecutor() {
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		ExecutingDataHandlerFactory target = new ExecutingDataHandlerFactory(syncFactory);
+		target.setExecutor(executor);
+		DataHandler dataHandler = target.create(null);
+		assertSame(executor, ((DataHandlerSync)dataHandler).getExecutor());
+		assertSame(executor, target.getExecutor());
+	}
+
+	@Test
+	public void testCreateAsync() {
+		ExecutingDataHandlerFactory target = new ExecutingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockAsyncDataHandler(request);
+			}
+		});
+		assertTrue(target.create(null) instanceof MockAsyncDataHandler);
+	}
+
+	@Test
+	public void testThreadPool() throws Exception {
+		ExecutingDataHandlerFactory target = new ExecutingDataHandlerFactory(syncFactory);
+		target.setVirtualThreads(false);
+		target.setThreads(2);
+		target.start();
+		assertFalse(target.isVirtual());
+		DataHandler dataHandler = target.create(null);
+		final List<String> names = new ArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		dataHandler.getUserId("username1", "password1", new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				names.add(Thread.currentThread().getName());
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(names.get(0).startsWith("oauth2-data-handler-"));
+		ExecutorService executor = (ExecutorService)target.getExecutor();
+		target.stop();
+		assertTrue(executor.isShutdown());
+		assertNotSame(executor, target.getExecutor());
+		target.stop();
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		ExecutorService virtual = ExecutingDataHandlerFactory.newVirtualThreadExecutor();
+		ExecutingDataHandlerFactory target = new ExecutingDataHandlerFactory(syncFactory);
+		assertEquals(virtual != null, target.isVirtual());
+		if (virtual == null) {
+			assertNull(ExecutingDataHandlerFactory.newVirtualThreadExecutor());
+		} else {
+			virtual.shutdown();
+		}
+		target.stop();
+	}
+
+}
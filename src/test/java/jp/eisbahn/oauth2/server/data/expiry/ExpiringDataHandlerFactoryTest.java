@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.expiry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.ManagedDataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiringDataHandlerFactoryTest {
+
+	private long now;
+	private List<List<String>> batches;
+	private List<DataHandler> released;
+	private String mode;
+	private ScheduledThreadPoolExecutor scheduler;
+	private ExpiringDataHandlerFactory target;
+
+	@Before
+	public void setUp() throws Exception {
+		now = System.currentTimeMillis();
+		batches = new ArrayList<List<String>>();
+		released = new ArrayList<DataHandler>();
+		mode = "normal";
+		scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.setRemoveOnCancelPolicy(true);
+		target = new ExpiringDataHandlerFactory(new ManagedDataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new PurgingDataHandler(request);
+			}
+			@Override
+			public void start() {
+			}
+			@Override
+			public void stop() {
+			}
+			@Override
+			public void release(DataHandler dataHandler) {
+				released.add(dataHandler);
+			}
+		});
+		// The test advances the wheel by itself.
+		target.setTickDuration(60000L);
+		target.setScheduler(scheduler);
+		target.start();
+	}
+
+	@After
+	public void tearDown() {
+		target.stop();
+		scheduler.shutdownNow();
+	}
+
+	private static AuthInfo authInfo(String userId) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("id-" + userId);
+		authInfo.setUserId(userId);
+		return authInfo;
+	}
+
+	private Expiration code(String code) {
+		return new Expiration(Expiration.Type.CODE, code, now - 1);
+	}
+
+	@Test
+	public void testAccessToken() {
+		AsyncDataHandler dataHandler = (AsyncDataHandler)target.create(null);
+		dataHandler.createOrUpdateAccessToken(authInfo("user1"));
+		assertEquals(1, target.getPendingCount());
+		assertEquals(0, target.advance(now));
+		assertEquals(0, target.advance(now + 3540 * 1000L));
+		assertEquals(1, target.advance(now + 3720 * 1000L));
+		assertEquals(Arrays.asList(Arrays.asList("token-user1")), batches);
+		assertEquals(1L, target.getPurgedCount());
+		assertEquals(0, target.getPendingCount());
+		assertEquals(1, released.size());
+	}
+
+	@Test
+	public void testBulkAccessTokens() {
+		DataHandler dataHandler = target.create(null);
+		final List<List<Try<OAuthError, AccessToken>>> results =
+				new ArrayList<List<Try<OAuthError, AccessToken>>>();
+		dataHandler.createOrUpdateAccessTokens(
+				Arrays.asList(authInfo("user1"), authInfo("bad"), authInfo("user2")),
+				new Handler<List<Try<OAuthError, AccessToken>>>() {
+			@Override
+			public void handle(List<Try<OAuthError, AccessToken>> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(3, results.get(0).size());
+		// The failed element has no deadline.
+		assertEquals(2, target.getPendingCount());
+		target.advance(now + 3720 * 1000L);
+		assertEquals(Arrays.asList(Arrays.asList("token-user1", "token-user2")), batches);
+	}
+
+	@Test
+	public void testAuthInfo() {
+		target.setAuthInfoExpiresIn(60L);
+		AsyncDataHandler dataHandler = (AsyncDataHandler)target.create(null);
+		dataHandler.createOrUpdateAuthInfo("clientId1", "user1", "scope1");
+		assertEquals(1, target.getPendingCount());
+		assertEquals(1, target.advance(now + 120 * 1000L));
+		assertEquals(Arrays.asList(Arrays.asList("id-user1")), batches);
+
+		target.setAuthInfoExpiresIn(0L);
+		dataHandler.createOrUpdateAuthInfo("clientId1", "user2", "scope1");
+		assertEquals(0, target.getPendingCount());
+	}
+
+	@Test
+	public void testFailedTick() throws Exception {
+		target.stop();
+		target = new ExpiringDataHandlerFactory(target.getDataHandlerFactory()) {
+			@Override
+			public int advance(long now) {
+				throw new IllegalStateException("broken");
+			}
+		};
+		target.setTickDuration(1L);
+		target.setScheduler(scheduler);
+		target.start();
+		long limit = System.currentTimeMillis() + 5000L;
+		while (target.getFailedTickCount() < 2 && System.currentTimeMillis() < limit) {
+			Thread.sleep(1L);
+		}
+		assertTrue(target.getFailedTickCount() >= 2);
+	}
+
+	@Test
+	public void testBatchSize() {
+		target.setBatchSize(2);
+		for (int i = 0; i < 5; i++) {
+			target.schedule(code("code" + i));
+		}
+		assertEquals(5, target.advance(now));
+		assertEquals(3, batches.size());
+		assertEquals(Arrays.asList("code0", "code1"), batches.get(0));
+		assertEquals(Arrays.asList("code4"), batches.get(2));
+		assertEquals(5L, target.getPurgedCount());
+		assertEquals(3, released.size());
+	}
+
+	@Test
+	public void testCancel() {
+		target.schedule(code("code1")).cancel();
+		target.schedule(code("code2"));
+		assertEquals(1, target.advance(now));
+		assertEquals(Arrays.asList(Arrays.asList("code2")), batches);
+	}
+
+	@Test
+	public void testFailure() {
+		mode = "fail";
+		target.schedule(code("code1"));
+		target.schedule(code("code2"));
+		target.advance(now);
+		assertEquals(2L, target.getFailedCount());
+		assertEquals(0L, target.getPurgedCount());
+		assertEquals(1, released.size());
+
+		mode = "throw";
+		target.schedule(code("code3"));
+		target.advance(now);
+		assertEquals(3L, target.getFailedCount());
+		// Nothing is retried.
+		assertEquals(0, target.advance(now + 60000L));
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		target.schedule(code("code1"));
+		assertEquals(1, scheduler.getQueue().size());
+		target.stop();
+		assertEquals(0, scheduler.getQueue().size());
+		assertEquals(0, target.getPendingCount());
+		assertNull(target.schedule(code("code2")));
+		assertEquals(0, target.advance(now));
+		target.start();
+		assertEquals(1, scheduler.getQueue().size());
+	}
+
+	@Test
+	public void testRelease() {
+		DataHandler dataHandler = target.create(null);
+		target.release(dataHandler);
+		assertSame(((ExpiringDataHandler)dataHandler).getDataHandler(), released.get(0));
+	}
+
+	private class PurgingDataHandler extends MockAsyncDataHandler {
+
+		private PurgingDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId,
+				String userId, String scope) {
+			return Promise.of(authInfo(userId));
+		}
+
+		@Override
+		public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+			return Promise.of(accessToken(authInfo));
+		}
+
+		@Override
+		public void createOrUpdateAccessTokens(List<AuthInfo> authInfos,
+				Handler<List<Try<OAuthError, AccessToken>>> handler) {
+			List<Try<OAuthError, AccessToken>> results = new ArrayList<Try<OAuthError, AccessToken>>();
+			for (AuthInfo authInfo : authInfos) {
+				if (authInfo.getUserId().equals("bad")) {
+					results.add(new Try<OAuthError, AccessToken>(new OAuthError.InvalidGrant("")));
+				} else {
+					results.add(new Try<OAuthError, AccessToken>(accessToken(authInfo)));
+				}
+			}
+			handler.handle(results);
+		}
+
+		@Override
+		public Promise<Integer> purgeExpired(List<Expiration> expirations) {
+			if (mode.equals("throw")) {
+				throw new IllegalStateException("The database is down.");
+			}
+			if (mode.equals("fail")) {
+				return Promise.failed(new OAuthError.ServerError("The database is down."));
+			}
+			List<String> keys = new ArrayList<String>();
+			for (Expiration expiration : expirations) {
+				keys.add(expiration.getKey());
+			}
+			batches.add(keys);
+			return Promise.of(keys.size());
+		}
+
+		private AccessToken accessToken(AuthInfo authInfo) {
+			AccessToken accessToken = new AccessToken();
+			accessToken.setAuthId(authInfo.getId());
+			accessToken.setToken("token-" + authInfo.getUserId());
+			accessToken.setCreatedOn(new Date(now));
+			accessToken.setExpiresIn(3600L);
+			return accessToken;
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.expiry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import jp.eisbahn.oauth2.server.data.expiry.TimingWheel.Timeout;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	@Test
+	public void testExpire() {
+		TimingWheel<String> target = new TimingWheel<String>(10L, 0L);
+		target.schedule("a", 15L);
+		target.schedule("b", 20L);
+		target.schedule("c", 21L);
+		assertEquals(3, target.size());
+		assertTrue(target.advance(9L).isEmpty());
+		// A deadline passes at the end of its tick.
+		assertTrue(target.advance(19L).isEmpty());
+		assertEquals(Arrays.asList("a", "b"), target.advance(20L));
+		assertEquals(Arrays.asList("c"), target.advance(35L));
+		assertTrue(target.advance(100L).isEmpty());
+		assertEquals(0, target.size());
+		// The passed deadline is returned by the next advance.
+		target.schedule("d", 50L);
+		assertEquals(Arrays.asList("d"), target.advance(100L));
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheel<String> target = new TimingWheel<String>(1L, 0L);
+		Timeout<String> a = target.schedule("a", 10L);
+		Timeout<String> b = target.schedule("b", 100000L);
+		assertTrue(a.cancel());
+		assertFalse(a.cancel());
+		assertTrue(a.isCancelled());
+		assertEquals(1, target.size());
+		assertTrue(target.advance(50L).isEmpty());
+		assertTrue(b.cancel());
+		assertTrue(target.advance(200000L).isEmpty());
+		assertEquals(0, target.size());
+
+		Timeout<String> c = target.schedule("c", 200001L);
+		assertEquals(Arrays.asList("c"), target.advance(200001L));
+		assertTrue(c.isExpired());
+		assertFalse(c.cancel());
+	}
+
+	@Test
+	public void testFarDeadlines() {
+		TimingWheel<Long> target = new TimingWheel<Long>(1L, 0L);
+		// Each level of the wheels, and beyond the range of them.
+		long[] deadlines = {300L, 70000L, 20000000L, 5000000000L, 3L << 40};
+		for (long deadline : deadlines) {
+			target.schedule(deadline, deadline);
+		}
+		for (long deadline : deadlines) {
+			assertTrue(target.advance(deadline - 1).isEmpty());
+			assertEquals(Arrays.asList(deadline), target.advance(deadline));
+		}
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(1L);
+		long now = 123456789L;
+		TimingWheel<Long> target = new TimingWheel<Long>(7L, now);
+		List<Timeout<Long>> timeouts = new ArrayList<Timeout<Long>>();
+		Set<Long> cancelled = new HashSet<Long>();
+		for (long i = 0; i < 20000; i++) {
+			long deadline = now + (long)Math.pow(10, random.nextInt(8)) * random.nextInt(1000);
+			timeouts.add(target.schedule(i, deadline));
+		}
+		for (int i = 0; i < 2000; i++) {
+			Timeout<Long> timeout = timeouts.get(random.nextInt(timeouts.size()));
+			if (timeout.cancel()) {
+				cancelled.add(timeout.getItem());
+			}
+		}
+		int expired = 0;
+		while (target.size() > 0) {
+			long last = now;
+			now += random.nextInt(1000000);
+			for (Long item : target.advance(now)) {
+				Timeout<Long> timeout = timeouts.get(item.intValue());
+				assertFalse(cancelled.contains(item));
+				assertTrue(timeout.getDeadline() <= now);
+				// The tick of the deadline had not ended at the last advance.
+				assertTrue(timeout.getDeadline() > last - last % 7);
+				assertTrue(timeout.isExpired());
+				expired++;
+			}
+		}
+		assertEquals(timeouts.size() - cancelled.size(), expired);
+	}
+
+	@Test
+	public void testNotEarly() {
+		Random random = new Random(2L);
+		TimingWheel<Long> target = new TimingWheel<Long>(5L, 0L);
+		long[] deadlines = new long[5000];
+		for (int i = 0; i < deadlines.length; i++) {
+			deadlines[i] = random.nextInt(2000000);
+			target.schedule((long)i, deadlines[i]);
+		}
+		boolean[] seen = new boolean[deadlines.length];
+		long last = 0L;
+		while (last < 2000000L) {
+			long now = Math.min(last + 1 + random.nextInt(5000), 2000000L);
+			for (Long item : target.advance(now)) {
+				long deadline = deadlines[item.intValue()];
+				assertTrue(deadline <= now);
+				// The tick of the deadline had not ended at the last advance.
+				assertTrue(deadline > last - last % 5);
+				seen[item.intValue()] = true;
+			}
+			last = now;
+		}
+		for (boolean each : seen) {
+			assertTrue(each);
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final TimingWheel<Integer> target = new TimingWheel<Integer>(1L, 0L);
+		final ConcurrentLinkedQueue<Integer> cancelled = new ConcurrentLinkedQueue<Integer>();
+		final int threads = 4;
+		final int each = 10000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * each;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < each; i++) {
+							Timeout<Integer> timeout = target.schedule(offset + i, i % 1000);
+							if (i % 3 == 0 && timeout.cancel()) {
+								cancelled.add(timeout.getItem());
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		List<Integer> expired = new ArrayList<Integer>();
+		long now = 0L;
+		start.countDown();
+		while (done.getCount() > 0) {
+			expired.addAll(target.advance(now++));
+		}
+		expired.addAll(target.advance(now + 1000));
+		assertEquals(0, target.size());
+		Set<Integer> all = new HashSet<Integer>(expired);
+		assertEquals(expired.size(), all.size());
+		all.addAll(cancelled);
+		assertEquals(threads * each, all.size());
+		assertTrue(Collections.disjoint(expired, cancelled));
+	}
+
+}
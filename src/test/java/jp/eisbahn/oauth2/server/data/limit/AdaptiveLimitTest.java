@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+	@Test
+	public void testReject() {
+		AdaptiveLimit target = new AdaptiveLimit("method", 2, 1, 10, 100, 0.5);
+		assertEquals("method", target.getName());
+		assertTrue(target.tryAcquire());
+		assertTrue(target.tryAcquire());
+		assertEquals(2, target.getInFlight());
+		assertFalse(target.tryAcquire());
+		assertFalse(target.tryAcquire());
+		assertEquals(2, target.getRejectedCount());
+		target.release(FAST);
+		assertEquals(1, target.getInFlight());
+		assertTrue(target.tryAcquire());
+	}
+
+	@Test
+	public void testIncrease() {
+		AdaptiveLimit target = new AdaptiveLimit("method", 2, 1, 3, 100, 0.5);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(target.tryAcquire());
+			assertTrue(target.tryAcquire());
+			target.release(FAST);
+			target.release(FAST);
+		}
+		assertEquals(3, target.getLimit());
+	}
+
+	@Test
+	public void testNoIncreaseWhenUnderused() {
+		AdaptiveLimit target = new AdaptiveLimit("method", 10, 1, 100, 100, 0.5);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(target.tryAcquire());
+			target.release(FAST);
+		}
+		assertEquals(10, target.getLimit());
+	}
+
+	@Test
+	public void testDecrease() {
+		AdaptiveLimit target = new AdaptiveLimit("method", 8, 2, 10, 100, 0.5);
+		assertTrue(target.tryAcquire());
+		target.release(SLOW);
+		assertEquals(4, target.getLimit());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(target.tryAcquire());
+			target.release(SLOW);
+		}
+		assertEquals(2, target.getLimit());
+		assertEquals(0, target.getInFlight());
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new AdaptiveLimit("method", 1, 0, 10, 100, 0.5);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new AdaptiveLimit("method", 1, 5, 4, 100, 0.5);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new AdaptiveLimit("method", 1, 1, 4, 100, 1.0);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(4, new AdaptiveLimit("method", 100, 1, 4, 100, 0.5).getLimit());
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.TokenIntrospection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LimitingDataHandlerFactoryTest {
+
+	private List<MockAsyncDataHandler> created;
+	private boolean hold;
+	private LimitingDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		created = new ArrayList<MockAsyncDataHandler>();
+		target = new LimitingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+				if (hold) {
+					dataHandler.hold("getAccessToken");
+				}
+				created.add(dataHandler);
+				return dataHandler;
+			}
+		});
+		target.setInitialLimit(2);
+		target.setMaxLimit(2);
+	}
+
+	private static <T> Try<OAuthError, T> result(Promise<T> promise) {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	@Test
+	public void testDefaults() {
+		LimitingDataHandlerFactory factory = new LimitingDataHandlerFactory();
+		AdaptiveLimit limit = factory.getLimits().get("getAccessToken");
+		assertEquals(LimitingDataHandlerFactory.DEFAULT_INITIAL_LIMIT, limit.getLimit());
+		assertEquals(12, factory.getLimits().size());
+		assertTrue(factory.getRejectionError() instanceof OAuthError.TemporarilyUnavailable);
+		assertEquals(503, factory.getRejectionError().getCode());
+	}
+
+	@Test
+	public void testDelegate() throws Exception {
+		final DataHandler sync = new MockDataHandler(null);
+		LimitingDataHandlerFactory factory = new LimitingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return sync;
+			}
+		});
+		DataHandler dataHandler = factory.create(null);
+		assertSame(sync, ((LimitingDataHandler)dataHandler).getDataHandler());
+		AsyncDataHandler async = (AsyncDataHandler)dataHandler;
+		assertEquals("username1", result(async.getUserId("username1", "password1")).get());
+		TokenIntrospection introspection = result(async.introspectToken("accessToken1")).get();
+		assertEquals(Boolean.TRUE, introspection.getUserValid());
+		for (AdaptiveLimit limit : factory.getLimits().values()) {
+			assertEquals(0, limit.getInFlight());
+		}
+	}
+
+	@Test
+	public void testReject() throws Exception {
+		hold = true;
+		AsyncDataHandler first = (AsyncDataHandler)target.create(null);
+		AsyncDataHandler second = (AsyncDataHandler)target.create(null);
+		AsyncDataHandler third = (AsyncDataHandler)target.create(null);
+		Promise<?> p1 = first.getAccessToken("accessToken1");
+		Promise<?> p2 = second.getAccessToken("accessToken1");
+		assertEquals(2, target.getLimits().get("getAccessToken").getInFlight());
+		try {
+			result(third.getAccessToken("accessToken1")).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertSame(target.getRejectionError(), e);
+		}
+		assertEquals(1, target.getRejectedCount());
+		// The rejected call does not reach the wrapped DataHandler.
+		assertNull(created.get(2).getHeld("getAccessToken"));
+
+		// The other methods have their own limits.
+		assertEquals("username1", result(third.getUserId("username1", "password1")).get());
+
+		created.get(0).getHeld("getAccessToken").complete(null);
+		assertTrue(p1.isDone());
+		assertEquals(1, target.getLimits().get("getAccessToken").getInFlight());
+		((DataHandler)second).cancel();
+		assertTrue(created.get(1).isCancelled());
+		assertEquals(0, target.getLimits().get("getAccessToken").getInFlight());
+		// The late result does not release the permit again.
+		created.get(1).getHeld("getAccessToken").complete(null);
+		assertTrue(p2.isDone());
+		assertEquals(0, target.getLimits().get("getAccessToken").getInFlight());
+	}
+
+	@Test
+	public void testLimitsAreShared() {
+		Map<String, AdaptiveLimit> limits = target.getLimits();
+		target.create(null);
+		assertSame(limits, target.getLimits());
+		assertEquals(2, limits.get("validateClient").getLimit());
+	}
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryDataHandlerFactoryTest {
+
+	private InMemoryDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		target = new InMemoryDataHandlerFactory();
+		target.addClient("clientId1", "clientSecret1", "clientUser1");
+		target.addClient("clientId2", "clientSecret2", null, "authorization_code");
+		target.addUser("username1", "password1", "userId1");
+	}
+
+	private InMemoryDataHandler create() {
+		return (InMemoryDataHandler)target.create(null);
+	}
+
+	@Test
+	public void testCredentials() {
+		InMemoryDataHandler dataHandler = create();
+		assertTrue(dataHandler.validateClient("clientId1", "clientSecret1", "password"));
+		assertFalse(dataHandler.validateClient("clientId1", "wrong", "password"));
+		assertFalse(dataHandler.validateClient("clientId1", null, "password"));
+		assertFalse(dataHandler.validateClient("unknown", "clientSecret1", "password"));
+		assertTrue(dataHandler.validateClient("clientId2", "clientSecret2", "authorization_code"));
+		assertFalse(dataHandler.validateClient("clientId2", "clientSecret2", "password"));
+		assertEquals("userId1", dataHandler.getUserId("username1", "password1"));
+		assertNull(dataHandler.getUserId("username1", "wrong"));
+		assertNull(dataHandler.getUserId(null, "password1"));
+		assertEquals("clientUser1", dataHandler.getClientUserId("clientId1", "clientSecret1"));
+		assertNull(dataHandler.getClientUserId("clientId1", "wrong"));
+		assertTrue(dataHandler.validateClientById("clientId1"));
+		assertFalse(dataHandler.validateClientById("unknown"));
+		assertTrue(dataHandler.validateUserById("userId1"));
+		assertTrue(dataHandler.validateUserById("clientUser1"));
+		assertFalse(dataHandler.validateUserById("unknown"));
+		target.removeUser("username1");
+		assertFalse(dataHandler.validateUserById("userId1"));
+	}
+
+	@Test
+	public void testIssueAccessToken() {
+		InMemoryDataHandler dataHandler = create();
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		assertNotNull(authInfo.getId());
+		assertNotNull(authInfo.getRefreshToken());
+		// The same authorization information is returned for the same request.
+		AuthInfo same = create().createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		assertEquals(authInfo.getId(), same.getId());
+		assertEquals(authInfo.getRefreshToken(), same.getRefreshToken());
+
+		AccessToken first = dataHandler.createOrUpdateAccessToken(authInfo);
+		assertEquals(authInfo.getId(), first.getAuthId());
+		assertEquals(3600L, first.getExpiresIn());
+		assertEquals(43, first.getToken().length());
+		assertEquals(first.getToken(), dataHandler.getAccessToken(first.getToken()).getToken());
+		AccessToken second = dataHandler.createOrUpdateAccessToken(authInfo);
+		assertFalse(first.getToken().equals(second.getToken()));
+		// The previous access token is replaced.
+		assertNull(dataHandler.getAccessToken(first.getToken()));
+		assertNotNull(dataHandler.getAccessToken(second.getToken()));
+		assertEquals(1, target.getAccessTokenCount());
+
+		AuthInfo found = dataHandler.getAuthInfoByRefreshToken(authInfo.getRefreshToken());
+		assertEquals(authInfo.getId(), found.getId());
+		assertNotSame(found, dataHandler.getAuthInfoById(authInfo.getId()));
+		assertEquals("read", dataHandler.getAuthInfoById(authInfo.getId()).getScope());
+		assertNull(dataHandler.getAuthInfoByRefreshToken("unknown"));
+
+		AuthInfo unknown = new AuthInfo();
+		unknown.setId("unknown");
+		assertNull(dataHandler.createOrUpdateAccessToken(unknown));
+	}
+
+	@Test
+	public void testClientCredentialsWithoutRefreshToken() {
+		InMemoryDataHandler dataHandler = create();
+		RequestContext context = new RequestContext(null);
+		context.setGrantType("client_credentials");
+		dataHandler.setContext(context);
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "clientUser1", null);
+		assertNull(authInfo.getRefreshToken());
+		target.setIssueRefreshToken(false);
+		assertNull(create().createOrUpdateAuthInfo("clientId1", "userId1", null).getRefreshToken());
+	}
+
+	@Test
+	public void testCode() {
+		AuthInfo issued = target.issueCode("clientId2", "userId1", "read", "http://example.com/cb");
+		assertNotNull(issued.getCode());
+		assertEquals("http://example.com/cb", issued.getRedirectUri());
+		InMemoryDataHandler dataHandler = create();
+		AuthInfo authInfo = dataHandler.getAuthInfoByCode(issued.getCode());
+		assertEquals(issued.getId(), authInfo.getId());
+		assertEquals("http://example.com/cb", authInfo.getRedirectUri());
+		// The code can be used only once.
+		assertNull(dataHandler.getAuthInfoByCode(issued.getCode()));
+		assertNull(dataHandler.getAuthInfoByCode(null));
+
+		// The new code replaces the previous one.
+		AuthInfo first = target.issueCode("clientId2", "userId1", "read", "http://example.com/cb");
+		AuthInfo second = target.issueCode("clientId2", "userId1", "read", "http://example.com/cb");
+		assertNull(dataHandler.getAuthInfoByCode(first.getCode()));
+		assertNotNull(dataHandler.getAuthInfoByCode(second.getCode()));
+
+		target.setCodeExpiresIn(0L);
+		AuthInfo expired = target.issueCode("clientId2", "userId1", "read", "http://example.com/cb");
+		assertNull(dataHandler.getAuthInfoByCode(expired.getCode()));
+	}
+
+	@Test
+	public void testExpiration() {
+		target.setAccessTokenExpiresIn(0L);
+		InMemoryDataHandler dataHandler = create();
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		AccessToken accessToken = dataHandler.createOrUpdateAccessToken(authInfo);
+		assertNull(dataHandler.getAccessToken(accessToken.getToken()));
+		assertEquals(0, target.getAccessTokenCount());
+	}
+
+	@Test
+	public void testPurge() throws Exception {
+		target.setAccessTokenExpiresIn(0L);
+		target.setCodeExpiresIn(0L);
+		InMemoryDataHandler dataHandler = create();
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		dataHandler.createOrUpdateAccessToken(authInfo);
+		target.issueCode("clientId1", "userId1", "read", "http://example.com/cb");
+		assertEquals(1, target.getAccessTokenCount());
+		assertEquals(2, target.purge());
+		assertEquals(0, target.getAccessTokenCount());
+		assertEquals(1, target.getAuthInfoCount());
+		assertEquals(0, target.purge());
+	}
+
+	@Test
+	public void testPurgeTask() throws Exception {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.setRemoveOnCancelPolicy(true);
+		try {
+			target.setAccessTokenExpiresIn(0L);
+			target.setPurgeInterval(10L);
+			target.setScheduler(scheduler);
+			target.start();
+			InMemoryDataHandler dataHandler = create();
+			AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+			dataHandler.createOrUpdateAccessToken(authInfo);
+			for (int i = 0; i < 500 && target.getAccessTokenCount() > 0; i++) {
+				Thread.sleep(10L);
+			}
+			assertEquals(0, target.getAccessTokenCount());
+			target.stop();
+			assertEquals(0, scheduler.getQueue().size());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPurgeExpired() throws Exception {
+		long now = System.currentTimeMillis();
+		target.start();
+		try {
+			InMemoryDataHandler dataHandler = create();
+			AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+			dataHandler.createOrUpdateAccessToken(authInfo);
+			dataHandler.createOrUpdateAccessToken(authInfo);
+			target.issueCode("clientId1", "userId1", "read", "http://example.com/cb");
+			// The authorization information, two access tokens and the code.
+			assertEquals(4, target.getPendingExpirationCount());
+			assertEquals(0, target.purgeExpired(now));
+
+			assertEquals(1, target.purgeExpired(now + 720 * 1000L));
+			assertNull(target.getStore().getAuthInfoById(authInfo.getId(), now).getCode());
+			// The first access token has already been replaced.
+			assertEquals(1, target.purgeExpired(now + 3720 * 1000L));
+			assertEquals(0, target.getAccessTokenCount());
+			assertEquals(1, target.getAuthInfoCount());
+			assertEquals(1, target.purgeExpired(now + 31 * 24 * 3600 * 1000L));
+			assertEquals(0, target.getAuthInfoCount());
+			assertEquals(0, target.getPendingExpirationCount());
+		} finally {
+			target.stop();
+		}
+		// The deadlines are not kept while the factory is stopped.
+		create().createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		assertEquals(0, target.getPendingExpirationCount());
+	}
+
+	@Test
+	public void testRevoke() {
+		InMemoryDataHandler dataHandler = create();
+		AuthInfo a1 = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		AuthInfo a2 = dataHandler.createOrUpdateAuthInfo("clientId1", "userId2", "read");
+		AuthInfo a3 = dataHandler.createOrUpdateAuthInfo("clientId2", "userId1", "read");
+		AccessToken t1 = dataHandler.createOrUpdateAccessToken(a1);
+		AccessToken t2 = dataHandler.createOrUpdateAccessToken(a2);
+		AccessToken t3 = dataHandler.createOrUpdateAccessToken(a3);
+
+		assertEquals(2, target.revokeByUser("userId1"));
+		assertNull(dataHandler.getAccessToken(t1.getToken()));
+		assertNull(dataHandler.getAccessToken(t3.getToken()));
+		assertNull(dataHandler.getAuthInfoByRefreshToken(a1.getRefreshToken()));
+		assertNotNull(dataHandler.getAccessToken(t2.getToken()));
+		assertEquals(0, target.revokeByUser("userId1"));
+
+		assertTrue(target.revokeAccessToken(t2.getToken()));
+		assertFalse(target.revokeAccessToken(t2.getToken()));
+		assertNotNull(dataHandler.getAuthInfoById(a2.getId()));
+		assertEquals(1, target.revokeByClient("clientId1"));
+		assertNull(dataHandler.getAuthInfoById(a2.getId()));
+		assertEquals(0, target.getAuthInfoCount());
+
+		// A new authorization information is created after the revocation.
+		AuthInfo renewed = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		assertFalse(a1.getId().equals(renewed.getId()));
+		target.removeClient("clientId1");
+		assertFalse(dataHandler.validateClientById("clientId1"));
+		assertNull(dataHandler.getAuthInfoById(renewed.getId()));
+	}
+
+	@Test
+	public void testConcurrentCodeConsumption() throws Exception {
+		final AuthInfo issued = target.issueCode("clientId2", "userId1", "read",
+				"http://example.com/cb");
+		final List<AuthInfo> results = new ArrayList<AuthInfo>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					AuthInfo authInfo = create().getAuthInfoByCode(issued.getCode());
+					if (authInfo != null) {
+						synchronized (results) {
+							results.add(authInfo);
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, results.size());
+	}
+
+	@Test
+	public void testScenario() throws Exception {
+		Token token = new Token();
+		token.setDataHandlerFactory(target);
+		token.setGrantHandlerProvider(new DefaultGrantHandlerProvider());
+		token.setClientCredentialFetcher(new ClientCredentialFetcherImpl());
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("grant_type", "password");
+		params.put("client_id", "clientId1");
+		params.put("client_secret", "clientSecret1");
+		params.put("username", "username1");
+		params.put("password", "password1");
+		params.put("scope", "read");
+		final List<Token.Response> responses = new ArrayList<Token.Response>();
+		token.handleRequest(new MapRequest(params, null), new Handler<Token.Response>() {
+			@Override
+			public void handle(Token.Response event) {
+				responses.add(event);
+			}
+		});
+		assertEquals(200, responses.get(0).getCode());
+		@SuppressWarnings("unchecked")
+		Map<String, Object> body = new ObjectMapper().readValue(responses.get(0).getBody(), Map.class);
+		String accessToken = (String)body.get("access_token");
+
+		ProtectedResource protectedResource = new ProtectedResource();
+		protectedResource.setDataHandlerFactory(target);
+		protectedResource.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		final List<Try<OAuthError, ProtectedResource.Response>> results =
+				new ArrayList<Try<OAuthError, ProtectedResource.Response>>();
+		protectedResource.handleRequest(
+				new MapRequest(new HashMap<String, String>(), "Bearer " + accessToken),
+				new Handler<Try<OAuthError, ProtectedResource.Response>>() {
+			@Override
+			public void handle(Try<OAuthError, ProtectedResource.Response> event) {
+				results.add(event);
+			}
+		});
+		ProtectedResource.Response response = results.get(0).get();
+		assertEquals("userId1", response.getRemoteUser());
+		assertEquals("clientId1", response.getClientId());
+		assertEquals("read", response.getScope());
+	}
+
+	private static class MapRequest implements Request {
+
+		private final Map<String, String> params;
+		private final String authorization;
+
+		private MapRequest(Map<String, String> params, String authorization) {
+			this.params = params;
+			this.authorization = authorization;
+		}
+
+		@Override
+		public String getParameter(String name) {
+			return params.get(name);
+		}
+
+		@Override
+		public Map<String, String> getParameterMap() {
+			return params;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return "Authorization".equals(name) ? authorization : null;
+		}
+
+	}
+
+}
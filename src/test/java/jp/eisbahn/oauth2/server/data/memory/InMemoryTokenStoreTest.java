@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Expiration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryTokenStoreTest {
+
+	private static final long NOW = 1000000L;
+
+	private InMemoryTokenStore target;
+
+	@Before
+	public void setUp() {
+		target = new InMemoryTokenStore();
+	}
+
+	private static AccessToken accessToken(String token, String authId, long createdOn) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken(token);
+		accessToken.setAuthId(authId);
+		accessToken.setCreatedOn(new Date(createdOn));
+		accessToken.setExpiresIn(60L);
+		return accessToken;
+	}
+
+	@Test
+	public void testAuthInfoExpiration() {
+		AuthInfo authInfo = target.createOrUpdateAuthInfo("clientId1", "userId1", "read",
+				"id1", "refresh1", NOW + 1000, NOW);
+		assertEquals("id1", target.getAuthInfoById("id1", NOW + 999).getId());
+		assertEquals("id1", target.getAuthInfoByRefreshToken("refresh1", NOW).getId());
+		assertTrue(target.putAccessToken(accessToken("token1", authInfo.getId(), NOW), NOW));
+		assertNotNull(target.getAccessToken("token1", NOW));
+
+		// The expired record is removed with its access token at the lookup.
+		assertNull(target.getAuthInfoByRefreshToken("refresh1", NOW + 1000));
+		assertNull(target.getAuthInfoById("id1", NOW));
+		assertNull(target.getAccessToken("token1", NOW));
+		assertFalse(target.putAccessToken(accessToken("token2", "id1", NOW), NOW));
+
+		// The expired record is replaced by the new one.
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id2", null, NOW + 1000, NOW);
+		AuthInfo renewed = target.createOrUpdateAuthInfo("clientId1", "userId1", "read",
+				"id3", null, NOW + 3000, NOW + 2000);
+		assertEquals("id3", renewed.getId());
+		assertEquals(1, target.getAuthInfoCount());
+	}
+
+	@Test
+	public void testConcurrentSameKey() throws Exception {
+		final CountDownLatch created = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		// The journal holds the first request in the middle of the creation.
+		target.setJournal(new TokenJournal() {
+			@Override
+			public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+				created.countDown();
+				try {
+					resume.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void authInfoRemoved(String id) {
+			}
+
+			@Override
+			public void codeIssued(String id, String code, String redirectUri, long expiresOn) {
+			}
+
+			@Override
+			public void codeRemoved(String id, String code) {
+			}
+
+			@Override
+			public void accessTokenCreated(AccessToken accessToken) {
+			}
+
+			@Override
+			public void accessTokenRemoved(String token) {
+			}
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<AuthInfo> first = executor.submit(new Callable<AuthInfo>() {
+				@Override
+				public AuthInfo call() {
+					return target.createOrUpdateAuthInfo("clientId1", "userId1", "read",
+							"id1", "refresh1", 0L, NOW);
+				}
+			});
+			assertTrue(created.await(5, TimeUnit.SECONDS));
+			Future<AuthInfo> second = executor.submit(new Callable<AuthInfo>() {
+				@Override
+				public AuthInfo call() {
+					AuthInfo authInfo = target.createOrUpdateAuthInfo("clientId1", "userId1",
+							"read", "id2", "refresh2", 0L, NOW);
+					// The record must be found as soon as its ID is returned.
+					assertNotNull(target.getAuthInfoById(authInfo.getId(), NOW));
+					assertNotNull(target.getAuthInfoByRefreshToken(authInfo.getRefreshToken(), NOW));
+					return authInfo;
+				}
+			});
+			try {
+				second.get(100, TimeUnit.MILLISECONDS);
+				fail("The second request did not wait for the first one.");
+			} catch (TimeoutException e) {
+				// The second request waits until the record is published.
+			}
+			resume.countDown();
+			assertEquals("id1", first.get(5, TimeUnit.SECONDS).getId());
+			assertEquals("id1", second.get(5, TimeUnit.SECONDS).getId());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, target.getAuthInfoCount());
+	}
+
+	@Test
+	public void testNeverExpires() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, 0L, NOW);
+		assertNotNull(target.getAuthInfoById("id1", Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testAccessTokenExpiration() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, 0L, NOW);
+		assertTrue(target.putAccessToken(accessToken("token1", "id1", NOW), NOW));
+		assertNotNull(target.getAccessToken("token1", NOW + 59999));
+		assertNull(target.getAccessToken("token1", NOW + 60000));
+		assertEquals(0, target.getAccessTokenCount());
+		assertNotNull(target.getAuthInfoById("id1", NOW + 60000));
+	}
+
+	@Test
+	public void testCode() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, 0L, NOW);
+		AuthInfo authInfo = target.setCode("id1", "code1", "http://example.com/cb", NOW + 1000);
+		assertEquals("code1", authInfo.getCode());
+		assertNull(target.setCode("unknown", "code2", "http://example.com/cb", NOW + 1000));
+		assertNull(target.consumeCode("code1", NOW + 1000));
+		// The expired code has been consumed too.
+		assertNull(target.consumeCode("code1", NOW));
+
+		target.setCode("id1", "code3", "http://example.com/cb", NOW + 1000);
+		AuthInfo consumed = target.consumeCode("code3", NOW);
+		assertEquals("code3", consumed.getCode());
+		assertNull(target.getAuthInfoById("id1", NOW).getCode());
+	}
+
+	@Test
+	public void testPurge() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, NOW + 1000, NOW);
+		target.createOrUpdateAuthInfo("clientId1", "userId2", "read", "id2", null, 0L, NOW);
+		target.putAccessToken(accessToken("token1", "id1", NOW), NOW);
+		target.putAccessToken(accessToken("token2", "id2", NOW), NOW);
+		target.setCode("id2", "code2", "http://example.com/cb", NOW + 500);
+		assertEquals(0, target.purge(NOW + 499));
+		// The code of id2 and the record id1 with its access token.
+		assertEquals(2, target.purge(NOW + 1000));
+		assertEquals(1, target.getAuthInfoCount());
+		assertEquals(1, target.getAccessTokenCount());
+		assertNull(target.consumeCode("code2", NOW));
+		// The access token of id2.
+		assertEquals(1, target.purge(NOW + 60000));
+		assertEquals(0, target.getAccessTokenCount());
+	}
+
+	@Test
+	public void testPurgeExpired() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, NOW + 1000, NOW);
+		target.createOrUpdateAuthInfo("clientId1", "userId2", "read", "id2", null, 0L, NOW);
+		target.putAccessToken(accessToken("token2", "id2", NOW), NOW);
+		target.setCode("id2", "code2", "http://example.com/cb", NOW + 500);
+		List<Expiration> expirations = Arrays.asList(
+				new Expiration(Expiration.Type.AUTH_INFO, "id1", NOW + 1000),
+				new Expiration(Expiration.Type.ACCESS_TOKEN, "token2", NOW + 60000),
+				new Expiration(Expiration.Type.CODE, "code2", NOW + 500),
+				new Expiration(Expiration.Type.ACCESS_TOKEN, "unknown", NOW));
+		// Nothing has expired yet.
+		assertEquals(0, target.purgeExpired(expirations, NOW + 499));
+		assertEquals(2, target.purgeExpired(expirations, NOW + 1000));
+		assertEquals(1, target.getAuthInfoCount());
+		assertEquals(1, target.getAccessTokenCount());
+		assertNull(target.consumeCode("code2", NOW));
+		assertEquals(1, target.purgeExpired(expirations, NOW + 60000));
+		assertEquals(0, target.getAccessTokenCount());
+		assertEquals(0, target.purgeExpired(expirations, NOW + 60000));
+	}
+
+	@Test
+	public void testRemoveByIndex() {
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", "refresh1", 0L, NOW);
+		target.createOrUpdateAuthInfo("clientId1", "userId1", "write", "id2", null, 0L, NOW);
+		target.createOrUpdateAuthInfo("clientId2", "userId1", "read", "id3", null, 0L, NOW);
+		assertEquals(2, target.removeByClient("clientId1"));
+		assertNull(target.getAuthInfoByRefreshToken("refresh1", NOW));
+		assertEquals(1, target.removeByUser("userId1"));
+		assertEquals(0, target.removeByUser("userId1"));
+		assertEquals(0, target.removeByClient("unknown"));
+		assertEquals(0, target.getAuthInfoCount());
+	}
+
+}
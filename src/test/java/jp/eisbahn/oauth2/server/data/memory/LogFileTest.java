@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogFileTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private List<String> records;
+	private Handler<byte[]> reader;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), "test.log");
+		records = new ArrayList<String>();
+		reader = new Handler<byte[]>() {
+			@Override
+			public void handle(byte[] payload) {
+				records.add(new String(payload, UTF_8));
+			}
+		};
+	}
+
+	private static byte[] payload(String value) {
+		return value.getBytes(UTF_8);
+	}
+
+	private static String text(char c, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testRegions() throws Exception {
+		LogFile target = LogFile.open(file, 64, reader);
+		assertEquals(0L, target.size());
+		target.append(payload(text('a', 20)));
+		target.append(payload(text('b', 20)));
+		assertEquals(56L, target.size());
+		// This does not fit in the rest of the first region.
+		target.append(payload(text('c', 20)));
+		assertEquals(92L, target.size());
+		// This fills the second region up.
+		target.append(payload(text('d', 28)));
+		target.append(payload(text('e', 1)));
+		target.close();
+
+		target = LogFile.open(file, 64, reader);
+		assertEquals(5, records.size());
+		assertEquals(text('c', 20), records.get(2));
+		assertEquals(text('e', 1), records.get(4));
+		assertEquals(137L, target.size());
+		target.close();
+		try {
+			target = LogFile.open(file, 64, null);
+			target.append(payload(text('f', 57)));
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException expected) {
+			target.close();
+		}
+	}
+
+	@Test
+	public void testBrokenRecord() throws Exception {
+		LogFile target = LogFile.open(file, 64, null);
+		target.append(payload("first"));
+		target.append(payload("second"));
+		target.append(payload("third"));
+		// It was not closed at a crash.
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		// The last byte of "third".
+		raw.seek(13 + 14 + 12);
+		raw.write('X');
+		raw.close();
+
+		target = LogFile.open(file, 64, reader);
+		assertEquals(2, records.size());
+		assertEquals(27L, target.size());
+		target.append(payload("fourth"));
+		target.close();
+		records.clear();
+		target = LogFile.open(file, 64, reader);
+		assertEquals("fourth", records.get(2));
+		assertEquals(3, records.size());
+		target.close();
+	}
+
+	@Test
+	public void testTornRecord() throws Exception {
+		LogFile target = LogFile.open(file, 64, null);
+		target.append(payload("first"));
+		target.close();
+		// Only the length of the next record was written in the second
+		// region, and the garbage in the third region.
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.seek(13);
+		raw.writeInt(-1);
+		raw.seek(64);
+		raw.writeInt(10);
+		raw.seek(130);
+		raw.writeInt(12345);
+		raw.close();
+
+		target = LogFile.open(file, 64, reader);
+		assertEquals(1, records.size());
+		assertEquals(64L, target.size());
+		assertEquals(128L, file.length());
+		target.append(payload("second"));
+		target.close();
+		records.clear();
+		LogFile.open(file, 64, reader).close();
+		assertEquals(2, records.size());
+		assertEquals("second", records.get(1));
+	}
+
+}
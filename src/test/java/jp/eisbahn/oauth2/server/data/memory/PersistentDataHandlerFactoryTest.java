@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentDataHandlerFactoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private PersistentDataHandlerFactory target;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new File(folder.getRoot(), "tokens");
+		target = start();
+	}
+
+	@After
+	public void tearDown() {
+		target.stop();
+	}
+
+	private PersistentDataHandlerFactory start() {
+		PersistentDataHandlerFactory factory = new PersistentDataHandlerFactory();
+		factory.setDirectory(directory);
+		factory.setRegionSize(4096);
+		factory.addClient("clientId1", "clientSecret1", null);
+		factory.addUser("username1", "password1", "userId1");
+		factory.start();
+		return factory;
+	}
+
+	private PersistentDataHandlerFactory restart() {
+		target.stop();
+		target = start();
+		return target;
+	}
+
+	private static InMemoryDataHandler create(InMemoryDataHandlerFactory factory) {
+		return (InMemoryDataHandler)factory.create(null);
+	}
+
+	private static AccessToken issue(InMemoryDataHandlerFactory factory, String userId) {
+		InMemoryDataHandler dataHandler = create(factory);
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", userId, "read");
+		return dataHandler.createOrUpdateAccessToken(authInfo);
+	}
+
+	private List<String> files() {
+		String[] names = directory.list();
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		AccessToken token1 = issue(target, "userId1");
+		AccessToken token2 = issue(target, "userId2");
+		AccessToken revoked = issue(target, "userId3");
+		target.revokeAccessToken(revoked.getToken());
+		AuthInfo code = target.issueCode("clientId1", "userId1", "write", "http://example.com/cb");
+		AuthInfo used = target.issueCode("clientId1", "userId2", "write", "http://example.com/cb");
+		assertNotNull(create(target).getAuthInfoByCode(used.getCode()));
+		target.revokeByUser("userId2");
+
+		restart();
+		InMemoryDataHandler dataHandler = create(target);
+		AccessToken restored = dataHandler.getAccessToken(token1.getToken());
+		assertEquals(token1.getAuthId(), restored.getAuthId());
+		assertEquals(token1.getCreatedOn(), restored.getCreatedOn());
+		assertEquals(3600L, restored.getExpiresIn());
+		AuthInfo authInfo = dataHandler.getAuthInfoById(token1.getAuthId());
+		assertEquals("read", authInfo.getScope());
+		assertEquals(authInfo.getId(),
+				dataHandler.getAuthInfoByRefreshToken(authInfo.getRefreshToken()).getId());
+		assertNull(dataHandler.getAccessToken(token2.getToken()));
+		assertNull(dataHandler.getAccessToken(revoked.getToken()));
+		assertNull(dataHandler.getAuthInfoByCode(used.getCode()));
+		// The same authorization information is used after the restart.
+		assertEquals(authInfo.getId(),
+				dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read").getId());
+
+		assertEquals(code.getId(), dataHandler.getAuthInfoByCode(code.getCode()).getId());
+		restart();
+		// The code was used before the restart.
+		assertNull(create(target).getAuthInfoByCode(code.getCode()));
+		assertEquals(3, target.getAuthInfoCount());
+		assertEquals(1, target.getAccessTokenCount());
+	}
+
+	@Test
+	public void testExpiredEntries() throws Exception {
+		target.setCodeExpiresIn(0L);
+		target.setAccessTokenExpiresIn(0L);
+		AuthInfo code = target.issueCode("clientId1", "userId1", "read", "http://example.com/cb");
+		AccessToken accessToken = issue(target, "userId1");
+		restart();
+		assertNull(create(target).getAuthInfoByCode(code.getCode()));
+		assertNull(create(target).getAccessToken(accessToken.getToken()));
+		assertEquals(1, target.getAuthInfoCount());
+	}
+
+	@Test
+	public void testCrash() throws Exception {
+		AccessToken token1 = issue(target, "userId1");
+		long size = target.getLogSize();
+		// The process crashed without stopping the factory, and the next
+		// change was written partially.
+		RandomAccessFile raw = new RandomAccessFile(new File(directory, "tokens-0.log"), "rw");
+		raw.seek(size);
+		raw.writeInt(100);
+		raw.writeInt(12345);
+		raw.write(new byte[] {5, 0, 1});
+		raw.close();
+
+		PersistentDataHandlerFactory recovered = start();
+		try {
+			assertNotNull(create(recovered).getAccessToken(token1.getToken()));
+			assertEquals(size, recovered.getLogSize());
+			AccessToken token2 = issue(recovered, "userId2");
+			recovered.stop();
+			recovered = start();
+			assertNotNull(create(recovered).getAccessToken(token1.getToken()));
+			assertNotNull(create(recovered).getAccessToken(token2.getToken()));
+		} finally {
+			recovered.stop();
+		}
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		InMemoryDataHandler dataHandler = create(target);
+		AuthInfo authInfo = dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "read");
+		AccessToken last = null;
+		for (int i = 0; i < 100; i++) {
+			last = dataHandler.createOrUpdateAccessToken(authInfo);
+		}
+		issue(target, "userId2");
+		target.revokeByUser("userId2");
+		long size = target.getLogSize();
+		target.compact();
+		assertEquals(0L, target.getLogSize());
+		assertEquals(Arrays.asList("tokens-1.log", "tokens-1.snapshot"), files());
+		long compacted = new File(directory, "tokens-1.snapshot").length();
+
+		AccessToken next = dataHandler.createOrUpdateAccessToken(authInfo);
+		restart();
+		assertTrue(target.getLogSize() > 0);
+		assertNull(create(target).getAccessToken(last.getToken()));
+		assertNotNull(create(target).getAccessToken(next.getToken()));
+		assertEquals(1, target.getAuthInfoCount());
+		assertTrue(size > 4096);
+		assertEquals(4096L, compacted);
+
+		// The compaction in the background waits until the log file grows
+		// larger than both the threshold and the snapshot.
+		target.setCompactionThreshold(100L);
+		target.purgeExpired(System.currentTimeMillis());
+		assertEquals(Arrays.asList("tokens-1.log", "tokens-1.snapshot"), files());
+		dataHandler = create(target);
+		authInfo = dataHandler.getAuthInfoById(authInfo.getId());
+		for (int i = 0; i < 20; i++) {
+			dataHandler.createOrUpdateAccessToken(authInfo);
+		}
+		target.purgeExpired(System.currentTimeMillis());
+		assertEquals(Arrays.asList("tokens-2.log", "tokens-2.snapshot"), files());
+		assertFalse(target.getLogSize() > 0);
+	}
+
+	@Test
+	public void testCrashDuringCompaction() throws Exception {
+		AccessToken token1 = issue(target, "userId1");
+		File log0 = new File(directory, "tokens-0.log");
+		File backup = new File(folder.getRoot(), "backup");
+		Files.copy(log0.toPath(), backup.toPath());
+		target.compact();
+		AccessToken token2 = issue(target, "userId2");
+		// The process crashed while writing the snapshot after switching the
+		// log file.
+		assertTrue(new File(directory, "tokens-1.snapshot").delete());
+		Files.copy(backup.toPath(), log0.toPath());
+		Files.write(new File(directory, "tokens-1.snapshot.tmp").toPath(), new byte[] {1, 2, 3});
+
+		PersistentDataHandlerFactory recovered = start();
+		try {
+			assertNotNull(create(recovered).getAccessToken(token1.getToken()));
+			assertNotNull(create(recovered).getAccessToken(token2.getToken()));
+			assertEquals(Arrays.asList("tokens-0.log", "tokens-1.log"), files());
+			recovered.compact();
+			assertEquals(Arrays.asList("tokens-2.log", "tokens-2.snapshot"), files());
+		} finally {
+			recovered.stop();
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+public class TokenIndexTest {
+
+	private static final Random RANDOM = new Random(1L);
+
+	private static String token(int bytes) {
+		byte[] data = new byte[bytes];
+		RANDOM.nextBytes(data);
+		return Base64.encodeBase64URLSafeString(data);
+	}
+
+	@Test
+	public void testAccepts() {
+		TokenIndex<String> target = new TokenIndex<String>(16);
+		String token = token(16);
+		assertEquals(22, token.length());
+		assertTrue(target.accepts(token));
+		assertTrue(target.accepts("AAAAAAAAAAAAAAAAAAAAAA"));
+		assertTrue(target.accepts("_____________________w"));
+		assertFalse(target.accepts(null));
+		assertFalse(target.accepts("token1"));
+		assertFalse(target.accepts(token(32)));
+		assertFalse(target.accepts(token + "A"));
+		assertFalse(target.accepts("AAAAAAAAAAAAAAAAAAAAA="));
+		assertFalse(target.accepts("AAAAAAAAAAAAAAAAAAAA+A"));
+		assertFalse(target.accepts("AAAAAAAAAAAAAAAAAAAAあA"));
+		// The last 4 bits are not encoded, so the string is not canonical.
+		assertFalse(target.accepts("AAAAAAAAAAAAAAAAAAAAAB"));
+		assertNull(target.get("AAAAAAAAAAAAAAAAAAAAAB"));
+	}
+
+	@Test
+	public void testPutAndGet() {
+		for (int bytes : new int[] {16, 20, 32}) {
+			TokenIndex<String> target = new TokenIndex<String>(bytes);
+			String token1 = token(bytes);
+			String token2 = token(bytes);
+			assertNull(target.put(token1, "value1"));
+			assertEquals("value1", target.get(token1));
+			assertNull(target.get(token2));
+			assertEquals("value1", target.put(token1, "value2"));
+			assertEquals("value2", target.get(token1));
+			assertEquals(1, target.size());
+			assertEquals(token1, target.token(target.prefix(token1), target.get(token1)));
+			assertNull(target.token(target.prefix(token2), "value2"));
+		}
+	}
+
+	@Test
+	public void testRemove() {
+		TokenIndex<String> target = new TokenIndex<String>(32);
+		String token1 = token(32);
+		String token2 = token(32);
+		String value1 = new String("value");
+		String value2 = new String("value");
+		target.put(token1, value1);
+		target.put(token2, value2);
+		// The instance is compared.
+		assertFalse(target.remove(token1, value2));
+		assertTrue(target.remove(token1, value1));
+		assertFalse(target.remove(token1, value1));
+		assertNull(target.get(token1));
+		assertFalse(target.remove(target.prefix(token2), value1));
+		assertTrue(target.remove(target.prefix(token2), value2));
+		assertNull(target.get(token2));
+		assertEquals(0, target.size());
+		assertFalse(target.remove("token1", value1));
+		// The removed token can be stored again.
+		assertNull(target.put(token1, value2));
+		assertSame(value2, target.get(token1));
+		assertEquals(1, target.size());
+	}
+
+	@Test
+	public void testRehash() {
+		TokenIndex<Integer> target = new TokenIndex<Integer>(16);
+		List<String> tokens = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) {
+			String token = token(16);
+			tokens.add(token);
+			target.put(token, i);
+		}
+		assertEquals(10000, target.size());
+		// The removed slots are dropped by the rehash.
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 10000; i += 2) {
+				assertTrue(target.remove(tokens.get(i), target.get(tokens.get(i))));
+				String token = token(16);
+				tokens.set(i, token);
+				target.put(token, i);
+			}
+		}
+		assertEquals(10000, target.size());
+		for (int i = 0; i < 10000; i++) {
+			String token = tokens.get(i);
+			assertEquals(Integer.valueOf(i), target.get(token));
+			assertEquals(token, target.token(target.prefix(token), target.get(token)));
+		}
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final TokenIndex<String> target = new TokenIndex<String>(32);
+		final int threads = 4;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final List<String> tokens = new ArrayList<String>();
+			for (int i = 0; i < 5000; i++) {
+				tokens.add(token(32));
+			}
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (String token : tokens) {
+							target.put(token, token);
+						}
+						for (String token : tokens) {
+							if (!token.equals(target.get(token))) {
+								throw new AssertionError("The token was not found.");
+							}
+						}
+						for (int i = 0; i < tokens.size(); i += 2) {
+							String token = tokens.get(i);
+							if (!target.remove(target.prefix(token), target.get(token))) {
+								throw new AssertionError("The token was not removed.");
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertNull(failure.get());
+		assertEquals(threads * 2500, target.size());
+	}
+
+}
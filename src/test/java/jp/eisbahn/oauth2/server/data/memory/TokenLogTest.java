@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TokenLogTest {
+
+	private static final long NOW = 1000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private InMemoryTokenStore store;
+	private TokenLog log;
+	private ExecutorService executor;
+	private Future<?> compaction;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new File(folder.getRoot(), "tokens");
+		store = new InMemoryTokenStore();
+		log = new TokenLog(directory, 4096);
+		log.open(new Replay(store));
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		log.close();
+	}
+
+	@Test
+	public void testCompactionDuringCreation() throws Exception {
+		store.setJournal(new Forwarding(log.getJournal()) {
+			@Override
+			public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+				super.authInfoCreated(authInfo, expiresOn);
+				compactMeanwhile();
+			}
+		});
+		store.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", "refresh1", 0L, NOW);
+
+		InMemoryTokenStore restored = restore();
+		assertNotNull(restored.getAuthInfoById("id1", NOW));
+		assertNotNull(restored.getAuthInfoByRefreshToken("refresh1", NOW));
+	}
+
+	@Test
+	public void testCompactionDuringRemoval() throws Exception {
+		store.setJournal(log.getJournal());
+		store.createOrUpdateAuthInfo("clientId1", "userId1", "read", "id1", null, 0L, NOW);
+		assertTrue(store.putAccessToken(accessToken("token1", "id1"), NOW));
+		store.setJournal(new Forwarding(log.getJournal()) {
+			@Override
+			public void accessTokenRemoved(String token) {
+				super.accessTokenRemoved(token);
+				compactMeanwhile();
+			}
+		});
+		assertTrue(store.removeAccessToken("token1"));
+
+		InMemoryTokenStore restored = restore();
+		assertNotNull(restored.getAuthInfoById("id1", NOW));
+		assertNull(restored.getAccessToken("token1", NOW));
+	}
+
+	/**
+	 * Compact the log on another thread just after a change was appended to
+	 * the current log file. The compaction has enough time to finish unless
+	 * it waits for the record of the change.
+	 */
+	private void compactMeanwhile() {
+		compaction = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				log.compact(store, NOW);
+				return null;
+			}
+		});
+		try {
+			compaction.get(500L, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// The snapshot waits for the record of the change.
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private InMemoryTokenStore restore() throws Exception {
+		compaction.get(5L, TimeUnit.SECONDS);
+		assertEquals(1L, log.getGeneration());
+		store.setJournal(null);
+		log.close();
+		InMemoryTokenStore restored = new InMemoryTokenStore();
+		TokenLog reopened = new TokenLog(directory, 4096);
+		reopened.open(new Replay(restored));
+		reopened.close();
+		return restored;
+	}
+
+	private static AccessToken accessToken(String token, String authId) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken(token);
+		accessToken.setAuthId(authId);
+		accessToken.setCreatedOn(new Date(NOW));
+		accessToken.setExpiresIn(60L);
+		return accessToken;
+	}
+
+	/**
+	 * This class passes each change to another journal.
+	 */
+	private static class Forwarding implements TokenJournal {
+
+		private final TokenJournal journal;
+
+		private Forwarding(TokenJournal journal) {
+			this.journal = journal;
+		}
+
+		@Override
+		public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+			journal.authInfoCreated(authInfo, expiresOn);
+		}
+
+		@Override
+		public void authInfoRemoved(String id) {
+			journal.authInfoRemoved(id);
+		}
+
+		@Override
+		public void codeIssued(String id, String code, String redirectUri, long expiresOn) {
+			journal.codeIssued(id, code, redirectUri, expiresOn);
+		}
+
+		@Override
+		public void codeRemoved(String id, String code) {
+			journal.codeRemoved(id, code);
+		}
+
+		@Override
+		public void accessTokenCreated(AccessToken accessToken) {
+			journal.accessTokenCreated(accessToken);
+		}
+
+		@Override
+		public void accessTokenRemoved(String token) {
+			journal.accessTokenRemoved(token);
+		}
+
+	}
+
+	/**
+	 * This class applies the changes read from the files to a store.
+	 */
+	private static class Replay implements TokenJournal {
+
+		private final InMemoryTokenStore store;
+
+		private Replay(InMemoryTokenStore store) {
+			this.store = store;
+		}
+
+		@Override
+		public void authInfoCreated(AuthInfo authInfo, long expiresOn) {
+			store.createOrUpdateAuthInfo(authInfo.getClientId(), authInfo.getUserId(),
+					authInfo.getScope(), authInfo.getId(), authInfo.getRefreshToken(),
+					expiresOn, NOW);
+		}
+
+		@Override
+		public void authInfoRemoved(String id) {
+			store.removeAuthInfo(id);
+		}
+
+		@Override
+		public void codeIssued(String id, String code, String redirectUri, long expiresOn) {
+			store.setCode(id, code, redirectUri, expiresOn);
+		}
+
+		@Override
+		public void codeRemoved(String id, String code) {
+			store.removeCode(id, code);
+		}
+
+		@Override
+		public void accessTokenCreated(AccessToken accessToken) {
+			store.putAccessToken(accessToken, NOW);
+		}
+
+		@Override
+		public void accessTokenRemoved(String token) {
+			store.removeAccessToken(token);
+		}
+
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.Metric;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MeteringDataHandlerFactoryTest {
+
+	private List<MockAsyncDataHandler> created;
+	private DefaultMetricsRegistry registry;
+	private MeteringDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		created = new ArrayList<MockAsyncDataHandler>();
+		registry = new DefaultMetricsRegistry();
+		target = new MeteringDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+				created.add(dataHandler);
+				return dataHandler;
+			}
+		}, registry);
+	}
+
+	private static <T> List<Try<OAuthError, T>> results(Promise<T> promise) {
+		final List<Try<OAuthError, T>> results = new ArrayList<Try<OAuthError, T>>();
+		promise.onComplete(new Handler<Try<OAuthError, T>>() {
+			@Override
+			public void handle(Try<OAuthError, T> event) {
+				results.add(event);
+			}
+		});
+		return results;
+	}
+
+	@Test
+	public void testCreate() {
+		DataHandler dataHandler = target.create(null);
+		assertTrue(dataHandler instanceof MeteringDataHandler);
+		assertSame(created.get(0), ((MeteringDataHandler)dataHandler).getDataHandler());
+		assertEquals(12, registry.getMetrics().size());
+		assertTrue(registry.getMetrics().containsKey("dataHandler.introspectToken"));
+	}
+
+	@Test
+	public void testRecordSuccessAndError() throws Exception {
+		AsyncDataHandler dataHandler = (AsyncDataHandler)target.create(null);
+		created.get(0).setFailure("validateClient", new OAuthError.InvalidClient(""));
+		assertEquals("username1", results(dataHandler.getUserId("username1", "password1")).get(0).get());
+		assertEquals(1, results(dataHandler.validateClient("clientId1", "secret1", "password")).size());
+		Metric getUserId = registry.getMetric("dataHandler.getUserId");
+		assertEquals(1, getUserId.getCount());
+		assertEquals(0, getUserId.getErrorCount());
+		Metric validateClient = registry.getMetric("dataHandler.validateClient");
+		assertEquals(1, validateClient.getCount());
+		assertEquals(1, validateClient.getErrorCount("invalid_client"));
+	}
+
+	@Test
+	public void testRecordWhenResultArrives() throws Exception {
+		AsyncDataHandler dataHandler = (AsyncDataHandler)target.create(null);
+		created.get(0).hold("getAccessToken");
+		List<Try<OAuthError, AccessToken>> results = results(dataHandler.getAccessToken("accessToken1"));
+		Metric metric = registry.getMetric("dataHandler.getAccessToken");
+		assertEquals(0, metric.getCount());
+		Thread.sleep(5);
+		created.get(0).<AccessToken>getHeld("getAccessToken").complete(new AccessToken());
+		assertEquals(1, results.size());
+		assertEquals(1, metric.getCount());
+		assertTrue(metric.getMaxMillis() >= 5.0);
+	}
+
+	@Test
+	public void testPropagate() {
+		MeteringDataHandler dataHandler = (MeteringDataHandler)target.create(null);
+		dataHandler.cancel();
+		assertTrue(created.get(0).isCancelled());
+	}
+
+}
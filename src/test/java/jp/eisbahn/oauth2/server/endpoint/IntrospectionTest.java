@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntrospectionTest {
+
+	private ProtectedResource protectedResource;
+	private Introspection target;
+
+	@Before
+	public void setUp() {
+		protectedResource = new ProtectedResource();
+		protectedResource.setDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockDataHandler(request);
+			}
+		});
+		target = new Introspection();
+		target.setProtectedResource(protectedResource);
+	}
+
+	private static Request createRequest(String token, String tokens) {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("tokens")).andReturn(tokens);
+		if (tokens == null) {
+			expect(request.getParameter("token")).andReturn(token);
+		}
+		replay(request);
+		return request;
+	}
+
+	private Response handle(Request request) throws InterruptedException {
+		final List<Response> results = new ArrayList<Response>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response event) {
+				results.add(event);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		verify(request);
+		return results.get(0);
+	}
+
+	@Test
+	public void testActive() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		Response response = handle(createRequest("accessToken1", null));
+		assertEquals(200, response.getCode());
+		String prefix = "{\"active\":true,\"scope\":\"scope1\",\"client_id\":\"clientId1\","
+				+ "\"username\":\"userId1\",\"exp\":";
+		assertTrue(response.getBody(), response.getBody().startsWith(prefix));
+		String exp = response.getBody().substring(prefix.length(),
+				response.getBody().length() - 1);
+		assertTrue(Math.abs(Long.parseLong(exp) - (now + 3600)) <= 1);
+	}
+
+	@Test
+	public void testInactive() throws Exception {
+		Response response = handle(createRequest("null", null));
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":false}", response.getBody());
+		response = handle(createRequest("expiredToken", null));
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":false}", response.getBody());
+		response = handle(createRequest("userFailed", null));
+		assertEquals("{\"active\":false}", response.getBody());
+	}
+
+	@Test
+	public void testTokenNotFound() throws Exception {
+		Response response = handle(createRequest(null, null));
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"'token' not found\"}",
+				response.getBody());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		protectedResource.setDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+				dataHandler.hold("getAccessToken");
+				return dataHandler;
+			}
+		});
+		protectedResource.setTimeout(50);
+		Response response = handle(createRequest("accessToken1", null));
+		assertEquals(503, response.getCode());
+		assertTrue(response.getBody().contains("\"temporarily_unavailable\""));
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		Response response = handle(createRequest(null, "accessToken1, null,expiredToken"));
+		assertEquals(200, response.getCode());
+		String body = response.getBody();
+		assertTrue(body, body.startsWith("[{\"active\":true,\"scope\":\"scope1\""));
+		assertTrue(body, body.endsWith("},{\"active\":false},{\"active\":false}]"));
+	}
+
+	@Test
+	public void testBatchError() throws Exception {
+		protectedResource.setDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+				dataHandler.hold("getAccessToken");
+				return dataHandler;
+			}
+		});
+		protectedResource.setTimeout(50);
+		Response response = handle(createRequest(null, "accessToken1 accessToken2"));
+		assertEquals(200, response.getCode());
+		assertEquals("[{\"active\":false,\"error\":\"temporarily_unavailable\"},"
+				+ "{\"active\":false,\"error\":\"temporarily_unavailable\"}]", response.getBody());
+	}
+
+	@Test
+	public void testBatchThrows() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		protectedResource.setDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				if (count.incrementAndGet() == 2) {
+					throw new IllegalStateException("The database is down.");
+				}
+				return new MockDataHandler(request);
+			}
+		});
+		Response response = handle(createRequest(null, "accessToken1 accessToken2 null"));
+		assertEquals(200, response.getCode());
+		String body = response.getBody();
+		assertTrue(body, body.startsWith("[{\"active\":true,\"scope\":\"scope1\""));
+		assertTrue(body, body.endsWith(
+				"},{\"active\":false,\"error\":\"server_error\"},{\"active\":false}]"));
+	}
+
+	@Test
+	public void testBatchInvalid() throws Exception {
+		Response response = handle(createRequest(null, " , "));
+		assertEquals(400, response.getCode());
+		target.setMaxTokens(2);
+		response = handle(createRequest(null, "a b c"));
+		assertEquals(400, response.getCode());
+		assertTrue(response.getBody().contains("Too many tokens."));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+		target.setMetricsRegistry(registry);
+		handle(createRequest("accessToken1", null));
+		handle(createRequest("null", null));
+		handle(createRequest(null, null));
+		handle(createRequest(null, "accessToken1 null"));
+		assertEquals(4, registry.getMetric("introspection").getCount());
+		assertEquals(1, registry.getMetric("introspection").getErrorCount("invalid_request"));
+	}
+
+}
@@ -24,13 +24,19 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
 import jp.eisbahn.oauth2.server.mock.MockDataHandler;
 import org.junit.Test;
 
@@ -41,9 +47,13 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.metrics.Metric;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.token.InMemoryRevocationList;
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec;
 
 public class ProtectedResourceTest {
 
@@ -99,6 +109,87 @@ public class ProtectedResourceTest {
 		});
 	}
 	
+	@Test
+	public void testHandleRequestTimeout() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		dataHandler.hold("getAccessToken");
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		target.setTimeout(50);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		try {
+			results.get(0).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TemporarilyUnavailable);
+			assertEquals(503, e.getCode());
+		}
+		assertTrue(dataHandler.isCancelled());
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setCreatedOn(new Date());
+		accessToken.setExpiresIn(3600);
+		dataHandler.<AccessToken>getHeld("getAccessToken").complete(accessToken);
+		assertEquals(1, results.size());
+		verify(request, dataHandlerFactory);
+	}
+
+	@Test
+	public void testHandleRequestRecordsMetrics() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		final Request expired = createMock(Request.class);
+		expect(expired.getHeader("Authorization")).andReturn("Bearer expiredToken").times(2);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(new MockDataHandler(request));
+		expect(dataHandlerFactory.create(expired)).andReturn(new MockDataHandler(expired));
+		replay(request, expired, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+		target.setMetricsRegistry(registry);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		target.handleRequest(expired, handler);
+		assertEquals(2, results.size());
+		assertEquals("userId1", results.get(0).get().getRemoteUser());
+		Metric metric = registry.getMetric("protectedResource");
+		assertEquals(2, metric.getCount());
+		assertEquals(1, metric.getErrorCount());
+		assertEquals(1, metric.getErrorCount(new OAuthError.ExpiredToken().getType()));
+		verify(request, expired, dataHandlerFactory);
+	}
+
 	private Date createDate(int daysAgo) {
 		Calendar cal = Calendar.getInstance();
 		cal.setTime(new Date());
@@ -254,4 +345,209 @@ public class ProtectedResourceTest {
 
 	}
 
+	@Test
+	public void testHandleRequestSignedTokenSuccess() throws Exception {
+		SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		String token = codec.encode(createClaims(System.currentTimeMillis()));
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer " + token).times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(codec, factory);
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					Response response = event.get();
+					assertEquals("userId1", response.getRemoteUser());
+					assertEquals("clientId1", response.getClientId());
+					assertEquals("scope1", response.getScope());
+				} catch (OAuthError oAuthError) {
+					fail("OAuthError occurred.");
+				}
+				verify(request);
+			}
+		});
+		verify(factory);
+	}
+
+	@Test
+	public void testHandleRequestSignedTokenExpired() throws Exception {
+		SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		String token = codec.encode(createClaims(createDate(-1).getTime()));
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer " + token).times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(codec, factory);
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					event.get();
+					fail("OAuthError not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.ExpiredToken);
+				}
+				verify(request);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestSignedTokenRevoked() throws Exception {
+		SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		String token = codec.encode(createClaims(System.currentTimeMillis() - 1000L));
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer " + token).times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(codec, factory);
+		InMemoryRevocationList revocationList = new InMemoryRevocationList();
+		revocationList.revoke("authId1");
+		target.setRevocationList(revocationList);
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					event.get();
+					fail("OAuthError not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.InvalidToken);
+				}
+				verify(request);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestSignedTokenFallbackToDataHandler() throws Exception {
+		SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(codec, factory);
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					assertEquals("userId1", event.get().getRemoteUser());
+				} catch (OAuthError oAuthError) {
+					fail("OAuthError occurred.");
+				}
+				verify(request);
+			}
+		});
+		verify(factory);
+	}
+
+	@Test
+	public void testHandleRequestRequiredScope() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(null, factory);
+		target.setRequiredScope("scope1");
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					Response response = event.get();
+					assertEquals("scope1", response.getScope());
+					assertTrue(response.getScopes().contains("scope1"));
+					assertFalse(response.getScopes().contains("scope2"));
+				} catch (OAuthError oAuthError) {
+					fail("OAuthError occurred.");
+				}
+				verify(request);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestInsufficientScope() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(null, factory);
+		target.setRequiredScope("scope1 scope2");
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					event.get();
+					fail("OAuthError not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.InsufficientScope);
+					assertEquals(401, e.getCode());
+				}
+				verify(request);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestSignedTokenInsufficientScope() throws Exception {
+		SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		String token = codec.encode(createClaims(System.currentTimeMillis()));
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer " + token).times(4);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		ProtectedResource target = createSignedTarget(codec, factory);
+		target.setRequiredScope("scope1");
+		target.handleRequest(request, target.getScopeRegistry().require("scope2"),
+				new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					event.get();
+					fail("OAuthError not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.InsufficientScope);
+				}
+			}
+		});
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					assertTrue(event.get().getScopes().contains("scope1"));
+				} catch (OAuthError oAuthError) {
+					fail("OAuthError occurred.");
+				}
+			}
+		});
+		verify(request, factory);
+	}
+
+	private ProtectedResource createSignedTarget(SignedTokenCodec codec, DataHandlerFactory factory) {
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(factory);
+		target.setSignedTokenCodec(codec);
+		return target;
+	}
+
+	private SignedTokenCodec.Claims createClaims(long issuedAt) {
+		SignedTokenCodec.Claims claims = new SignedTokenCodec.Claims();
+		claims.setAuthId("authId1");
+		claims.setClientId("clientId1");
+		claims.setUserId("userId1");
+		claims.setScope("scope1");
+		claims.setIssuedAt(issuedAt);
+		claims.setExpiresIn(3600L);
+		return claims;
+	}
+
 }
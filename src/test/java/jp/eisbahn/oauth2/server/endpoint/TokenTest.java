@@ -23,19 +23,32 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.async.Promise;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.data.DataHandlerSync;
+import jp.eisbahn.oauth2.server.data.ManagedDataHandlerFactory;
 import jp.eisbahn.oauth2.server.endpoint.Token;
 import jp.eisbahn.oauth2.server.endpoint.Token.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.impl.RefreshToken;
+import jp.eisbahn.oauth2.server.metrics.DefaultMetricsRegistry;
+import jp.eisbahn.oauth2.server.mock.MockAsyncDataHandler;
 import jp.eisbahn.oauth2.server.mock.MockDataHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
@@ -159,9 +172,9 @@ public class TokenTest {
 	public void testHandleRequestSimple() throws Exception {
 		final Request request = createMock(Request.class);
 		expect(request.getParameter("grant_type")).andReturn("refresh_token");
-		expect(request.getHeader("Authorization")).andReturn(null).times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
 		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
 		final DataHandlerSync dataHandler = new MockDataHandler(request);
@@ -180,7 +193,253 @@ public class TokenTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestAsyncDataHandler() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockAsyncDataHandler(request));
+		replay(request, factory);
+		Token target = createToken(factory);
+		final List<Response> responses = new ArrayList<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		});
+		assertEquals(1, responses.size());
+		assertEquals(200, responses.get(0).getCode());
+		assertEquals(
+				"{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\",\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}",
+				responses.get(0).getBody());
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestAsyncDataHandlerError() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		dataHandler.setFailure("getAuthInfoByRefreshToken",
+				new OAuthError.InvalidGrant("Refresh token was revoked."));
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		final List<Response> responses = new ArrayList<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		});
+		assertEquals(1, responses.size());
+		assertEquals(401, responses.get(0).getCode());
+		assertEquals(
+				"{\"error\":\"invalid_grant\","
+						+ "\"error_description\":\"Refresh token was revoked.\"}",
+				responses.get(0).getBody());
+		verify(request, factory);
+	}
+
 	@SuppressWarnings("serial")
+	@Test
+	public void testHandleRequestTimeout() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		dataHandler.hold("getAuthInfoByRefreshToken");
+		dataHandler.hold("createOrUpdateAccessToken");
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		target.setTimeout(50);
+		final List<Response> responses = new ArrayList<Response>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(503, responses.get(0).getCode());
+		assertEquals(
+				"{\"error\":\"temporarily_unavailable\",\"error_description\":\"The request timed out.\"}",
+				responses.get(0).getBody());
+		assertTrue(dataHandler.isCancelled());
+
+		// The late result is ignored, and the token is not issued.
+		Promise<AuthInfo> late = dataHandler.getHeld("getAuthInfoByRefreshToken");
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setRefreshToken("refreshToken1");
+		late.complete(authInfo);
+		assertEquals(1, responses.size());
+		assertNull(dataHandler.getHeld("createOrUpdateAccessToken"));
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestTimeoutError() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		dataHandler.hold("validateClient");
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		target.setTimeout(10);
+		target.setTimeoutError(new OAuthError.InvalidRequest("Too slow."));
+		final List<Response> responses = new ArrayList<Response>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(400, responses.get(0).getCode());
+		assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"Too slow.\"}",
+				responses.get(0).getBody());
+		dataHandler.<Boolean>getHeld("validateClient").complete(true);
+		assertEquals(1, responses.size());
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestWithinTimeout() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		target.setTimeout(60000);
+		final List<Response> responses = new ArrayList<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		});
+		assertEquals(1, responses.size());
+		assertEquals(200, responses.get(0).getCode());
+		assertNotNull(dataHandler.getDeadline());
+		assertFalse(dataHandler.isCancelled());
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestReleasesDataHandler() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final ManagedDataHandlerFactory factory = createMock(ManagedDataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		expect(factory.create(request)).andReturn(dataHandler);
+		factory.release(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		final List<Response> responses = new ArrayList<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		});
+		assertEquals(1, responses.size());
+		assertEquals(200, responses.get(0).getCode());
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestReleasesDataHandlerOnInvalidRequest() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn(null);
+		final ManagedDataHandlerFactory factory = createMock(ManagedDataHandlerFactory.class);
+		MockAsyncDataHandler dataHandler = new MockAsyncDataHandler(request);
+		expect(factory.create(request)).andReturn(dataHandler);
+		factory.release(dataHandler);
+		replay(request, factory);
+		Token target = createToken(factory);
+		final List<Response> responses = new ArrayList<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		});
+		assertEquals(1, responses.size());
+		assertEquals(400, responses.get(0).getCode());
+		verify(request, factory);
+	}
+
+	@Test
+	public void testHandleRequestRecordsMetrics() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		final Request unsupported = createMock(Request.class);
+		expect(unsupported.getParameter("grant_type")).andReturn("unknown");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, unsupported, factory);
+		Token target = createToken(factory);
+		DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+		target.setMetricsRegistry(registry);
+		final List<Response> responses = new ArrayList<Response>();
+		Handler<Response> handler = new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				responses.add(response);
+			}
+		};
+		target.handleRequest(request, handler);
+		target.handleRequest(unsupported, handler);
+		assertEquals(2, responses.size());
+		assertEquals(1, registry.getMetric("token.refresh_token").getCount());
+		assertEquals(0, registry.getMetric("token.refresh_token").getErrorCount());
+		assertEquals(1, registry.getMetric("token").getErrorCount("unsupported_grant_type"));
+		assertFalse(registry.getMetrics().containsKey("token.unknown"));
+		verify(request, unsupported, factory);
+	}
+
 	private Token createToken(DataHandlerFactory factory) {
 		Token token = new Token();
 		token.setDataHandlerFactory(factory);
@@ -32,6 +32,7 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidRequest;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidScope;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidToken;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.RedirectUriMismatch;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.ServerError;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnauthorizedClient;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedGrantType;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedResponseType;
@@ -163,4 +164,14 @@ public class OAuthErrorTest {
 		assertEquals("insufficient_scope", target.getType());
 	}
 
+	@Test
+	public void testServerErrorHidesCause() {
+		RuntimeException cause = new IllegalStateException("jdbc:mysql://db1 refused");
+		ServerError target = new ServerError(cause);
+		assertEquals(500, target.getCode());
+		assertEquals("The server encountered an unexpected error.", target.getDescription());
+		assertEquals("server_error", target.getType());
+		assertSame(cause, target.getCause());
+	}
+
 }
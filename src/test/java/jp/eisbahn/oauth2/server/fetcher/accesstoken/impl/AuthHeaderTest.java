@@ -21,7 +21,12 @@ package jp.eisbahn.oauth2.server.fetcher.accesstoken.impl;
 import static org.junit.Assert.*;
 import static org.easymock.EasyMock.*;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +35,7 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher.FetchResult;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
 
 public class AuthHeaderTest {
 
@@ -149,6 +155,156 @@ public class AuthHeaderTest {
 		}
 	}
 
+	@Test
+	public void testParseLenient() throws Exception {
+		FetchResult parseResult = target.fetch(createRequestMock("Bearer token1 "));
+		assertEquals("token1", parseResult.getToken());
+		assertTrue(parseResult.getParams().isEmpty());
+
+		parseResult = target.fetch(createRequestMock("Bearer token1, a=b,, c=\"d+e\""));
+		assertEquals("token1", parseResult.getToken());
+		assertEquals(2, parseResult.getParams().size());
+		assertEquals("b", parseResult.getParams().get("a"));
+		assertEquals("d e", parseResult.getParams().get("c"));
+
+		try {
+			target.fetch(createRequestMock("Bearer token1, a"));
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testMatchAndFetchShareResult() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer token1").times(2);
+		expect(request.getHeader("Authorization")).andReturn("Bearer token2");
+		replay(request);
+		assertTrue(target.match(request));
+		assertEquals("token1", target.fetch(request).getToken());
+		assertEquals("token2", target.fetch(request).getToken());
+		verify(request);
+	}
+
+	@Test
+	public void testSameAsRegularExpression() throws Exception {
+		String[] prefixes = {"", " ", "\t", "\n "};
+		String[] schemes = {"Bearer", "OAuth", "Bearer\n", "Beare", "oauth", ""};
+		String[] separators = {"", " ", "  ", "\t", ",", " , "};
+		String[] tokens = {"", "vF9dft4qmT", "a.b-c_d~e+f/g=", "x\"y"};
+		String[] params = {"", " ", ",", ", ", "a=b", "a=\"b\"", "a=\"\"", "a=\"", "a=b=c",
+				"sig=\"wOJIO9A2W5mFwDgiDvZbTSMK%2FPY%3D\"", "p=1+2", "bad=%zz", "k v=w",
+				"a", "a=b ", "a=b\n", "a=b\u2028"};
+		Random random = new Random(20121001L);
+		AuthHeader scanner = new AuthHeader();
+		RegexAuthHeader regex = new RegexAuthHeader();
+		for (int n = 0; n < 20000; n++) {
+			StringBuilder header = new StringBuilder();
+			header.append(pick(random, prefixes));
+			header.append(pick(random, schemes));
+			header.append(pick(random, separators));
+			header.append(pick(random, tokens));
+			int count = random.nextInt(4);
+			for (int i = 0; i < count; i++) {
+				header.append(pick(random, separators));
+				header.append(pick(random, params));
+			}
+			assertSame(header.toString(), regex, scanner);
+		}
+	}
+
+	private String pick(Random random, String[] candidates) {
+		return candidates[random.nextInt(candidates.length)];
+	}
+
+	private void assertSame(String header, RegexAuthHeader regex, AuthHeader scanner) {
+		Request request = createRequest(header);
+		boolean matched = regex.match(request);
+		assertEquals(header, matched, scanner.match(request));
+		FetchResult expected;
+		try {
+			expected = regex.fetch(request);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// The regular expression failed with an empty auth-param.
+			// The scanner skips it, and may fail with other auth-params.
+			try {
+				scanner.fetch(request);
+			} catch (RuntimeException ignore) {
+			}
+			return;
+		} catch (RuntimeException e) {
+			try {
+				scanner.fetch(request);
+				fail(header);
+			} catch (RuntimeException actual) {
+				assertEquals(header, e.getClass(), actual.getClass());
+			}
+			return;
+		}
+		FetchResult actual = scanner.fetch(request);
+		assertEquals(header, expected.getToken(), actual.getToken());
+		assertEquals(header, expected.getParams(), actual.getParams());
+	}
+
+	private Request createRequest(final String authorization) {
+		return new Request() {
+			@Override
+			public String getParameter(String name) {
+				return null;
+			}
+			@Override
+			public Map<String, String> getParameterMap() {
+				return Collections.emptyMap();
+			}
+			@Override
+			public String getHeader(String name) {
+				return authorization;
+			}
+		};
+	}
+
+	/**
+	 * The former implementation with regular expressions.
+	 */
+	private static class RegexAuthHeader {
+
+		private static final Pattern REGEXP_AUTHORIZATION =
+				Pattern.compile("^\\s*(OAuth|Bearer)\\s+([^\\s\\,]*)");
+		private static final Pattern REGEXP_TRIM = Pattern.compile("^\\s*,\\s*");
+		private static final Pattern REGEXP_DIV_COMMA = Pattern.compile(",\\s*");
+
+		public boolean match(Request request) {
+			String header = request.getHeader("Authorization");
+			return (header != null)
+				&& (Pattern.matches("^\\s*(OAuth|Bearer)(.*)$", header));
+		}
+
+		public FetchResult fetch(Request request) {
+			String header = request.getHeader("Authorization");
+			Matcher matcher = REGEXP_AUTHORIZATION.matcher(header);
+			if (!matcher.find()) {
+				throw new IllegalStateException(
+					"parse() method was called when match() result was false.");
+			}
+			String token = matcher.group(2);
+			Map<String, String> params = new HashMap<String, String>();
+			int end = matcher.end();
+			if (header.length() != end) {
+				header = header.substring(end);
+				header = REGEXP_TRIM.matcher(header).replaceFirst("");
+				String[] expList = REGEXP_DIV_COMMA.split(header);
+				for (String exp : expList) {
+					String[] keyValue = exp.split("=", 2);
+					String value = keyValue[1].replaceFirst("^\"", "");
+					value = value.replaceFirst("\"$", "");
+					params.put(keyValue[0], Util.decodeParam(value));
+				}
+			}
+			return new FetchResult(token, params);
+		}
+
+	}
+
 	private Request createRequestMock(String authorization) {
 		Request request = createMock(Request.class);
 		expect(request.getHeader("Authorization")).andReturn(authorization);
@@ -21,7 +21,17 @@ package jp.eisbahn.oauth2.server.fetcher.clientcredential;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Base64;
 
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +40,7 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
 
 public class ClientCredentialFetcherImplTest {
 
@@ -68,4 +79,98 @@ public class ClientCredentialFetcherImplTest {
 		assertEquals("client_secret_value", clientCredential.getClientSecret());
 	}
 
+	@Test
+	public void testFetchBasicNotShared() throws Exception {
+		Request request = createMock(Request.class);
+		String encoded = "YmFzaWNfaWQ6YmFzaWNfc2VjcmV0";
+		expect(request.getHeader("Authorization")).andReturn(" Basic " + encoded).times(2);
+		replay(request);
+		ClientCredential first = target.fetch(request);
+		assertEquals("basic_id", first.getClientId());
+		assertEquals("basic_secret", first.getClientSecret());
+		assertNotSame(first, new ClientCredentialFetcherImpl().fetch(request));
+		verify(request);
+	}
+
+	@Test
+	public void testFetchBasicWithoutClientId() throws Exception {
+		Request request = createMock(Request.class);
+		String encoded = "OmNsaWVudF9zZWNyZXRfdmFsdWU=";
+		expect(request.getHeader("Authorization")).andReturn("Basic " + encoded);
+		expect(request.getParameter("client_id")).andReturn("client_id_value");
+		expect(request.getParameter("client_secret")).andReturn("client_secret_value");
+		replay(request);
+		ClientCredential clientCredential = target.fetch(request);
+		assertEquals("client_id_value", clientCredential.getClientId());
+		assertEquals("client_secret_value", clientCredential.getClientSecret());
+		verify(request);
+	}
+
+	@Test
+	public void testSameAsFormerImplementation() throws Exception {
+		String[] prefixes = {"", " ", "\t", "\n", "Basic", "Basic ", "Basic  ", "Basic\t",
+				" Basic ", "basic ", "Bearer ", "Basicx"};
+		String[] suffixes = {"", "=", "==", " ", "\n", "\r\n", "\n ", "\u2028", "あ", "\u0085"};
+		Random random = new Random(20121001L);
+		for (int n = 0; n < 20000; n++) {
+			byte[] bytes = new byte[random.nextInt(24)];
+			random.nextBytes(bytes);
+			for (int i = 0; i < bytes.length; i++) {
+				if (random.nextInt(4) > 0) {
+					bytes[i] = (byte)('0' + random.nextInt(75));
+				}
+			}
+			if (bytes.length > 0 && random.nextBoolean()) {
+				bytes[random.nextInt(bytes.length)] = ':';
+			}
+			String encoded = random.nextBoolean()
+					? Base64.encodeBase64String(bytes) : Base64.encodeBase64URLSafeString(bytes);
+			if (encoded.length() > 0 && random.nextInt(4) == 0) {
+				int at = random.nextInt(encoded.length());
+				encoded = encoded.substring(0, at) + pick(random, suffixes) + encoded.substring(at);
+			}
+			String header = pick(random, prefixes) + encoded + pick(random, suffixes);
+			ClientCredential expected = fetchFormer(header);
+			ClientCredential actual = target.fetch(createRequest(header));
+			assertEquals(header, expected.getClientId(), actual.getClientId());
+			assertEquals(header, expected.getClientSecret(), actual.getClientSecret());
+		}
+	}
+
+	private String pick(Random random, String[] candidates) {
+		return candidates[random.nextInt(candidates.length)];
+	}
+
+	/**
+	 * The former implementation with a regular expression.
+	 */
+	private ClientCredential fetchFormer(String header) {
+		Matcher matcher = Pattern.compile("^\\s*(Basic)\\s+(.*)$").matcher(header);
+		if (matcher.find()) {
+			String decoded = Util.decodeBase64(matcher.group(2));
+			if (decoded.indexOf(':') > 0) {
+				String[] credential = decoded.split(":", 2);
+				return new ClientCredential(credential[0], credential[1]);
+			}
+		}
+		return new ClientCredential("paramId", "paramSecret");
+	}
+
+	private Request createRequest(final String authorization) {
+		return new Request() {
+			@Override
+			public String getParameter(String name) {
+				return "client_id".equals(name) ? "paramId" : "paramSecret";
+			}
+			@Override
+			public Map<String, String> getParameterMap() {
+				return Collections.emptyMap();
+			}
+			@Override
+			public String getHeader(String name) {
+				return authorization;
+			}
+		};
+	}
+
 }
@@ -20,11 +20,14 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.code.InMemoryCodeStore;
 import jp.eisbahn.oauth2.server.data.DataHandlerSync;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.mock.MockDataHandler;
@@ -35,7 +38,9 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
 
 public class AuthorizationCodeTest {
 
@@ -213,6 +218,50 @@ public class AuthorizationCodeTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestWithCodeStore() throws Exception {
+		InMemoryCodeStore codeStore = new InMemoryCodeStore();
+		target.setCodeStore(codeStore);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setRedirectUri("redirectUri1");
+		authInfo.setScope("scope2");
+		String code = codeStore.issue(authInfo);
+
+		Request request = createRequestMock();
+		expect(request.getParameter("code")).andReturn(code);
+		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
+		replay(request);
+		target.handleRequest(new MockDataHandler(request), new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					GrantHandlerResult result = event.get();
+					assertEquals("accessToken1", result.getAccessToken());
+					assertEquals("scope2", result.getScope());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+			}
+		});
+
+		request = createRequestMock();
+		expect(request.getParameter("code")).andReturn(code);
+		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
+		replay(request);
+		target.handleRequest(new MockDataHandler(request), new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					event.get();
+					fail("Error.InvalidGrant not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.InvalidGrant);
+				}
+			}
+		});
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		expect(request.getHeader("Authorization")).andReturn(null);
@@ -224,6 +273,7 @@ public class AuthorizationCodeTest {
 	private DataHandlerSync createDataHandlerMock(Request request) {
 		DataHandlerSync dataHandler = createMock(DataHandlerSync.class);
 		expect(dataHandler.getRequest()).andReturn(request);
+		dataHandler.setContext(isA(RequestContext.class));
 		return dataHandler;
 	}
 
@@ -20,9 +20,12 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import jp.eisbahn.oauth2.server.async.Handler;
@@ -40,7 +43,11 @@ import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.token.SecureTokenGenerator;
+import jp.eisbahn.oauth2.server.token.TokenGenerator;
 
 import java.io.UnsupportedEncodingException;
 
@@ -207,6 +214,85 @@ public class PasswordTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestWithContext() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("username")).andReturn("username1");
+		expect(request.getParameter("password")).andReturn("password1");
+		expect(request.getParameter("scope")).andReturn("scope1");
+		replay(request);
+		RequestContext context = new RequestContext(request);
+		context.setGrantType("password");
+		context.setClientCredential(new ClientCredential("clientId1", "clientSecret1"));
+		DataHandlerSync dataHandler = new MockDataHandler(request);
+		dataHandler.setContext(context);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					assertEquals("scope1", event.get().getScope());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+				verify(request);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestWithTokenGenerator() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("username")).andReturn("username1");
+		expect(request.getParameter("password")).andReturn("password1");
+		expect(request.getParameter("scope")).andReturn("scope1");
+		replay(request);
+		TokenGenerator tokenGenerator = new SecureTokenGenerator();
+		target.setTokenGenerator(tokenGenerator);
+		final RequestContext context = new RequestContext(request);
+		context.setGrantType("password");
+		context.setClientCredential(new ClientCredential("clientId1", "clientSecret1"));
+		DataHandlerSync dataHandler = new MockDataHandler(request);
+		dataHandler.setContext(context);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					assertEquals("scope1", event.get().getScope());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+				verify(request);
+			}
+		});
+		assertSame(tokenGenerator, context.getTokenGenerator());
+	}
+
+	@Test
+	public void testHandleRequestWithTokenGeneratorWithoutContext() throws Exception {
+		final Request request = createRequestMock();
+		expect(request.getParameter("username")).andReturn("username1");
+		expect(request.getParameter("password")).andReturn("password1");
+		expect(request.getParameter("scope")).andReturn("scope1");
+		replay(request);
+		TokenGenerator tokenGenerator = new SecureTokenGenerator();
+		target.setTokenGenerator(tokenGenerator);
+		DataHandlerSync dataHandler = new MockDataHandler(request);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					assertEquals("scope1", event.get().getScope());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+				verify(request);
+			}
+		});
+		RequestContext context = dataHandler.getContext();
+		assertEquals("clientId1", context.getClientCredential().getClientId());
+		assertSame(tokenGenerator, context.getTokenGenerator());
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		try {
@@ -222,6 +308,7 @@ public class PasswordTest {
 	private DataHandlerSync createDataHandlerMock(Request request) {
 		DataHandlerSync dataHandler = createMock(DataHandlerSync.class);
 		expect(dataHandler.getRequest()).andReturn(request);
+		dataHandler.setContext(isA(RequestContext.class));
 		return dataHandler;
 	}
 
@@ -20,6 +20,7 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -39,6 +40,8 @@ import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.RequestContext;
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec;
 
 public class RefreshTokenTest {
 
@@ -173,6 +176,30 @@ public class RefreshTokenTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestSignedToken() throws Exception {
+		final SignedTokenCodec codec = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		target.setSignedTokenCodec(codec);
+		Request request = createRequestMock();
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		DataHandlerSync dataHandler = new MockDataHandler(request);
+		replay(request);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					GrantHandlerResult result = event.get();
+					SignedTokenCodec.Claims claims = codec.decode(result.getAccessToken());
+					assertEquals("clientId1", claims.getClientId());
+					assertEquals("scope1", claims.getScope());
+					assertEquals(900L, claims.getExpiresIn());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+			}
+		});
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		expect(request.getHeader("Authorization")).andReturn(null);
@@ -184,6 +211,7 @@ public class RefreshTokenTest {
 	private DataHandlerSync createDataHandlerMock(Request request) {
 		DataHandlerSync dataHandler = createMock(DataHandlerSync.class);
 		expect(dataHandler.getRequest()).andReturn(request);
+		dataHandler.setContext(isA(RequestContext.class));
 		return dataHandler;
 	}
 
@@ -43,9 +43,9 @@ public class TokenScenarioTest {
 	public void testAuthorizationCodeGrant() throws Exception {
 		final Request request = createMock(Request.class);
 		expect(request.getParameter("grant_type")).andReturn("authorization_code");
-		expect(request.getHeader("Authorization")).andReturn(null).times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("code")).andReturn("code1");
 		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
 		replay(request);
@@ -69,9 +69,9 @@ public class TokenScenarioTest {
 	public void testRefreshTokenGrant() throws Exception {
 		final Request request = createMock(Request.class);
 		expect(request.getParameter("grant_type")).andReturn("refresh_token");
-		expect(request.getHeader("Authorization")).andReturn(null).times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
 		replay(request);
 		token.handleRequest(request, new Handler<Response>() {
@@ -94,9 +94,9 @@ public class TokenScenarioTest {
 	public void testResourceOwnerPasswordCredentialsGrant() throws Exception {
 		final Request request = createMock(Request.class);
 		expect(request.getParameter("grant_type")).andReturn("password");
-		expect(request.getHeader("Authorization")).andReturn(null).times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("username")).andReturn("username1");
 		expect(request.getParameter("password")).andReturn("password1");
 		expect(request.getParameter("scope")).andReturn("scope1");
@@ -121,9 +121,9 @@ public class TokenScenarioTest {
 	public void testClientCredentialsGrant() throws Exception {
 		final Request request = createMock(Request.class);
 		expect(request.getParameter("grant_type")).andReturn("client_credentials");
-		expect(request.getHeader("Authorization")).andReturn(null).times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("scope")).andReturn("scope1");
 		replay(request);
 		token.handleRequest(request, new Handler<Response>() {
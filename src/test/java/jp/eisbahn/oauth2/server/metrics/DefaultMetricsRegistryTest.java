@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+import org.junit.Test;
+
+public class DefaultMetricsRegistryTest {
+
+	@Test
+	public void testRecord() {
+		DefaultMetricsRegistry target = new DefaultMetricsRegistry();
+		Metric metric = target.getRecorder("token.password");
+		assertSame(metric, target.getMetric("token.password"));
+		metric.record(2000000L, null);
+		metric.record(4000000L, new OAuthError.InvalidClient(""));
+		metric.record(6000000L, new OAuthError.InvalidClient(""));
+		metric.record(8000000L, new OAuthError.InvalidGrant(""));
+		assertEquals(4, metric.getCount());
+		assertEquals(3, metric.getErrorCount());
+		assertEquals(2, metric.getErrorCount("invalid_client"));
+		assertEquals(0, metric.getErrorCount("invalid_scope"));
+		Map<String, Long> errors = metric.getErrors();
+		assertEquals(2, errors.size());
+		assertEquals(Long.valueOf(1), errors.get("invalid_grant"));
+		assertEquals(5.0, metric.getMeanMillis(), 0.001);
+		assertEquals(8.0, metric.getMaxMillis(), 0.001);
+		assertTrue(metric.getPercentile50Millis() >= 4.0);
+		assertTrue(metric.getPercentile50Millis() <= 4.5);
+		assertEquals(8.0, metric.getPercentile99Millis(), 0.001);
+		assertEquals(1, target.getMetrics().size());
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		DefaultMetricsRegistry target = new DefaultMetricsRegistry();
+		target.setMBeanServer(server);
+		target.setJmxDomain("test");
+		target.getMetric("protectedResource").record(1000000L, new OAuthError.InvalidToken(""));
+		ObjectName name = new ObjectName("test:type=Metric,name=\"protectedResource\"");
+		assertTrue(server.isRegistered(name));
+		assertEquals(1L, server.getAttribute(name, "Count"));
+		assertEquals(1L, server.getAttribute(name, "ErrorCount"));
+		assertEquals(1.0, (Double)server.getAttribute(name, "MaxMillis"), 0.001);
+
+		DefaultMetricsRegistry other = new DefaultMetricsRegistry();
+		other.setMBeanServer(server);
+		other.setJmxDomain("test");
+		other.getMetric("protectedResource").record(1000000L, null);
+		assertEquals(1L, server.getAttribute(name, "Count"));
+
+		target.unregister();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testWithoutJmx() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		DefaultMetricsRegistry target = new DefaultMetricsRegistry();
+		target.setMBeanServer(server);
+		target.getMetric("protectedResource");
+		assertEquals(0, server.queryNames(new ObjectName("*:type=Metric,*"), null).size());
+	}
+
+}
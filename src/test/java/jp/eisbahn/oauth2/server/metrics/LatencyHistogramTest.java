@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram target = new LatencyHistogram();
+		assertEquals(0, target.getCount());
+		assertEquals(0, target.getMax());
+		assertEquals(0.0, target.getMean(), 0.0);
+		assertEquals(0, target.getPercentile(99));
+	}
+
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			int index = LatencyHistogram.indexOf(value);
+			assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+			if (index > 0) {
+				assertTrue(value > LatencyHistogram.upperBoundOf(index - 1));
+			}
+		}
+		assertEquals(Long.MAX_VALUE,
+				LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testPercentile() {
+		LatencyHistogram target = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			target.record(value * 1000);
+		}
+		target.record(-1);
+		assertEquals(1001, target.getCount());
+		assertEquals(1000000, target.getMax());
+		assertEquals(500500000L, target.getSum());
+		assertPrecise(500000, target.getPercentile(50));
+		assertPrecise(990000, target.getPercentile(99));
+		assertEquals(1000000, target.getPercentile(100));
+		assertEquals(0, target.getPercentile(0));
+	}
+
+	@Test
+	public void testConcurrentRecord() throws Exception {
+		final LatencyHistogram target = new LatencyHistogram();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 10000; j++) {
+						target.record(j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(40000, target.getCount());
+		assertEquals(9999, target.getMax());
+		assertEquals(4L * 9999 * 10000 / 2, target.getSum());
+	}
+
+	private void assertPrecise(long expected, long actual) {
+		assertTrue(actual + " < " + expected, actual >= expected);
+		assertTrue(actual + " > " + expected, actual <= expected * 1.125);
+	}
+
+}
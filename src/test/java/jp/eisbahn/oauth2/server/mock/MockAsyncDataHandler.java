@@ -0,0 +1,104 @@
+package jp.eisbahn.oauth2.server.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Promise;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandler;
+import jp.eisbahn.oauth2.server.data.AsyncDataHandlerAdapter;
+import jp.eisbahn.oauth2.server.data.DataHandlerAsync;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class MockAsyncDataHandler extends DataHandlerAsync {
+
+	private final AsyncDataHandler delegate;
+	private final Map<String, OAuthError> failures = new HashMap<String, OAuthError>();
+	private final Map<String, Promise<?>> held = new HashMap<String, Promise<?>>();
+
+	public MockAsyncDataHandler(Request request) {
+		super(request);
+		delegate = new AsyncDataHandlerAdapter(new MockDataHandler(request));
+	}
+
+	public void setFailure(String method, OAuthError error) {
+		failures.put(method, error);
+	}
+
+	public void hold(String method) {
+		held.put(method, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> Promise<T> getHeld(String method) {
+		return (Promise<T>)held.get(method);
+	}
+
+	private <T> Promise<T> result(String method, Promise<T> promise) {
+		if (held.containsKey(method)) {
+			Promise<T> pending = new Promise<T>();
+			held.put(method, pending);
+			return pending;
+		}
+		OAuthError error = failures.get(method);
+		return error != null ? Promise.<T>failed(error) : promise;
+	}
+
+	@Override
+	public Promise<Boolean> validateClient(String clientId, String clientSecret, String grantType) {
+		return result("validateClient", delegate.validateClient(clientId, clientSecret, grantType));
+	}
+
+	@Override
+	public Promise<String> getUserId(String username, String password) {
+		return result("getUserId", delegate.getUserId(username, password));
+	}
+
+	@Override
+	public Promise<AuthInfo> createOrUpdateAuthInfo(String clientId, String userId, String scope) {
+		return result("createOrUpdateAuthInfo", delegate.createOrUpdateAuthInfo(clientId, userId, scope));
+	}
+
+	@Override
+	public Promise<AccessToken> createOrUpdateAccessToken(AuthInfo authInfo) {
+		return result("createOrUpdateAccessToken", delegate.createOrUpdateAccessToken(authInfo));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByCode(String code) {
+		return result("getAuthInfoByCode", delegate.getAuthInfoByCode(code));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoByRefreshToken(String refreshToken) {
+		return result("getAuthInfoByRefreshToken", delegate.getAuthInfoByRefreshToken(refreshToken));
+	}
+
+	@Override
+	public Promise<String> getClientUserId(String clientId, String clientSecret) {
+		return result("getClientUserId", delegate.getClientUserId(clientId, clientSecret));
+	}
+
+	@Override
+	public Promise<Boolean> validateClientById(String clientId) {
+		return result("validateClientById", delegate.validateClientById(clientId));
+	}
+
+	@Override
+	public Promise<Boolean> validateUserById(String userId) {
+		return result("validateUserById", delegate.validateUserById(userId));
+	}
+
+	@Override
+	public Promise<AccessToken> getAccessToken(String token) {
+		return result("getAccessToken", delegate.getAccessToken(token));
+	}
+
+	@Override
+	public Promise<AuthInfo> getAuthInfoById(String id) {
+		return result("getAuthInfoById", delegate.getAuthInfoById(id));
+	}
+
+}
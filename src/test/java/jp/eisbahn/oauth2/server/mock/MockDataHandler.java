@@ -116,12 +116,21 @@ public class MockDataHandler extends DataHandlerSync {
 
 	private Date createDate(int daysAgo) {
 		Calendar cal = Calendar.getInstance();
-		cal.setTime(new Date());
+		cal.setTime(new Date(currentTimeMillis()));
 		cal.add(Calendar.DATE, daysAgo);
 		return cal.getTime();
 	}
 
-	@Override
+	/**
+	 * Retrieve the current time stamped on the access tokens. Override this
+	 * method to control the clock in a test.
+	 * @return The current time in milliseconds.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+		@Override
 	public AuthInfo getAuthInfoById(String id) {
 		if (id == null || "null".equals(id)) return null;
 		AuthInfo authInfo = new AuthInfo();
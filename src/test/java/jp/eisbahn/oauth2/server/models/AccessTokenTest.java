@@ -19,6 +19,8 @@
 package jp.eisbahn.oauth2.server.models;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 
@@ -55,4 +57,13 @@ public class AccessTokenTest {
 		assertEquals(now, target.getCreatedOn());
 	}
 
+	@Test
+	public void testIsExpired() throws Exception {
+		AccessToken target = new AccessToken();
+		target.setCreatedOn(new Date(10000L));
+		target.setExpiresIn(60L);
+		assertFalse(target.isExpired(69999L));
+		assertTrue(target.isExpired(70000L));
+	}
+
 }
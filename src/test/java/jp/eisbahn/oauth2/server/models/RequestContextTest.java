@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.models;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RequestContextTest {
+
+	@Test
+	public void testSimple() {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("scope")).andReturn("scope1");
+		expect(request.getParameter("code")).andReturn("code1");
+		replay(request);
+		RequestContext target = new RequestContext(request);
+		assertSame(request, target.getRequest());
+		assertNull(target.getClientId());
+		target.setGrantType("authorization_code");
+		assertEquals("authorization_code", target.getGrantType());
+		ClientCredential clientCredential = new ClientCredential("clientId1", "clientSecret1");
+		target.setClientCredential(clientCredential);
+		assertSame(clientCredential, target.getClientCredential());
+		assertEquals("clientId1", target.getClientId());
+		assertEquals("scope1", target.getScope());
+		assertEquals("scope1", target.getScope());
+		assertEquals("code1", target.getParameter("code"));
+		verify(request);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+import org.junit.Test;
+
+public class ScopeRegistryTest {
+
+	@Test
+	public void testRegister() {
+		ScopeRegistry target = new ScopeRegistry();
+		assertEquals(0, target.register("read"));
+		assertEquals(1, target.register("write"));
+		assertEquals(0, target.register("read"));
+		assertEquals(2, target.size());
+		assertEquals(1, target.indexOf("write"));
+		assertEquals(-1, target.indexOf("admin"));
+		assertEquals(-1, target.indexOf(null));
+		for (String name : new String[] {null, "", "read write"}) {
+			try {
+				target.register(name);
+				fail("IllegalArgumentException not thrown: " + name);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testRequireAndCompile() {
+		ScopeRegistry target = new ScopeRegistry();
+		Scopes required = target.require("read  write");
+		assertEquals(2, target.size());
+		assertEquals("read  write", required.toString());
+		assertTrue(target.compile("write unknown read").containsAll(required));
+		assertFalse(target.compile("read").containsAll(required));
+		assertFalse(target.compile((String)null).containsAll(required));
+		assertTrue(target.compile((String)null).isEmpty());
+		assertTrue(target.compile("unknown").isEmpty());
+		assertEquals(2, target.size());
+	}
+
+	@Test
+	public void testManyScopes() {
+		ScopeRegistry target = new ScopeRegistry();
+		StringBuilder all = new StringBuilder();
+		for (int i = 0; i < 150; i++) {
+			all.append(" scope").append(i);
+		}
+		target.require(all.toString());
+		Scopes required = target.require("scope3 scope70 scope149");
+		assertTrue(target.compile(all.toString()).containsAll(required));
+		assertFalse(target.compile("scope3 scope70").containsAll(required));
+		assertTrue(target.compile("scope149").contains("scope149"));
+		assertTrue(target.compile("scope149").containsAll(target.require("scope149")));
+	}
+
+	@Test
+	public void testCache() {
+		ScopeRegistry target = new ScopeRegistry();
+		target.require("read");
+		Scopes granted = target.compile("read write");
+		assertSame(granted, target.compile("read write"));
+		assertFalse(granted.contains("write"));
+		Scopes required = target.require("write");
+		Scopes compiled = target.compile("read write");
+		assertNotSame(granted, compiled);
+		assertTrue(compiled.containsAll(required));
+
+		target.setCacheSize(1);
+		Scopes other = target.compile("write read");
+		assertNotSame(other, target.compile("write read"));
+	}
+
+	@Test
+	public void testCompileAuthInfo() {
+		ScopeRegistry target = new ScopeRegistry();
+		Scopes required = target.require("write");
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setScope("read write");
+		Scopes granted = target.compile(authInfo);
+		assertSame(granted, authInfo.getScopes());
+		assertSame(granted, target.compile(authInfo));
+		assertTrue(granted.containsAll(required));
+		authInfo.setScope("read");
+		assertFalse(target.compile(authInfo).containsAll(required));
+		assertFalse(new ScopeRegistry().compile(authInfo).contains("read"));
+	}
+
+}
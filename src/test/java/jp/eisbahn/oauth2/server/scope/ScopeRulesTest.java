@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScopeRulesTest {
+
+	private ScopeRegistry registry;
+	private Scopes read;
+	private Scopes write;
+	private Scopes admin;
+
+	@Before
+	public void setUp() {
+		registry = new ScopeRegistry();
+		read = registry.require("read");
+		write = registry.require("write");
+		admin = registry.require("admin");
+	}
+
+	@Test
+	public void testFind() {
+		ScopeRules target = new ScopeRules();
+		target.add("/photos/*", read);
+		target.add("/photos/upload", write);
+		target.add("/photos/admin/*", admin);
+		assertSame(read, target.find("/photos"));
+		assertSame(read, target.find("/photos/"));
+		assertSame(read, target.find("/photos/1"));
+		assertSame(read, target.find("/photos/upload/1"));
+		assertSame(write, target.find("/photos/upload"));
+		assertSame(write, target.find("//photos/upload/"));
+		assertSame(admin, target.find("/photos/admin"));
+		assertSame(admin, target.find("/photos/admin/users/1"));
+		assertNull(target.find("/videos"));
+		assertNull(target.find("/"));
+		assertNull(target.find(""));
+		assertNull(target.find(null));
+	}
+
+	@Test
+	public void testRoot() {
+		ScopeRules target = new ScopeRules();
+		target.add("/*", read);
+		target.add("/", write);
+		target.add("/admin/*", admin);
+		assertSame(write, target.find("/"));
+		assertSame(read, target.find("/videos/1"));
+		assertSame(admin, target.find("/admin"));
+	}
+
+	@Test
+	public void testInvalidPattern() {
+		ScopeRules target = new ScopeRules();
+		try {
+			target.add("/photos/*/comments", read);
+			fail("IllegalArgumentException not thrown.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
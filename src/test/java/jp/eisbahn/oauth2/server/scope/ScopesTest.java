@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScopesTest {
+
+	@Test
+	public void testContainsAll() {
+		ScopeRegistry registry = new ScopeRegistry();
+		Scopes readWrite = registry.require("read write");
+		Scopes read = registry.compile("read");
+		Scopes empty = registry.compile("");
+		assertTrue(readWrite.containsAll(read));
+		assertTrue(readWrite.containsAll(empty));
+		assertTrue(empty.containsAll(empty));
+		assertFalse(read.containsAll(readWrite));
+		assertFalse(empty.containsAll(read));
+	}
+
+	@Test
+	public void testContains() {
+		ScopeRegistry registry = new ScopeRegistry();
+		registry.require("read write");
+		Scopes target = registry.compile("write other");
+		assertTrue(target.contains("write"));
+		assertFalse(target.contains("read"));
+		assertFalse(target.contains("other"));
+		assertFalse(target.contains(null));
+		assertFalse(target.isEmpty());
+		registry.register("late");
+		assertFalse(target.contains("late"));
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.serializer.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.serializer.ResponseSerializer;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.junit.Test;
+
+public abstract class AbstractResponseSerializerTest {
+
+	/**
+	 * Create the serializer to test.
+	 * @return The serializer instance.
+	 */
+	protected abstract ResponseSerializer createTarget();
+
+	@Test
+	public void testSerializeResultSimple() {
+		ResponseSerializer target = createTarget();
+		GrantHandlerResult result = new GrantHandlerResult("Bearer", "accessToken1");
+		result.setExpiresIn(900L);
+		result.setRefreshToken("refreshToken1");
+		result.setScope("scope1");
+		String json = target.serialize(result);
+		assertEquals(
+				"{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\","
+						+ "\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}",
+				json);
+		assertEquals(Util.toJson(result), json);
+	}
+
+	@Test
+	public void testSerializeResultWithIdTokenAndEscape() {
+		ResponseSerializer target = createTarget();
+		GrantHandlerResult result = new GrantHandlerResult("Bearer", "access\"Token\\1");
+		result.setIdToken("idToken1");
+		result.setScope("scope1 あ");
+		assertEquals(Util.toJson(result), target.serialize(result));
+	}
+
+	@Test
+	public void testSerializeResultRequiredOnly() {
+		ResponseSerializer target = createTarget();
+		GrantHandlerResult result = new GrantHandlerResult("Bearer", "accessToken1");
+		String json = target.serialize(result);
+		assertEquals("{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\"}", json);
+		assertEquals(Util.toJson(result), json);
+	}
+
+	@Test
+	public void testSerializeError() {
+		ResponseSerializer target = createTarget();
+		OAuthError error = new OAuthError.InvalidRequest("'grant_type' not found");
+		String json = target.serialize(error);
+		assertEquals(
+				"{\"error\":\"invalid_request\",\"error_description\":\"'grant_type' not found\"}",
+				json);
+		assertEquals(Util.toJson(error), json);
+	}
+
+	@Test
+	public void testSerializeErrorWithoutDescription() {
+		ResponseSerializer target = createTarget();
+		OAuthError error = new OAuthError.InvalidClient("");
+		String json = target.serialize(error);
+		assertEquals("{\"error\":\"invalid_client\"}", json);
+		assertEquals(Util.toJson(error), json);
+		error = new OAuthError.UnsupportedGrantType(null);
+		assertEquals(Util.toJson(error), target.serialize(error));
+	}
+
+	@Test
+	public void testSerializeServerSideErrors() {
+		ResponseSerializer target = createTarget();
+		OAuthError error = new OAuthError.TemporarilyUnavailable("The server is busy.");
+		assertEquals(
+				"{\"error\":\"temporarily_unavailable\",\"error_description\":\"The server is busy.\"}",
+				target.serialize(error));
+		// The second string does not contain the first one.
+		error = new OAuthError.ServerError("failed");
+		assertEquals("{\"error\":\"server_error\",\"error_description\":\"failed\"}",
+				target.serialize(error));
+		assertEquals(Util.toJson(error), target.serialize(error));
+	}
+
+}
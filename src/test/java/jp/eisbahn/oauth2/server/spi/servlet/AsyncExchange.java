@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A fake request/response pair which records what the servlet API is
+ * asked to do, including the asynchronous mode.
+ */
+public class AsyncExchange {
+
+	private final Map<String, String> parameters = new HashMap<String, String>();
+	private final Map<String, String> headers = new HashMap<String, String>();
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+	private final Map<String, String> responseHeaders = new ConcurrentHashMap<String, String>();
+	private final StringWriter body = new StringWriter();
+	private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private final boolean asyncSupported;
+
+	private volatile int status = 200;
+	private volatile boolean started;
+	private volatile boolean completed;
+	private volatile boolean dispatched;
+	private volatile long timeout;
+
+	private final HttpServletRequest request;
+	private final HttpServletResponse response;
+	private final AsyncContext asyncContext;
+
+	public AsyncExchange(boolean asyncSupported) {
+		this.asyncSupported = asyncSupported;
+		request = proxy(HttpServletRequest.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getParameter")) {
+					return parameters.get(args[0]);
+				} else if (name.equals("getHeader")) {
+					return headers.get(args[0]);
+				} else if (name.equals("getAttribute")) {
+					return attributes.get(args[0]);
+				} else if (name.equals("setAttribute")) {
+					if (args[1] == null) {
+						attributes.remove(args[0]);
+					} else {
+						attributes.put((String)args[0], args[1]);
+					}
+					return null;
+				} else if (name.equals("removeAttribute")) {
+					attributes.remove(args[0]);
+					return null;
+				} else if (name.equals("getDispatcherType")) {
+					return dispatched ? DispatcherType.ASYNC : DispatcherType.REQUEST;
+				} else if (name.equals("isAsyncSupported")) {
+					return AsyncExchange.this.asyncSupported;
+				} else if (name.equals("isAsyncStarted")) {
+					return started && !completed && !dispatched;
+				} else if (name.equals("startAsync")) {
+					if (!AsyncExchange.this.asyncSupported || started) {
+						throw new IllegalStateException();
+					}
+					started = true;
+					return asyncContext;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+		response = proxy(HttpServletResponse.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("setStatus")) {
+					status = (Integer)args[0];
+					return null;
+				} else if (name.equals("getStatus")) {
+					return status;
+				} else if (name.equals("setContentType")) {
+					responseHeaders.put("Content-Type", (String)args[0]);
+					return null;
+				} else if (name.equals("setHeader")) {
+					responseHeaders.put((String)args[0], (String)args[1]);
+					return null;
+				} else if (name.equals("getWriter")) {
+					return new PrintWriter(body);
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+		asyncContext = proxy(AsyncContext.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getRequest")) {
+					return request;
+				} else if (name.equals("getResponse")) {
+					return response;
+				} else if (name.equals("setTimeout")) {
+					timeout = (Long)args[0];
+					return null;
+				} else if (name.equals("addListener")) {
+					synchronized (listeners) {
+						listeners.add((AsyncListener)args[0]);
+					}
+					return null;
+				} else if (name.equals("complete")) {
+					if (completed) {
+						throw new IllegalStateException("Already completed");
+					}
+					completed = true;
+					finished.countDown();
+					return null;
+				} else if (name.equals("dispatch") && args == null) {
+					if (dispatched) {
+						throw new IllegalStateException("Already dispatched");
+					}
+					dispatched = true;
+					finished.countDown();
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T)Proxy.newProxyInstance(
+				AsyncExchange.class.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+	public AsyncExchange param(String name, String value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	public AsyncExchange header(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	public HttpServletRequest getRequest() {
+		return request;
+	}
+
+	public HttpServletResponse getResponse() {
+		return response;
+	}
+
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getResponseHeader(String name) {
+		return responseHeaders.get(name);
+	}
+
+	public String getBody() {
+		return body.toString();
+	}
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public boolean isDispatched() {
+		return dispatched;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Wait until the asynchronous processing is completed or dispatched.
+	 */
+	public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	/**
+	 * Emulate the container which detected the timeout.
+	 */
+	public void fireTimeout() throws Exception {
+		List<AsyncListener> copy;
+		synchronized (listeners) {
+			copy = new ArrayList<AsyncListener>(listeners);
+		}
+		for (AsyncListener listener : copy) {
+			listener.onTimeout(new AsyncEvent(asyncContext, request, response));
+		}
+	}
+
+}
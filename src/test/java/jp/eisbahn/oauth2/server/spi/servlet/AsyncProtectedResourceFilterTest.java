@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncProtectedResourceFilterTest {
+
+	private ScheduledExecutorService scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newScheduledThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	private AsyncProtectedResourceFilter createTarget(String asyncTimeout) throws ServletException {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("asyncTimeout")).andReturn(asyncTimeout);
+		replay(config);
+		AsyncProtectedResourceFilter target = new AsyncProtectedResourceFilter();
+		target.init(config);
+		verify(config);
+		return target;
+	}
+
+	private static class CountingChain implements FilterChain {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response) {
+			assertEquals("clientId1", request.getAttribute("client_id"));
+			assertEquals("userId1", request.getAttribute("remote_user"));
+			assertEquals("scope1", request.getAttribute("scope"));
+			count.incrementAndGet();
+		}
+
+	}
+
+	@Test
+	public void testInit() throws Exception {
+		assertEquals(30000L, createTarget(null).getAsyncTimeout());
+		assertEquals(1000L, createTarget("1000").getAsyncTimeout());
+	}
+
+	@Test
+	public void testInlineResult() throws Exception {
+		AsyncProtectedResourceFilter target = createTarget(null);
+		AsyncExchange exchange = new AsyncExchange(true).header("Authorization", "Bearer accessToken1");
+		CountingChain chain = new CountingChain();
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		assertFalse(exchange.isStarted());
+		assertEquals(1, chain.count.get());
+	}
+
+	@Test
+	public void testAsyncDispatch() throws Exception {
+		AsyncProtectedResourceFilter target = createTarget(null);
+		target.getProtectedResource().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 20));
+		AsyncExchange exchange = new AsyncExchange(true).header("Authorization", "Bearer accessToken1");
+		CountingChain chain = new CountingChain();
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		assertTrue(exchange.isStarted());
+		assertEquals(0, chain.count.get());
+		assertTrue(exchange.awaitFinished(5, TimeUnit.SECONDS));
+		assertTrue(exchange.isDispatched());
+		assertFalse(exchange.isCompleted());
+		assertNotNull(exchange.getAttribute(AsyncProtectedResourceFilter.RESULT_ATTRIBUTE));
+
+		// The container dispatches the request to the filter again.
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		assertEquals(1, chain.count.get());
+		assertNull(exchange.getAttribute(AsyncProtectedResourceFilter.RESULT_ATTRIBUTE));
+	}
+
+	@Test
+	public void testResultIgnoredOnRequestDispatch() throws Exception {
+		AsyncProtectedResourceFilter target = createTarget(null);
+		AsyncExchange exchange = new AsyncExchange(true);
+		exchange.getRequest().setAttribute(AsyncProtectedResourceFilter.RESULT_ATTRIBUTE,
+				new Try<OAuthError, Response>(new Response("userId1", "clientId1", "scope1")));
+		CountingChain chain = new CountingChain();
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		assertEquals(400, exchange.getStatus());
+		assertEquals(0, chain.count.get());
+	}
+
+	@Test
+	public void testAsyncError() throws Exception {
+		AsyncProtectedResourceFilter target = createTarget(null);
+		target.getProtectedResource().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 20) {
+			@Override
+			public DataHandler create(Request request) {
+				return new SlowDataHandler(request, new DummyDataHandlerFactoryImpl().create(request)) {
+					@Override
+					public void getAccessToken(String token, Handler<AccessToken> handler) {
+						later(handler).handle(null);
+					}
+				};
+			}
+		});
+		AsyncExchange exchange = new AsyncExchange(true).header("Authorization", "Bearer accessToken1");
+		CountingChain chain = new CountingChain();
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		assertTrue(exchange.isStarted());
+		assertTrue(exchange.awaitFinished(5, TimeUnit.SECONDS));
+		assertTrue(exchange.isCompleted());
+		assertFalse(exchange.isDispatched());
+		assertEquals(401, exchange.getStatus());
+		assertEquals("Bearer error=\"invalid_token\", error_description=\"Invalid access token.\"",
+				exchange.getResponseHeader("WWW-Authenticate"));
+		assertEquals(0, chain.count.get());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		AsyncProtectedResourceFilter target = createTarget(null);
+		target.getProtectedResource().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 200));
+		AsyncExchange exchange = new AsyncExchange(true).header("Authorization", "Bearer accessToken1");
+		CountingChain chain = new CountingChain();
+		target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+		exchange.fireTimeout();
+		assertTrue(exchange.isCompleted());
+		assertEquals(503, exchange.getStatus());
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertFalse(exchange.isDispatched());
+		assertEquals(0, chain.count.get());
+	}
+
+	@Test
+	public void testManyConcurrentSlowBackends() throws Exception {
+		final int requests = 200;
+		final long delay = 200;
+		final int containerThreads = 4;
+		final AsyncProtectedResourceFilter target = createTarget(null);
+		target.getProtectedResource().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, delay));
+		final CountingChain chain = new CountingChain();
+		ExecutorService container = Executors.newFixedThreadPool(containerThreads);
+		List<AsyncExchange> exchanges = new ArrayList<AsyncExchange>();
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < requests; i++) {
+				final AsyncExchange exchange =
+						new AsyncExchange(true).header("Authorization", "Bearer accessToken1");
+				exchanges.add(exchange);
+				container.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							target.doFilter(exchange.getRequest(), exchange.getResponse(), chain);
+						} catch (ServletException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				});
+			}
+			for (AsyncExchange exchange : exchanges) {
+				assertTrue(exchange.awaitFinished(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			container.shutdownNow();
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		for (AsyncExchange exchange : exchanges) {
+			assertTrue(exchange.isDispatched());
+		}
+		// The four DataHandler calls of the validation are sequential.
+		// Holding the container threads would take requests / containerThreads
+		// times as long as that.
+		long blocking = requests / containerThreads * delay * 4;
+		assertTrue("elapsed " + elapsed + "ms", elapsed < blocking / 5);
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncTokenServletTest {
+
+	private static final String BODY = "{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\","
+			+ "\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}";
+
+	private ScheduledExecutorService scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newScheduledThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	private AsyncTokenServlet createTarget(String asyncTimeout) throws ServletException {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("asyncTimeout")).andReturn(asyncTimeout);
+		replay(config);
+		AsyncTokenServlet target = new AsyncTokenServlet();
+		target.init(config);
+		verify(config);
+		return target;
+	}
+
+	private AsyncExchange createExchange(boolean asyncSupported) {
+		return new AsyncExchange(asyncSupported)
+			.param("grant_type", "authorization_code")
+			.param("client_id", "clientId1")
+			.param("client_secret", "clientSecret1")
+			.param("code", "code1")
+			.param("redirect_uri", "redirectUri1");
+	}
+
+	@Test
+	public void testInit() throws Exception {
+		assertEquals(30000L, createTarget(null).getAsyncTimeout());
+		assertEquals(5000L, createTarget("5000").getAsyncTimeout());
+		try {
+			createTarget("five seconds");
+			fail("Error expected.");
+		} catch (ServletException e) {
+		}
+	}
+
+	@Test
+	public void testInlineResult() throws Exception {
+		AsyncTokenServlet target = createTarget(null);
+		AsyncExchange exchange = createExchange(true);
+		target.doPost(exchange.getRequest(), exchange.getResponse());
+		assertFalse(exchange.isStarted());
+		assertEquals(200, exchange.getStatus());
+		assertEquals("application/json; charset=UTF-8", exchange.getResponseHeader("Content-Type"));
+		assertEquals(BODY, exchange.getBody());
+	}
+
+	@Test
+	public void testAsyncResult() throws Exception {
+		AsyncTokenServlet target = createTarget("5000");
+		target.getToken().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 20));
+		AsyncExchange exchange = createExchange(true);
+		target.doPost(exchange.getRequest(), exchange.getResponse());
+		assertTrue(exchange.isStarted());
+		assertEquals(5000L, exchange.getTimeout());
+		assertTrue(exchange.awaitFinished(5, TimeUnit.SECONDS));
+		assertTrue(exchange.isCompleted());
+		assertEquals(200, exchange.getStatus());
+		assertEquals(BODY, exchange.getBody());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		AsyncTokenServlet target = createTarget(null);
+		target.getToken().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 200));
+		AsyncExchange exchange = createExchange(true);
+		target.doPost(exchange.getRequest(), exchange.getResponse());
+		assertTrue(exchange.isStarted());
+		exchange.fireTimeout();
+		assertTrue(exchange.isCompleted());
+		assertEquals(503, exchange.getStatus());
+		// The late result must not be written to the recycled response.
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(503, exchange.getStatus());
+		assertEquals("", exchange.getBody());
+	}
+
+	@Test
+	public void testAsyncNotSupported() throws Exception {
+		AsyncTokenServlet target = createTarget(null);
+		target.getToken().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 20));
+		AsyncExchange exchange = createExchange(false);
+		target.doPost(exchange.getRequest(), exchange.getResponse());
+		assertFalse(exchange.isStarted());
+		assertEquals(200, exchange.getStatus());
+		assertEquals(BODY, exchange.getBody());
+	}
+
+	@Test
+	public void testAsyncNotSupportedTimeout() throws Exception {
+		AsyncTokenServlet target = createTarget("50");
+		target.getToken().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, 2000));
+		AsyncExchange exchange = createExchange(false);
+		target.doPost(exchange.getRequest(), exchange.getResponse());
+		assertEquals(503, exchange.getStatus());
+		assertEquals("", exchange.getBody());
+	}
+
+	@Test
+	public void testManyConcurrentSlowBackends() throws Exception {
+		final int requests = 200;
+		final long delay = 200;
+		final int containerThreads = 4;
+		AsyncTokenServlet target = createTarget(null);
+		target.getToken().setDataHandlerFactory(new SlowDataHandlerFactory(scheduler, delay));
+		final AsyncTokenServlet servlet = target;
+		ExecutorService container = Executors.newFixedThreadPool(containerThreads);
+		List<AsyncExchange> exchanges = new ArrayList<AsyncExchange>();
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < requests; i++) {
+				final AsyncExchange exchange = createExchange(true);
+				exchanges.add(exchange);
+				container.execute(new Runnable() {
+					@Override
+					public void run() {
+						servlet.doPost(exchange.getRequest(), exchange.getResponse());
+					}
+				});
+			}
+			for (AsyncExchange exchange : exchanges) {
+				assertTrue(exchange.awaitFinished(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			container.shutdownNow();
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		for (AsyncExchange exchange : exchanges) {
+			assertTrue(exchange.isStarted());
+			assertEquals(200, exchange.getStatus());
+			assertEquals(BODY, exchange.getBody());
+		}
+		// Each request waits for three sequential DataHandler calls. Holding
+		// the container threads would take requests / containerThreads times
+		// as long as that.
+		long blocking = requests / containerThreads * delay * 3;
+		assertTrue("elapsed " + elapsed + "ms", elapsed < blocking / 5);
+	}
+
+}
@@ -36,10 +36,10 @@ public class HttpServletRequestAdapterTest {
 		expect(request.getParameter("name1")).andReturn("value1");
 		expect(request.getHeader("name2")).andReturn("value2");
 		@SuppressWarnings("serial")
-		Map<String, String> map = new HashMap<String, String>() {
+		Map<String, String[]> map = new HashMap<String, String[]>() {
 			{
-				put("k1", "v1");
-				put("k2", "v2");
+				put("k1", new String[] {"v1"});
+				put("k2", new String[] {"v2", "v3"});
 			}
 		};
 		expect(request.getParameterMap()).andReturn(map);
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.startsWith;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.PrintWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class IntrospectionServletTest {
+
+	private static ServletConfig createConfig(String factory, String timeout) {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory")).andReturn(factory);
+		expect(config.getInitParameter("requestTimeout")).andReturn(timeout);
+		expect(config.getInitParameter("asyncTimeout")).andReturn(null);
+		return config;
+	}
+
+	@Test
+	public void testSimple() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getParameter("tokens")).andReturn(null);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		PrintWriter writer = createMock(PrintWriter.class);
+		writer.write(startsWith("{\"active\":true,\"scope\":\"scope1\",\"client_id\":\"clientId1\","
+				+ "\"username\":\"userId1\",\"exp\":"));
+		writer.flush();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(200);
+		response.setContentType("application/json; charset=UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		expect(response.getWriter()).andReturn(writer);
+		ServletConfig config = createConfig(
+				"jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl", null);
+		replay(request, response, config, writer);
+
+		IntrospectionServlet target = new IntrospectionServlet();
+		target.init(config);
+		target.doPost(request, response);
+
+		verify(request, response, config, writer);
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getParameter("tokens")).andReturn("accessToken1 accessToken2");
+		PrintWriter writer = createMock(PrintWriter.class);
+		writer.write(startsWith("[{\"active\":true,"));
+		writer.flush();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(200);
+		response.setContentType("application/json; charset=UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		expect(response.getWriter()).andReturn(writer);
+		ServletConfig config = createConfig(
+				"jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl", "1000");
+		replay(request, response, config, writer);
+
+		IntrospectionServlet target = new IntrospectionServlet();
+		target.init(config);
+		target.doPost(request, response);
+
+		verify(request, response, config, writer);
+	}
+
+	@Test
+	public void testManagedDataHandlerFactory() throws Exception {
+		ServletConfig config = createConfig(
+				"jp.eisbahn.oauth2.server.spi.servlet.ManagedDummyDataHandlerFactory", null);
+		replay(config);
+		int started = ManagedDummyDataHandlerFactory.STARTED.get();
+		int stopped = ManagedDummyDataHandlerFactory.STOPPED.get();
+
+		IntrospectionServlet target = new IntrospectionServlet();
+		target.init(config);
+		assertEquals(started + 1, ManagedDummyDataHandlerFactory.STARTED.get());
+		target.destroy();
+		assertEquals(stopped + 1, ManagedDummyDataHandlerFactory.STOPPED.get());
+
+		verify(config);
+	}
+
+	@Test
+	public void testInitInvalidTimeout() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn("abc");
+		replay(config);
+		IntrospectionServlet target = new IntrospectionServlet();
+		try {
+			target.init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+			assertEquals(NumberFormatException.class, e.getCause().getClass());
+		}
+		verify(config);
+	}
+
+}
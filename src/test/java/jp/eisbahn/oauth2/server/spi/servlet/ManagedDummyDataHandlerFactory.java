@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.data.AbstractDataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class ManagedDummyDataHandlerFactory extends AbstractDataHandlerFactory<DataHandlerFactory> {
+
+	static final AtomicInteger STARTED = new AtomicInteger();
+	static final AtomicInteger STOPPED = new AtomicInteger();
+
+	@Override
+	protected DataHandlerFactory createResources() throws Exception {
+		STARTED.incrementAndGet();
+		return new DummyDataHandlerFactoryImpl();
+	}
+
+	@Override
+	protected void closeResources(DataHandlerFactory resources) {
+		STOPPED.incrementAndGet();
+	}
+
+	@Override
+	protected DataHandler createDataHandler(Request request, DataHandlerFactory resources) {
+		return resources.create(request);
+	}
+
+}
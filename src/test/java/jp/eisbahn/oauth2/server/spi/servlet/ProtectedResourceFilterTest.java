@@ -19,9 +19,12 @@
 package jp.eisbahn.oauth2.server.spi.servlet;
 
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import javax.servlet.FilterChain;
@@ -37,6 +40,7 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.Scopes;
 
 public class ProtectedResourceFilterTest {
 
@@ -47,12 +51,15 @@ public class ProtectedResourceFilterTest {
 		request.setAttribute("client_id", "clientId1");
 		request.setAttribute("remote_user", "userId1");
 		request.setAttribute("scope", "scope1");
+		request.setAttribute(eq("scopes"), isA(Scopes.class));
 		HttpServletResponse response = createMock(HttpServletResponse.class);
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
 		chain.doFilter(request, response);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
@@ -62,6 +69,26 @@ public class ProtectedResourceFilterTest {
 		verify(request, response, config, chain);
 	}
 
+	@Test
+	public void testManagedDataHandlerFactory() throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn(ManagedDummyDataHandlerFactory.class.getName());
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		replay(config);
+		int started = ManagedDummyDataHandlerFactory.STARTED.get();
+		int stopped = ManagedDummyDataHandlerFactory.STOPPED.get();
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		assertEquals(started + 1, ManagedDummyDataHandlerFactory.STARTED.get());
+		assertEquals(stopped, ManagedDummyDataHandlerFactory.STOPPED.get());
+		target.destroy();
+		assertEquals(stopped + 1, ManagedDummyDataHandlerFactory.STOPPED.get());
+		verify(config);
+	}
+
 	@Test
 	public void testSuccessExplicitAccessTokenFetcherProvider() throws Exception {
 		HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -69,12 +96,15 @@ public class ProtectedResourceFilterTest {
 		request.setAttribute("client_id", "clientId1");
 		request.setAttribute("remote_user", "userId1");
 		request.setAttribute("scope", "scope1");
+		request.setAttribute(eq("scopes"), isA(Scopes.class));
 		HttpServletResponse response = createMock(HttpServletResponse.class);
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
 		chain.doFilter(request, response);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(
 			"jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider");
 		replay(request, response, config, chain);
@@ -85,6 +115,65 @@ public class ProtectedResourceFilterTest {
 		verify(request, response, config, chain);
 	}
 
+	@Test
+	public void testRequiredScopes() throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes"))
+			.andReturn("/photos/*=scope1;\n /admin/*=admin scope1");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+
+		HttpServletRequest request1 = createMock(HttpServletRequest.class);
+		expect(request1.getServletPath()).andReturn("/photos");
+		expect(request1.getPathInfo()).andReturn("/1");
+		expect(request1.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		request1.setAttribute("client_id", "clientId1");
+		request1.setAttribute("remote_user", "userId1");
+		request1.setAttribute("scope", "scope1");
+		request1.setAttribute(eq("scopes"), isA(Scopes.class));
+		HttpServletResponse response1 = createMock(HttpServletResponse.class);
+		FilterChain chain = createMock(FilterChain.class);
+		chain.doFilter(request1, response1);
+
+		HttpServletRequest request2 = createMock(HttpServletRequest.class);
+		expect(request2.getServletPath()).andReturn("/admin/users");
+		expect(request2.getPathInfo()).andReturn(null);
+		expect(request2.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		HttpServletResponse response2 = createMock(HttpServletResponse.class);
+		response2.setStatus(401);
+		response2.setHeader("WWW-Authenticate",
+				"Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"The scope \"admin scope1\" is required.\"");
+
+		replay(config, request1, response1, chain, request2, response2);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request1, response1, chain);
+		target.doFilter(request2, response2, chain);
+		target.destroy();
+		verify(config, request1, response1, chain, request2, response2);
+	}
+
+	@Test
+	public void testRequiredScopesInvalid() throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn("/photos/*");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		replay(config);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		try {
+			target.init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+		}
+		verify(config);
+	}
+
 	@Test
 	public void testFailed() throws Exception {
 		HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -100,6 +189,8 @@ public class ProtectedResourceFilterTest {
 		FilterChain chain = createMock(FilterChain.class);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
@@ -177,6 +268,8 @@ public class ProtectedResourceFilterTest {
 		FilterChain chain = createMock(FilterChain.class);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("requiredScopes")).andReturn(null);
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * A DataHandlerFactory which answers as DummyDataHandlerFactoryImpl, but
+ * calls each handler after the delay on the scheduler thread like a
+ * non-blocking client of a slow storage.
+ */
+public class SlowDataHandlerFactory implements DataHandlerFactory {
+
+	private final DataHandlerFactory delegate = new DummyDataHandlerFactoryImpl();
+	private final ScheduledExecutorService scheduler;
+	private final long delayMillis;
+
+	public SlowDataHandlerFactory(ScheduledExecutorService scheduler, long delayMillis) {
+		this.scheduler = scheduler;
+		this.delayMillis = delayMillis;
+	}
+
+	@Override
+	public DataHandler create(Request request) {
+		return new SlowDataHandler(request, delegate.create(request));
+	}
+
+	protected class SlowDataHandler extends DataHandler {
+
+		private final DataHandler target;
+
+		public SlowDataHandler(Request request, DataHandler target) {
+			super(request);
+			this.target = target;
+		}
+
+		protected <T> Handler<T> later(final Handler<T> handler) {
+			return new Handler<T>() {
+				@Override
+				public void handle(final T event) {
+					scheduler.schedule(new Runnable() {
+						@Override
+						public void run() {
+							handler.handle(event);
+						}
+					}, delayMillis, TimeUnit.MILLISECONDS);
+				}
+			};
+		}
+
+		@Override
+		public void validateClient(String clientId, String clientSecret,
+				String grantType, Handler<Boolean> handler) {
+			target.validateClient(clientId, clientSecret, grantType, later(handler));
+		}
+
+		@Override
+		public void getUserId(String username, String password, Handler<String> handler) {
+			target.getUserId(username, password, later(handler));
+		}
+
+		@Override
+		public void createOrUpdateAuthInfo(String clientId, String userId,
+				String scope, Handler<AuthInfo> handler) {
+			target.createOrUpdateAuthInfo(clientId, userId, scope, later(handler));
+		}
+
+		@Override
+		public void createOrUpdateAccessToken(AuthInfo authInfo, Handler<AccessToken> handler) {
+			target.createOrUpdateAccessToken(authInfo, later(handler));
+		}
+
+		@Override
+		public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+			target.getAuthInfoByCode(code, later(handler));
+		}
+
+		@Override
+		public void getAuthInfoByRefreshToken(String refreshToken, Handler<AuthInfo> handler) {
+			target.getAuthInfoByRefreshToken(refreshToken, later(handler));
+		}
+
+		@Override
+		public void getClientUserId(String clientId, String clientSecret,
+				Handler<String> handler) {
+			target.getClientUserId(clientId, clientSecret, later(handler));
+		}
+
+		@Override
+		public void validateClientById(String clientId, Handler<Boolean> handler) {
+			target.validateClientById(clientId, later(handler));
+		}
+
+		@Override
+		public void validateUserById(String userId, Handler<Boolean> handler) {
+			target.validateUserById(userId, later(handler));
+		}
+
+		@Override
+		public void getAccessToken(String token, Handler<AccessToken> handler) {
+			target.getAccessToken(token, later(handler));
+		}
+
+		@Override
+		public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+			target.getAuthInfoById(id, later(handler));
+		}
+
+	}
+
+}
@@ -22,6 +22,7 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.PrintWriter;
@@ -43,9 +44,9 @@ public class TokenServletTest {
 	public void testSimple() throws Exception {
 		HttpServletRequest request = createMock(HttpServletRequest.class);
 		expect(request.getParameter("grant_type")).andReturn("authorization_code");
-		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1");
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("code")).andReturn("code1");
 		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
 		PrintWriter writer = createMock(PrintWriter.class);
@@ -59,6 +60,7 @@ public class TokenServletTest {
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
 		replay(request, response, config, writer);
 
@@ -73,9 +75,9 @@ public class TokenServletTest {
 	public void testSimpleWithExplicitDefaultGrantHandler() throws Exception {
 		HttpServletRequest request = createMock(HttpServletRequest.class);
 		expect(request.getParameter("grant_type")).andReturn("authorization_code");
-		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1");
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("code")).andReturn("code1");
 		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
 		PrintWriter writer = createMock(PrintWriter.class);
@@ -90,6 +92,7 @@ public class TokenServletTest {
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(
 				"jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
 		replay(request, response, config, writer);
 
@@ -104,9 +107,9 @@ public class TokenServletTest {
 	public void testSimpleWithExplicitClientCredentialFetcher() throws Exception {
 		HttpServletRequest request = createMock(HttpServletRequest.class);
 		expect(request.getParameter("grant_type")).andReturn("authorization_code");
-		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
-		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
-		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1");
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
 		expect(request.getParameter("code")).andReturn("code1");
 		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
 		PrintWriter writer = createMock(PrintWriter.class);
@@ -121,6 +124,7 @@ public class TokenServletTest {
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(
 				"jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider");
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(
 				"jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl");
 		replay(request, response, config, writer);
@@ -132,6 +136,26 @@ public class TokenServletTest {
 		verify(request, response, config, writer);
 	}
 
+	@Test
+	public void testManagedDataHandlerFactory() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn(ManagedDummyDataHandlerFactory.class.getName());
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("requestTimeout")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		replay(config);
+		int started = ManagedDummyDataHandlerFactory.STARTED.get();
+		int stopped = ManagedDummyDataHandlerFactory.STOPPED.get();
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+		assertEquals(started + 1, ManagedDummyDataHandlerFactory.STARTED.get());
+		assertEquals(stopped, ManagedDummyDataHandlerFactory.STOPPED.get());
+		target.destroy();
+		assertEquals(stopped + 1, ManagedDummyDataHandlerFactory.STOPPED.get());
+		verify(config);
+	}
+
 	@Test
 	public void testClassNotFound() throws Exception {
 		ServletConfig config = createMock(ServletConfig.class);
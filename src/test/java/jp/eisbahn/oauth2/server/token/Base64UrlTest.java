@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+public class Base64UrlTest {
+
+	@Test
+	public void testEncodeAndDecode() {
+		Random random = new Random(1L);
+		for (int length = 0; length < 70; length++) {
+			byte[] source = new byte[length];
+			random.nextBytes(source);
+			String encoded = Base64Url.encode(source);
+			assertEquals(Base64.encodeBase64URLSafeString(source), encoded);
+			assertArrayEquals(source, Base64Url.decode(encoded, 0, encoded.length()));
+			String wrapped = "." + encoded + ".";
+			assertArrayEquals(source, Base64Url.decode(wrapped, 1, wrapped.length() - 1));
+		}
+	}
+
+	@Test
+	public void testEncodeIntoArray() {
+		Random random = new Random(1L);
+		for (int length = 0; length < 70; length++) {
+			byte[] source = new byte[length + 2];
+			random.nextBytes(source);
+			char[] result = new char[Base64Url.encodedLength(length) + 3];
+			result[0] = '.';
+			int end = Base64Url.encode(source, 1, length, result, 1);
+			assertEquals(Base64Url.encodedLength(length) + 1, end);
+			byte[] expected = new byte[length];
+			System.arraycopy(source, 1, expected, 0, length);
+			assertEquals("." + Base64.encodeBase64URLSafeString(expected), new String(result, 0, end));
+		}
+	}
+
+	@Test
+	public void testDecodeInvalid() {
+		assertNull(Base64Url.decode("abcde", 0, 5));
+		assertNull(Base64Url.decode("ab+d", 0, 4));
+		assertNull(Base64Url.decode("ab=d", 0, 4));
+		assertNull(Base64Url.decode("abあd", 0, 4));
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec.Claims;
+
+import org.junit.Test;
+
+public class InMemoryRevocationListTest {
+
+	private long now = 100000L;
+
+	@Test
+	public void testRevoke() {
+		InMemoryRevocationList target = createTarget();
+		target.revoke("authId1");
+		assertTrue(target.isRevoked(createClaims("authId1", 100000L)));
+		assertTrue(target.isRevoked(createClaims("authId1", 90000L)));
+		assertFalse(target.isRevoked(createClaims("authId1", 100001L)));
+		assertFalse(target.isRevoked(createClaims("authId2", 90000L)));
+		assertFalse(target.isRevoked(createClaims(null, 90000L)));
+	}
+
+	@Test
+	public void testPurge() {
+		InMemoryRevocationList target = createTarget();
+		assertEquals(InMemoryRevocationList.DEFAULT_RETENTION, target.getRetention());
+		assertEquals(InMemoryRevocationList.DEFAULT_PURGE_INTERVAL, target.getPurgeInterval());
+		target.setRetention(1000L);
+		target.setPurgeInterval(1000L);
+		target.revoke("authId1");
+		now += 500L;
+		target.revoke("authId2");
+		assertEquals(2, target.size());
+		now += 500L;
+		target.revoke("authId3");
+		assertEquals(2, target.size());
+		assertFalse(target.isRevoked(createClaims("authId1", 90000L)));
+		target.purge(now + 1000L);
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testPurgeAtMostOncePerInterval() {
+		InMemoryRevocationList target = createTarget();
+		target.setRetention(1000L);
+		target.setPurgeInterval(5000L);
+		target.revoke("authId1");
+		now += 2000L;
+		target.revoke("authId2");
+		assertEquals(2, target.size());
+		now += 3000L;
+		target.revoke("authId3");
+		assertEquals(1, target.size());
+	}
+
+	private InMemoryRevocationList createTarget() {
+		return new InMemoryRevocationList() {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	private Claims createClaims(String authId, long issuedAt) {
+		Claims claims = new Claims();
+		claims.setAuthId(authId);
+		claims.setIssuedAt(issuedAt);
+		return claims;
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+public class SecureTokenGeneratorTest {
+
+	@Test
+	public void testGenerate() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		String token = target.generate();
+		assertEquals(43, token.length());
+		assertTrue(token.matches("[A-Za-z0-9_-]+"));
+		byte[] bytes = Base64.decodeBase64(token);
+		assertEquals(32, bytes.length);
+		assertEquals(token, Base64.encodeBase64URLSafeString(bytes));
+	}
+
+	@Test
+	public void testTokenBytes() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		target.setTokenBytes(16);
+		assertEquals(22, target.generate().length());
+		target.setTokenBytes(48);
+		assertEquals(64, target.generate().length());
+	}
+
+	@Test
+	public void testSecureRandom() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		target.setSecureRandom(new SecureRandom() {
+			@Override
+			public void nextBytes(byte[] bytes) {
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] = (byte)i;
+				}
+			}
+		});
+		target.setTokenBytes(3);
+		target.setBlockSize(6);
+		assertEquals(Base64Url.encode(new byte[] {0, 1, 2}), target.generate());
+		assertEquals(Base64Url.encode(new byte[] {3, 4, 5}), target.generate());
+		assertEquals(Base64Url.encode(new byte[] {0, 1, 2}), target.generate());
+	}
+
+	@Test
+	public void testPrefix() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		target.setPrefix("shard-1.");
+		String token = target.generate();
+		assertTrue(token.startsWith("shard-1."));
+		assertEquals(51, token.length());
+		assertArrayEquals(Base64.decodeBase64(token.substring(8)),
+				Base64Url.decode(token, 8, token.length()));
+		target.setPrefix(null);
+		assertEquals(43, target.generate().length());
+	}
+
+	@Test
+	public void testPrefixInvalid() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		for (String prefix : new String[] {"a/b", "a b", "a+", "あ", "a="}) {
+			try {
+				target.setPrefix(prefix);
+				fail("IllegalArgumentException not thrown: " + prefix);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertEquals(43, target.generate().length());
+	}
+
+	@Test
+	public void testUnique() {
+		SecureTokenGenerator target = new SecureTokenGenerator();
+		target.setBlockSize(100);
+		Set<String> tokens = new HashSet<String>();
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(tokens.add(target.generate()));
+		}
+	}
+
+	@Test
+	public void testUniqueConcurrently() throws Exception {
+		final SecureTokenGenerator target = new SecureTokenGenerator();
+		final Set<String> tokens =
+				Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final List<String> duplicates =
+				Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 5000; j++) {
+						String token = target.generate();
+						if (!tokens.add(token)) {
+							duplicates.add(token);
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(duplicates.isEmpty());
+		assertEquals(20000, tokens.size());
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import jp.eisbahn.oauth2.server.token.SignedTokenCodec.Claims;
+
+import org.junit.Test;
+
+public class SignedTokenCodecTest {
+
+	@Test
+	public void testEncodeAndDecode() throws Exception {
+		SignedTokenCodec target = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		Claims claims = new Claims();
+		claims.setAuthId("authId1");
+		claims.setClientId("clientId1");
+		claims.setUserId("ユーザー1");
+		claims.setScope("read write");
+		claims.setIssuedAt(1234567890123L);
+		claims.setExpiresIn(3600L);
+		String token = target.encode(claims);
+		assertTrue(token.matches("[A-Za-z0-9_\\-]+\\.[A-Za-z0-9_\\-]+"));
+
+		Claims decoded = target.decode(token);
+		assertEquals("authId1", decoded.getAuthId());
+		assertEquals("clientId1", decoded.getClientId());
+		assertEquals("ユーザー1", decoded.getUserId());
+		assertEquals("read write", decoded.getScope());
+		assertEquals(1234567890123L, decoded.getIssuedAt());
+		assertEquals(3600L, decoded.getExpiresIn());
+	}
+
+	@Test
+	public void testNullProperties() throws Exception {
+		SignedTokenCodec target = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		Claims claims = new Claims();
+		claims.setClientId("clientId1");
+		Claims decoded = target.decode(target.encode(claims));
+		assertNull(decoded.getAuthId());
+		assertEquals("clientId1", decoded.getClientId());
+		assertNull(decoded.getUserId());
+		assertNull(decoded.getScope());
+	}
+
+	@Test
+	public void testDecodeInvalid() throws Exception {
+		SignedTokenCodec target = new SignedTokenCodec("secret1".getBytes("UTF-8"));
+		Claims claims = new Claims();
+		claims.setClientId("clientId1");
+		String token = target.encode(claims);
+
+		SignedTokenCodec other = new SignedTokenCodec("secret2".getBytes("UTF-8"));
+		assertNull(other.decode(token));
+		assertNull(target.decode("x" + token));
+		assertNull(target.decode(token + "x"));
+		assertNull(target.decode(token + ".x"));
+		assertNull(target.decode("accessToken1"));
+		assertNull(target.decode(".signature"));
+		assertNull(target.decode(null));
+	}
+
+	@Test
+	public void testIsExpired() throws Exception {
+		Claims claims = new Claims();
+		claims.setIssuedAt(10000L);
+		claims.setExpiresIn(60L);
+		assertFalse(claims.isExpired(69999L));
+		assertTrue(claims.isExpired(70000L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptySecret() throws Exception {
+		new SignedTokenCodec(new byte[0]);
+	}
+
+}